@@ -0,0 +1,30 @@
+package com.interpeter;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Punto de entrada de benchmarks.jar.
+ * Acepta las mismas opciones que la línea de comandos de JMH y agrega siempre
+ * el perfilador de GC, para que cada resultado incluya los bytes asignados por
+ * operación.
+ */
+public class BenchmarkRunner {
+
+    /**
+     * Ejecuta los benchmarks seleccionados.
+     *
+     * @param args Opciones de JMH, por ejemplo un patrón como "Evaluator".
+     * @throws Exception Si JMH no puede ejecutar los benchmarks.
+     */
+    public static void main(String[] args) throws Exception {
+        Options options = new OptionsBuilder()
+                .parent(new CommandLineOptions(args))
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,48 @@
+package com.interpeter;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Mide el costo de una llamada a función según la cantidad de variables
+ * globales del contexto; el tiempo por operación no debería depender de ellas.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CallOverheadBenchmark {
+
+    @Param({ "0", "1000", "10000", "100000" })
+    public int globals;
+
+    @Param({ "TREE", "VM", "JIT" })
+    public Engine engine;
+
+    private Evaluator evaluator;
+    private Node call;
+
+    @Setup
+    public void setup() {
+        evaluator = Programs.evaluator(engine, globals);
+        call = evaluator.compile(LispParser.parse("(fib 15)"));
+    }
+
+    @Benchmark
+    public Object fib15() {
+        return evaluator.execute(call);
+    }
+}
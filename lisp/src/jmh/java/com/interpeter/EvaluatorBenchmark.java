@@ -0,0 +1,73 @@
+package com.interpeter;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Mide la evaluación con cada motor: aritmética en el nivel superior y las
+ * funciones recursivas clásicas fib, ackermann y tak.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EvaluatorBenchmark {
+
+    @Param({ "TREE", "VM", "JIT" })
+    public Engine engine;
+
+    private Evaluator evaluator;
+    private Object arithmetic;
+    private Node compiledArithmetic;
+    private Object fib;
+    private Object ackermann;
+    private Object tak;
+
+    @Setup
+    public void setup() {
+        evaluator = Programs.evaluator(engine, 0);
+        arithmetic = LispParser.parse(Programs.ARITHMETIC);
+        compiledArithmetic = evaluator.compile(arithmetic);
+        fib = LispParser.parse("(fib 20)");
+        ackermann = LispParser.parse("(ack 2 9)");
+        tak = LispParser.parse("(tak 18 12 6)");
+    }
+
+    @Benchmark
+    public Object arithmetic() {
+        return evaluator.evaluate(arithmetic);
+    }
+
+    @Benchmark
+    public Object arithmeticCompiled() {
+        return evaluator.execute(compiledArithmetic);
+    }
+
+    @Benchmark
+    public Object fib() {
+        return evaluator.evaluate(fib);
+    }
+
+    @Benchmark
+    public Object ackermann() {
+        return evaluator.evaluate(ackermann);
+    }
+
+    @Benchmark
+    public Object tak() {
+        return evaluator.evaluate(tak);
+    }
+}
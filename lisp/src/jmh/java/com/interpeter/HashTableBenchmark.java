@@ -0,0 +1,124 @@
+package com.interpeter;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compara {@link HashTable} con java.util.HashMap usando claves de LISP:
+ * enteros, símbolos y listas (estas con la prueba EQUAL). Mide la construcción
+ * de la tabla y la búsqueda de todas sus claves.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HashTableBenchmark {
+
+    @Param({ "FIXNUM", "SYMBOL", "LIST" })
+    public String keys;
+
+    @Param({ "100000" })
+    public int size;
+
+    private Object[] data;
+    private long[] fixnums;
+    private HashTable table;
+    private Map<Object, Object> map;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        data = new Object[size];
+        fixnums = new long[size];
+        for (int i = 0; i < size; i++) {
+            long n = random.nextLong() >>> 20;
+            fixnums[i] = n;
+            switch (keys) {
+                case "FIXNUM": data[i] = n; break;
+                case "SYMBOL": data[i] = "sym-" + n; break;
+                default: data[i] = Cons.list(n, "x", n % 7);
+            }
+        }
+        table = build();
+        map = buildMap();
+    }
+
+    private HashTable build() {
+        HashTable result = new HashTable("LIST".equals(keys) ? HashTable.Test.EQUAL : HashTable.Test.EQL);
+        for (int i = 0; i < data.length; i++) {
+            result.put(data[i], data[i]);
+        }
+        return result;
+    }
+
+    private Map<Object, Object> buildMap() {
+        Map<Object, Object> result = new HashMap<>();
+        for (int i = 0; i < data.length; i++) {
+            result.put(data[i], data[i]);
+        }
+        return result;
+    }
+
+    @Benchmark
+    public Object putHashTable() {
+        return build();
+    }
+
+    @Benchmark
+    public Object putHashMap() {
+        return buildMap();
+    }
+
+    @Benchmark
+    public int getHashTable() {
+        int found = 0;
+        for (int i = 0; i < data.length; i++) {
+            if (table.get(data[i]) != null) {
+                found++;
+            }
+        }
+        return found;
+    }
+
+    @Benchmark
+    public int getHashMap() {
+        int found = 0;
+        for (int i = 0; i < data.length; i++) {
+            if (map.get(data[i]) != null) {
+                found++;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Búsqueda con claves long primitivas, sin crear ningún Long; solo tiene
+     * sentido con claves enteras.
+     */
+    @Benchmark
+    public int getHashTableUnboxed() {
+        int found = 0;
+        for (int i = 0; i < fixnums.length; i++) {
+            if (table.get(fixnums[i]) != null) {
+                found++;
+            }
+        }
+        return found;
+    }
+}
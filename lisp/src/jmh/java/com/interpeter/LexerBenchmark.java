@@ -0,0 +1,58 @@
+package com.interpeter;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Mide el lexer sobre una expresión corta y sobre fuentes generadas de distintos tamaños.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LexerBenchmark {
+
+    @Param({ "10000", "1000000" })
+    public int size;
+
+    private String source;
+    private final Lexer lexer = new Lexer();
+
+    @Setup
+    public void setup() {
+        source = Programs.source(size);
+    }
+
+    @Benchmark
+    public Object tokenizeExpression() {
+        return lexer.tokenize(Programs.FIB);
+    }
+
+    @Benchmark
+    public Object tokenizeSource() {
+        return lexer.tokenize(source);
+    }
+
+    @Benchmark
+    public int streamSource() {
+        Lexer stream = new Lexer(source);
+        int tokens = 0;
+        while (stream.next() != null) {
+            tokens++;
+        }
+        return tokens;
+    }
+}
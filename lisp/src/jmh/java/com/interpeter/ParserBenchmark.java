@@ -0,0 +1,48 @@
+package com.interpeter;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Mide la lectura de expresiones: una definición suelta con {@link LispParser}
+ * y fuentes generadas completas con {@link LispReader}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParserBenchmark {
+
+    @Param({ "10000", "1000000" })
+    public int size;
+
+    private String source;
+
+    @Setup
+    public void setup() {
+        source = Programs.source(size);
+    }
+
+    @Benchmark
+    public Object parseExpression() {
+        return LispParser.parse(Programs.FIB);
+    }
+
+    @Benchmark
+    public Object readSource() {
+        return new LispReader(source).readAll();
+    }
+}
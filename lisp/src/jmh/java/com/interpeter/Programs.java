@@ -0,0 +1,57 @@
+package com.interpeter;
+
+/**
+ * Programas LISP compartidos por los benchmarks.
+ */
+final class Programs {
+
+    static final String FIB = "(defun fib (n) (if (<= n 1) n (+ (fib (- n 1)) (fib (- n 2)))))";
+
+    static final String ACKERMANN = "(defun ack (m n) (if (= m 0) (+ n 1)"
+            + " (if (= n 0) (ack (- m 1) 1) (ack (- m 1) (ack m (- n 1))))))";
+
+    static final String TAK = "(defun tak (x y z) (if (>= y x) z"
+            + " (tak (tak (- x 1) y z) (tak (- y 1) z x) (tak (- z 1) x y))))";
+
+    static final String ARITHMETIC = "(+ (* 3 (- 10 4)) (/ 84 2) (* 1.5 2) (- 7 (* 2 3)))";
+
+    private Programs() {
+    }
+
+    /**
+     * Genera un código fuente con definiciones repetidas hasta alcanzar un tamaño.
+     *
+     * @param chars El número aproximado de caracteres.
+     * @return El código fuente generado.
+     */
+    static String source(int chars) {
+        StringBuilder source = new StringBuilder(chars + 128);
+        int i = 0;
+        while (source.length() < chars) {
+            source.append("(defun f").append(i).append(" (a b) ; función ").append(i).append('\n')
+                    .append("  (if (< a b) (+ a (* b 2.5)) (f").append(i).append(" (- a 1) b)))\n");
+            i++;
+        }
+        return source.toString();
+    }
+
+    /**
+     * Crea un evaluador con un motor y las funciones de los benchmarks definidas.
+     *
+     * @param engine El motor de ejecución.
+     * @param globals El número de variables globales a crear en el contexto.
+     * @return El evaluador listo para usar.
+     */
+    static Evaluator evaluator(Engine engine, int globals) {
+        Context context = new Context();
+        context.setEngine(engine);
+        for (int i = 0; i < globals; i++) {
+            context.setVariable("g" + i, (long) i);
+        }
+        Evaluator evaluator = new Evaluator(context);
+        for (String definition : new String[] { FIB, ACKERMANN, TAK }) {
+            evaluator.evaluate(LispParser.parse(definition));
+        }
+        return evaluator;
+    }
+}
@@ -0,0 +1,64 @@
+package com.interpeter;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Mide el rendimiento de varias sesiones que comparten una tabla de funciones,
+ * una por hilo de JMH. Con -t 1, 2, 4... el total de operaciones por segundo
+ * debería crecer con los núcleos.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SessionBenchmark {
+
+    /** Las funciones, definidas una sola vez para todos los hilos. */
+    @State(Scope.Benchmark)
+    public static class Shared {
+
+        @Param({ "TREE", "VM", "JIT" })
+        public Engine engine;
+
+        Context context;
+
+        @Setup
+        public void setup() {
+            context = new Context();
+            context.setEngine(engine);
+            new Evaluator(context).evaluate(LispParser.parse(Programs.FIB));
+        }
+    }
+
+    /** La sesión de cada hilo, con sus propias variables. */
+    @State(Scope.Thread)
+    public static class Session {
+
+        Evaluator evaluator;
+        Node call;
+
+        @Setup
+        public void setup(Shared shared) {
+            evaluator = new Evaluator(shared.context.newSession());
+            call = evaluator.compile(LispParser.parse("(fib 15)"));
+        }
+    }
+
+    @Benchmark
+    public Object fib15(Session session) {
+        return session.evaluator.execute(session.call);
+    }
+}
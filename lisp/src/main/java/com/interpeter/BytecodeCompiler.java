@@ -0,0 +1,511 @@
+package com.interpeter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Compila el cuerpo de una función a bytecode para la {@link VM}.
+ * Las formas que la máquina no conoce se compilan a nodos con
+ * {@link FormCompiler} y se ejecutan con la instrucción EVAL_NODE,
+ * por lo que ambos motores aceptan exactamente el mismo lenguaje.
+ * Las llamadas en posición de cola se compilan a TAILCALL, que reutiliza el
+ * marco de la función que llama.
+ * Los ciclos dotimes, dolist, do, do* y loop simple se compilan a saltos sobre
+ * ranuras del marco. Un (return ...) con la pila de operandos a la altura de
+ * entrada del ciclo es un salto a su final; si aparece dentro de una
+ * expresión, el ciclo completo se compila a nodos, que lo manejan con una
+ * excepción.
+ */
+public class BytecodeCompiler {
+
+    private final FormCompiler formCompiler = new FormCompiler();
+
+    private byte[] code;
+    private int length;
+    private List<Object> constants;
+    private int stack;
+    private int maxStack;
+    private final List<Loop> loops = new ArrayList<>();
+
+    /** Ciclo en compilación: la altura de la pila al entrar y los saltos de sus return. */
+    private static final class Loop {
+        final int height;
+        final List<Integer> exits = new ArrayList<>();
+
+        Loop(int height) {
+            this.height = height;
+        }
+    }
+
+    /** Un return del ciclo indicado no puede compilarse como salto. */
+    private static final class LoopFallback extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+        final transient Loop loop;
+
+        LoopFallback(Loop loop) {
+            super(null, null, false, false);
+            this.loop = loop;
+        }
+    }
+
+    public BytecodeCompiler() {
+    }
+
+    /**
+     * Compila el cuerpo de una función.
+     *
+     * @param func La función a compilar.
+     * @return El bloque de bytecode con su pool de constantes.
+     */
+    public Chunk compile(Function func) {
+        code = new byte[64];
+        length = 0;
+        constants = new ArrayList<>();
+        stack = 0;
+        maxStack = 0;
+        loops.clear();
+
+        Scope scope = new Scope(func.getParams(), null);
+        List<Object> body = func.getBody();
+        for (int i = 0; i < body.size(); i++) {
+            if (i > 0) {
+                emit(Chunk.POP, -1);
+            }
+            compileExpr(body.get(i), scope, i == body.size() - 1);
+        }
+        emit(Chunk.RETURN, -1);
+        func.setFrameSize(scope.size());
+        return new Chunk(Arrays.copyOf(code, length), constants.toArray(), scope.size(), maxStack);
+    }
+
+    private void compileExpr(Object expr, Scope scope) {
+        compileExpr(expr, scope, false);
+    }
+
+    private void compileExpr(Object expr, Scope scope, boolean tail) {
+        if (expr instanceof Number || expr instanceof Boolean) {
+            emit(Chunk.CONST, 1, constant(expr));
+            return;
+        }
+
+        if (expr instanceof String) {
+            LocalRef ref = scope.resolve((String) expr);
+            if (ref == null && FormCompiler.isNil(expr)) {
+                emit(Chunk.CONST, 1, constant(Cons.NIL));
+            } else if (ref == null) {
+                emit(Chunk.LOAD_GLOBAL, 1, constant(expr));
+            } else if (ref.getDepth() == 0) {
+                emit(Chunk.LOAD_LOCAL, 1, ref.getIndex());
+            } else {
+                compileFallback(expr, scope);
+            }
+            return;
+        }
+
+        if (expr instanceof List && !((List<?>) expr).isEmpty()) {
+            List<?> list = (List<?>) expr;
+            String operation = list.get(0).toString().toLowerCase();
+
+            switch (operation) {
+                case "quote": emit(Chunk.CONST, 1, constant(FormCompiler.quoted(list))); return;
+                case "setq": compileSetq(list, scope); return;
+                case "setf": compileExpr(FormCompiler.expandSetf(list), scope, tail); return;
+                case "if": compileIf(list, scope, tail); return;
+                case "+": compileArithmetic(Chunk.ADD, list, scope); return;
+                case "-": compileArithmetic(Chunk.SUB, list, scope); return;
+                case "*": compileArithmetic(Chunk.MUL, list, scope); return;
+                case "/": compileArithmetic(Chunk.DIV, list, scope); return;
+                case "<": compileComparison(Chunk.LT, list, scope); return;
+                case "<=": compileComparison(Chunk.LE, list, scope); return;
+                case ">": compileComparison(Chunk.GT, list, scope); return;
+                case ">=": compileComparison(Chunk.GE, list, scope); return;
+                case "=": compileComparison(Chunk.EQ, list, scope); return;
+                case "/=": compileComparison(Chunk.NE, list, scope); return;
+                case "dotimes": case "dolist": case "do": case "do*":
+                    compileLoop(operation, list, scope);
+                    return;
+                case "loop":
+                    if (FormCompiler.isSimpleLoop(list)) {
+                        compileLoop(operation, list, scope);
+                    } else {
+                        compileFallback(expr, scope);
+                    }
+                    return;
+                case "return": compileReturn(list, scope); return;
+                case "%inline": compileInline(list, scope, tail); return;
+                case "defun": case "defun-memo": compileFallback(expr, scope); return;
+                default:
+                    for (int i = 1; i < list.size(); i++) {
+                        compileExpr(list.get(i), scope);
+                    }
+                    Primitive primitive = Primitives.get(operation);
+                    if (primitive != null) {
+                        emit(Chunk.PRIMITIVE, 1 - (list.size() - 1), constant(primitive), list.size() - 1);
+                        return;
+                    }
+                    emit(tail ? Chunk.TAILCALL : Chunk.CALL, 1 - (list.size() - 1), constant(operation), list.size() - 1);
+                    return;
+            }
+        }
+        compileFallback(expr, scope);
+    }
+
+    private void compileSetq(List<?> list, Scope scope) {
+        if (list.size() != 3) {
+            compileFallback(list, scope);
+            return;
+        }
+        String target = list.get(1).toString();
+        LocalRef ref = scope.resolve(target);
+        if (ref != null && ref.getDepth() != 0) {
+            compileFallback(list, scope);
+            return;
+        }
+        compileExpr(list.get(2), scope);
+        if (ref != null) {
+            emit(Chunk.STORE_LOCAL, 0, ref.getIndex());
+        } else {
+            emit(Chunk.STORE_GLOBAL, 0, constant(target));
+        }
+    }
+
+    private void compileIf(List<?> list, Scope scope, boolean tail) {
+        if (list.size() != 3 && list.size() != 4) {
+            compileFallback(list, scope);
+            return;
+        }
+        compileExpr(list.get(1), scope);
+        int jumpElse = emitJump(Chunk.JUMP_IF_FALSE, -1);
+        compileExpr(list.get(2), scope, tail);
+        int jumpEnd = emitJump(Chunk.JUMP, 0);
+        // Solo una de las ramas deja su valor en la pila
+        stack--;
+        patch(jumpElse);
+        if (list.size() == 4) {
+            compileExpr(list.get(3), scope, tail);
+        } else {
+            emit(Chunk.CONST, 1, constant(Boolean.FALSE));
+        }
+        patch(jumpEnd);
+    }
+
+    /**
+     * (%inline f llamada expansión): la expansión mientras f siga vigente y, si
+     * no, la llamada original.
+     */
+    private void compileInline(List<?> list, Scope scope, boolean tail) {
+        emit(Chunk.INLINED, 0, constant(FormCompiler.inlined(list)), 0);
+        int slow = length - 2;
+        compileExpr(list.get(3), scope, tail);
+        int end = emitJump(Chunk.JUMP, 0);
+        // Solo uno de los dos caminos deja su valor en la pila
+        stack--;
+        patch(slow);
+        compileExpr(list.get(2), scope, tail);
+        patch(end);
+    }
+
+    /**
+     * Compila un ciclo a saltos; si uno de sus return no puede ser un salto,
+     * descarta lo emitido y compila el ciclo a nodos.
+     */
+    private void compileLoop(String operation, List<?> list, Scope scope) {
+        int start = length;
+        int height = stack;
+        int constantCount = constants.size();
+        Loop loop = new Loop(height);
+        loops.add(loop);
+        try {
+            switch (operation) {
+                case "dotimes": compileDotimes(list, scope); break;
+                case "dolist": compileDolist(list, scope); break;
+                case "do": compileDo(list, scope, false); break;
+                case "do*": compileDo(list, scope, true); break;
+                default: compileSimpleLoop(list, scope); break;
+            }
+            for (int exit : loop.exits) {
+                patch(exit);
+            }
+        } catch (LoopFallback e) {
+            if (e.loop != loop) {
+                throw e;
+            }
+            length = start;
+            stack = height;
+            constants.subList(constantCount, constants.size()).clear();
+            compileFallback(list, scope);
+        } finally {
+            loops.remove(loops.size() - 1);
+        }
+    }
+
+    /**
+     * (dotimes (var cuenta [resultado]) cuerpo...): la cuenta queda en una ranura
+     * oculta y la variable se incrementa en su ranura.
+     */
+    private void compileDotimes(List<?> list, Scope scope) {
+        List<?> spec = FormCompiler.loopSpec(list, "DOTIMES");
+        compileExpr(spec.get(1), scope);
+        int limit = scope.push(" limite");
+        int var = scope.push((String) spec.get(0));
+        try {
+            emit(Chunk.STORE_LOCAL, 0, limit);
+            emit(Chunk.POP, -1);
+            emit(Chunk.CONST, 1, constant(0L));
+            emit(Chunk.STORE_LOCAL, 0, var);
+            emit(Chunk.POP, -1);
+            int top = length;
+            emit(Chunk.LOAD_LOCAL, 1, var);
+            emit(Chunk.LOAD_LOCAL, 1, limit);
+            emit(Chunk.LT, -1);
+            int done = emitJump(Chunk.JUMP_IF_FALSE, -1);
+            compileStatements(list, 2, scope);
+            emit(Chunk.LOAD_LOCAL, 1, var);
+            emit(Chunk.CONST, 1, constant(1L));
+            emit(Chunk.ADD, -1);
+            emit(Chunk.STORE_LOCAL, 0, var);
+            emit(Chunk.POP, -1);
+            emit(Chunk.JUMP, 0, top);
+            patch(done);
+            compileResults(spec, 2, scope);
+        } finally {
+            scope.pop(2);
+        }
+    }
+
+    /**
+     * (dolist (var lista [resultado]) cuerpo...): NEXT avanza el cursor de una
+     * ranura oculta y guarda el elemento en la ranura de la variable.
+     */
+    private void compileDolist(List<?> list, Scope scope) {
+        List<?> spec = FormCompiler.loopSpec(list, "DOLIST");
+        compileExpr(spec.get(1), scope);
+        int cursor = scope.push(" cursor");
+        int var = scope.push((String) spec.get(0));
+        try {
+            emit(Chunk.STORE_LOCAL, 0, cursor);
+            emit(Chunk.POP, -1);
+            int top = length;
+            emit(Chunk.NEXT, 0, cursor, var, 0);
+            int done = length - 2;
+            compileStatements(list, 2, scope);
+            emit(Chunk.JUMP, 0, top);
+            patch(done);
+            emit(Chunk.CONST, 1, constant(Cons.NIL));
+            emit(Chunk.STORE_LOCAL, 0, var);
+            emit(Chunk.POP, -1);
+            compileResults(spec, 2, scope);
+        } finally {
+            scope.pop(2);
+        }
+    }
+
+    /**
+     * (do ((var inicio [paso])...) (prueba resultado...) cuerpo...). En do los
+     * valores nuevos se apilan todos antes de guardarlos; en do* se guardan uno a uno.
+     */
+    private void compileDo(List<?> list, Scope scope, boolean sequential) {
+        String form = sequential ? "DO*" : "DO";
+        List<?> bindings = (List<?>) list.get(1);
+        List<?> end = (List<?>) list.get(2);
+        int[] slots = new int[bindings.size()];
+        int declared = 0;
+        try {
+            for (int i = 0; i < bindings.size(); i++) {
+                List<?> binding = FormCompiler.doBinding(bindings.get(i), form);
+                if (binding.size() > 1) {
+                    compileExpr(binding.get(1), scope);
+                } else {
+                    emit(Chunk.CONST, 1, constant(Cons.NIL));
+                }
+                if (sequential) {
+                    slots[i] = scope.push((String) binding.get(0));
+                    declared++;
+                    emit(Chunk.STORE_LOCAL, 0, slots[i]);
+                    emit(Chunk.POP, -1);
+                }
+            }
+            if (!sequential) {
+                for (int i = 0; i < bindings.size(); i++) {
+                    slots[i] = scope.push((String) FormCompiler.doBinding(bindings.get(i), form).get(0));
+                    declared++;
+                }
+                for (int i = bindings.size() - 1; i >= 0; i--) {
+                    emit(Chunk.STORE_LOCAL, 0, slots[i]);
+                    emit(Chunk.POP, -1);
+                }
+            }
+            int top = length;
+            compileExpr(end.get(0), scope);
+            int body = emitJump(Chunk.JUMP_IF_FALSE, -1);
+            compileResults(end, 1, scope);
+            int exit = emitJump(Chunk.JUMP, 0);
+            // El cuerpo empieza sin el resultado en la pila
+            stack--;
+            patch(body);
+            compileStatements(list, 3, scope);
+            List<Integer> stepped = new ArrayList<>();
+            for (int i = 0; i < bindings.size(); i++) {
+                List<?> binding = FormCompiler.doBinding(bindings.get(i), form);
+                if (binding.size() == 3) {
+                    compileExpr(binding.get(2), scope);
+                    if (sequential) {
+                        emit(Chunk.STORE_LOCAL, 0, slots[i]);
+                        emit(Chunk.POP, -1);
+                    } else {
+                        stepped.add(slots[i]);
+                    }
+                }
+            }
+            for (int i = stepped.size() - 1; i >= 0; i--) {
+                emit(Chunk.STORE_LOCAL, 0, stepped.get(i));
+                emit(Chunk.POP, -1);
+            }
+            emit(Chunk.JUMP, 0, top);
+            patch(exit);
+            stack++;
+        } finally {
+            scope.pop(declared);
+        }
+    }
+
+    /** (loop forma...): solo termina con un return. */
+    private void compileSimpleLoop(List<?> list, Scope scope) {
+        int top = length;
+        compileStatements(list, 1, scope);
+        emit(Chunk.JUMP, 0, top);
+        // Al final del ciclo solo se llega con el valor de un return
+        stack++;
+    }
+
+    /**
+     * Compila (return [valor]) como un salto al final del ciclo actual.
+     */
+    private void compileReturn(List<?> list, Scope scope) {
+        if (loops.isEmpty() || list.size() > 2) {
+            compileFallback(list, scope);
+            return;
+        }
+        Loop loop = loops.get(loops.size() - 1);
+        if (stack != loop.height) {
+            throw new LoopFallback(loop);
+        }
+        if (list.size() == 2) {
+            compileExpr(list.get(1), scope);
+        } else {
+            emit(Chunk.CONST, 1, constant(Cons.NIL));
+        }
+        loop.exits.add(emitJump(Chunk.JUMP, 0));
+    }
+
+    /** Compila formas cuyo valor se descarta. */
+    private void compileStatements(List<?> list, int from, Scope scope) {
+        for (int i = from; i < list.size(); i++) {
+            compileExpr(list.get(i), scope);
+            emit(Chunk.POP, -1);
+        }
+    }
+
+    /** Compila las formas de resultado de un ciclo; deja el valor de la última, o NIL. */
+    private void compileResults(List<?> list, int from, Scope scope) {
+        if (from >= list.size()) {
+            emit(Chunk.CONST, 1, constant(Cons.NIL));
+            return;
+        }
+        for (int i = from; i < list.size(); i++) {
+            if (i > from) {
+                emit(Chunk.POP, -1);
+            }
+            compileExpr(list.get(i), scope);
+        }
+    }
+
+    private void compileArithmetic(byte op, List<?> list, Scope scope) {
+        if (list.size() < 2) {
+            compileFallback(list, scope);
+            return;
+        }
+        compileExpr(list.get(1), scope);
+        if (list.size() == 2) {
+            emit(Chunk.NUMBER, 0);
+            return;
+        }
+        for (int i = 2; i < list.size(); i++) {
+            compileExpr(list.get(i), scope);
+            emit(op, -1);
+        }
+    }
+
+    private void compileComparison(byte op, List<?> list, Scope scope) {
+        if (list.size() != 3) {
+            compileFallback(list, scope);
+            return;
+        }
+        compileExpr(list.get(1), scope);
+        compileExpr(list.get(2), scope);
+        emit(op, -1);
+    }
+
+    /**
+     * Compila una forma a nodos y la delega al motor de árbol.
+     *
+     * @param expr La forma que la máquina no sabe ejecutar directamente.
+     * @param scope El ámbito léxico actual.
+     */
+    private void compileFallback(Object expr, Scope scope) {
+        if (!loops.isEmpty() && FormCompiler.returnsFromLoop(expr)) {
+            // Los nodos saldrían del ciclo con una excepción que la máquina no atrapa
+            throw new LoopFallback(loops.get(loops.size() - 1));
+        }
+        emit(Chunk.EVAL_NODE, 1, constant(formCompiler.compile(expr, scope)));
+    }
+
+    private int constant(Object value) {
+        int index = constants.indexOf(value);
+        if (index == -1) {
+            constants.add(value);
+            index = constants.size() - 1;
+        }
+        return index;
+    }
+
+    private void emit(byte op, int stackEffect, int... operands) {
+        writeByte(op);
+        for (int operand : operands) {
+            writeShort(operand);
+        }
+        stack += stackEffect;
+        maxStack = Math.max(maxStack, stack);
+    }
+
+    private int emitJump(byte op, int stackEffect) {
+        emit(op, stackEffect, 0);
+        return length - 2;
+    }
+
+    private void patch(int position) {
+        checkShort(length);
+        code[position] = (byte) (length >> 8);
+        code[position + 1] = (byte) length;
+    }
+
+    private void writeShort(int value) {
+        checkShort(value);
+        writeByte(value >> 8);
+        writeByte(value);
+    }
+
+    private void writeByte(int value) {
+        if (length == code.length) {
+            code = Arrays.copyOf(code, length * 2);
+        }
+        code[length++] = (byte) value;
+    }
+
+    private static void checkShort(int value) {
+        if (value < 0 || value > 0xFFFF) {
+            throw new IllegalStateException("Función demasiado grande para el bytecode");
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package com.interpeter;
+
+/**
+ * Cuerpo de una función compilado a bytecode para la {@link VM}.
+ * Contiene el arreglo de instrucciones, el pool de constantes y los tamaños
+ * que la máquina necesita reservar antes de ejecutarlo.
+ */
+public final class Chunk {
+
+    // Códigos de operación; los operandos ocupan dos bytes sin signo
+    static final byte CONST = 0;        // idx: apila constants[idx]
+    static final byte LOAD_LOCAL = 1;   // idx: apila locals[idx]
+    static final byte STORE_LOCAL = 2;  // idx: locals[idx] = cima (sin desapilar)
+    static final byte LOAD_GLOBAL = 3;  // idx: apila la global de nombre constants[idx]
+    static final byte STORE_GLOBAL = 4; // idx: global constants[idx] = cima (sin desapilar)
+    static final byte ADD = 5;
+    static final byte SUB = 6;
+    static final byte MUL = 7;
+    static final byte DIV = 8;
+    static final byte NUMBER = 9;       // aritmética con un solo operando
+    static final byte LT = 10;
+    static final byte LE = 11;
+    static final byte GT = 12;
+    static final byte GE = 13;
+    static final byte EQ = 14;
+    static final byte NE = 15;
+    static final byte JUMP = 16;        // pos: salta a pos
+    static final byte JUMP_IF_FALSE = 17; // pos: desapila y salta si es falso
+    static final byte CALL = 18;        // idx argc: llama a la función constants[idx]
+    static final byte POP = 19;
+    static final byte RETURN = 20;
+    static final byte EVAL_NODE = 21;   // idx: evalúa el nodo constants[idx] sobre el marco
+    static final byte TAILCALL = 22;    // idx argc: como CALL, pero reemplaza el marco actual
+    static final byte PRIMITIVE = 23;   // idx argc: llama a la primitiva constants[idx]
+    static final byte NEXT = 24;        // cursor var pos: avanza la lista de locals[cursor] y guarda
+                                        // su primer elemento en locals[var]; si se acabó, salta a pos
+    static final byte INLINED = 25;     // idx pos: salta a pos si la función constants[idx] fue redefinida
+
+    private final byte[] code;
+    private final Object[] constants;
+    private final int frameSize;
+    private final int maxStack;
+
+    // Caché de las llamadas, indexada igual que el pool de constantes; cada
+    // entrada es inmutable porque varios hilos pueden ejecutar el mismo bloque
+    private final FunctionTable.Binding[] callTargets;
+
+    /**
+     * Crea un nuevo bloque de bytecode.
+     *
+     * @param code Las instrucciones.
+     * @param constants El pool de constantes.
+     * @param frameSize El número de variables locales del marco, incluidas las de los ciclos.
+     * @param maxStack La profundidad máxima de la pila de operandos.
+     */
+    public Chunk(byte[] code, Object[] constants, int frameSize, int maxStack) {
+        this.code = code;
+        this.constants = constants;
+        this.frameSize = frameSize;
+        this.maxStack = maxStack;
+        this.callTargets = new FunctionTable.Binding[constants.length];
+    }
+
+    /**
+     * Resuelve la función de una instrucción CALL o TAILCALL. La función queda en
+     * caché con la versión de la tabla de funciones y solo se vuelve a buscar por
+     * nombre cuando esa versión cambia.
+     *
+     * @param index El índice del nombre de la función en el pool de constantes.
+     * @param context El contexto de la llamada.
+     * @return La función a llamar.
+     */
+    Function resolveCall(int index, Context context) {
+        FunctionTable.Binding binding = callTargets[index];
+        if (binding == null || binding.version != context.getFunctionVersion()) {
+            String name = (String) constants[index];
+            binding = context.getFunctionTable().resolve(name);
+            if (binding == null) {
+                throw new IllegalArgumentException("Función no definida: " + name);
+            }
+            callTargets[index] = binding;
+        }
+        return binding.function;
+    }
+
+    public byte[] getCode() {
+        return code;
+    }
+
+    public Object[] getConstants() {
+        return constants;
+    }
+
+    public int getFrameSize() {
+        return frameSize;
+    }
+
+    public int getMaxStack() {
+        return maxStack;
+    }
+}
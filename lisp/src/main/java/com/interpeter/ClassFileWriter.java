@@ -0,0 +1,426 @@
+package com.interpeter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Escritor mínimo de archivos .class usado por el {@link JIT}.
+ * Genera clases con versión 49, que la JVM verifica por inferencia de tipos,
+ * así que no hace falta calcular tablas StackMapTable para los saltos.
+ * Solo incluye las instrucciones que necesita el JIT.
+ */
+final class ClassFileWriter {
+
+    static final int ACC_PUBLIC = 0x0001;
+    static final int ACC_STATIC = 0x0008;
+    static final int ACC_FINAL = 0x0010;
+    static final int ACC_SUPER = 0x0020;
+
+    private static final int VERSION = 49;
+
+    private final ByteArrayOutputStream pool = new ByteArrayOutputStream();
+    private final DataOutputStream poolOut = new DataOutputStream(pool);
+    private final Map<String, Integer> poolIndex = new HashMap<>();
+    private int poolCount = 1;
+
+    private final String className;
+    private final List<byte[]> fields = new ArrayList<>();
+    private final List<Code> methods = new ArrayList<>();
+
+    /**
+     * Crea un escritor para una clase.
+     *
+     * @param className El nombre interno de la clase (con '/').
+     */
+    ClassFileWriter(String className) {
+        this.className = className;
+    }
+
+    /**
+     * Agrega un campo a la clase.
+     *
+     * @param access Los modificadores de acceso.
+     * @param name El nombre del campo.
+     * @param descriptor El descriptor de tipo del campo.
+     */
+    void addField(int access, String name, String descriptor) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeShort(access);
+            out.writeShort(utf8(name));
+            out.writeShort(utf8(descriptor));
+            out.writeShort(0);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        fields.add(bytes.toByteArray());
+    }
+
+    /**
+     * Agrega un método y devuelve el generador de su código.
+     *
+     * @param access Los modificadores de acceso.
+     * @param name El nombre del método.
+     * @param descriptor El descriptor de tipo del método.
+     * @param maxLocals El número de variables locales, incluidos los parámetros;
+     *        crece si el código usa variables posteriores.
+     * @return El generador de código del método.
+     */
+    Code addMethod(int access, String name, String descriptor, int maxLocals) {
+        Code code = new Code(access, utf8(name), utf8(descriptor), maxLocals);
+        methods.add(code);
+        return code;
+    }
+
+    /**
+     * Obtiene la referencia a un campo en el pool de constantes.
+     */
+    int fieldRef(String owner, String name, String descriptor) {
+        return memberRef(9, owner, name, descriptor);
+    }
+
+    /**
+     * Obtiene la referencia a un método en el pool de constantes.
+     */
+    int methodRef(String owner, String name, String descriptor) {
+        return memberRef(10, owner, name, descriptor);
+    }
+
+    /**
+     * Obtiene la referencia a una clase en el pool de constantes.
+     */
+    int classRef(String internalName) {
+        String key = "C" + internalName;
+        Integer index = poolIndex.get(key);
+        if (index == null) {
+            int name = utf8(internalName);
+            index = entry(key, out -> {
+                out.writeByte(7);
+                out.writeShort(name);
+            });
+        }
+        return index;
+    }
+
+    /**
+     * Genera los bytes del archivo .class.
+     *
+     * @return El contenido del archivo de clase.
+     */
+    byte[] toByteArray() {
+        int thisClass = classRef(className);
+        int superClass = classRef("java/lang/Object");
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            for (Code method : methods) {
+                method.codeAttribute = utf8("Code");
+            }
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(VERSION);
+            out.writeShort(poolCount);
+            pool.writeTo(out);
+            out.writeShort(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(0);
+            out.writeShort(fields.size());
+            for (byte[] field : fields) {
+                out.write(field);
+            }
+            out.writeShort(methods.size());
+            for (Code method : methods) {
+                method.writeTo(out);
+            }
+            out.writeShort(0);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private int memberRef(int tag, String owner, String name, String descriptor) {
+        String key = tag + owner + "." + name + descriptor;
+        Integer index = poolIndex.get(key);
+        if (index == null) {
+            int ownerIndex = classRef(owner);
+            int nameAndType = nameAndType(name, descriptor);
+            index = entry(key, out -> {
+                out.writeByte(tag);
+                out.writeShort(ownerIndex);
+                out.writeShort(nameAndType);
+            });
+        }
+        return index;
+    }
+
+    private int nameAndType(String name, String descriptor) {
+        String key = "N" + name + descriptor;
+        Integer index = poolIndex.get(key);
+        if (index == null) {
+            int nameIndex = utf8(name);
+            int descriptorIndex = utf8(descriptor);
+            index = entry(key, out -> {
+                out.writeByte(12);
+                out.writeShort(nameIndex);
+                out.writeShort(descriptorIndex);
+            });
+        }
+        return index;
+    }
+
+    private int utf8(String value) {
+        String key = "U" + value;
+        Integer index = poolIndex.get(key);
+        if (index == null) {
+            index = entry(key, out -> {
+                out.writeByte(1);
+                out.writeUTF(value);
+            });
+        }
+        return index;
+    }
+
+    private interface PoolEntry {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    private int entry(String key, PoolEntry entry) {
+        try {
+            entry.write(poolOut);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        int index = poolCount++;
+        poolIndex.put(key, index);
+        return index;
+    }
+
+    /**
+     * Generador del código de un método. Lleva la cuenta de la altura de la pila
+     * de operandos para calcular max_stack.
+     */
+    static final class Code {
+        private final int access;
+        private final int name;
+        private final int descriptor;
+        private int maxLocals;
+        private int codeAttribute;
+
+        private byte[] code = new byte[64];
+        private int length;
+        private int stack;
+        private int maxStack;
+
+        private Code(int access, int name, int descriptor, int maxLocals) {
+            this.access = access;
+            this.name = name;
+            this.descriptor = descriptor;
+            this.maxLocals = maxLocals;
+        }
+
+        /** Apila una variable local de tipo referencia. */
+        void aload(int index) {
+            local(index);
+            if (index <= 3) {
+                op(0x2a + index, 1);
+            } else {
+                op(0x19, 1);
+                u1(index);
+            }
+        }
+
+        /** Guarda la cima de la pila en una variable local de tipo referencia. */
+        void astore(int index) {
+            local(index);
+            if (index <= 3) {
+                op(0x4b + index, -1);
+            } else {
+                op(0x3a, -1);
+                u1(index);
+            }
+        }
+
+        /** Apila una constante entera pequeña. */
+        void iconst(int value) {
+            if (value >= -1 && value <= 5) {
+                op(0x03 + value, 1);
+            } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+                op(0x10, 1);
+                u1(value);
+            } else {
+                op(0x11, 1);
+                u2(value);
+            }
+        }
+
+        void getstatic(int fieldRef) {
+            op(0xb2, 1);
+            u2(fieldRef);
+        }
+
+        /**
+         * Llama a un método estático.
+         *
+         * @param methodRef La referencia al método.
+         * @param args El número de palabras que consume de la pila.
+         * @param returns El número de palabras que deja en la pila.
+         */
+        void invokestatic(int methodRef, int args, int returns) {
+            op(0xb8, returns - args);
+            u2(methodRef);
+        }
+
+        void invokevirtual(int methodRef, int args, int returns) {
+            op(0xb6, returns - args - 1);
+            u2(methodRef);
+        }
+
+        void checkcast(int classRef) {
+            op(0xc0, 0);
+            u2(classRef);
+        }
+
+        void anewarray(int classRef) {
+            op(0xbd, 0);
+            u2(classRef);
+        }
+
+        void aaload() {
+            op(0x32, -1);
+        }
+
+        void aastore() {
+            op(0x53, -3);
+        }
+
+        void dup() {
+            op(0x59, 1);
+        }
+
+        void pop() {
+            op(0x57, -1);
+        }
+
+        void areturn() {
+            op(0xb0, -1);
+        }
+
+        /**
+         * Emite un salto si el entero de la cima es cero.
+         *
+         * @return La posición a parchear con {@link #bind}.
+         */
+        int ifeq() {
+            return jump(0x99, -1);
+        }
+
+        /**
+         * Emite un salto incondicional.
+         *
+         * @return La posición a parchear con {@link #bind}.
+         */
+        int jump() {
+            return jump(0xa7, 0);
+        }
+
+        /**
+         * Emite un salto incondicional hacia atrás, a una posición ya emitida.
+         *
+         * @param target La posición de destino.
+         */
+        void jumpTo(int target) {
+            int offset = target - length;
+            if (offset < Short.MIN_VALUE) {
+                throw new IllegalStateException("Método demasiado grande");
+            }
+            op(0xa7, 0);
+            u2(offset);
+        }
+
+        /**
+         * Hace que un salto emitido antes llegue a la posición actual.
+         *
+         * @param jump La posición devuelta al emitir el salto.
+         */
+        void bind(int jump) {
+            int offset = length - jump;
+            if (offset > Short.MAX_VALUE) {
+                throw new IllegalStateException("Método demasiado grande");
+            }
+            code[jump + 1] = (byte) (offset >> 8);
+            code[jump + 2] = (byte) offset;
+        }
+
+        /** Posición actual, destino de un {@link #jumpTo} posterior. */
+        int position() {
+            return length;
+        }
+
+        /** Altura actual de la pila de operandos. */
+        int stack() {
+            return stack;
+        }
+
+        /** Restablece la altura de la pila, al empezar otra rama de un salto. */
+        void stack(int height) {
+            stack = height;
+        }
+
+        /** Amplía las variables locales del método hasta incluir la indicada. */
+        private void local(int index) {
+            if (index > 0xFF) {
+                throw new IllegalStateException("Demasiadas variables locales");
+            }
+            maxLocals = Math.max(maxLocals, index + 1);
+        }
+
+        private int jump(int opcode, int stackEffect) {
+            int position = length;
+            op(opcode, stackEffect);
+            u2(0);
+            return position;
+        }
+
+        private void op(int opcode, int stackEffect) {
+            u1(opcode);
+            stack += stackEffect;
+            maxStack = Math.max(maxStack, stack);
+        }
+
+        private void u1(int value) {
+            if (length == code.length) {
+                code = Arrays.copyOf(code, length * 2);
+            }
+            code[length++] = (byte) value;
+        }
+
+        private void u2(int value) {
+            u1(value >> 8);
+            u1(value);
+        }
+
+        private void writeTo(DataOutputStream out) throws IOException {
+            out.writeShort(access);
+            out.writeShort(name);
+            out.writeShort(descriptor);
+            out.writeShort(1);
+            out.writeShort(codeAttribute);
+            out.writeInt(12 + length);
+            out.writeShort(maxStack);
+            out.writeShort(maxLocals);
+            out.writeInt(length);
+            out.write(code, 0, length);
+            out.writeShort(0);
+            out.writeShort(0);
+        }
+    }
+}
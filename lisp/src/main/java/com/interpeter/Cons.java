@@ -0,0 +1,283 @@
+package com.interpeter;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Celda cons: el par (car . cdr) con el que se construyen las listas de LISP.
+ * Las listas terminan en {@link #NIL}, la lista vacía, cuyo car y cdr son ella
+ * misma, de modo que car y cdr son O(1) y nunca fallan sobre listas.
+ * Las celdas no se modifican una vez publicadas, por lo que varias listas
+ * pueden compartir la misma cola sin copiarla.
+ */
+public final class Cons implements Iterable<Object> {
+
+    /** La lista vacía (NIL). */
+    public static final Cons NIL = new Cons();
+
+    private final Object car;
+    // Solo se asigna mientras se construye una lista en este paquete, antes de publicarla
+    private Object cdr;
+
+    public Cons(Object car, Object cdr) {
+        this.car = car;
+        this.cdr = cdr;
+    }
+
+    private Cons() {
+        this.car = this;
+        this.cdr = this;
+    }
+
+    public Object car() {
+        return car;
+    }
+
+    public Object cdr() {
+        return cdr;
+    }
+
+    /**
+     * Crea una lista con los elementos dados.
+     *
+     * @param elements Los elementos, en orden.
+     * @return La lista, o NIL si no hay elementos.
+     */
+    public static Cons list(Object... elements) {
+        Cons list = NIL;
+        for (int i = elements.length - 1; i >= 0; i--) {
+            list = new Cons(elements[i], list);
+        }
+        return list;
+    }
+
+    /**
+     * Convierte una forma leída (listas anidadas) a celdas cons; se usa para los
+     * datos citados con quote. El símbolo NIL y la lista vacía se convierten en NIL.
+     *
+     * @param datum La forma.
+     * @return El dato equivalente con listas cons.
+     */
+    static Object fromForm(Object datum) {
+        if (datum instanceof List) {
+            List<?> list = (List<?>) datum;
+            Cons result = NIL;
+            for (int i = list.size() - 1; i >= 0; i--) {
+                result = new Cons(fromForm(list.get(i)), result);
+            }
+            return result;
+        }
+        if (datum instanceof String && "nil".equalsIgnoreCase((String) datum)) {
+            return NIL;
+        }
+        return datum;
+    }
+
+    /**
+     * Convierte un dato con listas cons a una forma que el compilador puede
+     * recorrer; es la inversa de {@link #fromForm} y se usa con el resultado de
+     * una macro. La lista vacía se convierte en el símbolo NIL.
+     *
+     * @param datum El dato.
+     * @return La forma equivalente con listas de Java.
+     * @throws IllegalArgumentException Si el dato contiene una lista impropia.
+     */
+    static Object toForm(Object datum) {
+        if (datum == NIL) {
+            return "NIL";
+        }
+        if (datum instanceof Cons) {
+            List<Object> form = new ArrayList<>();
+            Object rest = datum;
+            for (; rest instanceof Cons && rest != NIL; rest = ((Cons) rest).cdr) {
+                form.add(toForm(((Cons) rest).car));
+            }
+            if (rest != NIL) {
+                throw new IllegalArgumentException("No se puede compilar una lista impropia: " + datum);
+            }
+            return form;
+        }
+        return datum;
+    }
+
+    /**
+     * Obtiene el car de un valor, que debe ser una lista.
+     */
+    static Object car(Object list) {
+        return asList(list, "CAR").car;
+    }
+
+    /**
+     * Obtiene el cdr de un valor, que debe ser una lista.
+     */
+    static Object cdr(Object list) {
+        return asList(list, "CDR").cdr;
+    }
+
+    /**
+     * Concatena listas. Copia todas menos la última, que queda compartida como cola.
+     */
+    static Object append(Object[] lists) {
+        if (lists.length == 0) {
+            return NIL;
+        }
+        Builder result = new Builder();
+        for (int i = 0; i < lists.length - 1; i++) {
+            for (Cons cell = asList(lists[i], "APPEND"); cell != NIL; cell = next(cell, "APPEND")) {
+                result.add(cell.car);
+            }
+        }
+        return result.build(lists[lists.length - 1]);
+    }
+
+    static Cons reverse(Object list) {
+        Cons result = NIL;
+        for (Cons cell = asList(list, "REVERSE"); cell != NIL; cell = next(cell, "REVERSE")) {
+            result = new Cons(cell.car, result);
+        }
+        return result;
+    }
+
+    static Object nth(Object index, Object list) {
+        if (!(index instanceof Long) || (Long) index < 0) {
+            throw new RuntimeException("Índice inválido para NTH: " + index);
+        }
+        Cons cell = asList(list, "NTH");
+        for (long i = (Long) index; i > 0 && cell != NIL; i--) {
+            cell = next(cell, "NTH");
+        }
+        return cell.car;
+    }
+
+    static long length(Object list) {
+        long length = 0;
+        for (Cons cell = asList(list, "LENGTH"); cell != NIL; cell = next(cell, "LENGTH")) {
+            length++;
+        }
+        return length;
+    }
+
+    private static Cons asList(Object value, String operation) {
+        if (value instanceof Cons) {
+            return (Cons) value;
+        }
+        throw new RuntimeException(operation + " requiere una lista: " + value);
+    }
+
+    private static Cons next(Cons cell, String operation) {
+        return asList(cell.cdr, operation);
+    }
+
+    /**
+     * Construye una lista agregando elementos al final sin invertirla.
+     * Modifica el cdr de la última celda, que aún no se ha publicado.
+     */
+    static final class Builder {
+        private Cons head = NIL;
+        private Cons last;
+
+        void add(Object element) {
+            Cons cell = new Cons(element, NIL);
+            if (last == null) {
+                head = cell;
+            } else {
+                last.cdr = cell;
+            }
+            last = cell;
+        }
+
+        Object build(Object tail) {
+            if (last == null) {
+                return tail;
+            }
+            last.cdr = tail;
+            return head;
+        }
+
+        Cons build() {
+            return head;
+        }
+    }
+
+    @Override
+    public Iterator<Object> iterator() {
+        return new Iterator<Object>() {
+            private Object current = Cons.this;
+
+            @Override
+            public boolean hasNext() {
+                return current instanceof Cons && current != NIL;
+            }
+
+            @Override
+            public Object next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                Cons cell = (Cons) current;
+                current = cell.cdr;
+                return cell.car;
+            }
+        };
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) {
+            return true;
+        }
+        if (!(other instanceof Cons) || this == NIL || other == NIL) {
+            return false;
+        }
+        // Recorre las colas en un bucle; solo los car anidados usan recursión
+        Object a = this;
+        Object b = other;
+        while (a instanceof Cons && b instanceof Cons && a != NIL && b != NIL) {
+            Cons x = (Cons) a;
+            Cons y = (Cons) b;
+            if (x.car == null ? y.car != null : !x.car.equals(y.car)) {
+                return false;
+            }
+            a = x.cdr;
+            b = y.cdr;
+        }
+        return a == null ? b == null : a.equals(b);
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = 1;
+        Object current = this;
+        while (current instanceof Cons && current != NIL) {
+            Cons cell = (Cons) current;
+            hash = 31 * hash + (cell.car == null ? 0 : cell.car.hashCode());
+            current = cell.cdr;
+        }
+        return current == NIL ? hash : 31 * hash + current.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        if (this == NIL) {
+            return "NIL";
+        }
+        StringBuilder text = new StringBuilder("(");
+        Object current = this;
+        while (true) {
+            Cons cell = (Cons) current;
+            text.append(cell.car);
+            current = cell.cdr;
+            if (current == NIL) {
+                break;
+            }
+            if (!(current instanceof Cons)) {
+                text.append(" . ").append(current);
+                break;
+            }
+            text.append(' ');
+        }
+        return text.append(')').toString();
+    }
+}
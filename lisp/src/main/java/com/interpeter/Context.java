@@ -1,5 +1,6 @@
 package com.interpeter;
 
+import java.io.PrintStream;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -7,16 +8,47 @@ import java.util.Map;
  * Clase que gestiona las variables y funciones en el intérprete.
  * Esta clase permite establecer y obtener variables y funciones,
  * así como gestionar colecciones de estas entidades.
+ * Los valores se guardan como objetos nativos: los enteros como Long (o
+ * BigInteger si no caben en 64 bits), los flotantes como Double, los símbolos como String, las listas como Cons
+ * y las funciones como Function, sin convertirlos a texto.
+ * Un contexto es una sesión: sus variables son propias y solo las usa un hilo
+ * a la vez, mientras que las funciones viven en una {@link FunctionTable} que
+ * pueden compartir varias sesiones (ver {@link #newSession}) y que admite
+ * lecturas y definiciones desde varios hilos.
  */
 public class Context {
     
     /**
      * Crea una nueva instancia de Context.
      */
-    private Map<String, String> variables = new HashMap<String, String>();
-    private Map<String, Function> functions = new HashMap<String, Function>();
+    private Map<String, Object> variables = new HashMap<String, Object>();
+    private final FunctionTable functions;
+    private Engine engine = Engine.TREE;
+    private PrintStream output = System.out;
 
     public Context() {
+        this(new FunctionTable());
+    }
+
+    /**
+     * Crea una sesión sin variables sobre una tabla de funciones existente.
+     *
+     * @param functions La tabla de funciones compartida.
+     */
+    public Context(FunctionTable functions) {
+        this.functions = functions;
+    }
+
+    /**
+     * Crea otra sesión que comparte las funciones de esta, con sus propias
+     * variables y el mismo motor de ejecución.
+     *
+     * @return La nueva sesión.
+     */
+    public Context newSession() {
+        Context session = new Context(functions);
+        session.setEngine(engine);
+        return session;
     }
 
     /**
@@ -25,7 +57,7 @@ public class Context {
      * @param name El nombre de la variable.
      * @param value El valor de la variable.
      */
-    public void setVariable(String name, String value) {
+    public void setVariable(String name, Object value) {
         if (variables.containsKey(name)) {
             variables.remove(name);
         }
@@ -38,18 +70,19 @@ public class Context {
      * @param name El nombre de la variable.
      * @return El valor de la variable, o null si no existe.
      */
-    public String getVariable(String name) {
+    public Object getVariable(String name) {
         return variables.get(name);
     }
 
     /**
      * Establece una función en el contexto.
+     * La función queda visible para todas las sesiones que comparten la tabla.
      *
      * @param name El nombre de la función.
      * @param value La función a establecer.
      */
     public void setFunction(String name, Function value) {
-        functions.put(name, value);
+        functions.define(name, value);
     }
 
     /**
@@ -57,20 +90,29 @@ public class Context {
      *
      * @return Un mapa de todas las variables.
      */
-    public Map<String, String> getVariables() {
+    public Map<String, Object> getVariables() {
         return variables;
     }
 
-    public void setVariables(Map<String, String> variables) {
+    public void setVariables(Map<String, Object> variables) {
         this.variables = variables;
     }
 
     /**
      * Obtiene todas las funciones del contexto.
      *
-     * @return Un mapa de todas las funciones.
+     * @return Un mapa de solo lectura de todas las funciones.
      */
     public Map<String, Function> getFunctions() {
+        return functions.asMap();
+    }
+
+    /**
+     * Obtiene la tabla de funciones, compartida con las demás sesiones.
+     *
+     * @return La tabla de funciones.
+     */
+    public FunctionTable getFunctionTable() {
         return functions;
     }
 
@@ -84,13 +126,59 @@ public class Context {
         return functions.get(name);
     }
 
+    /**
+     * Obtiene la versión actual de la tabla de funciones.
+     * Cambia cada vez que se define, redefine o reemplaza alguna función.
+     *
+     * @return La versión de las definiciones de este contexto.
+     */
+    public long getFunctionVersion() {
+        return functions.getVersion();
+    }
+
     /**
      * Establece un conjunto de funciones en el contexto.
      *
-     * @param functions Un mapa de funciones a establecer.
+     * @param functions Un mapa de funciones a establecer, con los nombres en minúsculas.
      */
     public void setFunctions(Map<String, Function> functions) {
-        this.functions = functions;
+        this.functions.replaceAll(functions);
+    }
+
+    /**
+     * Obtiene el motor con el que se ejecutan las funciones definidas por el usuario.
+     *
+     * @return El motor de ejecución actual.
+     */
+    public Engine getEngine() {
+        return engine;
+    }
+
+    /**
+     * Selecciona el motor con el que se ejecutan las funciones definidas por el usuario.
+     *
+     * @param engine El motor de ejecución.
+     */
+    public void setEngine(Engine engine) {
+        this.engine = engine;
     }
-}
 
+    /**
+     * Obtiene la salida de la sesión, donde escribe print.
+     *
+     * @return La salida; System.out si la sesión no tiene una propia.
+     */
+    public PrintStream getOutput() {
+        return output;
+    }
+
+    /**
+     * Cambia la salida de la sesión; el {@link REPL} pone la suya, que en el
+     * {@link Server} es el socket del cliente.
+     *
+     * @param output La salida.
+     */
+    public void setOutput(PrintStream output) {
+        this.output = output;
+    }
+}
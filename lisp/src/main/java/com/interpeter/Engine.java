@@ -0,0 +1,29 @@
+package com.interpeter;
+
+/**
+ * Motores de ejecución disponibles para el cuerpo de las funciones.
+ */
+public enum Engine {
+    /** Recorre el árbol de nodos compilado por {@link FormCompiler}. */
+    TREE,
+    /** Ejecuta bytecode compilado por {@link BytecodeCompiler} en la {@link VM}. */
+    VM,
+    /** Recorre el árbol de nodos y compila con el {@link JIT} las funciones calientes. */
+    JIT;
+
+    /**
+     * Obtiene el motor a partir de su nombre, sin distinguir mayúsculas.
+     *
+     * @param name El nombre del motor ("tree", "vm" o "jit").
+     * @return El motor correspondiente.
+     * @throws IllegalArgumentException Si el nombre no corresponde a ningún motor.
+     */
+    public static Engine fromName(String name) {
+        for (Engine engine : values()) {
+            if (engine.name().equalsIgnoreCase(name)) {
+                return engine;
+            }
+        }
+        throw new IllegalArgumentException("Motor desconocido: " + name);
+    }
+}
@@ -0,0 +1,78 @@
+package com.interpeter;
+
+/**
+ * Marco léxico de ejecución del intérprete LISP.
+ * Cada llamada a una función crea un único marco con un arreglo de ranuras
+ * (una por parámetro) y un enlace al marco padre. Las variables locales se
+ * acceden por posición (profundidad, índice) resuelta al procesar el defun,
+ * por lo que el costo de una llamada no depende del número de globales.
+ * El marco también lleva el contexto global, que los nodos compilados usan
+ * para leer variables globales y buscar funciones.
+ */
+public class Environment {
+
+    private final Object[] slots;
+    private final Environment parent;
+    private final Context context;
+
+    /**
+     * Crea un nuevo marco con las ranuras indicadas.
+     *
+     * @param slots Los valores iniciales de las ranuras del marco.
+     * @param parent El marco léxico que encierra a este, o null si es el global.
+     * @param context El contexto global con las variables y funciones compartidas.
+     */
+    public Environment(Object[] slots, Environment parent, Context context) {
+        this.slots = slots;
+        this.parent = parent;
+        this.context = context;
+    }
+
+    /**
+     * Obtiene el valor de una ranura.
+     *
+     * @param depth Cuántos marcos subir en la cadena (0 es el marco actual).
+     * @param index El índice de la ranura dentro del marco.
+     * @return El valor almacenado en la ranura.
+     */
+    public Object get(int depth, int index) {
+        return frameAt(depth).slots[index];
+    }
+
+    /**
+     * Establece el valor de una ranura.
+     *
+     * @param depth Cuántos marcos subir en la cadena (0 es el marco actual).
+     * @param index El índice de la ranura dentro del marco.
+     * @param value El nuevo valor de la ranura.
+     */
+    public void set(int depth, int index, Object value) {
+        frameAt(depth).slots[index] = value;
+    }
+
+    /**
+     * Obtiene el marco padre.
+     *
+     * @return El marco que encierra a este, o null si no existe.
+     */
+    public Environment getParent() {
+        return parent;
+    }
+
+    /**
+     * Obtiene el contexto global asociado al marco.
+     *
+     * @return El contexto con las variables y funciones globales.
+     */
+    public Context getContext() {
+        return context;
+    }
+
+    private Environment frameAt(int depth) {
+        Environment env = this;
+        for (int i = 0; i < depth; i++) {
+            env = env.parent;
+        }
+        return env;
+    }
+}
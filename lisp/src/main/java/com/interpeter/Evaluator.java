@@ -1,24 +1,62 @@
 package com.interpeter;
 
-import java.util.ArrayList;
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.List;
+import java.util.Set;
 
 /**
  * Clase que evalúa expresiones en el intérprete LISP.
- * Esta clase maneja la evaluación de enteros, booleanos, cadenas y listas,
- * así como operaciones aritméticas, comparaciones lógicas y definiciones de funciones.
+ * Cada expresión se compila primero a un árbol de nodos (ver {@link FormCompiler})
+ * y luego se ejecuta; las funciones definidas con defun guardan su cuerpo ya
+ * compilado, por lo que solo se compilan una vez.
  */
 public class Evaluator {
-    
+
     /**
      * Crea una nueva instancia de Evaluator con el contexto proporcionado.
      *
      * @param context El contexto que contiene variables y funciones.
      */
     private Context context;
+    private FormCompiler compiler = new FormCompiler();
+    private final Optimizer optimizer;
+    private final MacroExpander expander;
+    private boolean optimizing;
 
     public Evaluator(Context context) {
         this.context = context;
+        this.optimizer = new Optimizer(context);
+        this.expander = new MacroExpander(context);
+    }
+
+    /**
+     * Activa o desactiva el {@link Optimizer} antes de compilar cada expresión.
+     *
+     * @param optimizing true para optimizar las expresiones.
+     */
+    public void setOptimizing(boolean optimizing) {
+        this.optimizing = optimizing;
+    }
+
+    public boolean isOptimizing() {
+        return optimizing;
+    }
+
+    public Context getContext() {
+        return context;
+    }
+
+    /**
+     * Obtiene la forma que se compila para una expresión: con las macros y
+     * cuasicitas expandidas (ver {@link MacroExpander}) y luego optimizada.
+     *
+     * @param expr La expresión parseada.
+     * @return La expresión expandida y optimizada, o la misma si no cambió.
+     */
+    public Object optimize(Object expr) {
+        Object expanded = expander.expand(expr);
+        return optimizing ? optimizer.optimize(expanded) : expanded;
     }
 
     /**
@@ -28,169 +66,187 @@ public class Evaluator {
      * @return El resultado de la evaluación.
      */
     public Object evaluate(Object expr) {
-        if (expr instanceof Integer || expr instanceof Boolean) return expr;
+        return execute(compile(expr));
+    }
 
-        if (expr instanceof String) {
-            String varName = (String) expr;
-            Object value = context.getVariable(varName);
-            if (value != null) {
-                return value;
+    /**
+     * Evalúa las formas del nivel superior de un archivo a medida que se leen,
+     * sin mostrarlas ni guardar las ya evaluadas; el archivo se lee mapeado en
+     * memoria, así que su tamaño no limita lo que se puede cargar.
+     *
+     * @param path La ruta del archivo.
+     * @return El número de formas evaluadas.
+     * @throws IOException Si el archivo no se puede leer.
+     * @throws RuntimeException Si una forma es inválida o falla, con el archivo y la línea en el mensaje.
+     */
+    public long load(Path path) throws IOException {
+        long count = 0;
+        try (MappedReader source = new MappedReader(path)) {
+            LispReader reader = new LispReader(source);
+            while (true) {
+                Object form;
+                try {
+                    form = reader.read();
+                } catch (LispReader.SyntaxException e) {
+                    throw new RuntimeException(path + ":" + e.getLine() + ": " + e.getMessage(), e);
+                }
+                if (form == null) {
+                    return count;
+                }
+                try {
+                    evaluate(form);
+                } catch (RuntimeException e) {
+                    String where = form instanceof Form ? path + ":" + ((Form) form).getLine() : path.toString();
+                    throw new RuntimeException(where + ": " + e.getMessage(), e);
+                }
+                count++;
             }
-            return varName;
         }
+    }
 
-        if (expr instanceof List) {
-            List<?> list = (List<?>) expr;
-            if (list.isEmpty()) throw new IllegalArgumentException("La lista está vacía");
-
-            String operation = list.get(0).toString().toLowerCase();
-
-            switch (operation) {
-                case "defun": return evaluateDefun(list);
-                case "if": return evaluateIf(list.subList(1, list.size()));
-                case "+": case "-": case "*": case "/": 
-                    return evalArithmetic(operation, list.subList(1, list.size()));
-                case "<": case "<=": case ">": case ">=": case "=": case "/=": 
-                    return evalLogical(operation, list.subList(1, list.size()));
-                default:
-                    Function func = context.getFunction(operation);
-                    if (func != null) {
-                        return executeFunction(func, list.subList(1, list.size()));
-                    }
-                    throw new IllegalArgumentException("Función no definida: " + operation);
-            }
+    /**
+     * Expande y optimiza una expresión y la compila a su árbol de nodos sin ejecutarla.
+     *
+     * @param expr La expresión parseada.
+     * @return El nodo ejecutable, que puede ejecutarse varias veces.
+     */
+    public Node compile(Object expr) {
+        return compile(expr, optimize(expr));
+    }
+
+    /**
+     * Compila la forma que {@link #optimize} obtuvo para una expresión, sin
+     * volver a expandirla ni optimizarla.
+     *
+     * @param expr La expresión parseada.
+     * @param optimized El resultado de optimize(expr), la última forma que optimizó este evaluador.
+     * @return El nodo ejecutable.
+     */
+    Node compile(Object expr, Object optimized) {
+        Node node = compiler.compile(optimized);
+        Set<String> macros = expander.getUsedMacros();
+        if (!macros.isEmpty() && node instanceof Nodes.DefunNode) {
+            // La función recuerda su definición para expandirla de nuevo si una de sus macros cambia
+            node = ((Nodes.DefunNode) node).expandedFrom(
+                    new MacroExpander.Dependency((List<?>) expr, Set.copyOf(macros), optimizing));
         }
-        throw new IllegalArgumentException("Tipo de expresión no soportada");
+        return node;
     }
 
     /**
-     * Evalúa una definición de función y la establece en el contexto.
+     * Ejecuta un nodo compilado en el nivel superior.
      *
-     * @param list La lista que representa la definición de la función.
-     * @return Un mensaje indicando que la función ha sido definida.
+     * @param node El nodo a ejecutar.
+     * @return El resultado de la ejecución.
      */
-    private Object evaluateDefun(List<?> list) {
-        String funcName = list.get(1).toString();
-        @SuppressWarnings("unchecked")
-        List<String> params = (List<String>) list.get(2);
-        ArrayList<List<?>> body = new ArrayList<>();
-        for (int i = 3; i < list.size(); i++) {
-            body.add((List<?>) list.get(i));
+    public Object execute(Node node) {
+        return node.eval(new Environment(new Object[0], null, context));
+    }
+
+    /**
+     * Crea el arreglo de ranuras para una llamada, validando el número de argumentos.
+     *
+     * @param func La función que se va a llamar.
+     * @param argCount El número de argumentos de la llamada.
+     * @return Un arreglo donde el llamador guarda los argumentos evaluados; las
+     *         ranuras siguientes son para las variables de los ciclos.
+     */
+    static Object[] newFrame(Function func, int argCount) {
+        int expected = func.getParams().size();
+        if (argCount != expected) {
+            throw new IllegalArgumentException("La función " + func.getName() + " espera "
+                    + expected + " argumentos y recibió " + argCount);
         }
-        context.setFunction(funcName, new Function(funcName, params, body));
-        return "Función " + funcName + " definida.";
+        return new Object[func.getFrameSize()];
     }
 
     /**
-     * Ejecuta una función con los argumentos proporcionados.
+     * Ejecuta una función con los argumentos ya evaluados, usando el motor
+     * seleccionado en el contexto.
+     * Los argumentos forman directamente el marco de la llamada; las globales
+     * se comparten a través del contexto. Mientras el {@link Profiler} está
+     * encendido, la llamada se mide.
      *
      * @param func La función a ejecutar.
-     * @param args Los argumentos para la función.
+     * @param slots Los argumentos evaluados, creados con {@link #newFrame}.
+     * @param context El contexto global.
      * @return El resultado de la ejecución de la función.
      */
-    private Object executeFunction(Function func, List<?> args) {
-        Context temp = new Context();
-        temp.getVariables().putAll(context.getVariables());
-        temp.getFunctions().putAll(context.getFunctions());
-
-        List<String> params = func.getParams();
-        for (int i = 0; i < params.size(); i++) {
-            Object evaluatedArg = evaluate(args.get(i));
-            temp.setVariable(params.get(i), evaluatedArg.toString());
-        }
-
-        Object result = null;
-        for (List<?> expr : func.getBody()) {
-            result = new Evaluator(temp).evaluate(expr);
+    static Object executeFunction(Function func, Object[] slots, Context context) {
+        if (Profiler.enabled) {
+            return Profiler.call(func, slots, context);
         }
-        return result;
+        return dispatch(func, slots, context);
     }
 
     /**
-     * Evalúa una expresión condicional (if).
+     * Ejecuta una función pasando por su caché de resultados si la tiene, sin
+     * medirla; el {@link Profiler} la llama dentro de su medición.
      *
-     * @param args Los argumentos de la expresión condicional.
-     * @return El resultado de la evaluación de la expresión condicional.
+     * @param func La función a ejecutar.
+     * @param slots Los argumentos evaluados, creados con {@link #newFrame}.
+     * @param context El contexto global.
+     * @return El resultado de la ejecución de la función.
      */
-    private Object evaluateIf(List<?> args) {
-        Object condition = evaluate(args.get(0));
-        if (condition instanceof Boolean) {
-            return (Boolean) condition ? evaluate(args.get(1)) : evaluate(args.get(2));
-        } else if (condition instanceof Integer) {
-            return ((Integer) condition != 0) ? evaluate(args.get(1)) : evaluate(args.get(2));
-        }
-        throw new RuntimeException("Condición inválida en IF");
+    static Object dispatch(Function func, Object[] slots, Context context) {
+        MemoCache memo = func.getMemo();
+        return memo != null ? memo.call(func, slots, context) : execute(func, slots, context);
     }
 
     /**
-     * Evalúa operaciones aritméticas.
+     * Ejecuta una función con el motor seleccionado, sin consultar su caché de resultados.
      *
-     * @param op El operador aritmético.
-     * @param args Los argumentos para la operación.
-     * @return El resultado de la operación aritmética.
+     * @param func La función a ejecutar.
+     * @param slots Los argumentos evaluados, creados con {@link #newFrame}.
+     * @param context El contexto global.
+     * @return El resultado de la ejecución de la función.
      */
-    private Object evalArithmetic(String op, List<?> args) {
-        if (args.isEmpty()) throw new RuntimeException("Se requieren argumentos para operación aritmética");
-        
-        double result = resolveToInt(evaluate(args.get(0)));
-        for (int i = 1; i < args.size(); i++) {
-            double val = resolveToInt(evaluate(args.get(i)));
-            switch (op) {
-                case "+": result += val; break;
-                case "-": result -= val; break;
-                case "*": result *= val; break;
-                case "/": 
-                    if (val == 0) throw new ArithmeticException("División por cero");
-                    result /= val; 
-                    break;
-            }
+    static Object execute(Function func, Object[] slots, Context context) {
+        switch (context.getEngine()) {
+            case VM: return VM.current().run(func, slots, context);
+            case JIT: return JIT.invoke(func, slots, context);
+            default: return interpret(func, slots, context);
         }
-        return result;
     }
 
     /**
-     * Evalúa operaciones lógicas.
+     * Ejecuta el cuerpo compilado a nodos de una función.
+     * Las llamadas en posición de cola se ejecutan en este mismo bucle, así que
+     * la recursión de cola no consume pila de Java, salvo si la función llamada
+     * está memoizada o el {@link Profiler} está encendido: entonces la llamada
+     * pasa por {@link #executeFunction}.
      *
-     * @param op El operador lógico.
-     * @param args Los argumentos para la operación lógica.
-     * @return El resultado de la operación lógica.
+     * @param func La función a ejecutar.
+     * @param slots Los argumentos evaluados, creados con {@link #newFrame}.
+     * @param context El contexto global.
+     * @return El resultado de la última expresión del cuerpo.
      */
-    private Object evalLogical(String op, List<?> args) {
-        if (args.size() != 2) throw new RuntimeException("Las operaciones lógicas requieren exactamente 2 argumentos");
-        
-        double a = resolveToInt(evaluate(args.get(0)));
-        double b = resolveToInt(evaluate(args.get(1)));
-        
-        switch (op) {
-            case "<": return a < b;
-            case "<=": return a <= b;
-            case ">": return a > b;
-            case ">=": return a >= b;
-            case "=": return Math.abs(a - b) < 0.0001; // Para comparación de doubles
-            case "/=": return Math.abs(a - b) >= 0.0001;
-            default: throw new RuntimeException("Operador lógico no soportado: " + op);
+    static Object interpret(Function func, Object[] slots, Context context) {
+        Object result = interpretBody(func, slots, context);
+        while (result instanceof Nodes.TailCall) {
+            Nodes.TailCall call = (Nodes.TailCall) result;
+            if (call.function.getMemo() != null || Profiler.enabled) {
+                return executeFunction(call.function, call.slots, context);
+            }
+            result = interpretBody(call.function, call.slots, context);
         }
+        return result;
     }
 
     /**
-     * Convierte un objeto a un valor numérico.
+     * Ejecuta una sola vez el cuerpo de una función.
      *
-     * @param obj El objeto a convertir.
-     * @return El valor numérico correspondiente.
-     * @throws RuntimeException Si no se puede convertir el objeto a un número.
+     * @param func La función a ejecutar.
+     * @param slots Los argumentos evaluados.
+     * @param context El contexto global.
+     * @return El resultado, o un {@link Nodes.TailCall} si el cuerpo terminó en una llamada de cola.
      */
-    private double resolveToInt(Object obj) {
-        if (obj instanceof Integer) {
-            return ((Integer) obj).doubleValue();
-        } else if (obj instanceof Double) {
-            return (Double) obj;
-        } else if (obj instanceof String) {
-            try {
-                return Double.parseDouble((String) obj);
-            } catch (NumberFormatException e) {
-                throw new RuntimeException("No se pudo convertir a número: " + obj);
-            }
+    static Object interpretBody(Function func, Object[] slots, Context context) {
+        Environment frame = new Environment(slots, null, context);
+        Object result = null;
+        for (Node expr : func.getCompiledBody()) {
+            result = expr.eval(frame);
         }
-        throw new RuntimeException("No se pudo convertir a número: " + obj);
+        return result;
     }
 }
@@ -0,0 +1,74 @@
+package com.interpeter;
+
+import java.util.AbstractList;
+import java.util.RandomAccess;
+
+/**
+ * Lista inmutable producida por el {@link LispReader}.
+ * Se comporta como cualquier {@link java.util.List}, por lo que el compilador
+ * la recorre igual que antes, y además recuerda el fragmento de la entrada de
+ * donde salió: desplazamientos de inicio y fin, línea y columna del paréntesis
+ * de apertura. Si la forma es la llamada a una macro, guarda también su
+ * expansión (ver {@link MacroExpander}), para no volver a expandirla cada vez
+ * que se compila.
+ */
+public final class Form extends AbstractList<Object> implements RandomAccess {
+
+    private final Object[] elements;
+    private final int start;
+    private final int end;
+    private final int line;
+    private final int column;
+    private volatile MacroExpander.Expansion expansion;
+
+    /**
+     * Crea una nueva forma. El arreglo pasa a pertenecer a la forma y no debe modificarse.
+     *
+     * @param elements Los elementos de la lista.
+     * @param start El desplazamiento del paréntesis de apertura.
+     * @param end El desplazamiento justo después del paréntesis de cierre.
+     * @param line La línea del paréntesis de apertura.
+     * @param column La columna del paréntesis de apertura.
+     */
+    public Form(Object[] elements, int start, int end, int line, int column) {
+        this.elements = elements;
+        this.start = start;
+        this.end = end;
+        this.line = line;
+        this.column = column;
+    }
+
+    @Override
+    public Object get(int index) {
+        return elements[index];
+    }
+
+    @Override
+    public int size() {
+        return elements.length;
+    }
+
+    public int getStart() {
+        return start;
+    }
+
+    public int getEnd() {
+        return end;
+    }
+
+    public int getLine() {
+        return line;
+    }
+
+    public int getColumn() {
+        return column;
+    }
+
+    MacroExpander.Expansion getExpansion() {
+        return expansion;
+    }
+
+    void setExpansion(MacroExpander.Expansion expansion) {
+        this.expansion = expansion;
+    }
+}
@@ -0,0 +1,264 @@
+package com.interpeter;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * Caché del texto de una entrada a sus formas leídas y compiladas, para el
+ * REPL, el {@link Server} y el bucle de {@link Main}, donde los clientes
+ * envían las mismas líneas una y otra vez.
+ * Las formas leídas no cambian nunca. El nodo compilado de cada forma se
+ * guarda con la versión de la tabla de funciones en que se compiló y con el
+ * estado del optimizador, y se vuelve a compilar si cualquiera de los dos
+ * cambió: la compilación depende de las funciones definidas (el optimizador
+ * integra llamadas), así que una redefinición invalida los nodos.
+ * El límite es en bytes, estimados a partir del texto y del tamaño de las
+ * formas; al superarlo se descartan las entradas usadas hace más tiempo (LRU).
+ * Una entrada con un error de sintaxis no se guarda. Puede compartirse entre
+ * sesiones y entre hilos.
+ */
+public final class FormCache {
+
+    /** Límite por omisión en bytes, configurable con -Dlisp.formcache.bytes. */
+    static final long DEFAULT_LIMIT = Long.getLong("lisp.formcache.bytes", 16L << 20);
+
+    /** Entradas más largas que esto no se guardan, para no vaciar la caché con una sola. */
+    private static final int MAX_TEXT = 64 * 1024;
+
+    private final long limit;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(64, 0.75f, true);
+    private long bytes;
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long recompilations;
+
+    /**
+     * Formas de una entrada y sus nodos compilados.
+     */
+    public static final class Entry {
+        private final Object[] forms;
+        private final Compiled[] compiled;
+        private final long weight;
+
+        private Entry(Object[] forms, long weight) {
+            this.forms = forms;
+            this.compiled = new Compiled[forms.length];
+            this.weight = weight;
+        }
+
+        /**
+         * Obtiene el número de formas del nivel superior de la entrada.
+         *
+         * @return El número de formas.
+         */
+        public int size() {
+            return forms.length;
+        }
+
+        /**
+         * Obtiene una forma leída.
+         *
+         * @param index La posición de la forma en la entrada.
+         * @return La forma.
+         */
+        public Object form(int index) {
+            return forms[index];
+        }
+    }
+
+    /**
+     * Nodo compilado de una forma, la forma expandida y optimizada de la que
+     * salió, y las condiciones en que sigue siendo válido.
+     */
+    private static final class Compiled {
+        final Node node;
+        final Object form;
+        final long version;
+        final boolean optimized;
+
+        Compiled(Node node, Object form, long version, boolean optimized) {
+            this.node = node;
+            this.form = form;
+            this.version = version;
+            this.optimized = optimized;
+        }
+    }
+
+    /**
+     * Crea una caché vacía.
+     *
+     * @param limit El tamaño máximo estimado en bytes.
+     */
+    public FormCache(long limit) {
+        if (limit < 0) {
+            throw new IllegalArgumentException("El tamaño de la caché no puede ser negativo: " + limit);
+        }
+        this.limit = limit;
+    }
+
+    public FormCache() {
+        this(DEFAULT_LIMIT);
+    }
+
+    /**
+     * Obtiene las formas de una entrada, leyéndolas si no están en la caché.
+     *
+     * @param text El texto de la entrada.
+     * @return Las formas de la entrada.
+     * @throws LispReader.SyntaxException Si el texto tiene un error de sintaxis.
+     */
+    public Entry read(String text) {
+        synchronized (this) {
+            Entry entry = entries.get(text);
+            if (entry != null) {
+                hits++;
+                return entry;
+            }
+            misses++;
+        }
+        List<Object> forms = new LispReader(text).readAll();
+        Object[] array = forms.toArray();
+        long weight = 64 + 2L * text.length();
+        for (Object form : array) {
+            weight += weight(form);
+        }
+        Entry entry = new Entry(array, weight);
+        if (text.length() <= MAX_TEXT && weight <= limit) {
+            synchronized (this) {
+                Entry previous = entries.put(text, entry);
+                bytes += weight - (previous != null ? previous.weight : 0);
+                evict();
+            }
+        }
+        return entry;
+    }
+
+    /**
+     * Obtiene el nodo de una forma de la entrada, compilándolo con el evaluador
+     * si no hay uno válido para la versión actual de las funciones.
+     *
+     * @param entry La entrada, obtenida con {@link #read}.
+     * @param index La posición de la forma.
+     * @param evaluator El evaluador de la sesión.
+     * @return El nodo listo para {@link Evaluator#execute}.
+     */
+    public Node compile(Entry entry, int index, Evaluator evaluator) {
+        long version = evaluator.getContext().getFunctionVersion();
+        boolean optimized = evaluator.isOptimizing();
+        Compiled compiled = entry.compiled[index];
+        if (compiled != null && compiled.version == version && compiled.optimized == optimized) {
+            return compiled.node;
+        }
+        if (compiled != null) {
+            synchronized (this) {
+                recompilations++;
+            }
+        }
+        Object form = evaluator.optimize(entry.forms[index]);
+        Node node = evaluator.compile(entry.forms[index], form);
+        entry.compiled[index] = new Compiled(node, form, version, optimized);
+        return node;
+    }
+
+    /**
+     * Obtiene la forma expandida y optimizada de la que salió el último nodo
+     * compilado de una forma de la entrada, sin volver a optimizarla.
+     *
+     * @param entry La entrada.
+     * @param index La posición de la forma.
+     * @return La forma compilada, o null si la forma aún no se compiló con {@link #compile}.
+     */
+    public Object optimized(Entry entry, int index) {
+        Compiled compiled = entry.compiled[index];
+        return compiled != null ? compiled.form : null;
+    }
+
+    private void evict() {
+        Iterator<Entry> eldest = entries.values().iterator();
+        while (bytes > limit && eldest.hasNext()) {
+            bytes -= eldest.next().weight;
+            eldest.remove();
+            evictions++;
+        }
+    }
+
+    /**
+     * Estima los bytes que ocupan una forma y su nodo compilado, que tiene
+     * aproximadamente un nodo por elemento.
+     */
+    private static long weight(Object form) {
+        if (form instanceof List) {
+            long weight = 56 + 8L * ((List<?>) form).size();
+            for (Object element : (List<?>) form) {
+                weight += weight(element) + 32;
+            }
+            return weight;
+        }
+        return form instanceof String ? 40 + 2L * ((String) form).length() : 24;
+    }
+
+    /**
+     * Descarta todas las entradas y reinicia las estadísticas.
+     */
+    public synchronized void clear() {
+        entries.clear();
+        bytes = 0;
+        hits = 0;
+        misses = 0;
+        evictions = 0;
+        recompilations = 0;
+    }
+
+    public long getLimit() {
+        return limit;
+    }
+
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * Obtiene cuántas veces se volvió a compilar una forma guardada porque
+     * cambiaron las funciones o el optimizador.
+     *
+     * @return El número de recompilaciones.
+     */
+    public synchronized long getRecompilations() {
+        return recompilations;
+    }
+
+    /**
+     * Obtiene la proporción de lecturas resueltas desde la caché.
+     *
+     * @return Un valor entre 0 y 1, o 0 si aún no hubo lecturas.
+     */
+    public synchronized double getHitRate() {
+        long total = hits + misses;
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("Caché de formas: %d entradas, %d de %d bytes, %d aciertos, %d fallos (%.1f%%), "
+                + "%d descartadas, %d recompiladas", entries.size(), bytes, limit, hits, misses,
+                getHitRate() * 100, evictions, recompilations);
+    }
+}
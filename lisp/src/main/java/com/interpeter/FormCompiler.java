@@ -0,0 +1,608 @@
+package com.interpeter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Compila las expresiones parseadas a un árbol de nodos ejecutables.
+ * La forma se analiza una sola vez: aquí se decide qué operador es cada lista
+ * y se resuelven las variables locales, de modo que la ejecución no vuelve a
+ * inspeccionar cadenas.
+ * Las llamadas en posición de cola del cuerpo de una función (la última forma y
+ * las ramas de un if en esa posición) se compilan a {@link Nodes.TailCallNode},
+ * de modo que la recursión de cola se ejecuta con pila constante.
+ * Los ciclos (dotimes, dolist, do, do* y loop) se compilan a un nodo que
+ * ejecuta un ciclo de Java; sus variables ocupan ranuras del marco de la
+ * función que se actualizan en cada vuelta.
+ */
+public class FormCompiler {
+
+    /** Operadores que el compilador trata por sí mismo y que una macro no puede reemplazar. */
+    private static final Set<String> SPECIAL_FORMS = Set.of("quote", "quasiquote", "unquote", "unquote-splicing",
+            "defun", "defun-memo", "defmacro", "setq", "setf", "if", "dotimes", "dolist", "do", "do*", "loop",
+            "return", "profile", "%inline");
+
+    public FormCompiler() {
+    }
+
+    /**
+     * Compila una expresión del nivel superior.
+     *
+     * @param expr La expresión parseada.
+     * @return El nodo ejecutable correspondiente.
+     */
+    public Node compile(Object expr) {
+        Scope scope = new Scope(new ArrayList<>(), null);
+        Node node = compile(expr, scope);
+        return scope.size() > 0 ? new Nodes.FrameNode(scope.size(), node) : node;
+    }
+
+    /**
+     * Compila una expresión dentro de un ámbito léxico.
+     *
+     * @param expr La expresión parseada.
+     * @param scope El ámbito con las variables locales visibles.
+     * @return El nodo ejecutable correspondiente.
+     */
+    public Node compile(Object expr, Scope scope) {
+        return compile(expr, scope, false);
+    }
+
+    /**
+     * Compila una expresión indicando si está en posición de cola.
+     *
+     * @param expr La expresión parseada.
+     * @param scope El ámbito con las variables locales visibles.
+     * @param tail true si el valor de la expresión es el resultado de la función.
+     * @return El nodo ejecutable correspondiente.
+     */
+    private Node compile(Object expr, Scope scope, boolean tail) {
+        if (expr instanceof Number || expr instanceof Boolean) {
+            return new Nodes.ConstantNode(expr);
+        }
+
+        if (expr instanceof String) {
+            LocalRef ref = scope.resolve((String) expr);
+            if (ref != null) {
+                return new Nodes.LocalRefNode(ref);
+            }
+            if (isNil(expr)) {
+                return new Nodes.ConstantNode(Cons.NIL);
+            }
+            return new Nodes.GlobalRefNode((String) expr);
+        }
+
+        if (expr instanceof List) {
+            List<?> list = (List<?>) expr;
+            if (list.isEmpty()) throw new IllegalArgumentException("La lista está vacía");
+
+            String operation = list.get(0).toString().toLowerCase();
+
+            switch (operation) {
+                case "quote": return new Nodes.ConstantNode(quoted(list));
+                case "defun": return compileDefun(list, false);
+                case "defun-memo": return compileDefun(list, true);
+                case "defmacro": return compileDefmacro(list);
+                case "profile": return new Nodes.ProfileNode(compileArgs(list, 1, scope));
+                case "setq": return compileSetq(list, scope);
+                case "setf": return compile(expandSetf(list), scope, tail);
+                case "if": return compileIf(list, scope, tail);
+                case "dotimes": return compileDotimes(list, scope);
+                case "dolist": return compileDolist(list, scope);
+                case "do": return compileDo(list, scope, false);
+                case "do*": return compileDo(list, scope, true);
+                case "loop": return compileLoop(list, scope);
+                case "return": return compileReturn(list, scope);
+                case "%inline":
+                    return new Nodes.InlineNode(inlined(list), compile(list.get(3), scope, tail),
+                            compile(list.get(2), scope, tail));
+                case "+": return compileArithmetic(Nodes.ArithmeticNode.ADD, list, scope);
+                case "-": return compileArithmetic(Nodes.ArithmeticNode.SUB, list, scope);
+                case "*": return compileArithmetic(Nodes.ArithmeticNode.MUL, list, scope);
+                case "/": return compileArithmetic(Nodes.ArithmeticNode.DIV, list, scope);
+                case "<": return compileComparison(Nodes.ComparisonNode.LT, list, scope);
+                case "<=": return compileComparison(Nodes.ComparisonNode.LE, list, scope);
+                case ">": return compileComparison(Nodes.ComparisonNode.GT, list, scope);
+                case ">=": return compileComparison(Nodes.ComparisonNode.GE, list, scope);
+                case "=": return compileComparison(Nodes.ComparisonNode.EQ, list, scope);
+                case "/=": return compileComparison(Nodes.ComparisonNode.NE, list, scope);
+                default:
+                    Primitive primitive = Primitives.get(operation);
+                    if (primitive != null) {
+                        return new Nodes.PrimitiveNode(primitive, compileArgs(list, 1, scope));
+                    }
+                    if (tail) {
+                        return new Nodes.TailCallNode(operation, compileArgs(list, 1, scope));
+                    }
+                    return new Nodes.CallNode(operation, compileArgs(list, 1, scope));
+            }
+        }
+        throw new IllegalArgumentException("Tipo de expresión no soportada");
+    }
+
+    /**
+     * Obtiene el dato de una forma (quote x). Las listas citadas se convierten a
+     * celdas cons aquí, una sola vez, y la llamada devuelve siempre la misma lista.
+     *
+     * @param list La forma quote.
+     * @return El dato citado.
+     */
+    static Object quoted(List<?> list) {
+        if (list.size() != 2) throw new IllegalArgumentException("Uso incorrecto de QUOTE");
+        return Cons.fromForm(list.get(1));
+    }
+
+    /**
+     * Reescribe (setf lugar valor) como la forma que asigna ese lugar: setq para
+     * un símbolo, o la primitiva (setf accesor) con los argumentos del accesor y
+     * el valor, por ejemplo (setf (gethash k tabla) v).
+     *
+     * @param list La forma setf.
+     * @return La forma equivalente.
+     */
+    static List<?> expandSetf(List<?> list) {
+        if (list.size() != 3) throw new IllegalArgumentException("Uso incorrecto de SETF");
+        Object place = list.get(1);
+        if (place instanceof String) {
+            return Arrays.asList("SETQ", place, list.get(2));
+        }
+        if (place instanceof List && !((List<?>) place).isEmpty()) {
+            List<?> access = (List<?>) place;
+            Primitive setter = Primitives.setter(access.get(0).toString());
+            if (setter != null) {
+                List<Object> call = new ArrayList<>(access.size() + 1);
+                call.add(setter.getName());
+                call.addAll(access.subList(1, access.size()));
+                call.add(list.get(2));
+                return call;
+            }
+        }
+        throw new IllegalArgumentException("Lugar no válido para SETF: " + place);
+    }
+
+    /**
+     * Obtiene la función de una llamada integrada (%inline f llamada expansión),
+     * que produce el {@link Optimizer}.
+     *
+     * @param list La forma %inline.
+     * @return La función cuya vigencia protege la expansión.
+     */
+    static Function inlined(List<?> list) {
+        if (list.size() != 4 || !(list.get(1) instanceof Function)) {
+            throw new IllegalArgumentException("Uso incorrecto de %INLINE");
+        }
+        return (Function) list.get(1);
+    }
+
+    /**
+     * Indica si una expresión es el símbolo NIL, que se evalúa a la lista vacía.
+     */
+    static boolean isNil(Object expr) {
+        return expr instanceof String && "nil".equalsIgnoreCase((String) expr);
+    }
+
+    /**
+     * Compila una definición de función; el cuerpo se compila aquí una sola vez
+     * con los parámetros resueltos a ranuras del marco.
+     *
+     * @param list La lista que representa la definición de la función.
+     * @return El nodo que registra la función al evaluarse.
+     */
+    private Node compileDefun(List<?> list, boolean memo) {
+        if (list.size() < 4 || !(list.get(2) instanceof List)) {
+            throw new IllegalArgumentException("Uso incorrecto de " + (memo ? "DEFUN-MEMO" : "DEFUN"));
+        }
+        String funcName = list.get(1).toString();
+        if (Primitives.get(funcName) != null) {
+            throw new IllegalArgumentException("No se puede redefinir la primitiva " + funcName);
+        }
+        List<String> params = new ArrayList<>();
+        for (Object param : (List<?>) list.get(2)) {
+            params.add(param.toString());
+        }
+        Scope scope = new Scope(params, null);
+        ArrayList<Object> body = new ArrayList<>(list.subList(3, list.size()));
+        Node[] compiledBody = compileBody(body, scope);
+        return new Nodes.DefunNode(funcName, params, body, compiledBody, scope.size(), memo);
+    }
+
+    /**
+     * Compila una definición de macro. El expansor se compila como el cuerpo de
+     * un defun cuyos parámetros son los de la macro; un parámetro después de
+     * &amp;rest o &amp;body recibe los argumentos restantes en una lista.
+     *
+     * @param list La forma defmacro, con las macros de su cuerpo ya expandidas.
+     * @return El nodo que registra la macro al evaluarse.
+     */
+    private Node compileDefmacro(List<?> list) {
+        if (list.size() < 4 || !(list.get(2) instanceof List)) {
+            throw new IllegalArgumentException("Uso incorrecto de DEFMACRO");
+        }
+        String name = list.get(1).toString();
+        if (Primitives.get(name) != null || SPECIAL_FORMS.contains(name.toLowerCase())) {
+            throw new IllegalArgumentException("No se puede redefinir " + name + " como macro");
+        }
+        List<String> params = new ArrayList<>();
+        boolean rest = false;
+        List<?> lambdaList = (List<?>) list.get(2);
+        for (int i = 0; i < lambdaList.size(); i++) {
+            String param = lambdaList.get(i).toString();
+            if (param.equalsIgnoreCase("&rest") || param.equalsIgnoreCase("&body")) {
+                if (i != lambdaList.size() - 2) {
+                    throw new IllegalArgumentException("Se esperaba un solo nombre después de " + param);
+                }
+                rest = true;
+                continue;
+            }
+            params.add(param);
+        }
+        Scope scope = new Scope(params, null);
+        ArrayList<Object> body = new ArrayList<>(list.subList(3, list.size()));
+        Function expander = new Function(name, params, body);
+        expander.setCompiledBody(compileBody(body, scope));
+        expander.setFrameSize(scope.size());
+        return new Nodes.DefmacroNode(expander, rest, list);
+    }
+
+    /**
+     * Compila el cuerpo de una función que ya existe pero no tiene nodos, como
+     * las que se leen de una imagen (ver {@link Image}).
+     *
+     * @param func La función; recibe el cuerpo, los nodos y el tamaño del marco.
+     * @param body Las expresiones del cuerpo.
+     */
+    void compileBody(Function func, ArrayList<Object> body) {
+        Scope scope = new Scope(func.getParams(), null);
+        Node[] compiledBody = compileBody(body, scope);
+        func.setBody(body);
+        func.setCompiledBody(compiledBody);
+        func.setFrameSize(scope.size());
+    }
+
+    private Node[] compileBody(List<?> body, Scope scope) {
+        Node[] compiledBody = new Node[body.size()];
+        for (int i = 0; i < body.size(); i++) {
+            compiledBody[i] = compile(body.get(i), scope, i == body.size() - 1);
+        }
+        return compiledBody;
+    }
+
+    /**
+     * Obtiene el nombre de la variable de un ciclo.
+     */
+    static String loopVariable(Object expr, String form) {
+        if (!(expr instanceof String) || isNil(expr)) {
+            throw new IllegalArgumentException("Variable inválida en " + form + ": " + expr);
+        }
+        return (String) expr;
+    }
+
+    /**
+     * Obtiene la especificación (var expresión [resultado]) de dotimes o dolist.
+     */
+    static List<?> loopSpec(List<?> list, String form) {
+        if (list.size() < 2 || !(list.get(1) instanceof List)) {
+            throw new IllegalArgumentException("Uso incorrecto de " + form);
+        }
+        List<?> spec = (List<?>) list.get(1);
+        if (spec.size() < 2 || spec.size() > 3) {
+            throw new IllegalArgumentException("Uso incorrecto de " + form);
+        }
+        loopVariable(spec.get(0), form);
+        return spec;
+    }
+
+    /**
+     * Compila (dotimes (var cuenta [resultado]) cuerpo...). La cuenta se evalúa
+     * antes de declarar la variable, que solo es visible en el cuerpo y el resultado.
+     */
+    private Node compileDotimes(List<?> list, Scope scope) {
+        List<?> spec = loopSpec(list, "DOTIMES");
+        Node count = compile(spec.get(1), scope);
+        int slot = scope.push((String) spec.get(0));
+        scope.loop(true);
+        Node[] results = compileArgs(spec, 2, scope);
+        Node[] body = compileArgs(list, 2, scope);
+        scope.loop(false);
+        scope.pop(1);
+        return new Nodes.DotimesNode(slot, count, results, body);
+    }
+
+    private Node compileDolist(List<?> list, Scope scope) {
+        List<?> spec = loopSpec(list, "DOLIST");
+        Node source = compile(spec.get(1), scope);
+        int slot = scope.push((String) spec.get(0));
+        scope.loop(true);
+        Node[] results = compileArgs(spec, 2, scope);
+        Node[] body = compileArgs(list, 2, scope);
+        scope.loop(false);
+        scope.pop(1);
+        return new Nodes.DolistNode(slot, source, results, body);
+    }
+
+    /**
+     * Compila (do ((var inicio [paso])...) (prueba resultado...) cuerpo...). En do
+     * los valores iniciales se compilan antes de declarar las variables; en do*
+     * cada uno ve las variables anteriores.
+     */
+    private Node compileDo(List<?> list, Scope scope, boolean sequential) {
+        String form = sequential ? "DO*" : "DO";
+        if (list.size() < 3 || !(list.get(1) instanceof List) || !(list.get(2) instanceof List)
+                || ((List<?>) list.get(2)).isEmpty()) {
+            throw new IllegalArgumentException("Uso incorrecto de " + form);
+        }
+        List<?> bindings = (List<?>) list.get(1);
+        List<?> end = (List<?>) list.get(2);
+        int[] slots = new int[bindings.size()];
+        Node[] inits = new Node[bindings.size()];
+        Node[] steps = new Node[bindings.size()];
+        for (int i = 0; i < bindings.size(); i++) {
+            List<?> binding = doBinding(bindings.get(i), form);
+            inits[i] = binding.size() > 1 ? compile(binding.get(1), scope) : new Nodes.ConstantNode(Cons.NIL);
+            if (sequential) {
+                slots[i] = scope.push((String) binding.get(0));
+            }
+        }
+        if (!sequential) {
+            for (int i = 0; i < bindings.size(); i++) {
+                slots[i] = scope.push((String) doBinding(bindings.get(i), form).get(0));
+            }
+        }
+        for (int i = 0; i < bindings.size(); i++) {
+            List<?> binding = doBinding(bindings.get(i), form);
+            if (binding.size() == 3) {
+                steps[i] = compile(binding.get(2), scope);
+            }
+        }
+        scope.loop(true);
+        Node test = compile(end.get(0), scope);
+        Node[] results = compileArgs(end, 1, scope);
+        Node[] body = compileArgs(list, 3, scope);
+        scope.loop(false);
+        scope.pop(bindings.size());
+        return new Nodes.DoNode(slots, inits, steps, test, results, body, sequential);
+    }
+
+    /**
+     * Normaliza una variable de do a la lista (var [inicio [paso]]).
+     */
+    static List<?> doBinding(Object binding, String form) {
+        if (binding instanceof String) {
+            return Arrays.asList(loopVariable(binding, form));
+        }
+        if (!(binding instanceof List) || ((List<?>) binding).isEmpty() || ((List<?>) binding).size() > 3) {
+            throw new IllegalArgumentException("Variable inválida en " + form + ": " + binding);
+        }
+        loopVariable(((List<?>) binding).get(0), form);
+        return (List<?>) binding;
+    }
+
+    /**
+     * Indica si una forma loop es la simple, (loop forma...), en la que todas las
+     * formas son listas; si no, es un loop extendido con cláusulas.
+     */
+    static boolean isSimpleLoop(List<?> list) {
+        for (int i = 1; i < list.size(); i++) {
+            if (!(list.get(i) instanceof List)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private Node compileLoop(List<?> list, Scope scope) {
+        if (isSimpleLoop(list)) {
+            scope.loop(true);
+            Node[] body = compileArgs(list, 1, scope);
+            scope.loop(false);
+            return new Nodes.LoopNode(body);
+        }
+        return new LoopClauses(list, scope).compile();
+    }
+
+    /**
+     * Analizador de las cláusulas de un loop extendido. Admite for/as con in,
+     * across y from/upfrom/downfrom/to/upto/below/downto/above/by, repeat,
+     * while, until, do, collect, sum, count, maximize y minimize.
+     */
+    private final class LoopClauses {
+        private final List<?> list;
+        private final Scope scope;
+        private final List<Nodes.LoopDriver> drivers = new ArrayList<>();
+        private final List<Integer> kinds = new ArrayList<>();
+        private final List<Node> forms = new ArrayList<>();
+        private int accumulation = -1;
+        private int position = 1;
+        private int declared;
+
+        LoopClauses(List<?> list, Scope scope) {
+            this.list = list;
+            this.scope = scope;
+        }
+
+        Node compile() {
+            scope.loop(true);
+            while (position < list.size()) {
+                String keyword = keyword();
+                switch (keyword) {
+                    case "for":
+                    case "as":
+                        compileFor();
+                        break;
+                    case "repeat":
+                        drivers.add(new Nodes.LoopDriver(Nodes.LoopDriver.REPEAT, -1, expression(), null, null, false, false));
+                        break;
+                    case "while": clause(Nodes.ExtendedLoopNode.WHILE); break;
+                    case "until": clause(Nodes.ExtendedLoopNode.UNTIL); break;
+                    case "do":
+                    case "doing":
+                        clause(Nodes.ExtendedLoopNode.DO);
+                        while (position < list.size() && list.get(position) instanceof List) {
+                            clause(Nodes.ExtendedLoopNode.DO);
+                        }
+                        break;
+                    case "collect": case "collecting": accumulate(Nodes.ExtendedLoopNode.COLLECT); break;
+                    case "sum": case "summing": accumulate(Nodes.ExtendedLoopNode.SUM); break;
+                    case "count": case "counting": accumulate(Nodes.ExtendedLoopNode.COUNT); break;
+                    case "maximize": case "maximizing": accumulate(Nodes.ExtendedLoopNode.MAXIMIZE); break;
+                    case "minimize": case "minimizing": accumulate(Nodes.ExtendedLoopNode.MINIMIZE); break;
+                    default:
+                        throw new IllegalArgumentException("Cláusula de LOOP no soportada: " + keyword);
+                }
+            }
+            scope.loop(false);
+            scope.pop(declared);
+            int[] kindArray = new int[kinds.size()];
+            for (int i = 0; i < kindArray.length; i++) {
+                kindArray[i] = kinds.get(i);
+            }
+            return new Nodes.ExtendedLoopNode(drivers.toArray(new Nodes.LoopDriver[0]), kindArray,
+                    forms.toArray(new Node[0]), accumulation);
+        }
+
+        private void compileFor() {
+            String var = loopVariable(next(), "LOOP");
+            String preposition = keyword();
+            if (preposition.equals("in") || preposition.equals("across")) {
+                Node source = expression();
+                int kind = preposition.equals("in") ? Nodes.LoopDriver.IN : Nodes.LoopDriver.ACROSS;
+                drivers.add(new Nodes.LoopDriver(kind, declare(var), source, null, null, false, false));
+                return;
+            }
+            Node start = new Nodes.ConstantNode(0L);
+            Node limit = null;
+            Node step = null;
+            boolean down = false;
+            boolean inclusive = true;
+            position--;
+            while (position < list.size() && list.get(position) instanceof String) {
+                switch (((String) list.get(position)).toLowerCase()) {
+                    case "from": case "upfrom": position++; start = expression(); continue;
+                    case "downfrom": position++; start = expression(); down = true; continue;
+                    case "to": case "upto": position++; limit = expression(); continue;
+                    case "below": position++; limit = expression(); inclusive = false; continue;
+                    case "downto": position++; limit = expression(); down = true; continue;
+                    case "above": position++; limit = expression(); down = true; inclusive = false; continue;
+                    case "by": position++; step = expression(); continue;
+                    default:
+                        break;
+                }
+                break;
+            }
+            drivers.add(new Nodes.LoopDriver(Nodes.LoopDriver.FROM, declare(var), start, limit, step, down, inclusive));
+        }
+
+        private void clause(int kind) {
+            kinds.add(kind);
+            forms.add(expression());
+        }
+
+        private void accumulate(int kind) {
+            if (accumulation != -1 && accumulation != kind) {
+                throw new IllegalArgumentException("LOOP no admite acumulaciones de distinto tipo");
+            }
+            accumulation = kind;
+            clause(kind);
+        }
+
+        private int declare(String var) {
+            declared++;
+            return scope.push(var);
+        }
+
+        private Object next() {
+            if (position >= list.size()) {
+                throw new IllegalArgumentException("Cláusula de LOOP incompleta");
+            }
+            return list.get(position++);
+        }
+
+        private String keyword() {
+            Object word = next();
+            if (!(word instanceof String)) {
+                throw new IllegalArgumentException("Se esperaba una palabra de LOOP: " + word);
+            }
+            return ((String) word).toLowerCase();
+        }
+
+        private Node expression() {
+            return FormCompiler.this.compile(next(), scope);
+        }
+    }
+
+    /**
+     * Indica si una forma contiene un (return ...) que sale de un ciclo que la
+     * encierra, es decir, que no pertenece a un ciclo de la propia forma.
+     */
+    static boolean returnsFromLoop(Object expr) {
+        if (!(expr instanceof List) || ((List<?>) expr).isEmpty()) {
+            return false;
+        }
+        List<?> list = (List<?>) expr;
+        switch (list.get(0).toString().toLowerCase()) {
+            case "return":
+                return true;
+            case "quote": case "defun": case "defun-memo": case "defmacro":
+            case "dotimes": case "dolist": case "do": case "do*": case "loop":
+                return false;
+            default:
+                for (int i = 1; i < list.size(); i++) {
+                    if (returnsFromLoop(list.get(i))) {
+                        return true;
+                    }
+                }
+                return false;
+        }
+    }
+
+    /**
+     * Compila (return [valor]), que termina el ciclo más cercano.
+     */
+    private Node compileReturn(List<?> list, Scope scope) {
+        if (list.size() > 2) throw new IllegalArgumentException("Uso incorrecto de RETURN");
+        if (!scope.inLoop()) throw new IllegalArgumentException("RETURN fuera de un ciclo");
+        Node value = list.size() == 2 ? compile(list.get(1), scope) : new Nodes.ConstantNode(Cons.NIL);
+        return new Nodes.ReturnNode(value);
+    }
+
+    private Node compileSetq(List<?> list, Scope scope) {
+        if (list.size() != 3) throw new IllegalArgumentException("Uso incorrecto de SETQ");
+        String target = list.get(1).toString();
+        Node value = compile(list.get(2), scope);
+        LocalRef ref = scope.resolve(target);
+        if (ref != null) {
+            return new Nodes.SetqLocalNode(ref, value);
+        }
+        return new Nodes.SetqGlobalNode(target, value);
+    }
+
+    private Node compileIf(List<?> list, Scope scope, boolean tail) {
+        if (list.size() != 3 && list.size() != 4) {
+            throw new IllegalArgumentException("Uso incorrecto de IF");
+        }
+        Node otherwise = list.size() == 4
+                ? compile(list.get(3), scope, tail)
+                : new Nodes.ConstantNode(Boolean.FALSE);
+        return new Nodes.IfNode(compile(list.get(1), scope), compile(list.get(2), scope, tail), otherwise);
+    }
+
+    private Node compileArithmetic(int op, List<?> list, Scope scope) {
+        if (list.size() < 2) throw new RuntimeException("Se requieren argumentos para operación aritmética");
+        return new Nodes.ArithmeticNode(op, compileArgs(list, 1, scope));
+    }
+
+    private Node compileComparison(int op, List<?> list, Scope scope) {
+        if (list.size() != 3) throw new RuntimeException("Las operaciones lógicas requieren exactamente 2 argumentos");
+        return new Nodes.ComparisonNode(op, compile(list.get(1), scope), compile(list.get(2), scope));
+    }
+
+    private Node[] compileArgs(List<?> list, int from, Scope scope) {
+        Node[] nodes = new Node[list.size() - from];
+        for (int i = from; i < list.size(); i++) {
+            nodes[i - from] = compile(list.get(i), scope);
+        }
+        return nodes;
+    }
+}
@@ -2,6 +2,7 @@ package com.interpeter;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.function.Consumer;
 
 /**
  * Clase que representa una función en el intérprete LISP.
@@ -19,9 +20,17 @@ public class Function {
 
         private String name;
         private List<String> params;
-        private ArrayList<List<?>> body;
+        private ArrayList<Object> body;
+        private Node[] compiledBody;
+        private volatile int frameSize;
+        private volatile Chunk chunk;
+        private volatile boolean valid = true;
+        private MemoCache memo;
+        private volatile Consumer<Function> pendingBody;
+        private MacroExpander.Dependency expandedFrom;
+        private final JIT.State jitState = new JIT.State();
     
-        public Function(String name, List<String> params, ArrayList<List<?>> body) {
+        public Function(String name, List<String> params, ArrayList<Object> body) {
             this.name = name;
             this.params = params;
             this.body = body;
@@ -53,10 +62,172 @@ public class Function {
      *
      * @return El cuerpo de la función, representado como una lista de líneas.
      */
-    public ArrayList<List<?>> getBody() {
+    public ArrayList<Object> getBody() {
+        decode();
         return body;
     }
 
+    /**
+     * Obtiene el cuerpo de la función compilado a nodos ejecutables.
+     *
+     * @return Los nodos del cuerpo, uno por expresión.
+     */
+    public Node[] getCompiledBody() {
+        decode();
+        return compiledBody;
+    }
+
+    /**
+     * Deja el cuerpo de la función sin leer: el decodificador lo establece, con
+     * {@link #setBody} y {@link #setCompiledBody}, la primera vez que se pide.
+     *
+     * @param decoder La acción que decodifica y compila el cuerpo.
+     */
+    void setPendingBody(Consumer<Function> decoder) {
+        this.pendingBody = decoder;
+    }
+
+    /**
+     * Indica si el cuerpo ya está disponible o sigue pendiente de decodificar.
+     *
+     * @return false si la función viene de una imagen y aún no se ha usado.
+     */
+    boolean isDecoded() {
+        return pendingBody == null;
+    }
+
+    private void decode() {
+        if (pendingBody != null) {
+            synchronized (this) {
+                Consumer<Function> decoder = pendingBody;
+                if (decoder != null) {
+                    decoder.accept(this);
+                    pendingBody = null;
+                }
+            }
+        }
+    }
+
+    /**
+     * Establece el cuerpo compilado de la función.
+     *
+     * @param compiledBody Los nodos del cuerpo, uno por expresión.
+     */
+    public void setCompiledBody(Node[] compiledBody) {
+        this.compiledBody = compiledBody;
+    }
+
+    /**
+     * Obtiene el número de ranuras del marco de una llamada: los parámetros y
+     * las variables de los ciclos del cuerpo.
+     *
+     * @return El tamaño del marco.
+     */
+    public int getFrameSize() {
+        return Math.max(frameSize, params.size());
+    }
+
+    /**
+     * Establece el número de ranuras del marco; nunca lo reduce.
+     *
+     * @param frameSize El número de ranuras que necesita el cuerpo compilado.
+     */
+    public synchronized void setFrameSize(int frameSize) {
+        this.frameSize = Math.max(this.frameSize, frameSize);
+    }
+
+    /**
+     * Obtiene el cuerpo de la función compilado a bytecode.
+     *
+     * @return El bytecode del cuerpo, o null si aún no se ha ejecutado en la máquina virtual.
+     */
+    public Chunk getChunk() {
+        return chunk;
+    }
+
+    /**
+     * Establece el cuerpo de la función compilado a bytecode.
+     *
+     * @param chunk El bytecode del cuerpo.
+     */
+    public void setChunk(Chunk chunk) {
+        this.chunk = chunk;
+    }
+
+    /**
+     * Indica si esta definición sigue vigente en el contexto.
+     * El código generado por el JIT lo comprueba antes de llamar directamente a la función.
+     *
+     * @return false si la función fue redefinida o eliminada.
+     */
+    public boolean isValid() {
+        return valid;
+    }
+
+    /**
+     * Invalida esta definición porque la función fue redefinida o eliminada,
+     * de modo que el código generado que dependa de ella vuelva a buscarla por nombre.
+     */
+    public void invalidate() {
+        valid = false;
+    }
+
+    /**
+     * Obtiene la caché de resultados de la función.
+     *
+     * @return La caché, o null si la función no está memoizada.
+     */
+    public MemoCache getMemo() {
+        return memo;
+    }
+
+    /**
+     * Crea una copia de esta definición con otra caché de resultados, para
+     * reemplazarla en el contexto con {@link Context#setFunction}. La copia es
+     * una definición nueva, así que las llamadas ya compiladas a esta función
+     * vuelven a buscarla y pasan por la caché.
+     *
+     * @param memo La caché, o null para quitar la memoización.
+     * @return La nueva definición.
+     */
+    public Function withMemo(MemoCache memo) {
+        decode();
+        Function copy = new Function(name, params, body);
+        copy.compiledBody = compiledBody;
+        copy.frameSize = frameSize;
+        copy.memo = memo;
+        copy.expandedFrom = expandedFrom;
+        return copy;
+    }
+
+    /**
+     * Obtiene la definición original de la función si su cuerpo usó macros.
+     *
+     * @return La definición y las macros que usó, o null si el cuerpo no tenía macros.
+     */
+    MacroExpander.Dependency getExpandedFrom() {
+        return expandedFrom;
+    }
+
+    /**
+     * Establece la definición original de una función cuyo cuerpo usó macros,
+     * para volver a expandirla si alguna se redefine.
+     *
+     * @param expandedFrom La definición y las macros que usó.
+     */
+    void setExpandedFrom(MacroExpander.Dependency expandedFrom) {
+        this.expandedFrom = expandedFrom;
+    }
+
+    /**
+     * Obtiene el estado del JIT (contador de llamadas y código generado).
+     *
+     * @return El estado del JIT de la función.
+     */
+    JIT.State getJitState() {
+        return jitState;
+    }
+
     /**
      * Establece el nombre de la función.
      *
@@ -80,7 +251,7 @@ public class Function {
      *
      * @param body El nuevo cuerpo de la función, representado como una lista de líneas.
      */
-    public void setBody(ArrayList<List<?>> body) {
+    public void setBody(ArrayList<Object> body) {
         this.body = body;
     }
 
@@ -93,7 +264,10 @@ public class Function {
      */
     public void replaceParamsInBody() {
         for (int i = 0; i < body.size(); i++) {
-            List<?> line = body.get(i);
+            if (!(body.get(i) instanceof List)) {
+                continue;
+            }
+            List<?> line = (List<?>) body.get(i);
         for (int j = 0; j < line.size(); j++) {
             int paramIndex = params.indexOf(line.get(j));
             if (paramIndex != -1) {
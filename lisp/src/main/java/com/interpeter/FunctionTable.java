@@ -0,0 +1,167 @@
+package com.interpeter;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Tabla de funciones definidas con defun y de macros definidas con defmacro,
+ * compartida por todas las sesiones ({@link Context}) creadas a partir de ella.
+ * Las lecturas no toman candados; las definiciones se serializan entre sí y cada
+ * una le asigna a la tabla una versión nueva, que los sitios de llamada guardan
+ * junto con la función resuelta (ver {@link Binding}) para saber si sigue vigente.
+ * Funciones y macros comparten los nombres: definir una quita la otra del
+ * mismo nombre. Las macros tienen además su propia versión, que cambia solo
+ * con ellas y con la que se validan las expansiones guardadas.
+ * Los nombres se guardan en minúsculas.
+ */
+public final class FunctionTable {
+
+    // Las versiones son únicas entre todas las tablas, así que una versión
+    // guardada nunca coincide con la de otra tabla ni con un estado anterior
+    private static final AtomicLong VERSIONS = new AtomicLong();
+
+    private final Map<String, Function> functions = new ConcurrentHashMap<>();
+    private final Map<String, Macro> macros = new ConcurrentHashMap<>();
+    private volatile long version = VERSIONS.incrementAndGet();
+    private volatile long macroVersion = version;
+
+    /**
+     * Función resuelta por un sitio de llamada y la versión de la tabla en que se
+     * resolvió. Es inmutable, así que un hilo nunca ve la función de una versión
+     * con el número de otra.
+     */
+    static final class Binding {
+        final Function function;
+        final long version;
+
+        private Binding(Function function, long version) {
+            this.function = function;
+            this.version = version;
+        }
+    }
+
+    /**
+     * Obtiene una función por su nombre.
+     *
+     * @param name El nombre, en cualquier combinación de mayúsculas.
+     * @return La función, o null si no existe.
+     */
+    public Function get(String name) {
+        return functions.get(name.toLowerCase());
+    }
+
+    /**
+     * Resuelve un nombre para guardarlo en un sitio de llamada. La versión se
+     * lee antes que la función, así que si una definición ocurre en medio el
+     * resultado solo puede quedar viejo, y se volverá a resolver.
+     *
+     * @param name El nombre de la función.
+     * @return La función y la versión, o null si la función no existe.
+     */
+    Binding resolve(String name) {
+        long current = version;
+        Function func = get(name);
+        return func == null ? null : new Binding(func, current);
+    }
+
+    /**
+     * Define o redefine una función e invalida la definición anterior.
+     *
+     * @param name El nombre de la función.
+     * @param value La función.
+     */
+    public synchronized void define(String name, Function value) {
+        Function previous = functions.put(name.toLowerCase(), value);
+        version = VERSIONS.incrementAndGet();
+        if (previous != null && previous != value) {
+            previous.invalidate();
+        }
+        if (macros.remove(name.toLowerCase()) != null) {
+            macroVersion = version;
+        }
+    }
+
+    /**
+     * Obtiene una macro por su nombre.
+     *
+     * @param name El nombre, en cualquier combinación de mayúsculas.
+     * @return La macro, o null si no existe.
+     */
+    public Macro getMacro(String name) {
+        return macros.get(name.toLowerCase());
+    }
+
+    /**
+     * Define o redefine una macro, quitando la función del mismo nombre si existe.
+     * Las expansiones guardadas dejan de ser válidas.
+     *
+     * @param name El nombre de la macro.
+     * @param macro La macro.
+     * @return La macro que se reemplazó, o null si no había una.
+     */
+    public synchronized Macro defineMacro(String name, Macro macro) {
+        Macro previous = macros.put(name.toLowerCase(), macro);
+        Function function = functions.remove(name.toLowerCase());
+        if (function != null) {
+            function.invalidate();
+        }
+        version = VERSIONS.incrementAndGet();
+        macroVersion = version;
+        return previous;
+    }
+
+    /**
+     * Obtiene la versión de las macros; cambia con cada definición de una macro
+     * y cuando una función reemplaza a una macro.
+     *
+     * @return La versión de las macros de la tabla.
+     */
+    public long getMacroVersion() {
+        return macroVersion;
+    }
+
+    /**
+     * Obtiene una vista de solo lectura de las macros.
+     *
+     * @return Las macros por nombre en minúsculas.
+     */
+    public Map<String, Macro> getMacros() {
+        return Collections.unmodifiableMap(macros);
+    }
+
+    /**
+     * Reemplaza todas las funciones de la tabla.
+     *
+     * @param replacement Las funciones nuevas, con los nombres en minúsculas.
+     */
+    public synchronized void replaceAll(Map<String, Function> replacement) {
+        for (Map.Entry<String, Function> previous : functions.entrySet()) {
+            if (replacement.get(previous.getKey()) != previous.getValue()) {
+                previous.getValue().invalidate();
+            }
+        }
+        functions.putAll(replacement);
+        functions.keySet().retainAll(replacement.keySet());
+        version = VERSIONS.incrementAndGet();
+    }
+
+    /**
+     * Obtiene la versión actual; cambia con cada definición.
+     *
+     * @return La versión de la tabla.
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Obtiene una vista de solo lectura de las funciones.
+     *
+     * @return Las funciones por nombre en minúsculas.
+     */
+    public Map<String, Function> asMap() {
+        return Collections.unmodifiableMap(functions);
+    }
+}
@@ -0,0 +1,369 @@
+package com.interpeter;
+
+/**
+ * Tabla hash de LISP (make-hash-table) con direccionamiento abierto y sondeo lineal.
+ * Las claves y los valores viven en arreglos paralelos, sin un objeto por
+ * entrada, y los borrados desplazan hacia atrás las entradas siguientes en lugar
+ * de dejar marcas, así que una casilla está libre si y solo si su valor es null.
+ * Mientras todas las claves sean enteros (Long) se guardan en un long[] y se
+ * comparan como primitivos; la primera clave de otro tipo convierte la tabla a
+ * claves Object, y desde entonces se guarda también el hash de cada clave para
+ * no recalcularlo al crecer ni comparar claves con hashes distintos.
+ */
+public final class HashTable {
+
+    /**
+     * Prueba de igualdad de las claves (:test).
+     */
+    public enum Test {
+        /** Identidad; los enteros y los símbolos se comparan por valor. */
+        EQ,
+        /** Como EQ, y además números del mismo tipo con el mismo valor. */
+        EQL,
+        /** Como EQL, y además listas con la misma estructura. */
+        EQUAL;
+
+        /**
+         * Compara dos valores con esta prueba.
+         *
+         * @param a El primer valor.
+         * @param b El segundo valor.
+         * @return true si los valores son iguales según la prueba.
+         */
+        public boolean test(Object a, Object b) {
+            if (a == b) {
+                return true;
+            }
+            if (a instanceof Long || a instanceof String) {
+                return a.equals(b);
+            }
+            switch (this) {
+                case EQ: return false;
+                case EQL: return a instanceof Number && a.equals(b);
+                default: return (a instanceof Number || a instanceof Cons) && a.equals(b);
+            }
+        }
+
+        /**
+         * Calcula un hash compatible con {@link #test}.
+         */
+        int hashCode(Object key) {
+            if (key instanceof Long || key instanceof String
+                    || (this != EQ && key instanceof Number)
+                    || (this == EQUAL && key instanceof Cons)) {
+                return key.hashCode();
+            }
+            return System.identityHashCode(key);
+        }
+    }
+
+    private static final int MIN_CAPACITY = 16;
+
+    private final Test test;
+    private long[] longKeys;
+    private Object[] keys;
+    private int[] hashes;
+    private Object[] values;
+    private int size;
+    private int mask;
+
+    /**
+     * Crea una tabla vacía.
+     *
+     * @param test La prueba de igualdad de las claves.
+     * @param expectedSize El número de entradas que se espera guardar.
+     */
+    public HashTable(Test test, int expectedSize) {
+        this.test = test;
+        int capacity = MIN_CAPACITY;
+        while (capacity * 2 < expectedSize * 3) {
+            capacity <<= 1;
+        }
+        longKeys = new long[capacity];
+        values = new Object[capacity];
+        mask = capacity - 1;
+    }
+
+    public HashTable(Test test) {
+        this(test, 0);
+    }
+
+    public Test getTest() {
+        return test;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Indica si las claves se guardan todavía como long primitivos.
+     *
+     * @return true si todas las claves han sido enteros.
+     */
+    public boolean hasFixnumKeys() {
+        return keys == null;
+    }
+
+    /**
+     * Busca el valor de una clave entera sin crear un Long.
+     *
+     * @param key La clave.
+     * @return El valor, o null si la clave no está.
+     */
+    public Object get(long key) {
+        if (keys != null) {
+            return get((Object) key);
+        }
+        for (int i = slot(mix(key)); values[i] != null; i = (i + 1) & mask) {
+            if (longKeys[i] == key) {
+                return values[i];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Busca el valor de una clave.
+     *
+     * @param key La clave.
+     * @return El valor, o null si la clave no está.
+     */
+    public Object get(Object key) {
+        if (keys == null) {
+            return key instanceof Long ? get(((Long) key).longValue()) : null;
+        }
+        int index = find(key);
+        return index < 0 ? null : values[index];
+    }
+
+    /**
+     * Guarda el valor de una clave entera sin crear un Long mientras la tabla
+     * tenga solo claves enteras.
+     *
+     * @param key La clave.
+     * @param value El valor; null se guarda como NIL.
+     */
+    public void put(long key, Object value) {
+        if (keys != null) {
+            put((Object) key, value);
+            return;
+        }
+        if (value == null) {
+            value = Cons.NIL;
+        }
+        int i = slot(mix(key));
+        while (values[i] != null) {
+            if (longKeys[i] == key) {
+                values[i] = value;
+                return;
+            }
+            i = (i + 1) & mask;
+        }
+        longKeys[i] = key;
+        values[i] = value;
+        grow();
+    }
+
+    /**
+     * Guarda el valor de una clave.
+     *
+     * @param key La clave.
+     * @param value El valor; null se guarda como NIL.
+     */
+    public void put(Object key, Object value) {
+        if (keys == null) {
+            if (key instanceof Long) {
+                put(((Long) key).longValue(), value);
+                return;
+            }
+            boxKeys();
+        }
+        if (value == null) {
+            value = Cons.NIL;
+        }
+        int hash = hash(key);
+        int i = slot(hash);
+        while (values[i] != null) {
+            if (hashes[i] == hash && test.test(keys[i], key)) {
+                values[i] = value;
+                return;
+            }
+            i = (i + 1) & mask;
+        }
+        keys[i] = key;
+        hashes[i] = hash;
+        values[i] = value;
+        grow();
+    }
+
+    /**
+     * Elimina una clave.
+     *
+     * @param key La clave.
+     * @return true si la clave estaba en la tabla.
+     */
+    public boolean remove(Object key) {
+        int index;
+        if (keys == null) {
+            if (!(key instanceof Long)) {
+                return false;
+            }
+            long k = (Long) key;
+            index = -1;
+            for (int i = slot(mix(k)); values[i] != null; i = (i + 1) & mask) {
+                if (longKeys[i] == k) {
+                    index = i;
+                    break;
+                }
+            }
+        } else {
+            index = find(key);
+        }
+        if (index < 0) {
+            return false;
+        }
+        delete(index);
+        return true;
+    }
+
+    /**
+     * Elimina todas las entradas; la tabla vuelve a aceptar claves enteras sin caja.
+     */
+    public void clear() {
+        int capacity = MIN_CAPACITY;
+        longKeys = new long[capacity];
+        keys = null;
+        hashes = null;
+        values = new Object[capacity];
+        mask = capacity - 1;
+        size = 0;
+    }
+
+    /**
+     * Recorre una copia de las entradas, de modo que la acción puede modificar la tabla.
+     *
+     * @param action La acción que recibe cada clave y su valor.
+     */
+    public void forEach(java.util.function.BiConsumer<Object, Object> action) {
+        Object[] entries = new Object[size * 2];
+        int n = 0;
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] != null) {
+                entries[n++] = keys == null ? (Object) longKeys[i] : keys[i];
+                entries[n++] = values[i];
+            }
+        }
+        for (int i = 0; i < n; i += 2) {
+            action.accept(entries[i], entries[i + 1]);
+        }
+    }
+
+    private int find(Object key) {
+        int hash = hash(key);
+        for (int i = slot(hash); values[i] != null; i = (i + 1) & mask) {
+            if (hashes[i] == hash && test.test(keys[i], key)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Libera una casilla y desplaza hacia atrás las entradas del mismo grupo que
+     * quedarían inalcanzables, de modo que no hacen falta marcas de borrado.
+     */
+    private void delete(int index) {
+        int hole = index;
+        for (int i = (index + 1) & mask; values[i] != null; i = (i + 1) & mask) {
+            int home = slot(keys == null ? mix(longKeys[i]) : hashes[i]);
+            // La entrada puede ocupar el hueco si su casilla ideal no está entre el hueco y ella
+            if (((i - home) & mask) >= ((i - hole) & mask)) {
+                if (keys == null) {
+                    longKeys[hole] = longKeys[i];
+                } else {
+                    keys[hole] = keys[i];
+                    hashes[hole] = hashes[i];
+                }
+                values[hole] = values[i];
+                hole = i;
+            }
+        }
+        if (keys != null) {
+            keys[hole] = null;
+        }
+        values[hole] = null;
+        size--;
+    }
+
+    private void grow() {
+        size++;
+        // Factor de carga máximo de 2/3
+        if (size * 3 <= values.length * 2) {
+            return;
+        }
+        long[] oldLongKeys = longKeys;
+        Object[] oldKeys = keys;
+        int[] oldHashes = hashes;
+        Object[] oldValues = values;
+        int capacity = oldValues.length * 2;
+        mask = capacity - 1;
+        values = new Object[capacity];
+        if (oldKeys == null) {
+            longKeys = new long[capacity];
+        } else {
+            keys = new Object[capacity];
+            hashes = new int[capacity];
+        }
+        for (int j = 0; j < oldValues.length; j++) {
+            if (oldValues[j] == null) {
+                continue;
+            }
+            int i = slot(oldKeys == null ? mix(oldLongKeys[j]) : oldHashes[j]);
+            while (values[i] != null) {
+                i = (i + 1) & mask;
+            }
+            if (oldKeys == null) {
+                longKeys[i] = oldLongKeys[j];
+            } else {
+                keys[i] = oldKeys[j];
+                hashes[i] = oldHashes[j];
+            }
+            values[i] = oldValues[j];
+        }
+    }
+
+    /**
+     * Pasa de claves long a claves Object. Las posiciones no cambian porque un
+     * Long tiene el mismo hash que el long que contiene.
+     */
+    private void boxKeys() {
+        keys = new Object[values.length];
+        hashes = new int[values.length];
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] != null) {
+                keys[i] = longKeys[i];
+                hashes[i] = mix(longKeys[i]);
+            }
+        }
+        longKeys = null;
+    }
+
+    private int hash(Object key) {
+        return key instanceof Long ? mix((Long) key) : mix(test.hashCode(key));
+    }
+
+    private static int mix(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    private int slot(int hash) {
+        return (hash ^ (hash >>> 16)) & mask;
+    }
+
+    @Override
+    public String toString() {
+        return "#<HASH-TABLE :TEST " + test + " :COUNT " + size + ">";
+    }
+}
@@ -0,0 +1,416 @@
+package com.interpeter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Imagen binaria de un contexto (save-image y load-image): las variables
+ * globales, las funciones definidas, con su cuerpo ya expandido y optimizado,
+ * y las macros, que se guardan como su forma defmacro y se definen de nuevo al cargar.
+ * El archivo empieza con una tabla de cadenas con todos los símbolos, a la que
+ * el resto se refiere por índice; los enteros se escriben como varint.
+ * Al cargar, el archivo se mapea en memoria y solo se decodifican la tabla de
+ * cadenas, las variables y los encabezados de las funciones; el cuerpo de cada
+ * función queda como un fragmento del archivo que se decodifica y compila la
+ * primera vez que se llama (ver {@link Function#setPendingBody}).
+ * Los nodos, el bytecode y el código del JIT no se guardan: se generan de
+ * nuevo a partir del cuerpo. Una llamada integrada por el {@link Optimizer} se
+ * guarda como la llamada original, porque la expansión depende de la
+ * definición vigente en el proceso que la generó. Las funciones cargadas no
+ * recuerdan las macros que usaban, así que redefinir una macro no las cambia.
+ */
+public final class Image {
+
+    private static final int MAGIC = 0x4C495350; // "LISP"
+    private static final int VERSION = 2;
+
+    private static final int NIL = 0;
+    private static final int TRUE = 1;
+    private static final int FALSE = 2;
+    private static final int FIXNUM = 3;
+    private static final int BIGNUM = 4;
+    private static final int DOUBLE = 5;
+    private static final int RATIO = 6;
+    private static final int SYMBOL = 7;
+    private static final int FORM = 8;
+    private static final int CONS = 9;
+    private static final int VECTOR = 10;
+    private static final int HASH_TABLE = 11;
+
+    private Image() {
+    }
+
+    /**
+     * Guarda las variables y funciones de un contexto.
+     *
+     * @param context El contexto.
+     * @param path El archivo de la imagen; se reemplaza si existe.
+     * @throws IOException Si no se puede escribir el archivo.
+     * @throws IllegalArgumentException Si una variable tiene un valor que no se puede guardar.
+     */
+    public static void save(Context context, Path path) throws IOException {
+        Writer writer = new Writer();
+        Output globals = new Output();
+        globals.varint(context.getVariables().size());
+        for (Map.Entry<String, Object> variable : context.getVariables().entrySet()) {
+            globals.varint(writer.symbol(variable.getKey()));
+            writer.value(globals, variable.getValue(), variable.getKey());
+        }
+        Output functions = new Output();
+        Map<String, Function> definitions = context.getFunctions();
+        functions.varint(definitions.size());
+        for (Function func : definitions.values()) {
+            functions.varint(writer.symbol(func.getName()));
+            functions.varint(func.getParams().size());
+            for (String param : func.getParams()) {
+                functions.varint(writer.symbol(param));
+            }
+            functions.varint(func.getFrameSize());
+            functions.varint(func.getMemo() != null ? func.getMemo().getLimit() : 0);
+            Output body = new Output();
+            body.varint(func.getBody().size());
+            for (Object expr : func.getBody()) {
+                writer.value(body, expr, func.getName());
+            }
+            functions.varint(body.size());
+            body.writeTo(functions);
+        }
+        Output macros = new Output();
+        Map<String, Macro> macroDefinitions = context.getFunctionTable().getMacros();
+        macros.varint(macroDefinitions.size());
+        for (Macro macro : macroDefinitions.values()) {
+            writer.value(macros, macro.getDefinition(), macro.getName());
+        }
+
+        Output header = new Output();
+        header.int32(MAGIC);
+        header.int32(VERSION);
+        header.varint(writer.strings.size());
+        for (String string : writer.strings.keySet()) {
+            byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+            header.varint(bytes.length);
+            header.write(bytes, 0, bytes.length);
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            for (Output part : new Output[] { header, globals, functions, macros }) {
+                ByteBuffer buffer = part.buffer();
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            }
+        }
+    }
+
+    /**
+     * Carga una imagen en un contexto: define sus funciones y macros,
+     * reemplazando las que tengan el mismo nombre, y establece sus variables.
+     *
+     * @param context El contexto.
+     * @param path El archivo de la imagen.
+     * @return El número de funciones definidas.
+     * @throws IOException Si no se puede leer el archivo.
+     * @throws IllegalArgumentException Si el archivo no es una imagen válida.
+     */
+    public static int load(Context context, Path path) throws IOException {
+        ByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            // El mapeo sigue vigente después de cerrar el canal
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if (buffer.remaining() < 8 || buffer.getInt() != MAGIC) {
+            throw new IllegalArgumentException("No es una imagen LISP: " + path);
+        }
+        int version = buffer.getInt();
+        if (version != VERSION) {
+            throw new IllegalArgumentException("Versión de imagen no soportada: " + version);
+        }
+        try {
+            Reader reader = new Reader(buffer, readStrings(buffer));
+            int globals = reader.varint();
+            for (int i = 0; i < globals; i++) {
+                String name = reader.symbol();
+                context.setVariable(name, reader.value());
+            }
+            int functions = reader.varint();
+            for (int i = 0; i < functions; i++) {
+                String name = reader.symbol();
+                List<String> params = new ArrayList<>();
+                for (int j = reader.varint(); j > 0; j--) {
+                    params.add(reader.symbol());
+                }
+                int frameSize = reader.varint();
+                int memoLimit = reader.varint();
+                int length = reader.varint();
+                ByteBuffer body = buffer.slice(buffer.position(), length);
+                buffer.position(buffer.position() + length);
+
+                Function func = new Function(name, params, null);
+                if (memoLimit > 0) {
+                    // Antes de dejar el cuerpo pendiente, para que la copia no lo decodifique
+                    func = func.withMemo(new MemoCache(memoLimit));
+                }
+                func.setFrameSize(frameSize);
+                func.setPendingBody(f -> decodeBody(f, new Reader(body.duplicate(), reader.strings)));
+                context.setFunction(name, func);
+            }
+            Evaluator evaluator = new Evaluator(context);
+            for (int i = reader.varint(); i > 0; i--) {
+                evaluator.evaluate(reader.value());
+            }
+            return functions;
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("Imagen dañada: " + path + ": " + e.getMessage(), e);
+        }
+    }
+
+    private static void decodeBody(Function func, Reader reader) {
+        ArrayList<Object> body = new ArrayList<>();
+        for (int i = reader.varint(); i > 0; i--) {
+            body.add(reader.value());
+        }
+        new FormCompiler().compileBody(func, body);
+    }
+
+    private static String[] readStrings(ByteBuffer buffer) {
+        String[] strings = new String[readVarint(buffer)];
+        for (int i = 0; i < strings.length; i++) {
+            byte[] bytes = new byte[readVarint(buffer)];
+            buffer.get(bytes);
+            strings[i] = new String(bytes, StandardCharsets.UTF_8);
+        }
+        return strings;
+    }
+
+    private static int readVarint(ByteBuffer buffer) {
+        return (int) readVarlong(buffer);
+    }
+
+    private static long readVarlong(ByteBuffer buffer) {
+        long value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = buffer.get();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+    }
+
+    /** Búfer de bytes con escritura de varint. */
+    private static final class Output extends ByteArrayOutputStream {
+
+        void varint(long value) {
+            while ((value & ~0x7FL) != 0) {
+                write((int) (value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            write((int) value);
+        }
+
+        void int32(int value) {
+            for (int shift = 24; shift >= 0; shift -= 8) {
+                write(value >>> shift);
+            }
+        }
+
+        void bytes(byte[] bytes) {
+            varint(bytes.length);
+            write(bytes, 0, bytes.length);
+        }
+
+        void writeTo(Output other) {
+            other.write(buf, 0, count);
+        }
+
+        ByteBuffer buffer() {
+            return ByteBuffer.wrap(buf, 0, count);
+        }
+    }
+
+    /** Codifica valores y reúne la tabla de cadenas. */
+    private static final class Writer {
+        final Map<String, Integer> strings = new LinkedHashMap<>();
+        // Contenedores que se están escribiendo, para detectar estructuras circulares
+        private final Map<Object, Boolean> open = new IdentityHashMap<>();
+
+        int symbol(String name) {
+            Integer index = strings.get(name);
+            if (index == null) {
+                index = strings.size();
+                strings.put(name, index);
+            }
+            return index;
+        }
+
+        void value(Output out, Object value, String owner) {
+            if (value == Cons.NIL) {
+                out.varint(NIL);
+            } else if (value instanceof Boolean) {
+                out.varint((Boolean) value ? TRUE : FALSE);
+            } else if (value instanceof Long) {
+                long n = (Long) value;
+                out.varint(FIXNUM);
+                out.varint((n << 1) ^ (n >> 63));
+            } else if (value instanceof BigInteger) {
+                out.varint(BIGNUM);
+                out.bytes(((BigInteger) value).toByteArray());
+            } else if (value instanceof Double) {
+                out.varint(DOUBLE);
+                out.varint(Double.doubleToRawLongBits((Double) value));
+            } else if (value instanceof Ratio) {
+                out.varint(RATIO);
+                out.bytes(((Ratio) value).getNumerator().toByteArray());
+                out.bytes(((Ratio) value).getDenominator().toByteArray());
+            } else if (value instanceof String) {
+                out.varint(SYMBOL);
+                out.varint(symbol((String) value));
+            } else if (value instanceof List || value instanceof Cons
+                    || value instanceof LispVector || value instanceof HashTable) {
+                if (open.put(value, Boolean.TRUE) != null) {
+                    throw new IllegalArgumentException("SAVE-IMAGE no puede guardar una estructura circular en " + owner);
+                }
+                container(out, value, owner);
+                open.remove(value);
+            } else {
+                throw new IllegalArgumentException("SAVE-IMAGE no puede guardar el valor de " + owner + ": " + value);
+            }
+        }
+
+        private void container(Output out, Object value, String owner) {
+            if (value instanceof List) {
+                List<?> list = (List<?>) value;
+                if (list.size() == 4 && "%inline".equalsIgnoreCase(String.valueOf(list.get(0)))) {
+                    value(out, list.get(2), owner);
+                    return;
+                }
+                out.varint(FORM);
+                out.varint(list.size());
+                for (Object element : list) {
+                    value(out, element, owner);
+                }
+            } else if (value instanceof Cons) {
+                // Los elementos de la lista y luego la cola, que es NIL salvo en una lista impropia
+                List<Object> elements = new ArrayList<>();
+                Object tail = value;
+                while (tail instanceof Cons && tail != Cons.NIL) {
+                    elements.add(((Cons) tail).car());
+                    tail = ((Cons) tail).cdr();
+                }
+                out.varint(CONS);
+                out.varint(elements.size());
+                for (Object element : elements) {
+                    value(out, element, owner);
+                }
+                value(out, tail, owner);
+            } else if (value instanceof LispVector) {
+                LispVector vector = (LispVector) value;
+                out.varint(VECTOR);
+                out.varint(vector.getElementType().ordinal());
+                out.varint(vector.length());
+                for (int i = 0; i < vector.length(); i++) {
+                    value(out, vector.get(i), owner);
+                }
+            } else {
+                HashTable table = (HashTable) value;
+                out.varint(HASH_TABLE);
+                out.varint(table.getTest().ordinal());
+                out.varint(table.size());
+                table.forEach((key, element) -> {
+                    value(out, key, owner);
+                    value(out, element, owner);
+                });
+            }
+        }
+    }
+
+    /** Decodifica valores de un fragmento del archivo mapeado. */
+    private static final class Reader {
+        final ByteBuffer buffer;
+        final String[] strings;
+
+        Reader(ByteBuffer buffer, String[] strings) {
+            this.buffer = buffer;
+            this.strings = strings;
+        }
+
+        int varint() {
+            return readVarint(buffer);
+        }
+
+        String symbol() {
+            return strings[varint()];
+        }
+
+        private BigInteger bigInteger() {
+            byte[] bytes = new byte[varint()];
+            buffer.get(bytes);
+            return new BigInteger(bytes);
+        }
+
+        Object value() {
+            int tag = varint();
+            switch (tag) {
+                case NIL: return Cons.NIL;
+                case TRUE: return true;
+                case FALSE: return false;
+                case FIXNUM: {
+                    long n = readVarlong(buffer);
+                    return (n >>> 1) ^ -(n & 1);
+                }
+                case BIGNUM: return bigInteger();
+                case DOUBLE: return Double.longBitsToDouble(readVarlong(buffer));
+                case RATIO: return Ratio.valueOf(bigInteger(), bigInteger());
+                case SYMBOL: return symbol();
+                case FORM: {
+                    Object[] elements = new Object[varint()];
+                    for (int i = 0; i < elements.length; i++) {
+                        elements[i] = value();
+                    }
+                    return new Form(elements, 0, 0, 0, 0);
+                }
+                case CONS: {
+                    Object[] elements = new Object[varint()];
+                    for (int i = 0; i < elements.length; i++) {
+                        elements[i] = value();
+                    }
+                    Object list = value();
+                    for (int i = elements.length - 1; i >= 0; i--) {
+                        list = new Cons(elements[i], list);
+                    }
+                    return list;
+                }
+                case VECTOR: {
+                    LispVector.ElementType type = LispVector.ElementType.values()[varint()];
+                    LispVector vector = LispVector.create(type, varint(), null);
+                    for (int i = 0; i < vector.length(); i++) {
+                        vector.set(i, value());
+                    }
+                    return vector;
+                }
+                case HASH_TABLE: {
+                    HashTable.Test test = HashTable.Test.values()[varint()];
+                    int size = varint();
+                    HashTable table = new HashTable(test, size);
+                    for (int i = 0; i < size; i++) {
+                        table.put(value(), value());
+                    }
+                    return table;
+                }
+                default:
+                    throw new IllegalArgumentException("Etiqueta desconocida: " + tag);
+            }
+        }
+    }
+}
@@ -0,0 +1,794 @@
+package com.interpeter;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Nivel JIT para funciones calientes.
+ * Cuenta las llamadas de cada función y, al superar el umbral, genera bytecode
+ * de la JVM para su cuerpo y lo carga como clase oculta, de modo que HotSpot
+ * puede integrar la aritmética y las llamadas recursivas como en código Java.
+ * Las llamadas recursivas a la propia función son invokestatic directos,
+ * protegidos por {@link Function#isValid()}: al redefinir la función con defun
+ * el código generado vuelve a buscarla por nombre. Las llamadas de cola a la
+ * propia función se convierten en un salto al inicio del método y las demás
+ * llamadas de cola se devuelven como {@link Nodes.TailCall} para que
+ * {@link #invoke} las ejecute en un bucle. Los ciclos dotimes, dolist, do,
+ * do* y loop simple son ciclos del método con sus variables en variables
+ * locales de la JVM; un return con la pila a la altura de entrada del ciclo es
+ * un salto a su final. Las formas fuera del subconjunto soportado (defun
+ * anidado, ámbitos anidados, loop extendido, return dentro de una expresión)
+ * dejan la función en el intérprete.
+ */
+public final class JIT {
+
+    private static volatile int threshold = Integer.getInteger("lisp.jit.threshold", 1000);
+
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+    private static final String CLASS_NAME = "com/interpeter/JitCode";
+    private static final String JIT_CLASS = "com/interpeter/JIT";
+    private static final String OBJECT = "Ljava/lang/Object;";
+    private static final String CONTEXT = "Lcom/interpeter/Context;";
+    private static final String FUNCTION = "Lcom/interpeter/Function;";
+
+    /**
+     * Estado del JIT asociado a cada función.
+     */
+    static final class State {
+        private int calls;
+        private boolean failed;
+        private int frameSize;
+        private volatile MethodHandle code;
+
+        /**
+         * Indica si la función ya tiene código generado.
+         *
+         * @return true si la función fue compilada por el JIT.
+         */
+        boolean isCompiled() {
+            return code != null;
+        }
+    }
+
+    /** Forma que el JIT no sabe traducir; la función se queda en el intérprete. */
+    private static final class UnsupportedForm extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        UnsupportedForm(Object form) {
+            super(String.valueOf(form), null, false, false);
+        }
+    }
+
+    private JIT() {
+    }
+
+    /**
+     * Cambia el número de llamadas tras el cual una función se compila.
+     *
+     * @param calls El nuevo umbral.
+     */
+    public static void setThreshold(int calls) {
+        threshold = calls;
+    }
+
+    /**
+     * Ejecuta una función contando sus llamadas y usando el código generado
+     * cuando exista.
+     *
+     * @param func La función a ejecutar.
+     * @param args Los argumentos, creados con {@link Evaluator#newFrame}.
+     * @param context El contexto global.
+     * @return El resultado de la función.
+     */
+    static Object invoke(Function func, Object[] args, Context context) {
+        Object result = step(func, args, context);
+        while (result instanceof Nodes.TailCall) {
+            Nodes.TailCall call = (Nodes.TailCall) result;
+            if (call.function.getMemo() != null || Profiler.enabled) {
+                return Evaluator.executeFunction(call.function, call.slots, context);
+            }
+            result = step(call.function, call.slots, context);
+        }
+        return result;
+    }
+
+    /**
+     * Ejecuta una vez el cuerpo de una función, que puede terminar en una llamada de cola pendiente.
+     */
+    private static Object step(Function func, Object[] args, Context context) {
+        State state = func.getJitState();
+        MethodHandle code = state.code;
+        if (code == null) {
+            if (state.failed || ++state.calls < threshold || (code = compile(func, context)) == null) {
+                return Evaluator.interpretBody(func, args, context);
+            }
+        }
+        if (args.length != state.frameSize) {
+            // El marco creció después de compilar, por ejemplo al usar otro motor
+            args = Arrays.copyOf(args, state.frameSize);
+        }
+        try {
+            return (Object) code.invokeExact(context, args);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new RuntimeException(t);
+        }
+    }
+
+    /**
+     * Compila el cuerpo de una función a una clase oculta.
+     *
+     * @param func La función caliente.
+     * @param context El contexto con el que se resuelven las funciones llamadas.
+     * @return El código con tipo (Context, Object[])Object, o null si no es compilable.
+     */
+    static MethodHandle compile(Function func, Context context) {
+        State state = func.getJitState();
+        synchronized (state) {
+            if (state.code != null || state.failed) {
+                return state.code;
+            }
+            try {
+                Generator generator = new Generator(func, context);
+                byte[] bytes = generator.generate();
+                MethodHandles.Lookup hidden = LOOKUP.defineHiddenClass(bytes, true);
+                Class<?> code = hidden.lookupClass();
+                hidden.findStaticSetter(code, "K", Object[].class).invoke(generator.constants.toArray());
+                hidden.findStaticSetter(code, "SELF", Function.class).invoke(func);
+                int arity = func.getParams().size();
+                int frameSize = func.getFrameSize();
+                MethodType type = MethodType.genericMethodType(arity).insertParameterTypes(0, Context.class);
+                // Las ranuras de los ciclos llegan en el marco pero run no las usa
+                MethodHandle run = MethodHandles.dropArguments(hidden.findStatic(code, "run", type),
+                        1 + arity, Collections.nCopies(frameSize - arity, Object.class));
+                state.frameSize = frameSize;
+                state.code = run.asSpreader(Object[].class, frameSize);
+            } catch (UnsupportedForm | IllegalStateException e) {
+                state.failed = true;
+            } catch (Throwable t) {
+                // Un error al cargar la clase no debe impedir ejecutar la función
+                state.failed = true;
+            }
+            return state.code;
+        }
+    }
+
+    /** Ciclo en generación: la altura de la pila al entrar y los saltos de sus return. */
+    private static final class Loop {
+        final int height;
+        final List<Integer> exits = new ArrayList<>();
+
+        Loop(int height) {
+            this.height = height;
+        }
+    }
+
+    /**
+     * Genera la clase de una función: un método estático run(Context, Object...)
+     * con el cuerpo, y un método call$n por cada llamada a función.
+     */
+    private static final class Generator {
+        private final Function func;
+        private final Context context;
+        private final Scope scope;
+        private final int arity;
+        private final ClassFileWriter writer = new ClassFileWriter(CLASS_NAME);
+        private final List<Object> constants = new ArrayList<>();
+        private final int constantsField;
+        private final int selfField;
+        private final List<Loop> loops = new ArrayList<>();
+        private int callSites;
+
+        Generator(Function func, Context context) {
+            this.func = func;
+            this.context = context;
+            this.scope = new Scope(func.getParams(), null);
+            this.arity = func.getParams().size();
+            writer.addField(ClassFileWriter.ACC_STATIC, "K", "[" + OBJECT);
+            writer.addField(ClassFileWriter.ACC_STATIC, "SELF", FUNCTION);
+            constantsField = writer.fieldRef(CLASS_NAME, "K", "[" + OBJECT);
+            selfField = writer.fieldRef(CLASS_NAME, "SELF", FUNCTION);
+        }
+
+        byte[] generate() throws UnsupportedForm {
+            ClassFileWriter.Code run = writer.addMethod(ClassFileWriter.ACC_PUBLIC | ClassFileWriter.ACC_STATIC,
+                    "run", descriptor(arity), 1 + arity);
+            List<Object> body = func.getBody();
+            for (int i = 0; i < body.size(); i++) {
+                if (i > 0) {
+                    run.pop();
+                }
+                expr(run, body.get(i), i == body.size() - 1);
+            }
+            run.areturn();
+            return writer.toByteArray();
+        }
+
+        private void expr(ClassFileWriter.Code code, Object expr) throws UnsupportedForm {
+            expr(code, expr, false);
+        }
+
+        private void expr(ClassFileWriter.Code code, Object expr, boolean tail) throws UnsupportedForm {
+            if (expr instanceof Number || expr instanceof Boolean) {
+                constant(code, expr);
+                return;
+            }
+
+            if (expr instanceof String) {
+                LocalRef ref = scope.resolve((String) expr);
+                if (ref == null && FormCompiler.isNil(expr)) {
+                    constant(code, Cons.NIL);
+                } else if (ref == null) {
+                    code.aload(0);
+                    constant(code, expr);
+                    code.invokestatic(writer.methodRef(JIT_CLASS, "global", "(" + CONTEXT + OBJECT + ")" + OBJECT), 2, 1);
+                } else if (ref.getDepth() == 0) {
+                    code.aload(1 + ref.getIndex());
+                } else {
+                    throw new UnsupportedForm(expr);
+                }
+                return;
+            }
+
+            if (expr instanceof List && !((List<?>) expr).isEmpty()) {
+                List<?> list = (List<?>) expr;
+                String operation = list.get(0).toString().toLowerCase();
+
+                switch (operation) {
+                    case "quote":
+                        if (list.size() != 2) break;
+                        constant(code, FormCompiler.quoted(list));
+                        return;
+                    case "if":
+                        if (list.size() != 3 && list.size() != 4) break;
+                        test(code, list.get(1));
+                        int jumpElse = code.ifeq();
+                        int height = code.stack();
+                        expr(code, list.get(2), tail);
+                        int jumpEnd = code.jump();
+                        code.stack(height);
+                        code.bind(jumpElse);
+                        expr(code, list.size() == 4 ? list.get(3) : Boolean.FALSE, tail);
+                        code.bind(jumpEnd);
+                        return;
+                    case "+": arithmetic(code, "add", list); return;
+                    case "-": arithmetic(code, "sub", list); return;
+                    case "*": arithmetic(code, "mul", list); return;
+                    case "/": arithmetic(code, "div", list); return;
+                    case "<": case "<=": case ">": case ">=": case "=": case "/=":
+                        if (list.size() != 3) break;
+                        test(code, list);
+                        code.invokestatic(writer.methodRef("java/lang/Boolean", "valueOf",
+                                "(Z)Ljava/lang/Boolean;"), 1, 1);
+                        return;
+                    case "setf":
+                        expr(code, FormCompiler.expandSetf(list), tail);
+                        return;
+                    case "setq":
+                        if (list.size() != 3) break;
+                        setq(code, list);
+                        return;
+                    case "dotimes": case "dolist": case "do": case "do*":
+                        loop(code, operation, list);
+                        return;
+                    case "loop":
+                        if (!FormCompiler.isSimpleLoop(list)) break;
+                        loop(code, operation, list);
+                        return;
+                    case "return":
+                        if (list.size() > 2 || loops.isEmpty()) break;
+                        ret(code, list);
+                        return;
+                    case "%inline": {
+                        constant(code, FormCompiler.inlined(list));
+                        code.checkcast(writer.classRef("com/interpeter/Function"));
+                        code.invokevirtual(writer.methodRef("com/interpeter/Function", "isValid", "()Z"), 0, 1);
+                        int slow = code.ifeq();
+                        int base = code.stack();
+                        expr(code, list.get(3), tail);
+                        int end = code.jump();
+                        code.stack(base);
+                        code.bind(slow);
+                        expr(code, list.get(2), tail);
+                        code.bind(end);
+                        return;
+                    }
+                    case "defun": case "defun-memo":
+                        break;
+                    default:
+                        Primitive primitive = Primitives.get(operation);
+                        if (primitive != null) {
+                            primitive(code, primitive, list);
+                        } else {
+                            call(code, operation, list, tail);
+                        }
+                        return;
+                }
+            }
+            throw new UnsupportedForm(expr);
+        }
+
+        private void setq(ClassFileWriter.Code code, List<?> list) throws UnsupportedForm {
+            String target = list.get(1).toString();
+            LocalRef ref = scope.resolve(target);
+            if (ref == null) {
+                code.aload(0);
+                constant(code, target);
+                expr(code, list.get(2));
+                code.invokestatic(writer.methodRef(JIT_CLASS, "setGlobal",
+                        "(" + CONTEXT + OBJECT + OBJECT + ")" + OBJECT), 3, 1);
+            } else if (ref.getDepth() == 0) {
+                expr(code, list.get(2));
+                code.dup();
+                code.astore(1 + ref.getIndex());
+            } else {
+                throw new UnsupportedForm(list);
+            }
+        }
+
+        /**
+         * Genera un ciclo. Las variables del ciclo, incluidas las ocultas que
+         * guardan la cuenta o el cursor, son variables locales de la JVM.
+         */
+        private void loop(ClassFileWriter.Code code, String operation, List<?> list) throws UnsupportedForm {
+            Loop loop = new Loop(code.stack());
+            loops.add(loop);
+            try {
+                switch (operation) {
+                    case "dotimes": dotimes(code, list); break;
+                    case "dolist": dolist(code, list); break;
+                    case "do": doLoop(code, list, false); break;
+                    case "do*": doLoop(code, list, true); break;
+                    default:
+                        int top = code.position();
+                        statements(code, list, 1);
+                        code.jumpTo(top);
+                        // Al final del ciclo solo se llega con el valor de un return
+                        code.stack(loop.height + 1);
+                        break;
+                }
+                for (int exit : loop.exits) {
+                    code.bind(exit);
+                }
+            } finally {
+                loops.remove(loops.size() - 1);
+            }
+        }
+
+        private void dotimes(ClassFileWriter.Code code, List<?> list) throws UnsupportedForm {
+            List<?> spec = FormCompiler.loopSpec(list, "DOTIMES");
+            expr(code, spec.get(1));
+            int limit = 1 + scope.push(" limite");
+            int var = 1 + scope.push((String) spec.get(0));
+            try {
+                code.astore(limit);
+                constant(code, 0L);
+                code.astore(var);
+                int top = code.position();
+                code.aload(var);
+                code.aload(limit);
+                code.invokestatic(writer.methodRef(JIT_CLASS, "lt", "(" + OBJECT + OBJECT + ")Z"), 2, 1);
+                int done = code.ifeq();
+                statements(code, list, 2);
+                code.aload(var);
+                constant(code, 1L);
+                code.invokestatic(writer.methodRef(JIT_CLASS, "add", "(" + OBJECT + OBJECT + ")" + OBJECT), 2, 1);
+                code.astore(var);
+                code.jumpTo(top);
+                code.bind(done);
+                results(code, spec, 2);
+            } finally {
+                scope.pop(2);
+            }
+        }
+
+        private void dolist(ClassFileWriter.Code code, List<?> list) throws UnsupportedForm {
+            List<?> spec = FormCompiler.loopSpec(list, "DOLIST");
+            expr(code, spec.get(1));
+            int cursor = 1 + scope.push(" cursor");
+            int var = 1 + scope.push((String) spec.get(0));
+            try {
+                code.astore(cursor);
+                int top = code.position();
+                code.aload(cursor);
+                code.invokestatic(writer.methodRef(JIT_CLASS, "more", "(" + OBJECT + ")Z"), 1, 1);
+                int done = code.ifeq();
+                code.aload(cursor);
+                code.invokestatic(writer.methodRef(JIT_CLASS, "first", "(" + OBJECT + ")" + OBJECT), 1, 1);
+                code.astore(var);
+                code.aload(cursor);
+                code.invokestatic(writer.methodRef(JIT_CLASS, "rest", "(" + OBJECT + ")" + OBJECT), 1, 1);
+                code.astore(cursor);
+                statements(code, list, 2);
+                code.jumpTo(top);
+                code.bind(done);
+                constant(code, Cons.NIL);
+                code.astore(var);
+                results(code, spec, 2);
+            } finally {
+                scope.pop(2);
+            }
+        }
+
+        private void doLoop(ClassFileWriter.Code code, List<?> list, boolean sequential) throws UnsupportedForm {
+            String form = sequential ? "DO*" : "DO";
+            List<?> bindings = (List<?>) list.get(1);
+            List<?> end = (List<?>) list.get(2);
+            int[] locals = new int[bindings.size()];
+            int declared = 0;
+            try {
+                for (int i = 0; i < bindings.size(); i++) {
+                    List<?> binding = FormCompiler.doBinding(bindings.get(i), form);
+                    if (binding.size() > 1) {
+                        expr(code, binding.get(1));
+                    } else {
+                        constant(code, Cons.NIL);
+                    }
+                    if (sequential) {
+                        locals[i] = 1 + scope.push((String) binding.get(0));
+                        declared++;
+                        code.astore(locals[i]);
+                    }
+                }
+                if (!sequential) {
+                    for (int i = 0; i < bindings.size(); i++) {
+                        locals[i] = 1 + scope.push((String) FormCompiler.doBinding(bindings.get(i), form).get(0));
+                        declared++;
+                    }
+                    for (int i = bindings.size() - 1; i >= 0; i--) {
+                        code.astore(locals[i]);
+                    }
+                }
+                int height = code.stack();
+                int top = code.position();
+                test(code, end.get(0));
+                int body = code.ifeq();
+                results(code, end, 1);
+                int exit = code.jump();
+                code.stack(height);
+                code.bind(body);
+                statements(code, list, 3);
+                List<Integer> stepped = new ArrayList<>();
+                for (int i = 0; i < bindings.size(); i++) {
+                    List<?> binding = FormCompiler.doBinding(bindings.get(i), form);
+                    if (binding.size() == 3) {
+                        expr(code, binding.get(2));
+                        if (sequential) {
+                            code.astore(locals[i]);
+                        } else {
+                            stepped.add(locals[i]);
+                        }
+                    }
+                }
+                for (int i = stepped.size() - 1; i >= 0; i--) {
+                    code.astore(stepped.get(i));
+                }
+                code.jumpTo(top);
+                code.stack(height + 1);
+                code.bind(exit);
+            } finally {
+                scope.pop(declared);
+            }
+        }
+
+        /**
+         * Genera (return [valor]) como un salto al final del ciclo actual; solo es
+         * posible si la pila está a la altura de entrada del ciclo.
+         */
+        private void ret(ClassFileWriter.Code code, List<?> list) throws UnsupportedForm {
+            Loop loop = loops.get(loops.size() - 1);
+            if (code.stack() != loop.height) {
+                throw new UnsupportedForm(list);
+            }
+            if (list.size() == 2) {
+                expr(code, list.get(1));
+            } else {
+                constant(code, Cons.NIL);
+            }
+            loop.exits.add(code.jump());
+        }
+
+        /** Genera formas cuyo valor se descarta. */
+        private void statements(ClassFileWriter.Code code, List<?> list, int from) throws UnsupportedForm {
+            for (int i = from; i < list.size(); i++) {
+                expr(code, list.get(i));
+                code.pop();
+            }
+        }
+
+        /** Genera las formas de resultado de un ciclo; deja el valor de la última, o NIL. */
+        private void results(ClassFileWriter.Code code, List<?> list, int from) throws UnsupportedForm {
+            if (from >= list.size()) {
+                constant(code, Cons.NIL);
+                return;
+            }
+            for (int i = from; i < list.size(); i++) {
+                if (i > from) {
+                    code.pop();
+                }
+                expr(code, list.get(i));
+            }
+        }
+
+        /**
+         * Genera una condición que deja un int (0 o 1) en la pila; las comparaciones
+         * no crean un Boolean intermedio.
+         */
+        private void test(ClassFileWriter.Code code, Object expr) throws UnsupportedForm {
+            if (expr instanceof List && ((List<?>) expr).size() == 3) {
+                List<?> list = (List<?>) expr;
+                String helper = comparison(list.get(0).toString());
+                if (helper != null) {
+                    expr(code, list.get(1));
+                    expr(code, list.get(2));
+                    code.invokestatic(writer.methodRef(JIT_CLASS, helper, "(" + OBJECT + OBJECT + ")Z"), 2, 1);
+                    return;
+                }
+            }
+            expr(code, expr);
+            code.invokestatic(writer.methodRef("com/interpeter/Nodes", "isTrue", "(" + OBJECT + ")Z"), 1, 1);
+        }
+
+        private void arithmetic(ClassFileWriter.Code code, String helper, List<?> list) throws UnsupportedForm {
+            if (list.size() < 2) {
+                throw new UnsupportedForm(list);
+            }
+            expr(code, list.get(1));
+            if (list.size() == 2) {
+                code.invokestatic(writer.methodRef("com/interpeter/Nodes$ArithmeticNode", "single",
+                        "(" + OBJECT + ")" + OBJECT), 1, 1);
+                return;
+            }
+            int method = writer.methodRef(JIT_CLASS, helper, "(" + OBJECT + OBJECT + ")" + OBJECT);
+            for (int i = 2; i < list.size(); i++) {
+                expr(code, list.get(i));
+                code.invokestatic(method, 2, 1);
+            }
+        }
+
+        /**
+         * Genera una llamada a una primitiva: la primitiva es una constante de la
+         * clase y los argumentos se pasan en un arreglo a {@link Primitive#call}.
+         */
+        private void primitive(ClassFileWriter.Code code, Primitive primitive, List<?> list) throws UnsupportedForm {
+            constant(code, primitive);
+            code.checkcast(writer.classRef("com/interpeter/Primitive"));
+            code.iconst(list.size() - 1);
+            code.anewarray(writer.classRef("java/lang/Object"));
+            for (int i = 1; i < list.size(); i++) {
+                code.dup();
+                code.iconst(i - 1);
+                expr(code, list.get(i));
+                code.aastore();
+            }
+            code.aload(0);
+            code.invokevirtual(writer.methodRef("com/interpeter/Primitive", "call",
+                    "([" + OBJECT + CONTEXT + ")" + OBJECT), 2, 1);
+        }
+
+        /**
+         * Genera una llamada a función a través de un método call$n propio de la
+         * llamada. Si la función llamada es la que se está compilando y sigue
+         * vigente, el método salta directamente a run; en otro caso pasa por
+         * {@link JIT#call}. En posición de cola, una llamada vigente a la propia
+         * función reasigna los parámetros y salta al inicio de run, y cualquier
+         * otra devuelve la llamada pendiente con {@link JIT#tailCall}. Una función
+         * memoizada nunca se llama a sí misma directamente, para pasar por su caché,
+         * y ninguna lo hace mientras el {@link Profiler} está encendido (ver {@link JIT#direct}).
+         */
+        private void call(ClassFileWriter.Code code, String name, List<?> list, boolean tail) throws UnsupportedForm {
+            int argc = list.size() - 1;
+            Function target = context.getFunction(name);
+            boolean self = target == func && argc == arity && func.getMemo() == null;
+
+            if (tail && self) {
+                int height = code.stack();
+                code.getstatic(selfField);
+                code.invokestatic(writer.methodRef(JIT_CLASS, "direct", "(" + FUNCTION + ")Z"), 1, 1);
+                int slow = code.ifeq();
+                for (int i = 1; i < list.size(); i++) {
+                    expr(code, list.get(i));
+                }
+                for (int i = argc; i >= 1; i--) {
+                    code.astore(i);
+                }
+                code.jumpTo(0);
+                code.stack(height);
+                code.bind(slow);
+            }
+
+            code.aload(0);
+            for (int i = 1; i < list.size(); i++) {
+                expr(code, list.get(i));
+            }
+            String site = "call$" + callSites++;
+            code.invokestatic(writer.methodRef(CLASS_NAME, site, descriptor(argc)), 1 + argc, 1);
+
+            ClassFileWriter.Code method = writer.addMethod(ClassFileWriter.ACC_STATIC, site, descriptor(argc), 1 + argc);
+            if (self && !tail) {
+                method.getstatic(selfField);
+                method.invokestatic(writer.methodRef(JIT_CLASS, "direct", "(" + FUNCTION + ")Z"), 1, 1);
+                int slow = method.ifeq();
+                method.aload(0);
+                for (int i = 0; i <= argc; i++) {
+                    method.aload(i);
+                }
+                method.invokestatic(writer.methodRef(CLASS_NAME, "run", descriptor(arity)), 1 + argc, 1);
+                method.invokestatic(writer.methodRef(JIT_CLASS, "finish", "(" + CONTEXT + OBJECT + ")" + OBJECT), 2, 1);
+                method.areturn();
+                method.stack(0);
+                method.bind(slow);
+            }
+            method.aload(0);
+            constant(method, target);
+            constant(method, name);
+            method.iconst(argc);
+            method.anewarray(writer.classRef("java/lang/Object"));
+            for (int i = 0; i < argc; i++) {
+                method.dup();
+                method.iconst(i);
+                method.aload(1 + i);
+                method.aastore();
+            }
+            method.invokestatic(writer.methodRef(JIT_CLASS, tail ? "tailCall" : "call",
+                    "(" + CONTEXT + OBJECT + OBJECT + "[" + OBJECT + ")" + OBJECT), 4, 1);
+            method.areturn();
+        }
+
+        private void constant(ClassFileWriter.Code code, Object value) {
+            int index = -1;
+            for (int i = 0; i < constants.size(); i++) {
+                Object existing = constants.get(i);
+                if (existing == value || (existing != null && !(existing instanceof Function) && existing.equals(value))) {
+                    index = i;
+                    break;
+                }
+            }
+            if (index == -1) {
+                constants.add(value);
+                index = constants.size() - 1;
+            }
+            code.getstatic(constantsField);
+            code.iconst(index);
+            code.aaload();
+        }
+
+        private static String comparison(String operation) {
+            switch (operation) {
+                case "<": return "lt";
+                case "<=": return "le";
+                case ">": return "gt";
+                case ">=": return "ge";
+                case "=": return "eq";
+                case "/=": return "ne";
+                default: return null;
+            }
+        }
+
+        private static String descriptor(int arity) {
+            StringBuilder descriptor = new StringBuilder("(").append(CONTEXT);
+            for (int i = 0; i < arity; i++) {
+                descriptor.append(OBJECT);
+            }
+            return descriptor.append(')').append(OBJECT).toString();
+        }
+    }
+
+    // Operaciones que invoca el código generado
+
+    static Object global(Context context, Object name) {
+        Object value = context.getVariable((String) name);
+        return value != null ? value : name;
+    }
+
+    static Object setGlobal(Context context, Object name, Object value) {
+        context.setVariable((String) name, value);
+        return value;
+    }
+
+    static boolean more(Object cursor) {
+        if (cursor == Cons.NIL) {
+            return false;
+        }
+        if (!(cursor instanceof Cons)) {
+            throw new RuntimeException("DOLIST requiere una lista: " + cursor);
+        }
+        return true;
+    }
+
+    static Object first(Object cursor) {
+        return ((Cons) cursor).car();
+    }
+
+    static Object rest(Object cursor) {
+        return ((Cons) cursor).cdr();
+    }
+
+    /**
+     * Indica si el código generado puede llamar directamente a su propia
+     * función: mientras siga vigente y el perfilador no tenga que medir la llamada.
+     */
+    static boolean direct(Function self) {
+        return self.isValid() && !Profiler.enabled;
+    }
+
+    static Object call(Context context, Object callee, Object name, Object[] args) {
+        Function func = resolve(context, callee, name);
+        Object[] slots = Evaluator.newFrame(func, args.length);
+        System.arraycopy(args, 0, slots, 0, args.length);
+        return Evaluator.executeFunction(func, slots, context);
+    }
+
+    static Object tailCall(Context context, Object callee, Object name, Object[] args) {
+        Function func = resolve(context, callee, name);
+        Object[] slots = Evaluator.newFrame(func, args.length);
+        System.arraycopy(args, 0, slots, 0, args.length);
+        return new Nodes.TailCall(func, slots);
+    }
+
+    static Object finish(Context context, Object result) {
+        if (result instanceof Nodes.TailCall) {
+            Nodes.TailCall call = (Nodes.TailCall) result;
+            return invoke(call.function, call.slots, context);
+        }
+        return result;
+    }
+
+    private static Function resolve(Context context, Object callee, Object name) {
+        Function func = (Function) callee;
+        if (func == null || !func.isValid()) {
+            func = context.getFunction((String) name);
+            if (func == null) {
+                throw new IllegalArgumentException("Función no definida: " + name);
+            }
+        }
+        return func;
+    }
+
+    static Object add(Object a, Object b) {
+        return Numbers.add(a, b);
+    }
+
+    static Object sub(Object a, Object b) {
+        return Numbers.subtract(a, b);
+    }
+
+    static Object mul(Object a, Object b) {
+        return Numbers.multiply(a, b);
+    }
+
+    static Object div(Object a, Object b) {
+        return Numbers.divide(a, b);
+    }
+
+    static boolean lt(Object a, Object b) {
+        return Nodes.ComparisonNode.compare(Nodes.ComparisonNode.LT, a, b);
+    }
+
+    static boolean le(Object a, Object b) {
+        return Nodes.ComparisonNode.compare(Nodes.ComparisonNode.LE, a, b);
+    }
+
+    static boolean gt(Object a, Object b) {
+        return Nodes.ComparisonNode.compare(Nodes.ComparisonNode.GT, a, b);
+    }
+
+    static boolean ge(Object a, Object b) {
+        return Nodes.ComparisonNode.compare(Nodes.ComparisonNode.GE, a, b);
+    }
+
+    static boolean eq(Object a, Object b) {
+        return Nodes.ComparisonNode.compare(Nodes.ComparisonNode.EQ, a, b);
+    }
+
+    static boolean ne(Object a, Object b) {
+        return Nodes.ComparisonNode.compare(Nodes.ComparisonNode.NE, a, b);
+    }
+}
@@ -12,26 +12,29 @@ package com.interpeter;
  * 
  */
 
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.HashSet;
-import java.util.Set;
+import java.util.HashMap;
+import java.util.Map;
 
+/**
+ * Single-pass lexer over a character stream.
+ * It reads either a {@link CharSequence} (a String or a CharBuffer) or a
+ * {@link Reader}, one character at a time, and produces {@link Token}s with
+ * their line and column. Numbers are classified while they are scanned and the
+ * parenthesis balance is tracked in the same pass, so the input is never split
+ * or traversed twice.
+ */
 public class Lexer {
-    
-    public Lexer() {
-    }
 
-    /**
-     * Checks if a given token is a reserved word in Lisp.
-     *
-     * @param token the token to check
-     * @return true if the token is a reserved word, false otherwise
-     * This class was based on a class made by Chatgpt
-     * It was addapted to the needs of the project by Marco Díaz
-     */
-    public static boolean reservedWord(String token) {
-        final Set<String> lispReservedWords = new HashSet<>();
+    private static final int BUFFER_SIZE = 8192;
+
+    // Reserved words in lower case, mapped to the upper-case form used in tokens
+    private static final Map<String, String> RESERVED_WORDS = new HashMap<>();
+
+    static {
         // Special Forms from the Common Lisp standard
         String[] specialForms = { "defun", "lambda", "defmacro", "defparameter", "defvar", "defconstant", "setq",
                 "setf", "quote", "progn", "if", "cond", "case", "when", "unless", "let", "let*", "multiple-value-bind",
@@ -54,20 +57,73 @@ public class Lexer {
         String[] lispKeywords = { ":test", ":test-not", ":key", ":allow-other-keys", ":initial-element",
                 ":initial-contents", ":start", ":end", ":from-end" };
 
-        // Add all reserved words to the HashSet
-        for (String word : specialForms) {
-            lispReservedWords.add(word);
-        }
-        for (String word : standardFunctions) {
-            lispReservedWords.add(word);
-        }
-        for (String word : reservedSymbols) {
-            lispReservedWords.add(word);
-        }
-        for (String word : lispKeywords) {
-            lispReservedWords.add(word);
+        for (String[] words : new String[][] { specialForms, standardFunctions, reservedSymbols, lispKeywords }) {
+            for (String word : words) {
+                RESERVED_WORDS.put(word, word.toUpperCase());
+            }
         }
-        return lispReservedWords.contains(token.toLowerCase());
+    }
+
+    // States of the number recognizer: [-] digits [. digits | / digits]
+    private static final int START = 0;
+    private static final int SIGN = 1;
+    private static final int INTEGER = 2;
+    private static final int DOT = 3;
+    private static final int DECIMAL = 4;
+    private static final int SLASH = 5;
+    private static final int RATIO = 6;
+    private static final int SYMBOL = 7;
+
+    private final CharSequence text;
+    private final Reader reader;
+    private final char[] buffer;
+    private int position;
+    private int limit;
+
+    private final StringBuilder current = new StringBuilder();
+    private int offset;
+    private int line = 1;
+    private int column = 1;
+    private int depth;
+    private boolean unbalanced;
+
+    public Lexer() {
+        this("");
+    }
+
+    /**
+     * Creates a lexer over an in-memory text, such as a String or a CharBuffer.
+     *
+     * @param text the text to tokenize
+     */
+    public Lexer(CharSequence text) {
+        this.text = text;
+        this.reader = null;
+        this.buffer = null;
+        this.limit = text.length();
+    }
+
+    /**
+     * Creates a lexer that reads its input incrementally from a Reader.
+     *
+     * @param reader the source of characters
+     */
+    public Lexer(Reader reader) {
+        this.text = null;
+        this.reader = reader;
+        this.buffer = new char[BUFFER_SIZE];
+    }
+
+    /**
+     * Checks if a given token is a reserved word in Lisp.
+     *
+     * @param token the token to check
+     * @return true if the token is a reserved word, false otherwise
+     * This class was based on a class made by Chatgpt
+     * It was addapted to the needs of the project by Marco Díaz
+     */
+    public static boolean reservedWord(String token) {
+        return RESERVED_WORDS.containsKey(token.toLowerCase());
     }
 
     /**
@@ -77,22 +133,11 @@ public class Lexer {
      * @return true if the input string is correct, false otherwise
      */
     public boolean isCorrect(String input) {
-        ArrayList<String> tokens = new ArrayList<String>();
-
-        for (String i : input.split(" ")) {
-            tokens.add(i);
-        }
-        if (tokens.size() == 0) {
-            return false;
+        Lexer lexer = new Lexer(input);
+        while (lexer.next() != null) {
+            // Only the balance is needed
         }
-    
-        int count = Collections.frequency(tokens, "(");
-        int count2 = Collections.frequency(tokens, ")");
-        if (count != count2) {
-            return false;
-        }
-
-        return true;
+        return lexer.isBalanced();
     }
 
     /**
@@ -103,20 +148,193 @@ public class Lexer {
      * @return a list of tokens, or null if the input string is incorrect
      */
     public ArrayList<String> tokenize(String input) {
-        if (isCorrect(input)) {
-            ArrayList<String> tokens = new ArrayList<String>();
-            for (String i : input.split(" ")) {
-                if(reservedWord(i)){
-                    tokens.add(i.toUpperCase());
-                    // se ponen en mayuscula las palabras reservadas para diferenciarlas de las variables
-                }
-                else{
-                    tokens.add(i);
+        Lexer lexer = new Lexer(input);
+        ArrayList<String> tokens = new ArrayList<String>();
+        for (Token token = lexer.next(); token != null; token = lexer.next()) {
+            tokens.add(token.getType() == Token.Type.SYMBOL ? reservedForm(token.getText()) : token.getText());
+        }
+        return lexer.isBalanced() ? tokens : null;
+    }
+
+    /**
+     * Returns the upper-case form of a reserved word, or the token itself.
+     *
+     * @param token the symbol text
+     * @return the text used for the symbol in the token list
+     */
+    static String reservedForm(String token) {
+        String reserved = RESERVED_WORDS.get(token.toLowerCase());
+        return reserved != null ? reserved : token;
+    }
+
+    /**
+     * Reads the next token, skipping whitespace and comments that start with ';'.
+     * A quote character is a token of its own, and so are the backquote, the
+     * comma and the comma followed by '@', which the reader turns into
+     * QUASIQUOTE, UNQUOTE and UNQUOTE-SPLICING forms.
+     *
+     * @return the next token, or null at the end of the input
+     */
+    public Token next() {
+        int c = skipWhitespace();
+        if (c == -1) {
+            return null;
+        }
+        int startOffset = offset;
+        int startLine = line;
+        int startColumn = column;
+
+        if (c == '(') {
+            advance(c);
+            depth++;
+            return new Token(Token.Type.OPEN, "(", startOffset, startLine, startColumn);
+        }
+        if (c == ')') {
+            advance(c);
+            if (--depth < 0) {
+                unbalanced = true;
+            }
+            return new Token(Token.Type.CLOSE, ")", startOffset, startLine, startColumn);
+        }
+        if (c == '\'') {
+            advance(c);
+            return new Token(Token.Type.QUOTE, "'", startOffset, startLine, startColumn);
+        }
+        if (c == '`') {
+            advance(c);
+            return new Token(Token.Type.QUOTE, "`", startOffset, startLine, startColumn);
+        }
+        if (c == ',') {
+            advance(c);
+            if (peek() == '@') {
+                advance('@');
+                return new Token(Token.Type.QUOTE, ",@", startOffset, startLine, startColumn);
+            }
+            return new Token(Token.Type.QUOTE, ",", startOffset, startLine, startColumn);
+        }
+
+        current.setLength(0);
+        int state = START;
+        while (c != -1 && !isDelimiter(c)) {
+            current.append((char) c);
+            state = nextState(state, c);
+            advance(c);
+            c = peek();
+        }
+
+        Token.Type type;
+        switch (state) {
+            case INTEGER: type = Token.Type.INTEGER; break;
+            case DECIMAL: type = Token.Type.DECIMAL; break;
+            case RATIO: type = Token.Type.RATIO; break;
+            default: type = Token.Type.SYMBOL;
+        }
+        return new Token(type, current.toString(), startOffset, startLine, startColumn);
+    }
+
+    /**
+     * Returns how many parentheses are currently open.
+     *
+     * @return the nesting depth after the last token read
+     */
+    public int getDepth() {
+        return depth;
+    }
+
+    /**
+     * Checks whether the parentheses read so far are balanced.
+     *
+     * @return true if every ')' closed an open '(' and none is left open
+     */
+    public boolean isBalanced() {
+        return depth == 0 && !unbalanced;
+    }
+
+    public int getLine() {
+        return line;
+    }
+
+    public int getColumn() {
+        return column;
+    }
+
+    private static int nextState(int state, int c) {
+        boolean digit = c >= '0' && c <= '9';
+        switch (state) {
+            case START:
+                return c == '-' ? SIGN : digit ? INTEGER : c == '.' ? DOT : SYMBOL;
+            case SIGN:
+                return digit ? INTEGER : c == '.' ? DOT : SYMBOL;
+            case INTEGER:
+                return digit ? INTEGER : c == '.' ? DOT : c == '/' ? SLASH : SYMBOL;
+            case DOT:
+            case DECIMAL:
+                return digit ? DECIMAL : SYMBOL;
+            case SLASH:
+            case RATIO:
+                return digit ? RATIO : SYMBOL;
+            default:
+                return SYMBOL;
+        }
+    }
+
+    private static boolean isDelimiter(int c) {
+        return c == '(' || c == ')' || c == '\'' || c == '`' || c == ',' || c == ';' || Character.isWhitespace(c);
+    }
+
+    private int skipWhitespace() {
+        int c = peek();
+        while (c != -1) {
+            if (c == ';') {
+                while (c != -1 && c != '\n') {
+                    advance(c);
+                    c = peek();
                 }
+            } else if (Character.isWhitespace(c)) {
+                advance(c);
+                c = peek();
+            } else {
+                break;
             }
-            return tokens;
+        }
+        return c;
+    }
 
+    private int peek() {
+        if (position == limit && !fill()) {
+            return -1;
+        }
+        return buffer != null ? buffer[position] : text.charAt(position);
+    }
+
+    private void advance(int c) {
+        position++;
+        offset++;
+        if (c == '\n') {
+            line++;
+            column = 1;
+        } else {
+            column++;
+        }
+    }
+
+    private boolean fill() {
+        if (reader == null) {
+            return false;
+        }
+        try {
+            int read = reader.read(buffer, 0, buffer.length);
+            while (read == 0) {
+                read = reader.read(buffer, 0, buffer.length);
+            }
+            if (read < 0) {
+                return false;
+            }
+            position = 0;
+            limit = read;
+            return true;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
         }
-        return null;
     }
 }
@@ -1,17 +1,14 @@
 package com.interpeter;
 
-import java.util.ArrayList;
 import java.util.LinkedList;
-import java.util.List;
 import java.util.Scanner;
 
 /**
- * Clase que implementa un parser y evaluador para expresiones LISP.
+ * Punto de entrada estático para leer una expresión LISP.
+ * Delega en {@link LispReader}, que es el único lector del intérprete.
  */
 public class LispParser {
     
-    private static Lexer lexer = new Lexer();
-    
     /**
      * Parsea una expresión LISP y la convierte en una estructura de listas anidadas.
      * 
@@ -19,54 +16,30 @@ public class LispParser {
      * @return Una estructura de listas representando la expresión.
      */
     public static Object parse(String expression) {
-        ArrayList<String> tokens = lexer.tokenize(expression);
-        if (tokens == null) {
-            throw new RuntimeException("Error en la expresión LISP: Paréntesis desbalanceados");
+        Object form = new LispReader(expression).read();
+        if (form == null) {
+            throw new RuntimeException("Unexpected end of input");
         }
-        return parseTokens(new LinkedList<>(tokens));
+        return form;
     }
     
     /**
      * Convierte una lista de tokens en una estructura anidada de listas.
+     * Consume de la lista los tokens de la primera expresión.
      * 
      * @param tokens Lista de tokens a procesar.
      * @return Una estructura de listas anidadas representando la expresión LISP.
      */
     public static Object parseTokens(LinkedList<String> tokens) {
-        if (tokens.isEmpty()) {
+        LispReader reader = new LispReader(String.join(" ", tokens));
+        Object form = reader.read();
+        if (form == null) {
             throw new RuntimeException("Unexpected end of input");
         }
-        
-        String token = tokens.poll();
-        if ("(".equals(token)) {
-            List<Object> list = new ArrayList<>();
-            while (!tokens.isEmpty() && !")".equals(tokens.peek())) {
-                list.add(parseTokens(tokens));
-            }
-            if (tokens.isEmpty()) {
-                throw new RuntimeException("Unmatched parentheses");
-            }
-            tokens.poll(); // Consume ')'
-            return list;
-        } else if (")".equals(token)) {
-            throw new RuntimeException("Unexpected closing parenthesis");
-        } else {
-            // Modificar esta parte para manejar números decimales y fracciones
-            if (token.matches("-?\\d+(/\\d+)?|-?\\d*\\.?\\d+")) {
-                try {
-                    if (token.contains("/")) {
-                        String[] parts = token.split("/");
-                        double numerator = Double.parseDouble(parts[0]);
-                        double denominator = Double.parseDouble(parts[1]);
-                        return numerator / denominator;
-                    }
-                    return token.contains(".") ? Double.parseDouble(token) : Integer.parseInt(token);
-                } catch (NumberFormatException e) {
-                    return token;
-                }
-            }
-            return token;
+        for (int i = 0; i < reader.getTokensConsumed(); i++) {
+            tokens.poll();
         }
+        return form;
     }
     
     public static void main(String[] args) {
@@ -0,0 +1,260 @@
+package com.interpeter;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Lector de expresiones LISP.
+ * Toma los tokens del {@link Lexer} en un arreglo que recorre con un índice y
+ * construye las listas con una pila explícita, sin recursión, de modo que un
+ * anidamiento muy profundo no desborda la pila de Java. Devuelve {@link Form}s
+ * inmutables con su posición en la entrada; los átomos se convierten a Long
+ * (o BigInteger si no caben), Ratio, Double o al nombre del símbolo, y 'x se
+ * lee como (QUOTE x); del mismo modo `x, ,x y ,@x se leen como (QUASIQUOTE x),
+ * (UNQUOTE x) y (UNQUOTE-SPLICING x). Leer no tiene efectos sobre el contexto.
+ */
+public final class LispReader {
+
+    /**
+     * Error de sintaxis, con la línea y columna del token que lo produjo.
+     */
+    public static final class SyntaxException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        private final int line;
+        private final int column;
+
+        SyntaxException(String message, Token token) {
+            super(message);
+            this.line = token.getLine();
+            this.column = token.getColumn();
+        }
+
+        public int getLine() {
+            return line;
+        }
+
+        public int getColumn() {
+            return column;
+        }
+    }
+
+    private final Lexer lexer;
+    private boolean exhausted;
+
+    // Tokens de la forma en curso y la posición del cursor entre ellos
+    private Token[] tokens = new Token[64];
+    private int count;
+    private int cursor;
+    private int consumed;
+
+    // Elementos de las listas abiertas y el inicio de cada una
+    private Object[] values = new Object[64];
+    private int valueTop;
+    private int[] frameBases = new int[16];
+    private Token[] frameOpen = new Token[16];
+    private int frameTop;
+
+    /**
+     * Crea un lector sobre un texto en memoria.
+     *
+     * @param text El código fuente.
+     */
+    public LispReader(CharSequence text) {
+        this(new Lexer(text));
+    }
+
+    /**
+     * Crea un lector que consume la entrada de forma incremental.
+     *
+     * @param reader La fuente de caracteres.
+     */
+    public LispReader(java.io.Reader reader) {
+        this(new Lexer(reader));
+    }
+
+    private LispReader(Lexer lexer) {
+        this.lexer = lexer;
+    }
+
+    /**
+     * Lee la siguiente expresión del nivel superior.
+     *
+     * @return La expresión leída, o null si no quedan expresiones.
+     * @throws SyntaxException Si hay un paréntesis sin pareja.
+     */
+    public Object read() {
+        reset();
+        Token token = nextToken();
+        if (token == null) {
+            return null;
+        }
+        while (true) {
+            Object value;
+            int end;
+            switch (token.getType()) {
+                case OPEN:
+                case QUOTE:
+                    open(token);
+                    value = null;
+                    end = 0;
+                    break;
+                case CLOSE:
+                    if (frameTop == 0 || frameOpen[frameTop - 1].getType() != Token.Type.OPEN) {
+                        throw new SyntaxException("Paréntesis de cierre inesperado", token);
+                    }
+                    value = close(token);
+                    end = token.getEnd();
+                    break;
+                default:
+                    value = atom(token);
+                    end = token.getEnd();
+            }
+            if (end > 0) {
+                // Un valor completo cierra las citas que lo esperaban
+                while (frameTop > 0 && frameOpen[frameTop - 1].getType() == Token.Type.QUOTE) {
+                    value = closeQuote(value, end);
+                }
+                if (frameTop == 0) {
+                    return value;
+                }
+                push(value);
+            }
+            token = nextToken();
+            if (token == null) {
+                Token open = frameOpen[frameTop - 1];
+                throw new SyntaxException(open.getType() == Token.Type.QUOTE
+                        ? "Falta la expresión citada"
+                        : "Error en la expresión LISP: Paréntesis desbalanceados", open);
+            }
+        }
+    }
+
+    /**
+     * Lee todas las expresiones restantes.
+     *
+     * @return Las expresiones en el orden en que aparecen.
+     */
+    public List<Object> readAll() {
+        List<Object> forms = new ArrayList<>();
+        for (Object form = read(); form != null; form = read()) {
+            forms.add(form);
+        }
+        return forms;
+    }
+
+    /**
+     * Obtiene el número de tokens consumidos desde el inicio de la entrada.
+     *
+     * @return La cantidad de tokens leídos.
+     */
+    public int getTokensConsumed() {
+        return consumed;
+    }
+
+    /**
+     * Convierte un token atómico en su valor.
+     *
+     * @param token El token.
+     * @return Un Long, un BigInteger, un Ratio, un Double o el nombre del símbolo.
+     */
+    static Object atom(Token token) {
+        String text = token.getText();
+        switch (token.getType()) {
+            case INTEGER:
+                try {
+                    return Long.parseLong(text);
+                } catch (NumberFormatException e) {
+                    // No cabe en 64 bits
+                    return Numbers.normalize(new BigInteger(text));
+                }
+            case DECIMAL:
+                return Double.parseDouble(text);
+            case RATIO:
+                try {
+                    return Numbers.parseRatio(text);
+                } catch (ArithmeticException e) {
+                    throw new SyntaxException("Denominador cero en " + text, token);
+                }
+            default:
+                return Lexer.reservedForm(text);
+        }
+    }
+
+    private Token nextToken() {
+        if (cursor == count) {
+            if (exhausted) {
+                return null;
+            }
+            Token token = lexer.next();
+            if (token == null) {
+                exhausted = true;
+                return null;
+            }
+            if (count == tokens.length) {
+                tokens = Arrays.copyOf(tokens, count * 2);
+            }
+            tokens[count++] = token;
+        }
+        consumed++;
+        return tokens[cursor++];
+    }
+
+    private void reset() {
+        // Los tokens de la forma anterior ya no se necesitan
+        Arrays.fill(tokens, 0, count, null);
+        count = 0;
+        cursor = 0;
+        Arrays.fill(values, 0, valueTop, null);
+        valueTop = 0;
+        Arrays.fill(frameOpen, 0, frameTop, null);
+        frameTop = 0;
+    }
+
+    private void open(Token token) {
+        if (frameTop == frameBases.length) {
+            frameBases = Arrays.copyOf(frameBases, frameTop * 2);
+            frameOpen = Arrays.copyOf(frameOpen, frameTop * 2);
+        }
+        frameBases[frameTop] = valueTop;
+        frameOpen[frameTop] = token;
+        frameTop++;
+    }
+
+    private Form close(Token token) {
+        frameTop--;
+        int base = frameBases[frameTop];
+        Token open = frameOpen[frameTop];
+        frameOpen[frameTop] = null;
+        Object[] elements = Arrays.copyOfRange(values, base, valueTop);
+        Arrays.fill(values, base, valueTop, null);
+        valueTop = base;
+        return new Form(elements, open.getOffset(), token.getEnd(), open.getLine(), open.getColumn());
+    }
+
+    /**
+     * Convierte 'x en (QUOTE x), y las demás citas en su forma correspondiente.
+     */
+    private Form closeQuote(Object value, int end) {
+        frameTop--;
+        Token quote = frameOpen[frameTop];
+        frameOpen[frameTop] = null;
+        String operator;
+        switch (quote.getText()) {
+            case "`": operator = "QUASIQUOTE"; break;
+            case ",": operator = "UNQUOTE"; break;
+            case ",@": operator = "UNQUOTE-SPLICING"; break;
+            default: operator = "QUOTE";
+        }
+        return new Form(new Object[] { operator, value }, quote.getOffset(), end, quote.getLine(), quote.getColumn());
+    }
+
+    private void push(Object value) {
+        if (valueTop == values.length) {
+            values = Arrays.copyOf(values, valueTop * 2);
+        }
+        values[valueTop++] = value;
+    }
+}
@@ -0,0 +1,494 @@
+package com.interpeter;
+
+import java.util.Arrays;
+
+/**
+ * Vector de LISP (make-array) de una dimensión y tamaño fijo.
+ * El arreglo de respaldo depende del tipo de elemento: long[] para FIXNUM,
+ * double[] para DOUBLE-FLOAT y Object[] para T, así que un vector numérico de
+ * millones de elementos ocupa 8 bytes por elemento y las operaciones en bloque
+ * ({@link #sum}, {@link #dot}, {@link #map2}) recorren el arreglo primitivo
+ * directamente.
+ */
+public abstract class LispVector {
+
+    /** Tipo de elemento de un vector. */
+    public enum ElementType {
+        FIXNUM,
+        DOUBLE_FLOAT,
+        T;
+
+        /**
+         * Interpreta el valor de :element-type.
+         *
+         * @param designator El símbolo del tipo.
+         * @return El tipo de elemento correspondiente.
+         */
+        static ElementType of(Object designator) {
+            switch (String.valueOf(designator).toLowerCase()) {
+                case "fixnum":
+                case "integer":
+                    return FIXNUM;
+                case "double-float":
+                case "single-float":
+                case "float":
+                    return DOUBLE_FLOAT;
+                case "t":
+                    return T;
+                default:
+                    throw new IllegalArgumentException("Tipo de elemento no soportado: " + designator);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return name().replace('_', '-');
+        }
+    }
+
+    /**
+     * Crea un vector con todos sus elementos iguales.
+     *
+     * @param type El tipo de elemento.
+     * @param length El número de elementos.
+     * @param initial El valor inicial, o null para el valor por omisión del tipo.
+     * @return El vector nuevo.
+     */
+    public static LispVector create(ElementType type, int length, Object initial) {
+        if (length < 0) {
+            throw new IllegalArgumentException("Tamaño de arreglo inválido: " + length);
+        }
+        switch (type) {
+            case FIXNUM: {
+                long[] data = new long[length];
+                if (initial != null) {
+                    Arrays.fill(data, Fixnums.check(initial));
+                }
+                return new Fixnums(data);
+            }
+            case DOUBLE_FLOAT: {
+                double[] data = new double[length];
+                if (initial != null) {
+                    Arrays.fill(data, Floats.check(initial));
+                }
+                return new Floats(data);
+            }
+            default: {
+                Object[] data = new Object[length];
+                Arrays.fill(data, initial != null ? initial : Cons.NIL);
+                return new General(data);
+            }
+        }
+    }
+
+    /**
+     * Crea un vector con los valores dados, respaldado por un arreglo primitivo
+     * si todos son enteros o todos son flotantes.
+     *
+     * @param values Los valores; el arreglo pasa a pertenecer al vector.
+     * @return El vector.
+     */
+    static LispVector pack(Object[] values) {
+        boolean fixnums = values.length > 0;
+        boolean floats = values.length > 0;
+        for (Object value : values) {
+            fixnums &= value instanceof Long;
+            floats &= value instanceof Double;
+        }
+        if (fixnums) {
+            long[] data = new long[values.length];
+            for (int i = 0; i < data.length; i++) {
+                data[i] = (Long) values[i];
+            }
+            return new Fixnums(data);
+        }
+        if (floats) {
+            double[] data = new double[values.length];
+            for (int i = 0; i < data.length; i++) {
+                data[i] = (Double) values[i];
+            }
+            return new Floats(data);
+        }
+        return new General(values);
+    }
+
+    public abstract int length();
+
+    public abstract ElementType getElementType();
+
+    /**
+     * Obtiene un elemento (aref).
+     *
+     * @param index La posición.
+     * @return El elemento, como Long, Double u Object según el tipo.
+     */
+    public abstract Object get(int index);
+
+    /**
+     * Cambia un elemento ((setf aref)).
+     *
+     * @param index La posición.
+     * @param value El valor, que debe ser del tipo de elemento del vector.
+     */
+    public abstract void set(int index, Object value);
+
+    /**
+     * Suma todos los elementos.
+     *
+     * @return La suma, exacta salvo en vectores de flotantes.
+     */
+    public abstract Object sum();
+
+    /**
+     * Producto punto con otro vector de la misma longitud.
+     *
+     * @param other El otro vector.
+     * @return La suma de los productos de los elementos correspondientes.
+     */
+    public Object dot(LispVector other) {
+        checkLength(other, "DOT-PRODUCT");
+        if (this instanceof Floats || other instanceof Floats) {
+            double result = 0;
+            for (int i = 0; i < length(); i++) {
+                result += Nodes.toDouble(get(i)) * Nodes.toDouble(other.get(i));
+            }
+            return result;
+        }
+        Object result = 0L;
+        for (int i = 0; i < length(); i++) {
+            result = Numbers.add(result, Numbers.multiply(get(i), other.get(i)));
+        }
+        return result;
+    }
+
+    /**
+     * Combina dos vectores elemento a elemento con un operador aritmético.
+     * Como map, se detiene al terminar el más corto.
+     *
+     * @param op El operador, como en {@link Nodes.ArithmeticNode}.
+     * @param other El otro vector.
+     * @return Un vector nuevo con los resultados, de la longitud del más corto.
+     */
+    public LispVector map2(int op, LispVector other) {
+        Object[] result = new Object[Math.min(length(), other.length())];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = Nodes.ArithmeticNode.apply(op, get(i), other.get(i));
+        }
+        return new General(result);
+    }
+
+    /**
+     * Reduce los elementos con + o *, o con max o min.
+     *
+     * @param op El nombre de la operación.
+     * @return El resultado, o null si este vector no tiene una versión especializada.
+     */
+    Object reduce(String op) {
+        return null;
+    }
+
+    void checkLength(LispVector other, String operation) {
+        if (other.length() != length()) {
+            throw new IllegalArgumentException(operation + " requiere vectores de la misma longitud: "
+                    + length() + " y " + other.length());
+        }
+    }
+
+    int index(Object index) {
+        if (index instanceof Long) {
+            long i = (Long) index;
+            if (i >= 0 && i < length()) {
+                return (int) i;
+            }
+        }
+        throw new IndexOutOfBoundsException("Índice " + index + " fuera del vector de longitud " + length());
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder("#(");
+        for (int i = 0; i < length(); i++) {
+            if (i > 0) {
+                text.append(' ');
+            }
+            text.append(get(i));
+        }
+        return text.append(')').toString();
+    }
+
+    /** Vector de enteros respaldado por un long[]. */
+    static final class Fixnums extends LispVector {
+        private final long[] data;
+
+        Fixnums(long[] data) {
+            this.data = data;
+        }
+
+        static long check(Object value) {
+            if (value instanceof Long) {
+                return (Long) value;
+            }
+            throw new IllegalArgumentException("El valor " + value + " no es de tipo FIXNUM");
+        }
+
+        @Override
+        public int length() {
+            return data.length;
+        }
+
+        @Override
+        public ElementType getElementType() {
+            return ElementType.FIXNUM;
+        }
+
+        @Override
+        public Object get(int index) {
+            return data[index];
+        }
+
+        @Override
+        public void set(int index, Object value) {
+            data[index] = check(value);
+        }
+
+        @Override
+        public Object sum() {
+            long result = 0;
+            for (int i = 0; i < data.length; i++) {
+                long next = result + data[i];
+                // Desbordamiento: los sumandos tienen el mismo signo y el resultado otro
+                if (((result ^ next) & (data[i] ^ next)) < 0) {
+                    return sumFrom(i, result);
+                }
+                result = next;
+            }
+            return result;
+        }
+
+        private Object sumFrom(int from, Object partial) {
+            Object result = partial;
+            for (int i = from; i < data.length; i++) {
+                result = Numbers.add(result, data[i]);
+            }
+            return result;
+        }
+
+        @Override
+        public Object dot(LispVector other) {
+            if (!(other instanceof Fixnums)) {
+                return super.dot(other);
+            }
+            checkLength(other, "DOT-PRODUCT");
+            long[] b = ((Fixnums) other).data;
+            long result = 0;
+            try {
+                for (int i = 0; i < data.length; i++) {
+                    result = Math.addExact(result, Math.multiplyExact(data[i], b[i]));
+                }
+                return result;
+            } catch (ArithmeticException overflow) {
+                return super.dot(other);
+            }
+        }
+
+        @Override
+        public LispVector map2(int op, LispVector other) {
+            if (!(other instanceof Fixnums) || op == Nodes.ArithmeticNode.DIV) {
+                return super.map2(op, other);
+            }
+            long[] b = ((Fixnums) other).data;
+            long[] result = new long[Math.min(data.length, b.length)];
+            try {
+                switch (op) {
+                    case Nodes.ArithmeticNode.ADD:
+                        for (int i = 0; i < result.length; i++) result[i] = Math.addExact(data[i], b[i]);
+                        break;
+                    case Nodes.ArithmeticNode.SUB:
+                        for (int i = 0; i < result.length; i++) result[i] = Math.subtractExact(data[i], b[i]);
+                        break;
+                    default:
+                        for (int i = 0; i < result.length; i++) result[i] = Math.multiplyExact(data[i], b[i]);
+                }
+            } catch (ArithmeticException overflow) {
+                // Algún resultado no cabe en un fixnum: el vector resultante es general
+                return super.map2(op, other);
+            }
+            return new Fixnums(result);
+        }
+
+        @Override
+        Object reduce(String op) {
+            if (data.length == 0) {
+                return null;
+            }
+            switch (op) {
+                case "+":
+                    return sum();
+                case "max": {
+                    long result = data[0];
+                    for (int i = 1; i < data.length; i++) result = Math.max(result, data[i]);
+                    return result;
+                }
+                case "min": {
+                    long result = data[0];
+                    for (int i = 1; i < data.length; i++) result = Math.min(result, data[i]);
+                    return result;
+                }
+                default:
+                    return null;
+            }
+        }
+    }
+
+    /** Vector de flotantes respaldado por un double[]. */
+    static final class Floats extends LispVector {
+        private final double[] data;
+
+        Floats(double[] data) {
+            this.data = data;
+        }
+
+        static double check(Object value) {
+            if (value instanceof Number) {
+                return ((Number) value).doubleValue();
+            }
+            throw new IllegalArgumentException("El valor " + value + " no es de tipo DOUBLE-FLOAT");
+        }
+
+        @Override
+        public int length() {
+            return data.length;
+        }
+
+        @Override
+        public ElementType getElementType() {
+            return ElementType.DOUBLE_FLOAT;
+        }
+
+        @Override
+        public Object get(int index) {
+            return data[index];
+        }
+
+        @Override
+        public void set(int index, Object value) {
+            data[index] = check(value);
+        }
+
+        @Override
+        public Object sum() {
+            double result = 0;
+            for (int i = 0; i < data.length; i++) {
+                result += data[i];
+            }
+            return result;
+        }
+
+        @Override
+        public Object dot(LispVector other) {
+            if (!(other instanceof Floats)) {
+                return super.dot(other);
+            }
+            checkLength(other, "DOT-PRODUCT");
+            double[] b = ((Floats) other).data;
+            double result = 0;
+            for (int i = 0; i < data.length; i++) {
+                result += data[i] * b[i];
+            }
+            return result;
+        }
+
+        @Override
+        public LispVector map2(int op, LispVector other) {
+            if (!(other instanceof Floats)) {
+                return super.map2(op, other);
+            }
+            double[] b = ((Floats) other).data;
+            double[] result = new double[Math.min(data.length, b.length)];
+            switch (op) {
+                case Nodes.ArithmeticNode.ADD:
+                    for (int i = 0; i < result.length; i++) result[i] = data[i] + b[i];
+                    break;
+                case Nodes.ArithmeticNode.SUB:
+                    for (int i = 0; i < result.length; i++) result[i] = data[i] - b[i];
+                    break;
+                case Nodes.ArithmeticNode.MUL:
+                    for (int i = 0; i < result.length; i++) result[i] = data[i] * b[i];
+                    break;
+                default:
+                    for (int i = 0; i < result.length; i++) {
+                        // Como (/ x 0.0), dividir entre cero es un error y no Infinity
+                        if (b[i] == 0) throw new ArithmeticException("División por cero");
+                        result[i] = data[i] / b[i];
+                    }
+            }
+            return new Floats(result);
+        }
+
+        @Override
+        Object reduce(String op) {
+            if (data.length == 0) {
+                return null;
+            }
+            switch (op) {
+                case "+":
+                    return sum();
+                case "*": {
+                    double result = 1;
+                    for (int i = 0; i < data.length; i++) result *= data[i];
+                    return result;
+                }
+                case "max": {
+                    double result = data[0];
+                    for (int i = 1; i < data.length; i++) result = Math.max(result, data[i]);
+                    return result;
+                }
+                case "min": {
+                    double result = data[0];
+                    for (int i = 1; i < data.length; i++) result = Math.min(result, data[i]);
+                    return result;
+                }
+                default:
+                    return null;
+            }
+        }
+    }
+
+    /** Vector de cualquier tipo de valor respaldado por un Object[]. */
+    static final class General extends LispVector {
+        private final Object[] data;
+
+        General(Object[] data) {
+            this.data = data;
+        }
+
+        @Override
+        public int length() {
+            return data.length;
+        }
+
+        @Override
+        public ElementType getElementType() {
+            return ElementType.T;
+        }
+
+        @Override
+        public Object get(int index) {
+            return data[index];
+        }
+
+        @Override
+        public void set(int index, Object value) {
+            data[index] = value;
+        }
+
+        @Override
+        public Object sum() {
+            Object result = 0L;
+            for (int i = 0; i < data.length; i++) {
+                result = Numbers.add(result, data[i]);
+            }
+            return result;
+        }
+    }
+}
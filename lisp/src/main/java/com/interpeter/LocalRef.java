@@ -0,0 +1,44 @@
+package com.interpeter;
+
+/**
+ * Referencia resuelta a una variable local.
+ * Reemplaza al símbolo del parámetro dentro del cuerpo de una función
+ * cuando se procesa el defun, de modo que la evaluación accede directamente
+ * a la ranura del marco sin buscar por nombre.
+ */
+public final class LocalRef {
+
+    private final String name;
+    private final int depth;
+    private final int index;
+
+    /**
+     * Crea una nueva referencia local.
+     *
+     * @param name El nombre original de la variable.
+     * @param depth La profundidad del marco que contiene la variable.
+     * @param index El índice de la ranura dentro de ese marco.
+     */
+    public LocalRef(String name, int depth, int index) {
+        this.name = name;
+        this.depth = depth;
+        this.index = index;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getDepth() {
+        return depth;
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
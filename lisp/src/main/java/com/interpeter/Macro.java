@@ -0,0 +1,87 @@
+package com.interpeter;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Macro definida con defmacro. Su expansor es una función compilada como las
+ * de defun que recibe los argumentos de la llamada sin evaluar, como datos, y
+ * devuelve la forma que la reemplaza.
+ * La lista de parámetros admite &amp;rest o &amp;body seguido de un nombre, que
+ * recibe en una lista los argumentos restantes.
+ * Una macro no cambia después de definirse: redefinirla crea una nueva.
+ */
+public final class Macro {
+
+    private final String name;
+    private final int required;
+    private final boolean rest;
+    private final Function expander;
+    private final List<?> definition;
+    private final AtomicLong expansions = new AtomicLong();
+
+    /**
+     * Crea una macro.
+     *
+     * @param expander La función que construye la expansión; sus parámetros son
+     *                 los obligatorios y, si la macro tiene &amp;rest, uno más al final.
+     * @param rest true si la macro recibe los argumentos restantes en una lista.
+     * @param definition La forma defmacro, que se guarda en las imágenes.
+     */
+    Macro(Function expander, boolean rest, List<?> definition) {
+        this.name = expander.getName();
+        this.required = expander.getParams().size() - (rest ? 1 : 0);
+        this.rest = rest;
+        this.expander = expander;
+        this.definition = definition;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Obtiene la forma defmacro con la que se definió la macro.
+     *
+     * @return La definición, con las macros de su cuerpo ya expandidas.
+     */
+    public List<?> getDefinition() {
+        return definition;
+    }
+
+    /**
+     * Obtiene cuántas veces se ejecutó el expansor. Como las expansiones se
+     * guardan en las formas, normalmente es una vez por sitio de llamada.
+     *
+     * @return El número de expansiones.
+     */
+    public long getExpansions() {
+        return expansions.get();
+    }
+
+    /**
+     * Ejecuta el expansor sobre una llamada. No expande las macros que
+     * aparezcan en el resultado; de eso se ocupa el {@link MacroExpander}.
+     *
+     * @param call La forma de la llamada, con el nombre de la macro al principio.
+     * @param context El contexto en que se ejecuta el expansor.
+     * @return La forma que reemplaza a la llamada.
+     */
+    Object expand(List<?> call, Context context) {
+        int count = call.size() - 1;
+        if (count < required || !rest && count > required) {
+            throw new IllegalArgumentException("La macro " + name + " espera " + (rest ? "al menos " : "")
+                    + required + " argumentos y recibió " + count);
+        }
+        Object[] slots = new Object[expander.getFrameSize()];
+        for (int i = 0; i < required; i++) {
+            slots[i] = Cons.fromForm(call.get(i + 1));
+        }
+        if (rest) {
+            slots[required] = Cons.fromForm(call.subList(required + 1, call.size()));
+        }
+        expansions.incrementAndGet();
+        // El expansor se ejecuta una vez por sitio de llamada, así que no vale la pena compilarlo a bytecode
+        return Cons.toForm(Evaluator.interpret(expander, slots, context));
+    }
+}
@@ -0,0 +1,293 @@
+package com.interpeter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Expande las macros y las cuasicitas de una expresión antes de optimizarla y
+ * compilarla, de modo que el {@link Optimizer} y los tres motores solo ven formas
+ * sin macros. Cada {@link Evaluator} tiene el suyo.
+ * La expansión completa de la llamada a una macro se guarda en la {@link Form}
+ * leída junto con la versión de las macros de la tabla: mientras ninguna macro
+ * se redefina, compilar de nuevo la forma (por ejemplo desde la {@link FormCache})
+ * no vuelve a ejecutar el expansor. El cuerpo de un defun se expande una sola
+ * vez, al definirlo; la función recuerda su definición original y las macros
+ * que usó ({@link Dependency}), y si alguna se redefine la función se vuelve a
+ * definir con la expansión nueva (ver {@link #refreshDependents}).
+ * Se supone, como en Common Lisp, que un expansor depende solo de sus
+ * argumentos: si llama a funciones del usuario, redefinirlas no invalida las
+ * expansiones ya hechas.
+ */
+final class MacroExpander {
+
+    /** Expansión guardada en la forma de una llamada a una macro. */
+    static final class Expansion {
+        final long version;
+        final Object form;
+        final Set<String> macros;
+
+        Expansion(long version, Object form, Set<String> macros) {
+            this.version = version;
+            this.form = form;
+            this.macros = macros;
+        }
+    }
+
+    /** Definición original de una función cuyo cuerpo usó macros. */
+    static final class Dependency {
+        final List<?> definition;
+        final Set<String> macros;
+        final boolean optimized;
+
+        Dependency(List<?> definition, Set<String> macros, boolean optimized) {
+            this.definition = definition;
+            this.macros = macros;
+            this.optimized = optimized;
+        }
+    }
+
+    private final Context context;
+    private Set<String> used = new HashSet<>();
+
+    MacroExpander(Context context) {
+        this.context = context;
+    }
+
+    /**
+     * Expande una expresión del nivel superior.
+     *
+     * @param expr La expresión parseada.
+     * @return La expresión sin macros ni cuasicitas; la misma si no tenía.
+     */
+    Object expand(Object expr) {
+        used = new HashSet<>();
+        return expand(expr, true);
+    }
+
+    /**
+     * Obtiene los nombres, en minúsculas, de las macros que usó la última expansión.
+     *
+     * @return Las macros expandidas por {@link #expand(Object)}.
+     */
+    Set<String> getUsedMacros() {
+        return used;
+    }
+
+    private Object expand(Object expr, boolean top) {
+        if (!(expr instanceof List) || ((List<?>) expr).isEmpty()) {
+            return expr;
+        }
+        List<?> list = (List<?>) expr;
+        if (!(list.get(0) instanceof String)) {
+            return rebuild(list, 0);
+        }
+        String operation = ((String) list.get(0)).toLowerCase();
+        switch (operation) {
+            case "quote":
+                return list;
+            case "quasiquote":
+                if (list.size() != 2) throw new IllegalArgumentException("Uso incorrecto de QUASIQUOTE");
+                return expand(quasiquote(list.get(1)), false);
+            case "unquote": case "unquote-splicing":
+                throw new IllegalArgumentException("Coma fuera de una cuasicita: " + Optimizer.print(list));
+            case "defmacro":
+                if (!top) throw new IllegalArgumentException("DEFMACRO solo puede usarse en el nivel superior");
+                return rebuild(list, 3);
+            case "defun": case "defun-memo":
+                return rebuild(list, 3);
+            case "profile":
+                if (!top) throw new IllegalArgumentException("PROFILE solo puede usarse en el nivel superior");
+                return rebuild(list, 1);
+            case "dotimes": case "dolist":
+                return expandLoop(list);
+            case "do": case "do*":
+                return expandDo(list);
+            default:
+                Macro macro = context.getFunctionTable().getMacro(operation);
+                return macro != null ? expandCall(list, macro) : rebuild(list, 1);
+        }
+    }
+
+    /**
+     * Expande la llamada a una macro, o toma la expansión guardada en la forma si sigue vigente.
+     */
+    private Object expandCall(List<?> call, Macro macro) {
+        long version = context.getFunctionTable().getMacroVersion();
+        Form form = call instanceof Form ? (Form) call : null;
+        Expansion memo = form != null ? form.getExpansion() : null;
+        if (memo != null && memo.version == version) {
+            used.addAll(memo.macros);
+            return memo.form;
+        }
+        Set<String> outer = used;
+        used = new HashSet<>();
+        try {
+            used.add(macro.getName().toLowerCase());
+            Object result = expand(macro.expand(call, context), false);
+            if (form != null) {
+                form.setExpansion(new Expansion(version, result, Set.copyOf(used)));
+            }
+            outer.addAll(used);
+            return result;
+        } finally {
+            used = outer;
+        }
+    }
+
+    /**
+     * Expande (dotimes (var n [resultado]) cuerpo...) sin tocar el nombre de la variable.
+     */
+    private List<?> expandLoop(List<?> list) {
+        List<?> result = rebuild(list, 2);
+        if (list.size() > 1 && list.get(1) instanceof List) {
+            result = replace(result, 1, rebuild((List<?>) list.get(1), 1));
+        }
+        return result;
+    }
+
+    /**
+     * Expande (do ((var inicio paso)...) (prueba resultado...) cuerpo...).
+     */
+    private List<?> expandDo(List<?> list) {
+        List<?> result = rebuild(list, 3);
+        if (list.size() > 1 && list.get(1) instanceof List) {
+            List<?> specs = (List<?>) list.get(1);
+            List<?> expanded = specs;
+            for (int i = 0; i < specs.size(); i++) {
+                if (specs.get(i) instanceof List) {
+                    expanded = replace(expanded, i, rebuild((List<?>) specs.get(i), 1));
+                }
+            }
+            result = replace(result, 1, expanded);
+        }
+        if (list.size() > 2 && list.get(2) instanceof List) {
+            result = replace(result, 2, rebuild((List<?>) list.get(2), 0));
+        }
+        return result;
+    }
+
+    /**
+     * Expande los elementos de una lista desde una posición; devuelve la misma
+     * lista si ninguno cambió.
+     */
+    private List<?> rebuild(List<?> list, int from) {
+        List<?> result = list;
+        for (int i = from; i < list.size(); i++) {
+            result = replace(result, i, expand(list.get(i), false));
+        }
+        return result;
+    }
+
+    private static List<?> replace(List<?> list, int index, Object value) {
+        if (list.get(index) == value) {
+            return list;
+        }
+        List<Object> copy = new ArrayList<>(list);
+        copy.set(index, value);
+        return copy;
+    }
+
+    /**
+     * Convierte la plantilla de una cuasicita en las llamadas a list y append
+     * que la construyen: `(a ,b ,@c) se convierte en (APPEND (LIST 'a b) c).
+     * Las cuasicitas anidadas no se admiten.
+     *
+     * @param template La plantilla.
+     * @return La forma que construye el dato.
+     */
+    static Object quasiquote(Object template) {
+        if (!(template instanceof List) || ((List<?>) template).isEmpty()) {
+            return template instanceof Number || template instanceof Boolean
+                    ? template : Arrays.asList("QUOTE", template);
+        }
+        List<?> list = (List<?>) template;
+        if (is(list, "unquote")) {
+            if (list.size() != 2) throw new IllegalArgumentException("Uso incorrecto de UNQUOTE");
+            return list.get(1);
+        }
+        if (is(list, "unquote-splicing")) {
+            throw new IllegalArgumentException(",@ solo puede usarse dentro de una lista");
+        }
+        if (is(list, "quasiquote")) {
+            throw new IllegalArgumentException("No se admiten cuasicitas anidadas");
+        }
+        List<Object> segments = new ArrayList<>();
+        List<Object> items = null;
+        for (Object element : list) {
+            if (element instanceof List && is((List<?>) element, "unquote-splicing")) {
+                if (((List<?>) element).size() != 2) {
+                    throw new IllegalArgumentException("Uso incorrecto de UNQUOTE-SPLICING");
+                }
+                items = null;
+                segments.add(((List<?>) element).get(1));
+            } else {
+                if (items == null) {
+                    items = new ArrayList<>();
+                    items.add("LIST");
+                    segments.add(items);
+                }
+                items.add(quasiquote(element));
+            }
+        }
+        if (segments.size() == 1 && segments.get(0) == items) {
+            return items;
+        }
+        segments.add(0, "APPEND");
+        return segments;
+    }
+
+    private static boolean is(List<?> list, String operator) {
+        return !list.isEmpty() && list.get(0) instanceof String && operator.equalsIgnoreCase((String) list.get(0));
+    }
+
+    /**
+     * Expande la llamada al principio de una forma hasta que deje de ser la
+     * llamada a una macro, sin expandir sus subformas (macroexpand).
+     *
+     * @param form La forma.
+     * @return La forma expandida; la misma si no es una llamada a una macro.
+     */
+    Object expandHead(Object form) {
+        while (form instanceof List && !((List<?>) form).isEmpty() && ((List<?>) form).get(0) instanceof String) {
+            Macro macro = context.getFunctionTable().getMacro((String) ((List<?>) form).get(0));
+            if (macro == null) {
+                break;
+            }
+            form = macro.expand((List<?>) form, context);
+        }
+        return form;
+    }
+
+    /**
+     * Vuelve a definir las funciones cuyo cuerpo usó una macro que se acaba de
+     * redefinir, para que usen la expansión nueva. Una función memoizada con
+     * memoize conserva una caché nueva del mismo tamaño.
+     *
+     * @param name El nombre de la macro.
+     * @param context El contexto donde se redefinió.
+     */
+    static void refreshDependents(String name, Context context) {
+        String macro = name.toLowerCase();
+        List<Function> dependents = new ArrayList<>();
+        for (Function function : context.getFunctions().values()) {
+            Dependency dependency = function.getExpandedFrom();
+            if (dependency != null && dependency.macros.contains(macro)) {
+                dependents.add(function);
+            }
+        }
+        for (Function function : dependents) {
+            Dependency dependency = function.getExpandedFrom();
+            Evaluator evaluator = new Evaluator(context);
+            evaluator.setOptimizing(dependency.optimized);
+            evaluator.evaluate(dependency.definition);
+            Function redefined = context.getFunction(function.getName());
+            MemoCache memo = function.getMemo();
+            if (memo != null && redefined != null && redefined.getMemo() == null) {
+                context.setFunction(function.getName(), redefined.withMemo(new MemoCache(memo.getLimit())));
+            }
+        }
+    }
+}
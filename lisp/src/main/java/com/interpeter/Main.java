@@ -1,6 +1,11 @@
 package com.interpeter;
 
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Scanner;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Clase principal que inicia el intérprete LISP.
@@ -11,15 +16,104 @@ public class Main {
     /**
      * Método principal que ejecuta el intérprete LISP.
      *
-     * @param args Argumentos de línea de comandos (no utilizados).
+     * @param args Argumentos de línea de comandos; "--engine=vm" ejecuta las
+     *             funciones en la máquina virtual de bytecode en lugar del árbol de nodos
+     *             y "--engine=jit" compila las funciones calientes a código de la JVM;
+     *             "--no-optimize" desactiva el {@link Optimizer};
+     *             "--server=puerto" o "--server=unix:ruta" atiende sesiones REPL por
+     *             socket (ver {@link Server}) en lugar de la consola, con a lo sumo
+     *             "--max-connections=n" conexiones a la vez (1000 por omisión).
+     *             Los demás argumentos son archivos que se evalúan en orden, sin
+     *             mostrar las formas, y el programa termina al acabar el último.
+     *             "--image=ruta" carga una imagen (ver {@link Image}) antes de todo
+     *             lo demás y "--save-image=ruta" guarda el contexto al terminar los archivos.
+     *             "--form-cache=bytes" limita la {@link FormCache} de las entradas de
+     *             la consola y del servidor (16 MB por omisión; 0 la desactiva).
+     *             "--profile" enciende el {@link Profiler} desde el inicio y, al
+     *             ejecutar archivos, escribe su informe en la salida de errores. Con
+     *             "--profile" o "--server" se registra el MXBean {@link ProfilerMXBean#OBJECT_NAME},
+     *             que permite encenderlo y consultarlo por JMX.
      */
 
     public static void main(String[] args) {
         Scanner scanner = new Scanner(System.in);
-        Lexer lexer = new Lexer();
         Context context = new Context();
-        Parser parser = new Parser(lexer, context);
         Evaluator evaluator = new Evaluator(context);
+        evaluator.setOptimizing(true);
+        String server = null;
+        int maxConnections = 1000;
+        List<Path> files = new ArrayList<>();
+        Path image = null;
+        Path saveImage = null;
+        long formCache = FormCache.DEFAULT_LIMIT;
+        boolean profile = false;
+        for (String arg : args) {
+            if (arg.startsWith("--engine=")) {
+                context.setEngine(Engine.fromName(arg.substring("--engine=".length())));
+            } else if (arg.equals("--no-optimize")) {
+                evaluator.setOptimizing(false);
+            } else if (arg.startsWith("--server=")) {
+                server = arg.substring("--server=".length());
+            } else if (arg.startsWith("--max-connections=")) {
+                maxConnections = Integer.parseInt(arg.substring("--max-connections=".length()));
+            } else if (arg.startsWith("--image=")) {
+                image = Path.of(arg.substring("--image=".length()));
+            } else if (arg.startsWith("--save-image=")) {
+                saveImage = Path.of(arg.substring("--save-image=".length()));
+            } else if (arg.equals("--profile")) {
+                profile = true;
+                Profiler.setEnabled(true);
+            } else if (arg.startsWith("--form-cache=")) {
+                formCache = Long.parseLong(arg.substring("--form-cache=".length()));
+            } else if (!arg.startsWith("--")) {
+                files.add(Path.of(arg));
+            }
+        }
+
+        if (profile || server != null) {
+            Profiler.registerMBean();
+        }
+
+        if (image != null) {
+            try {
+                Image.load(context, image);
+            } catch (IOException | RuntimeException e) {
+                System.err.println("Error: no se pudo cargar la imagen " + image + ": " + e.getMessage());
+                System.exit(1);
+            }
+        }
+
+        if (!files.isEmpty() || saveImage != null) {
+            for (Path file : files) {
+                try {
+                    evaluator.load(file);
+                } catch (IOException e) {
+                    System.err.println("Error: no se pudo leer " + file + ": " + e.getMessage());
+                    System.exit(1);
+                } catch (RuntimeException e) {
+                    System.err.println("Error: " + e.getMessage());
+                    System.exit(1);
+                }
+            }
+            if (profile) {
+                System.err.print(Profiler.report());
+            }
+            if (saveImage != null) {
+                try {
+                    Image.save(context, saveImage);
+                } catch (IOException | RuntimeException e) {
+                    System.err.println("Error: no se pudo guardar la imagen " + saveImage + ": " + e.getMessage());
+                    System.exit(1);
+                }
+            }
+            return;
+        }
+
+        FormCache forms = new FormCache(formCache);
+        if (server != null) {
+            serve(context, server, maxConnections, forms);
+            return;
+        }
 
         System.out.println("Intérprete LISP listo. Escribe 'exit' para salir.\n"); 
         // Inicia el bucle de entrada del usuario
@@ -34,18 +128,53 @@ public class Main {
             }
 
             try {
-                Object parsed = parser.parse(input);
-                System.out.println("Árbol Parseado: " + parsed);
+                // Una línea puede contener varias expresiones
+                FormCache.Entry entry = forms.read(input);
+                for (int i = 0; i < entry.size(); i++) {
+                    Object parsed = entry.form(i);
+                    System.out.println("Árbol Parseado: " + parsed);
+                    // La forma optimizada se guarda con el nodo, así que una entrada repetida no se optimiza de nuevo
+                    Node compiled = forms.compile(entry, i, evaluator);
+                    Object optimized = forms.optimized(entry, i);
+                    if (optimized != parsed) {
+                        System.out.println("Forma Optimizada: " + Optimizer.print(optimized));
+                    }
 
-                Object result = evaluator.evaluate(parsed);
-                System.out.println("Resultado Evaluado: " + result); 
+                    Object result = evaluator.execute(compiled);
+                    System.out.println("Resultado Evaluado: " + result); 
+                }
                 // Muestra las variables almacenadas en el contexto
                 System.out.println("Variables en Contexto: " + context.getVariables());
 
+            } catch (LispReader.SyntaxException e) {
+                System.out.println("Error: " + e.getMessage() + " (línea " + e.getLine()
+                        + ", columna " + e.getColumn() + ")");
             } catch (Exception e) {
                 System.out.println("Error: " + e.getMessage());
             }
         }
         scanner.close();
     }
+
+    /**
+     * Atiende sesiones por socket hasta que la JVM reciba la señal de terminar;
+     * entonces deja de aceptar conexiones y espera a las sesiones abiertas.
+     */
+    private static void serve(Context context, String address, int maxConnections, FormCache forms) {
+        Server server = new Server(context, Server.address(address), maxConnections, forms);
+        try {
+            server.start();
+            System.out.println("Servidor LISP escuchando en " + server.getAddress());
+        } catch (IOException e) {
+            System.out.println("Error: no se pudo abrir el servidor: " + e.getMessage());
+            return;
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                server.shutdown(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }));
+    }
 }
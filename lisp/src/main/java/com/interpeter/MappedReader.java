@@ -0,0 +1,100 @@
+package com.interpeter;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Lector de un archivo UTF-8 mapeado en memoria, para cargar programas con
+ * {@link Evaluator#load}. El archivo se mapea por ventanas y los caracteres se
+ * decodifican directamente en el búfer de quien lee, así que ni el contenido
+ * del archivo ni su texto decodificado llegan a ocupar el heap: la memoria
+ * usada depende del {@link Lexer} y de la forma más grande, no del tamaño del archivo.
+ */
+final class MappedReader extends Reader {
+
+    private static final long WINDOW = 1 << 26;
+
+    private final FileChannel channel;
+    private final long size;
+    private final long windowSize;
+    private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    private ByteBuffer window;
+    private long windowStart;
+    private boolean flushed;
+
+    /**
+     * Abre y mapea el archivo.
+     *
+     * @param path La ruta del archivo.
+     * @throws IOException Si el archivo no se puede abrir.
+     */
+    MappedReader(Path path) throws IOException {
+        this(path, WINDOW);
+    }
+
+    /**
+     * Abre el archivo con otro tamaño de ventana.
+     *
+     * @param path La ruta del archivo.
+     * @param windowSize El número de bytes mapeados a la vez.
+     * @throws IOException Si el archivo no se puede abrir.
+     */
+    MappedReader(Path path, long windowSize) throws IOException {
+        this.channel = FileChannel.open(path, StandardOpenOption.READ);
+        this.size = channel.size();
+        this.windowSize = windowSize;
+        map(0);
+    }
+
+    private void map(long start) throws IOException {
+        windowStart = start;
+        window = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(windowSize, size - start));
+    }
+
+    @Override
+    public int read(char[] chars, int offset, int length) throws IOException {
+        if (length == 0) {
+            return 0;
+        }
+        CharBuffer out = CharBuffer.wrap(chars, offset, length);
+        while (out.position() == offset) {
+            boolean last = windowStart + window.limit() == size;
+            CoderResult result = decoder.decode(window, out, last);
+            if (result.isError()) {
+                result.throwException();
+            }
+            if (out.position() > offset || result.isOverflow()) {
+                break;
+            }
+            if (!last) {
+                // Un carácter puede quedar partido entre dos ventanas: la siguiente empieza en sus bytes
+                map(windowStart + window.position());
+            } else if (!flushed) {
+                flushed = true;
+                decoder.flush(out);
+                break;
+            } else {
+                return -1;
+            }
+        }
+        int read = out.position() - offset;
+        return read > 0 ? read : -1;
+    }
+
+    @Override
+    public void close() throws IOException {
+        window = null;
+        channel.close();
+    }
+}
@@ -0,0 +1,161 @@
+package com.interpeter;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Caché de resultados de una función memoizada (defun-memo o memoize).
+ * Las claves son los argumentos evaluados, comparados con EQUAL; al llegar al
+ * límite de entradas se descarta la usada hace más tiempo (LRU). El cálculo de
+ * un resultado ocurre fuera del candado, así que las llamadas recursivas de la
+ * misma función llenan la caché mientras se calcula la llamada externa.
+ * Solo tiene sentido en funciones puras: un vector o una tabla hash se comparan
+ * por identidad, de modo que modificarlos no invalida los resultados guardados.
+ */
+public final class MemoCache {
+
+    /** Límite de entradas por omisión, configurable con -Dlisp.memo.size. */
+    static final int DEFAULT_LIMIT = Integer.getInteger("lisp.memo.size", 10_000);
+
+    private final int limit;
+    private final LinkedHashMap<Key, Object> entries;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    /**
+     * Crea una caché vacía.
+     *
+     * @param limit El número máximo de resultados guardados.
+     */
+    public MemoCache(int limit) {
+        if (limit < 1) {
+            throw new IllegalArgumentException("El tamaño de la caché debe ser positivo: " + limit);
+        }
+        this.limit = limit;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Object> eldest) {
+                if (size() > MemoCache.this.limit) {
+                    evictions++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Devuelve el resultado guardado para los argumentos, o ejecuta la función
+     * con el motor del contexto y guarda el resultado.
+     *
+     * @param func La función memoizada.
+     * @param slots El marco de la llamada; sus primeras ranuras son los argumentos.
+     * @param context El contexto global.
+     * @return El resultado de la llamada.
+     */
+    Object call(Function func, Object[] slots, Context context) {
+        // El marco se copia antes de ejecutar porque el cuerpo reutiliza sus ranuras
+        Key key = new Key(Arrays.copyOf(slots, func.getParams().size()));
+        synchronized (this) {
+            Object result = entries.get(key);
+            if (result != null) {
+                hits++;
+                return result;
+            }
+            misses++;
+        }
+        Object result = Evaluator.execute(func, slots, context);
+        synchronized (this) {
+            entries.put(key, result == null ? Cons.NIL : result);
+        }
+        return result;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * Descarta los resultados guardados y reinicia las estadísticas.
+     */
+    public synchronized void clear() {
+        entries.clear();
+        hits = 0;
+        misses = 0;
+        evictions = 0;
+    }
+
+    /**
+     * Estadísticas como lista de propiedades, para memo-stats.
+     *
+     * @return (:HITS h :MISSES m :EVICTIONS e :SIZE n :LIMIT l)
+     */
+    synchronized Object stats() {
+        return Cons.list(":HITS", hits, ":MISSES", misses, ":EVICTIONS", evictions,
+                ":SIZE", (long) entries.size(), ":LIMIT", (long) limit);
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "#<MEMO-CACHE :SIZE " + entries.size() + " :LIMIT " + limit
+                + " :HITS " + hits + " :MISSES " + misses + ">";
+    }
+
+    /**
+     * Argumentos de una llamada, comparados elemento a elemento con EQUAL.
+     */
+    private static final class Key {
+
+        private final Object[] args;
+        private final int hash;
+
+        Key(Object[] args) {
+            this.args = args;
+            int h = 1;
+            for (Object arg : args) {
+                h = 31 * h + HashTable.Test.EQUAL.hashCode(arg);
+            }
+            this.hash = h;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Key)) {
+                return false;
+            }
+            Object[] that = ((Key) other).args;
+            if (that.length != args.length) {
+                return false;
+            }
+            for (int i = 0; i < args.length; i++) {
+                if (!HashTable.Test.EQUAL.test(args[i], that[i])) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package com.interpeter;
+
+/**
+ * Nodo ejecutable producido al compilar una expresión LISP.
+ * Cada forma se compila una sola vez en un árbol de nodos especializados;
+ * evaluar el árbol es una llamada virtual por nodo, sin inspeccionar cadenas
+ * ni buscar operadores en tiempo de ejecución.
+ */
+public abstract class Node {
+
+    /**
+     * Evalúa el nodo dentro de un marco.
+     *
+     * @param env El marco actual, con las variables locales y el contexto global.
+     * @return El resultado de la evaluación.
+     */
+    public abstract Object eval(Environment env);
+}
@@ -0,0 +1,980 @@
+package com.interpeter;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Implementaciones de los nodos ejecutables del intérprete.
+ * Cada clase corresponde a una forma especializada: constantes, referencias
+ * a variables, asignaciones, condicionales, aritmética, comparaciones,
+ * definiciones, primitivas, ciclos y llamadas a funciones.
+ */
+final class Nodes {
+
+    private Nodes() {
+    }
+
+    /**
+     * Determina si un valor se considera verdadero en una condición.
+     *
+     * @param value El valor de la condición.
+     * @return true si el valor es verdadero.
+     * @throws RuntimeException Si el valor no puede usarse como condición.
+     */
+    static boolean isTrue(Object value) {
+        if (value instanceof Boolean) {
+            return (Boolean) value;
+        } else if (value instanceof Number) {
+            return ((Number) value).doubleValue() != 0;
+        } else if (value instanceof Cons) {
+            return value != Cons.NIL;
+        }
+        throw new RuntimeException("Condición inválida en IF");
+    }
+
+    /**
+     * Convierte un valor numérico a double.
+     *
+     * @param obj El objeto a convertir.
+     * @return El valor numérico correspondiente.
+     * @throws RuntimeException Si el objeto no es un número.
+     */
+    static double toDouble(Object obj) {
+        if (obj instanceof Number) {
+            return ((Number) obj).doubleValue();
+        }
+        throw new RuntimeException("No se pudo convertir a número: " + obj);
+    }
+
+    /** Nodo que devuelve siempre el mismo valor. */
+    static final class ConstantNode extends Node {
+        private final Object value;
+
+        ConstantNode(Object value) {
+            this.value = value;
+        }
+
+        @Override
+        public Object eval(Environment env) {
+            return value;
+        }
+    }
+
+    /** Nodo que lee una variable local resuelta a (profundidad, índice). */
+    static final class LocalRefNode extends Node {
+        private final int depth;
+        private final int index;
+
+        LocalRefNode(LocalRef ref) {
+            this.depth = ref.getDepth();
+            this.index = ref.getIndex();
+        }
+
+        @Override
+        public Object eval(Environment env) {
+            return env.get(depth, index);
+        }
+    }
+
+    /** Nodo que lee una variable global; un símbolo sin valor se evalúa a sí mismo. */
+    static final class GlobalRefNode extends Node {
+        private final String name;
+
+        GlobalRefNode(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public Object eval(Environment env) {
+            Object value = env.getContext().getVariable(name);
+            return value != null ? value : name;
+        }
+    }
+
+    /** Nodo que asigna una variable local (setq sobre un parámetro). */
+    static final class SetqLocalNode extends Node {
+        private final int depth;
+        private final int index;
+        private final Node value;
+
+        SetqLocalNode(LocalRef ref, Node value) {
+            this.depth = ref.getDepth();
+            this.index = ref.getIndex();
+            this.value = value;
+        }
+
+        @Override
+        public Object eval(Environment env) {
+            Object result = value.eval(env);
+            env.set(depth, index, result);
+            return result;
+        }
+    }
+
+    /** Nodo que asigna una variable global (setq). */
+    static final class SetqGlobalNode extends Node {
+        private final String name;
+        private final Node value;
+
+        SetqGlobalNode(String name, Node value) {
+            this.name = name;
+            this.value = value;
+        }
+
+        @Override
+        public Object eval(Environment env) {
+            Object result = value.eval(env);
+            env.getContext().setVariable(name, result);
+            return result;
+        }
+    }
+
+    /** Nodo condicional (if). */
+    static final class IfNode extends Node {
+        private final Node condition;
+        private final Node then;
+        private final Node otherwise;
+
+        IfNode(Node condition, Node then, Node otherwise) {
+            this.condition = condition;
+            this.then = then;
+            this.otherwise = otherwise;
+        }
+
+        @Override
+        public Object eval(Environment env) {
+            return isTrue(condition.eval(env)) ? then.eval(env) : otherwise.eval(env);
+        }
+    }
+
+    /**
+     * Nodo aritmético (+, -, *, /).
+     * Mientras todos los operandos sean enteros (Long) la operación se acumula en un
+     * long primitivo con las operaciones exactas de Math; si se desborda, aparece
+     * un operando de otro tipo o la división es inexacta, continúa con {@link Numbers}.
+     */
+    static final class ArithmeticNode extends Node {
+        static final int ADD = 0;
+        static final int SUB = 1;
+        static final int MUL = 2;
+        static final int DIV = 3;
+
+        private final int op;
+        private final Node[] operands;
+
+        ArithmeticNode(int op, Node[] operands) {
+            this.op = op;
+            this.operands = operands;
+        }
+
+        @Override
+        public Object eval(Environment env) {
+            Object first = operands[0].eval(env);
+            if (operands.length == 1) {
+                return single(first);
+            }
+            if (!(first instanceof Long)) {
+                return evalGeneric(first, 1, env);
+            }
+            long result = (Long) first;
+            for (int i = 1; i < operands.length; i++) {
+                Object operand = operands[i].eval(env);
+                if (operand instanceof Long) {
+                    long val = (Long) operand;
+                    try {
+                        switch (op) {
+                            case ADD: result = Math.addExact(result, val); continue;
+                            case SUB: result = Math.subtractExact(result, val); continue;
+                            case MUL: result = Math.multiplyExact(result, val); continue;
+                            default:
+                                if (val != 0 && result % val == 0 && (result != Long.MIN_VALUE || val != -1)) {
+                                    result /= val;
+                                    continue;
+                                }
+                        }
+                    } catch (ArithmeticException overflow) {
+                        // Continúa con enteros grandes
+                    }
+                }
+                return evalGeneric(apply(op, result, operand), i + 1, env);
+            }
+            return result;
+        }
+
+        /**
+         * Aplica el operador a dos valores con la misma semántica que el nodo.
+         *
+         * @param op El operador aritmético.
+         * @param a El operando izquierdo.
+         * @param b El operando derecho.
+         * @return El resultado de la operación.
+         */
+        static Object apply(int op, Object a, Object b) {
+            switch (op) {
+                case ADD: return Numbers.add(a, b);
+                case SUB: return Numbers.subtract(a, b);
+                case MUL: return Numbers.multiply(a, b);
+                default: return Numbers.divide(a, b);
+            }
+        }
+
+        /**
+         * Resultado de una operación aritmética con un solo operando.
+         *
+         * @param value El operando.
+         * @return El mismo número si es exacto, o el valor convertido a double.
+         */
+        static Object single(Object value) {
+            return Numbers.isRational(value) ? value : (Object) toDouble(value);
+        }
+
+        private Object evalGeneric(Object result, int from, Environment env) {
+            for (int i = from; i < operands.length; i++) {
+                result = apply(op, result, operands[i].eval(env));
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Nodo de comparación (<, <=, >, >=, =, /=).
+     * Los enteros y racionales se comparan de forma exacta; si alguno es flotante se usa double.
+     */
+    static final class ComparisonNode extends Node {
+        static final int LT = 0;
+        static final int LE = 1;
+        static final int GT = 2;
+        static final int GE = 3;
+        static final int EQ = 4;
+        static final int NE = 5;
+
+        private final int op;
+        private final Node left;
+        private final Node right;
+
+        ComparisonNode(int op, Node left, Node right) {
+            this.op = op;
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        public Object eval(Environment env) {
+            return compare(op, left.eval(env), right.eval(env));
+        }
+
+        /**
+         * Compara dos valores numéricos.
+         *
+         * @param op El operador de comparación.
+         * @param l El operando izquierdo.
+         * @param r El operando derecho.
+         * @return El resultado de la comparación.
+         */
+        static boolean compare(int op, Object l, Object r) {
+            if (l instanceof Long && r instanceof Long) {
+                long a = (Long) l;
+                long b = (Long) r;
+                switch (op) {
+                    case LT: return a < b;
+                    case LE: return a <= b;
+                    case GT: return a > b;
+                    case GE: return a >= b;
+                    case EQ: return a == b;
+                    default: return a != b;
+                }
+            }
+            return compareSlow(op, l, r);
+        }
+
+        private static boolean compareSlow(int op, Object l, Object r) {
+            if (Numbers.isFloat(l) || Numbers.isFloat(r)) {
+                // Comparación primitiva, para que NaN no sea igual ni menor que nada
+                double a = toDouble(l);
+                double b = toDouble(r);
+                switch (op) {
+                    case LT: return a < b;
+                    case LE: return a <= b;
+                    case GT: return a > b;
+                    case GE: return a >= b;
+                    case EQ: return a == b;
+                    default: return a != b;
+                }
+            }
+            int c = Numbers.compare(l, r);
+            switch (op) {
+                case LT: return c < 0;
+                case LE: return c <= 0;
+                case GT: return c > 0;
+                case GE: return c >= 0;
+                case EQ: return c == 0;
+                default: return c != 0;
+            }
+        }
+    }
+
+    /** Nodo que llama a una primitiva, resuelta al compilar. */
+    static final class PrimitiveNode extends Node {
+        private final Primitive primitive;
+        private final Node[] args;
+
+        PrimitiveNode(Primitive primitive, Node[] args) {
+            this.primitive = primitive;
+            this.args = args;
+        }
+
+        @Override
+        public Object eval(Environment env) {
+            Object[] values = new Object[args.length];
+            for (int i = 0; i < args.length; i++) {
+                values[i] = args[i].eval(env);
+            }
+            return primitive.call(values, env.getContext());
+        }
+    }
+
+    /** Nodo que define una función (defun) con su cuerpo ya compilado. */
+    static final class DefunNode extends Node {
+        private final String name;
+        private final List<String> params;
+        private final ArrayList<Object> body;
+        private final Node[] compiledBody;
+        private final int frameSize;
+        private final boolean memo;
+        private final MacroExpander.Dependency expandedFrom;
+
+        DefunNode(String name, List<String> params, ArrayList<Object> body, Node[] compiledBody,
+                  int frameSize, boolean memo) {
+            this(name, params, body, compiledBody, frameSize, memo, null);
+        }
+
+        private DefunNode(String name, List<String> params, ArrayList<Object> body, Node[] compiledBody,
+                          int frameSize, boolean memo, MacroExpander.Dependency expandedFrom) {
+            this.name = name;
+            this.params = params;
+            this.body = body;
+            this.compiledBody = compiledBody;
+            this.frameSize = frameSize;
+            this.memo = memo;
+            this.expandedFrom = expandedFrom;
+        }
+
+        /**
+         * Crea el mismo nodo para un defun cuyo cuerpo usó macros.
+         *
+         * @param expandedFrom La definición original y las macros que usó.
+         * @return Un nodo que lo registra en la función definida.
+         */
+        DefunNode expandedFrom(MacroExpander.Dependency expandedFrom) {
+            return new DefunNode(name, params, body, compiledBody, frameSize, memo, expandedFrom);
+        }
+
+        @Override
+        public Object eval(Environment env) {
+            Function function = new Function(name, params, body);
+            function.setCompiledBody(compiledBody);
+            function.setFrameSize(frameSize);
+            function.setExpandedFrom(expandedFrom);
+            if (memo) {
+                function = function.withMemo(new MemoCache(MemoCache.DEFAULT_LIMIT));
+            }
+            env.getContext().setFunction(name, function);
+            return "Función " + name + " definida.";
+        }
+    }
+
+    /**
+     * Nodo que define una macro (defmacro) con el cuerpo de su expansor ya
+     * compilado. Si reemplaza a otra macro, vuelve a definir las funciones que
+     * usaban la anterior.
+     */
+    static final class DefmacroNode extends Node {
+        private final Function expander;
+        private final boolean rest;
+        private final List<?> definition;
+
+        DefmacroNode(Function expander, boolean rest, List<?> definition) {
+            this.expander = expander;
+            this.rest = rest;
+            this.definition = definition;
+        }
+
+        @Override
+        public Object eval(Environment env) {
+            Context context = env.getContext();
+            String name = expander.getName();
+            if (context.getFunctionTable().defineMacro(name, new Macro(expander, rest, definition)) != null) {
+                MacroExpander.refreshDependents(name, context);
+            }
+            return "Macro " + name + " definida.";
+        }
+    }
+
+    /**
+     * Nodo de (profile forma...): evalúa las formas con el {@link Profiler}
+     * encendido y devuelve el valor de la última. Los datos se suman a los ya
+     * acumulados, y al terminar el perfilador sigue encendido si lo encendió
+     * el interruptor u otra sesión.
+     */
+    static final class ProfileNode extends Node {
+        private final Node[] body;
+
+        ProfileNode(Node[] body) {
+            this.body = body;
+        }
+
+        @Override
+        public Object eval(Environment env) {
+            Profiler.begin();
+            try {
+                Object result = Cons.NIL;
+                for (Node node : body) {
+                    result = node.eval(env);
+                }
+                return result;
+            } finally {
+                Profiler.end();
+            }
+        }
+    }
+
+    /**
+     * Llamada integrada por el {@link Optimizer}: evalúa el cuerpo integrado
+     * mientras la función siga vigente y la llamada original si se redefinió.
+     */
+    static final class InlineNode extends Node {
+        private final Function function;
+        private final Node expansion;
+        private final Node call;
+
+        InlineNode(Function function, Node expansion, Node call) {
+            this.function = function;
+            this.expansion = expansion;
+            this.call = call;
+        }
+
+        @Override
+        public Object eval(Environment env) {
+            return function.isValid() ? expansion.eval(env) : call.eval(env);
+        }
+    }
+
+    /**
+     * Nodo de nivel superior que da a la expresión un marco propio, con las
+     * ranuras de las variables de los ciclos que declara.
+     */
+    static final class FrameNode extends Node {
+        private final int size;
+        private final Node body;
+
+        FrameNode(int size, Node body) {
+            this.size = size;
+            this.body = body;
+        }
+
+        @Override
+        public Object eval(Environment env) {
+            return body.eval(new Environment(new Object[size], null, env.getContext()));
+        }
+    }
+
+    /**
+     * Salida anticipada de un ciclo con (return valor). Es control de flujo, así
+     * que no captura la pila; la atrapa el ciclo más cercano.
+     */
+    static final class ReturnException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        final Object value;
+
+        ReturnException(Object value) {
+            super(null, null, false, false);
+            this.value = value;
+        }
+    }
+
+    /** Nodo (return valor), válido solo dentro de un ciclo. */
+    static final class ReturnNode extends Node {
+        private final Node value;
+
+        ReturnNode(Node value) {
+            this.value = value;
+        }
+
+        @Override
+        public Object eval(Environment env) {
+            throw new ReturnException(value.eval(env));
+        }
+    }
+
+    /**
+     * Evalúa el cuerpo de un ciclo una vez.
+     */
+    private static void run(Node[] body, Environment env) {
+        for (Node node : body) {
+            node.eval(env);
+        }
+    }
+
+    /**
+     * Evalúa las formas de resultado de un ciclo.
+     *
+     * @return El valor de la última forma, o NIL si no hay ninguna.
+     */
+    private static Object result(Node[] forms, Environment env) {
+        Object result = Cons.NIL;
+        for (Node node : forms) {
+            result = node.eval(env);
+        }
+        return result;
+    }
+
+    /**
+     * Nodo (dotimes (var cuenta [resultado]) cuerpo...). El contador vive en la
+     * ranura de la variable y se actualiza en el mismo marco en cada vuelta;
+     * mientras la cuenta sea un entero se lleva en un long primitivo.
+     */
+    static final class DotimesNode extends Node {
+        private final int slot;
+        private final Node count;
+        private final Node[] results;
+        private final Node[] body;
+
+        DotimesNode(int slot, Node count, Node[] results, Node[] body) {
+            this.slot = slot;
+            this.count = count;
+            this.results = results;
+            this.body = body;
+        }
+
+        @Override
+        public Object eval(Environment env) {
+            try {
+                Object limit = count.eval(env);
+                if (limit instanceof Long) {
+                    long n = (Long) limit;
+                    long i = 0;
+                    for (; i < n; i++) {
+                        env.set(0, slot, i);
+                        run(body, env);
+                    }
+                    env.set(0, slot, i);
+                } else {
+                    Object i = 0L;
+                    for (; ComparisonNode.compare(ComparisonNode.LT, i, limit); i = Numbers.add(i, 1L)) {
+                        env.set(0, slot, i);
+                        run(body, env);
+                    }
+                    env.set(0, slot, i);
+                }
+                return result(results, env);
+            } catch (ReturnException e) {
+                return e.value;
+            }
+        }
+    }
+
+    /**
+     * Nodo (dolist (var lista [resultado]) cuerpo...). Recorre las celdas cons
+     * con un cursor local y guarda cada elemento en la ranura de la variable.
+     */
+    static final class DolistNode extends Node {
+        private final int slot;
+        private final Node list;
+        private final Node[] results;
+        private final Node[] body;
+
+        DolistNode(int slot, Node list, Node[] results, Node[] body) {
+            this.slot = slot;
+            this.list = list;
+            this.results = results;
+            this.body = body;
+        }
+
+        @Override
+        public Object eval(Environment env) {
+            try {
+                Object cursor = list.eval(env);
+                while (cursor != Cons.NIL) {
+                    if (!(cursor instanceof Cons)) {
+                        throw new RuntimeException("DOLIST requiere una lista: " + cursor);
+                    }
+                    Cons cell = (Cons) cursor;
+                    env.set(0, slot, cell.car());
+                    run(body, env);
+                    cursor = cell.cdr();
+                }
+                env.set(0, slot, Cons.NIL);
+                return result(results, env);
+            } catch (ReturnException e) {
+                return e.value;
+            }
+        }
+    }
+
+    /**
+     * Nodo (do ((var inicio [paso])...) (prueba resultado...) cuerpo...) y su
+     * variante do*. En do los valores iniciales y los pasos se calculan todos
+     * antes de asignar las variables, en un arreglo creado una vez por ejecución
+     * del ciclo; en do* se asignan uno a uno.
+     */
+    static final class DoNode extends Node {
+        private final int[] slots;
+        private final Node[] inits;
+        private final Node[] steps;
+        private final Node test;
+        private final Node[] results;
+        private final Node[] body;
+        private final boolean sequential;
+
+        DoNode(int[] slots, Node[] inits, Node[] steps, Node test, Node[] results, Node[] body, boolean sequential) {
+            this.slots = slots;
+            this.inits = inits;
+            this.steps = steps;
+            this.test = test;
+            this.results = results;
+            this.body = body;
+            this.sequential = sequential;
+        }
+
+        @Override
+        public Object eval(Environment env) {
+            try {
+                Object[] values = sequential ? null : new Object[slots.length];
+                assign(inits, values, env);
+                while (!isTrue(test.eval(env))) {
+                    run(body, env);
+                    assign(steps, values, env);
+                }
+                return result(results, env);
+            } catch (ReturnException e) {
+                return e.value;
+            }
+        }
+
+        private void assign(Node[] forms, Object[] values, Environment env) {
+            if (values == null) {
+                for (int i = 0; i < slots.length; i++) {
+                    if (forms[i] != null) {
+                        env.set(0, slots[i], forms[i].eval(env));
+                    }
+                }
+                return;
+            }
+            for (int i = 0; i < slots.length; i++) {
+                if (forms[i] != null) {
+                    values[i] = forms[i].eval(env);
+                }
+            }
+            for (int i = 0; i < slots.length; i++) {
+                if (forms[i] != null) {
+                    env.set(0, slots[i], values[i]);
+                }
+            }
+        }
+    }
+
+    /** Nodo (loop cuerpo...) simple: repite el cuerpo hasta un return. */
+    static final class LoopNode extends Node {
+        private final Node[] body;
+
+        LoopNode(Node[] body) {
+            this.body = body;
+        }
+
+        @Override
+        public Object eval(Environment env) {
+            try {
+                while (true) {
+                    run(body, env);
+                }
+            } catch (ReturnException e) {
+                return e.value;
+            }
+        }
+    }
+
+    /**
+     * Cláusula que avanza un loop extendido: for x in lista, for x across
+     * vector, for i from a to b by s, o repeat n. Su estado de una ejecución
+     * ocupa tres casillas de un arreglo del ciclo, a partir de base.
+     */
+    static final class LoopDriver {
+        static final int IN = 0;
+        static final int ACROSS = 1;
+        static final int FROM = 2;
+        static final int REPEAT = 3;
+
+        private final int kind;
+        private final int slot;
+        private final Node source;
+        private final Node limit;
+        private final Node step;
+        private final boolean down;
+        private final boolean inclusive;
+
+        LoopDriver(int kind, int slot, Node source, Node limit, Node step, boolean down, boolean inclusive) {
+            this.kind = kind;
+            this.slot = slot;
+            this.source = source;
+            this.limit = limit;
+            this.step = step;
+            this.down = down;
+            this.inclusive = inclusive;
+        }
+
+        /**
+         * Pasa a la siguiente vuelta y asigna la variable de la cláusula.
+         *
+         * @param env El marco del ciclo.
+         * @param state El estado de las cláusulas del ciclo.
+         * @param base La primera casilla del estado de esta cláusula.
+         * @param first true en la primera vuelta, que evalúa las expresiones iniciales.
+         * @return false si la cláusula terminó el ciclo.
+         */
+        boolean advance(Environment env, Object[] state, int base, boolean first) {
+            switch (kind) {
+                case IN: {
+                    Object cursor = first ? source.eval(env) : state[base];
+                    if (!(cursor instanceof Cons)) {
+                        throw new RuntimeException("LOOP FOR IN requiere una lista: " + cursor);
+                    }
+                    if (cursor == Cons.NIL) {
+                        return false;
+                    }
+                    env.set(0, slot, ((Cons) cursor).car());
+                    state[base] = ((Cons) cursor).cdr();
+                    return true;
+                }
+                case ACROSS: {
+                    if (first) {
+                        Object vector = source.eval(env);
+                        if (!(vector instanceof LispVector)) {
+                            throw new RuntimeException("LOOP FOR ACROSS requiere un vector: " + vector);
+                        }
+                        state[base] = vector;
+                        state[base + 1] = 0;
+                    }
+                    LispVector vector = (LispVector) state[base];
+                    int index = (Integer) state[base + 1];
+                    if (index >= vector.length()) {
+                        return false;
+                    }
+                    env.set(0, slot, vector.get(index));
+                    state[base + 1] = index + 1;
+                    return true;
+                }
+                case FROM: {
+                    Object value;
+                    if (first) {
+                        value = source.eval(env);
+                        state[base + 1] = limit == null ? null : limit.eval(env);
+                        state[base + 2] = step == null ? 1L : step.eval(env);
+                    } else {
+                        value = down ? Numbers.subtract(state[base], state[base + 2])
+                                : Numbers.add(state[base], state[base + 2]);
+                    }
+                    state[base] = value;
+                    Object end = state[base + 1];
+                    if (end != null) {
+                        int op = down ? (inclusive ? ComparisonNode.GE : ComparisonNode.GT)
+                                : (inclusive ? ComparisonNode.LE : ComparisonNode.LT);
+                        if (!ComparisonNode.compare(op, value, end)) {
+                            return false;
+                        }
+                    }
+                    env.set(0, slot, value);
+                    return true;
+                }
+                default: {
+                    Object remaining = first ? source.eval(env) : state[base];
+                    if (!ComparisonNode.compare(ComparisonNode.GT, remaining, 0L)) {
+                        return false;
+                    }
+                    state[base] = Numbers.subtract(remaining, 1L);
+                    return true;
+                }
+            }
+        }
+    }
+
+    /**
+     * Nodo loop extendido: cláusulas for/repeat que avanzan el ciclo, seguidas
+     * de while, until, do y una acumulación (collect, sum, count, maximize o
+     * minimize). Todo corre en un solo ciclo de Java; las variables de las
+     * cláusulas viven en ranuras del marco y el estado interno en un arreglo
+     * creado una vez por ejecución.
+     */
+    static final class ExtendedLoopNode extends Node {
+        static final int WHILE = 0;
+        static final int UNTIL = 1;
+        static final int DO = 2;
+        static final int COLLECT = 3;
+        static final int SUM = 4;
+        static final int COUNT = 5;
+        static final int MAXIMIZE = 6;
+        static final int MINIMIZE = 7;
+
+        private final LoopDriver[] drivers;
+        private final int[] kinds;
+        private final Node[] forms;
+        private final int accumulation;
+
+        /**
+         * @param drivers Las cláusulas for/repeat, en orden.
+         * @param kinds El tipo de cada cláusula del cuerpo.
+         * @param forms La expresión de cada cláusula del cuerpo.
+         * @param accumulation El tipo de acumulación, o -1 si el ciclo no acumula.
+         */
+        ExtendedLoopNode(LoopDriver[] drivers, int[] kinds, Node[] forms, int accumulation) {
+            this.drivers = drivers;
+            this.kinds = kinds;
+            this.forms = forms;
+            this.accumulation = accumulation;
+        }
+
+        @Override
+        public Object eval(Environment env) {
+            Object[] state = new Object[drivers.length * 3];
+            Cons.Builder collected = accumulation == COLLECT ? new Cons.Builder() : null;
+            Object total = accumulation == SUM || accumulation == COUNT ? 0L : Cons.NIL;
+            try {
+                boolean first = true;
+                iteration:
+                while (true) {
+                    for (int d = 0; d < drivers.length; d++) {
+                        if (!drivers[d].advance(env, state, d * 3, first)) {
+                            break iteration;
+                        }
+                    }
+                    first = false;
+                    for (int i = 0; i < kinds.length; i++) {
+                        Object value = forms[i].eval(env);
+                        switch (kinds[i]) {
+                            case WHILE:
+                                if (!isTrue(value)) break iteration;
+                                break;
+                            case UNTIL:
+                                if (isTrue(value)) break iteration;
+                                break;
+                            case COLLECT:
+                                collected.add(value);
+                                break;
+                            case SUM:
+                                total = Numbers.add(total, value);
+                                break;
+                            case COUNT:
+                                if (isTrue(value)) total = Numbers.add(total, 1L);
+                                break;
+                            case MAXIMIZE:
+                                if (total == Cons.NIL || ComparisonNode.compare(ComparisonNode.GT, value, total)) total = value;
+                                break;
+                            case MINIMIZE:
+                                if (total == Cons.NIL || ComparisonNode.compare(ComparisonNode.LT, value, total)) total = value;
+                                break;
+                            default:
+                                break;
+                        }
+                    }
+                }
+            } catch (ReturnException e) {
+                return e.value;
+            }
+            return collected != null ? collected.build() : total;
+        }
+    }
+
+    /**
+     * Base de los nodos de llamada. Cada sitio de llamada guarda la última
+     * función que resolvió junto con la versión de la tabla de funciones en ese
+     * momento; mientras la versión no cambie, la llamada no consulta el mapa.
+     * Ambas se guardan en un solo {@link FunctionTable.Binding} inmutable,
+     * porque el cuerpo de una función lo ejecutan a la vez todas las sesiones.
+     */
+    abstract static class CallSiteNode extends Node {
+        protected final String name;
+        protected final Node[] args;
+        private FunctionTable.Binding cached;
+
+        CallSiteNode(String name, Node[] args) {
+            this.name = name;
+            this.args = args;
+        }
+
+        /**
+         * Resuelve la función llamada, usando la caché del sitio si sigue vigente.
+         *
+         * @param context El contexto de la llamada.
+         * @return La función a llamar.
+         */
+        protected final Function resolve(Context context) {
+            FunctionTable.Binding binding = cached;
+            if (binding == null || binding.version != context.getFunctionVersion()) {
+                binding = context.getFunctionTable().resolve(name);
+                if (binding == null) {
+                    throw new IllegalArgumentException("Función no definida: " + name);
+                }
+                cached = binding;
+            }
+            return binding.function;
+        }
+
+        /**
+         * Evalúa los argumentos en el marco de una nueva llamada.
+         */
+        protected final Object[] frame(Function func, Environment env) {
+            Object[] slots = Evaluator.newFrame(func, args.length);
+            for (int i = 0; i < args.length; i++) {
+                slots[i] = args[i].eval(env);
+            }
+            return slots;
+        }
+    }
+
+    /** Nodo que llama a una función definida por el usuario. */
+    static final class CallNode extends CallSiteNode {
+
+        CallNode(String name, Node[] args) {
+            super(name, args);
+        }
+
+        @Override
+        public Object eval(Environment env) {
+            Context context = env.getContext();
+            Function func = resolve(context);
+            return Evaluator.executeFunction(func, frame(func, env), context);
+        }
+    }
+
+    /**
+     * Llamada en posición de cola. En lugar de ejecutar la función llamada
+     * devuelve un {@link TailCall}, que el bucle de {@link Evaluator#interpret}
+     * ejecuta después de liberar el marco actual.
+     */
+    static final class TailCallNode extends CallSiteNode {
+
+        TailCallNode(String name, Node[] args) {
+            super(name, args);
+        }
+
+        @Override
+        public Object eval(Environment env) {
+            Function func = resolve(env.getContext());
+            return new TailCall(func, frame(func, env));
+        }
+    }
+
+    /**
+     * Llamada pendiente producida en posición de cola. Nunca sale de
+     * {@link Evaluator#executeFunction}: el motor que la recibe la ejecuta en un bucle.
+     */
+    static final class TailCall {
+        final Function function;
+        final Object[] slots;
+
+        TailCall(Function function, Object[] slots) {
+            this.function = function;
+            this.slots = slots;
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package com.interpeter;
+
+import java.math.BigInteger;
+
+/**
+ * Torre numérica del intérprete.
+ * Los enteros se representan como Long mientras caben en 64 bits y pasan a
+ * BigInteger cuando una operación se desborda; los resultados enteros vuelven
+ * a Long en cuanto caben. Las divisiones inexactas entre enteros producen un
+ * {@link Ratio}. Solo se usa double cuando alguno de los operandos es
+ * flotante, así que la aritmética racional es siempre exacta.
+ */
+final class Numbers {
+
+    private Numbers() {
+    }
+
+    static Object add(Object a, Object b) {
+        if (a instanceof Long && b instanceof Long) {
+            long x = (Long) a;
+            long y = (Long) b;
+            try {
+                return Math.addExact(x, y);
+            } catch (ArithmeticException overflow) {
+                return BigInteger.valueOf(x).add(BigInteger.valueOf(y));
+            }
+        }
+        if (isFloat(a) || isFloat(b)) {
+            return toDouble(a) + toDouble(b);
+        }
+        if (a instanceof Ratio || b instanceof Ratio) {
+            return Ratio.add(a, b);
+        }
+        return normalize(toBigInteger(a).add(toBigInteger(b)));
+    }
+
+    static Object subtract(Object a, Object b) {
+        if (a instanceof Long && b instanceof Long) {
+            long x = (Long) a;
+            long y = (Long) b;
+            try {
+                return Math.subtractExact(x, y);
+            } catch (ArithmeticException overflow) {
+                return BigInteger.valueOf(x).subtract(BigInteger.valueOf(y));
+            }
+        }
+        if (isFloat(a) || isFloat(b)) {
+            return toDouble(a) - toDouble(b);
+        }
+        if (a instanceof Ratio || b instanceof Ratio) {
+            return Ratio.subtract(a, b);
+        }
+        return normalize(toBigInteger(a).subtract(toBigInteger(b)));
+    }
+
+    static Object multiply(Object a, Object b) {
+        if (a instanceof Long && b instanceof Long) {
+            long x = (Long) a;
+            long y = (Long) b;
+            try {
+                return Math.multiplyExact(x, y);
+            } catch (ArithmeticException overflow) {
+                return BigInteger.valueOf(x).multiply(BigInteger.valueOf(y));
+            }
+        }
+        if (isFloat(a) || isFloat(b)) {
+            return toDouble(a) * toDouble(b);
+        }
+        if (a instanceof Ratio || b instanceof Ratio) {
+            return Ratio.multiply(a, b);
+        }
+        return normalize(toBigInteger(a).multiply(toBigInteger(b)));
+    }
+
+    /**
+     * Divide dos números. Entre enteros y racionales el resultado es exacto: un
+     * entero si la división lo es y un {@link Ratio} si no.
+     */
+    static Object divide(Object a, Object b) {
+        if (isFloat(a) || isFloat(b)) {
+            double divisor = toDouble(b);
+            if (divisor == 0) throw new ArithmeticException("División por cero");
+            return toDouble(a) / divisor;
+        }
+        if (a instanceof Long && b instanceof Long) {
+            long x = (Long) a;
+            long y = (Long) b;
+            if (y == 0) throw new ArithmeticException("División por cero");
+            if (x % y != 0) {
+                return Ratio.valueOf(x, y);
+            }
+            if (x != Long.MIN_VALUE || y != -1) {
+                return x / y;
+            }
+        }
+        if (a instanceof Ratio || b instanceof Ratio) {
+            return Ratio.divide(a, b);
+        }
+        return Ratio.valueOf(toBigInteger(a), toBigInteger(b));
+    }
+
+    /**
+     * Compara dos números de forma exacta. Si alguno es flotante se comparan como double.
+     *
+     * @return Un valor negativo, cero o positivo, como {@link Comparable#compareTo}.
+     */
+    static int compare(Object a, Object b) {
+        if (a instanceof Long && b instanceof Long) {
+            return Long.compare((Long) a, (Long) b);
+        }
+        if (isFloat(a) || isFloat(b)) {
+            return Double.compare(toDouble(a), toDouble(b));
+        }
+        if (a instanceof Ratio || b instanceof Ratio) {
+            return Ratio.compare(a, b);
+        }
+        return toBigInteger(a).compareTo(toBigInteger(b));
+    }
+
+    /**
+     * Indica si un valor es un número exacto: Long, BigInteger o Ratio.
+     */
+    static boolean isRational(Object value) {
+        return value instanceof Long || value instanceof BigInteger || value instanceof Ratio;
+    }
+
+    /**
+     * Lee un literal racional de la forma n/d.
+     *
+     * @param text El texto del literal.
+     * @return El número normalizado.
+     * @throws ArithmeticException Si el denominador es cero.
+     */
+    static Object parseRatio(String text) {
+        int slash = text.indexOf('/');
+        return Ratio.valueOf(new BigInteger(text.substring(0, slash)), new BigInteger(text.substring(slash + 1)));
+    }
+
+    /**
+     * Indica si un valor es un número de punto flotante.
+     */
+    static boolean isFloat(Object value) {
+        return value instanceof Double || value instanceof Float;
+    }
+
+    /**
+     * Convierte un entero grande a Long cuando cabe en 64 bits.
+     *
+     * @param value El entero.
+     * @return El mismo valor como Long o como BigInteger.
+     */
+    static Object normalize(BigInteger value) {
+        if (value.bitLength() < 64) {
+            return value.longValue();
+        }
+        return value;
+    }
+
+    static BigInteger toBigInteger(Object value) {
+        if (value instanceof BigInteger) {
+            return (BigInteger) value;
+        }
+        if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            return BigInteger.valueOf(((Number) value).longValue());
+        }
+        throw new RuntimeException("No se pudo convertir a número: " + value);
+    }
+
+    static double toDouble(Object value) {
+        if (value instanceof Number) {
+            return ((Number) value).doubleValue();
+        }
+        throw new RuntimeException("No se pudo convertir a número: " + value);
+    }
+}
@@ -0,0 +1,590 @@
+package com.interpeter;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Optimizador de formas que se ejecuta entre el lector y el compilador.
+ * Reescribe la forma parseada sin ejecutarla:
+ * pliega la aritmética y las comparaciones con operandos constantes, elimina
+ * la rama de un if cuya condición es constante, aplana los + y * anidados
+ * en el primer operando y junta sus constantes iniciales, e integra en el sitio de
+ * llamada las funciones pequeñas y no recursivas que ya están definidas.
+ * Una llamada integrada queda como (%inline f (f args...) expansión): la
+ * expansión se ejecuta mientras f siga vigente y, si f se redefine, la
+ * llamada original. Una operación que fallaría, como dividir entre cero, no
+ * se pliega, de modo que el error sigue ocurriendo al ejecutarse.
+ */
+public class Optimizer {
+
+    static final String INLINE = "%INLINE";
+
+    // Tamaño máximo, en átomos y listas, del cuerpo de una función integrable
+    private static final int INLINE_LIMIT = 24;
+
+    private final Context context;
+    private String defining;
+
+    /**
+     * Crea un optimizador.
+     *
+     * @param context El contexto donde se buscan las funciones a integrar.
+     */
+    public Optimizer(Context context) {
+        this.context = context;
+    }
+
+    /**
+     * Optimiza una expresión del nivel superior.
+     *
+     * @param expr La expresión parseada.
+     * @return La expresión equivalente optimizada; la misma si no cambió.
+     */
+    public Object optimize(Object expr) {
+        return optimize(expr, loopVariables(expr, new HashSet<>()), true);
+    }
+
+    /**
+     * Optimiza una expresión.
+     *
+     * @param expr La expresión.
+     * @param bound Los nombres de las variables locales visibles.
+     * @param inline false dentro de una expansión, que no vuelve a integrar llamadas.
+     */
+    private Object optimize(Object expr, Set<String> bound, boolean inline) {
+        if (!(expr instanceof List) || ((List<?>) expr).isEmpty() || !(((List<?>) expr).get(0) instanceof String)) {
+            return expr;
+        }
+        List<?> list = (List<?>) expr;
+        String operation = ((String) list.get(0)).toLowerCase();
+        switch (operation) {
+            case "quote": case "defmacro":
+                return list;
+            case "%inline":
+                if (list.size() != 4 || !(list.get(1) instanceof Function)) {
+                    return list;
+                }
+                return rebuild(list, 2, bound, false);
+            case "defun": case "defun-memo":
+                return optimizeDefun(list, inline);
+            case "setq":
+                return rebuild(list, 2, bound, inline);
+            case "setf":
+                if (list.size() == 3 && list.get(1) instanceof List) {
+                    List<Object> result = new ArrayList<>(list);
+                    result.set(1, rebuild((List<?>) list.get(1), 1, bound, inline));
+                    result.set(2, optimize(list.get(2), bound, inline));
+                    return same(list, result) ? list : result;
+                }
+                return rebuild(list, 2, bound, inline);
+            case "if":
+                return optimizeIf(list, bound, inline);
+            case "+": case "*":
+                return fold(flatten(operation, rebuild(list, 1, bound, inline)));
+            case "-": case "/":
+                return fold(rebuild(list, 1, bound, inline));
+            case "<": case "<=": case ">": case ">=": case "=": case "/=":
+                return fold(rebuild(list, 1, bound, inline));
+            case "dotimes": case "dolist":
+                return optimizeLoop(list, bound, inline);
+            case "do": case "do*":
+                return optimizeDo(list, bound, inline);
+            case "loop": case "return":
+                return rebuild(list, 1, bound, inline);
+            default:
+                List<?> call = rebuild(list, 1, bound, inline);
+                if (inline && Primitives.get(operation) == null) {
+                    Object inlined = inline(operation, call, bound);
+                    if (inlined != null) {
+                        return inlined;
+                    }
+                }
+                return call;
+        }
+    }
+
+    /**
+     * Optimiza el cuerpo de un defun con los parámetros y las variables de sus
+     * ciclos como variables locales. Las llamadas a la función que se define no
+     * se integran.
+     */
+    private Object optimizeDefun(List<?> list, boolean inline) {
+        if (list.size() < 4 || !(list.get(2) instanceof List)) {
+            return list;
+        }
+        Set<String> bound = new HashSet<>();
+        for (Object param : (List<?>) list.get(2)) {
+            bound.add(param.toString());
+        }
+        for (int i = 3; i < list.size(); i++) {
+            loopVariables(list.get(i), bound);
+        }
+        String outer = defining;
+        defining = list.get(1).toString();
+        try {
+            return rebuild(list, 3, bound, inline);
+        } finally {
+            defining = outer;
+        }
+    }
+
+    private Object optimizeIf(List<?> list, Set<String> bound, boolean inline) {
+        if (list.size() != 3 && list.size() != 4) {
+            return rebuild(list, 1, bound, inline);
+        }
+        Object condition = optimize(list.get(1), bound, inline);
+        Boolean known = truth(condition);
+        if (known == null) {
+            List<Object> result = new ArrayList<>(list);
+            result.set(1, condition);
+            for (int i = 2; i < list.size(); i++) {
+                result.set(i, optimize(list.get(i), bound, inline));
+            }
+            return same(list, result) ? list : result;
+        }
+        if (known) {
+            return optimize(list.get(2), bound, inline);
+        }
+        return list.size() == 4 ? optimize(list.get(3), bound, inline) : Boolean.FALSE;
+    }
+
+    /**
+     * Optimiza dotimes y dolist: la expresión y los resultados de la
+     * especificación (var expresión [resultado]) y el cuerpo.
+     */
+    private Object optimizeLoop(List<?> list, Set<String> bound, boolean inline) {
+        if (list.size() < 2 || !(list.get(1) instanceof List)) {
+            return list;
+        }
+        List<Object> result = new ArrayList<>(list);
+        result.set(1, rebuild((List<?>) list.get(1), 1, bound, inline));
+        for (int i = 2; i < list.size(); i++) {
+            result.set(i, optimize(list.get(i), bound, inline));
+        }
+        return same(list, result) ? list : result;
+    }
+
+    /**
+     * Optimiza do y do*: los valores iniciales y los pasos de cada variable, la
+     * prueba y los resultados, y el cuerpo.
+     */
+    private Object optimizeDo(List<?> list, Set<String> bound, boolean inline) {
+        if (list.size() < 3 || !(list.get(1) instanceof List) || !(list.get(2) instanceof List)) {
+            return list;
+        }
+        List<Object> bindings = new ArrayList<>();
+        for (Object binding : (List<?>) list.get(1)) {
+            bindings.add(binding instanceof List ? rebuild((List<?>) binding, 1, bound, inline) : binding);
+        }
+        List<Object> result = new ArrayList<>(list);
+        result.set(1, same((List<?>) list.get(1), bindings) ? list.get(1) : bindings);
+        result.set(2, rebuild((List<?>) list.get(2), 0, bound, inline));
+        for (int i = 3; i < list.size(); i++) {
+            result.set(i, optimize(list.get(i), bound, inline));
+        }
+        return same(list, result) ? list : result;
+    }
+
+    /**
+     * Integra una llamada a una función ya definida si su cuerpo es una sola
+     * expresión pequeña, sin asignaciones, ciclos ni llamadas a sí misma.
+     * Los argumentos constantes y las variables locales se sustituyen en todos
+     * los usos del parámetro; cualquier otro argumento solo si el parámetro se
+     * usa una vez y el cuerpo no llama a funciones, para no repetir ni reordenar
+     * efectos. Tampoco se integra si una variable libre del cuerpo quedaría
+     * capturada por una local del sitio de llamada.
+     *
+     * @return La forma %inline, o null si la llamada no se integra.
+     */
+    private Object inline(String name, List<?> call, Set<String> bound) {
+        Function function = context.getFunction(name);
+        // Una función memoizada no se integra: la llamada debe pasar por su caché
+        if (function == null || function.getMemo() != null || name.equalsIgnoreCase(defining)
+                || function.getBody().size() != 1 || function.getParams().size() != call.size() - 1) {
+            return null;
+        }
+        Object body = function.getBody().get(0);
+        if (size(body) > INLINE_LIMIT || !inlinable(body, name)) {
+            return null;
+        }
+        List<String> params = function.getParams();
+        Set<String> free = new HashSet<>();
+        freeVariables(body, new HashSet<>(params), free);
+        for (String variable : free) {
+            if (bound.contains(variable)) {
+                return null;
+            }
+        }
+        boolean straight = straight(body);
+        Map<String, Object> arguments = new HashMap<>();
+        for (int i = 0; i < params.size(); i++) {
+            Object argument = call.get(i + 1);
+            boolean local = argument instanceof String && bound.contains(argument);
+            if (!isConstant(argument) && !isQuote(argument) && !local
+                    && !(straight && pure(argument) && uses(body, params.get(i)) == 1)) {
+                return null;
+            }
+            arguments.put(params.get(i), argument);
+        }
+        List<Object> result = new ArrayList<>(4);
+        result.add(INLINE);
+        result.add(function);
+        result.add(call);
+        result.add(optimize(substitute(body, arguments), bound, false));
+        return result;
+    }
+
+    /**
+     * Pliega una operación aritmética o una comparación. Si no todos los
+     * operandos son constantes, + y * juntan solo las constantes del principio,
+     * que se operan antes que el resto: con un operando que puede ser de punto
+     * flotante, reagrupar cualquier otro par cambiaría el redondeo.
+     */
+    private static Object fold(List<?> list) {
+        String operation = ((String) list.get(0)).toLowerCase();
+        int constants = 0;
+        for (int i = 1; i < list.size(); i++) {
+            if (isConstant(list.get(i)) && list.get(i) instanceof Number) {
+                constants++;
+            }
+        }
+        try {
+            if (constants == list.size() - 1 && constants > 0) {
+                int comparison = comparison(operation);
+                if (comparison >= 0) {
+                    return list.size() == 3 ? (Object) Nodes.ComparisonNode.compare(comparison, list.get(1), list.get(2)) : list;
+                }
+                int op = arithmetic(operation);
+                Object result = list.get(1);
+                if (list.size() == 2) {
+                    return Nodes.ArithmeticNode.single(result);
+                }
+                for (int i = 2; i < list.size(); i++) {
+                    result = Nodes.ArithmeticNode.apply(op, result, list.get(i));
+                }
+                return result;
+            }
+        } catch (RuntimeException e) {
+            // Se deja para que el error ocurra al ejecutarse
+            return list;
+        }
+        if (!operation.equals("+") && !operation.equals("*")) {
+            return list;
+        }
+        int leading = 1;
+        while (leading < list.size() && list.get(leading) instanceof Number) {
+            leading++;
+        }
+        if (leading < 3) {
+            return list;
+        }
+        int op = arithmetic(operation);
+        Object merged = list.get(1);
+        for (int i = 2; i < leading; i++) {
+            merged = Nodes.ArithmeticNode.apply(op, merged, list.get(i));
+        }
+        List<Object> result = new ArrayList<>();
+        result.add(list.get(0));
+        result.add(merged);
+        result.addAll(list.subList(leading, list.size()));
+        return result;
+    }
+
+    /**
+     * Aplana la suma o el producto anidado en el primer operando:
+     * (+ (+ a b) c) es (+ a b c), porque los operandos se operan de izquierda
+     * a derecha. En otra posición no se aplana: (+ a (+ b c)) suma b y c
+     * primero, y con números de punto flotante el resultado puede ser otro.
+     */
+    private static List<?> flatten(String operation, List<?> list) {
+        if (list.size() < 2 || !isOperation(list.get(1), operation)) {
+            return list;
+        }
+        List<Object> result = new ArrayList<>();
+        result.add(list.get(0));
+        List<?> inner = flatten(operation, (List<?>) list.get(1));
+        result.addAll(inner.subList(1, inner.size()));
+        result.addAll(list.subList(2, list.size()));
+        return result;
+    }
+
+    private static boolean isOperation(Object expr, String operation) {
+        return expr instanceof List && ((List<?>) expr).size() >= 3
+                && operation.equals(((List<?>) expr).get(0));
+    }
+
+    /**
+     * Optimiza los elementos de una lista a partir de una posición.
+     *
+     * @return La misma lista si ningún elemento cambió, o una copia con los elementos optimizados.
+     */
+    private List<?> rebuild(List<?> list, int from, Set<String> bound, boolean inline) {
+        List<Object> result = new ArrayList<>(list);
+        for (int i = from; i < list.size(); i++) {
+            result.set(i, optimize(list.get(i), bound, inline));
+        }
+        return same(list, result) ? list : result;
+    }
+
+    private static boolean same(List<?> a, List<?> b) {
+        for (int i = 0; i < a.size(); i++) {
+            if (a.get(i) != b.get(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Indica si una condición es constante.
+     *
+     * @return Su valor de verdad, o null si depende de la ejecución.
+     */
+    private static Boolean truth(Object condition) {
+        if (isConstant(condition)) {
+            return Nodes.isTrue(condition);
+        }
+        if (FormCompiler.isNil(condition)) {
+            return false;
+        }
+        if (isQuote(condition)) {
+            return FormCompiler.quoted((List<?>) condition) != Cons.NIL;
+        }
+        return null;
+    }
+
+    private static boolean isConstant(Object expr) {
+        return expr instanceof Number || expr instanceof Boolean;
+    }
+
+    private static boolean isQuote(Object expr) {
+        return expr instanceof List && ((List<?>) expr).size() == 2
+                && "quote".equalsIgnoreCase(String.valueOf(((List<?>) expr).get(0)));
+    }
+
+    /**
+     * Indica si una expresión no tiene efectos: constantes, variables y
+     * aritmética o comparaciones sobre ellas.
+     */
+    private static boolean pure(Object expr) {
+        if (!(expr instanceof List)) {
+            return true;
+        }
+        if (isQuote(expr)) {
+            return true;
+        }
+        List<?> list = (List<?>) expr;
+        String operation = String.valueOf(list.get(0)).toLowerCase();
+        if (arithmetic(operation) < 0 && comparison(operation) < 0) {
+            return false;
+        }
+        for (int i = 1; i < list.size(); i++) {
+            if (!pure(list.get(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Indica si un cuerpo solo usa aritmética, comparaciones, if y datos
+     * citados, sin llamar a ninguna función.
+     */
+    private static boolean straight(Object expr) {
+        if (!(expr instanceof List) || isQuote(expr)) {
+            return true;
+        }
+        List<?> list = (List<?>) expr;
+        String operation = String.valueOf(list.get(0)).toLowerCase();
+        if (!operation.equals("if") && arithmetic(operation) < 0 && comparison(operation) < 0) {
+            return false;
+        }
+        for (int i = 1; i < list.size(); i++) {
+            if (!straight(list.get(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Indica si un cuerpo puede integrarse: no asigna variables, no define
+     * funciones, no tiene ciclos y no se llama a sí mismo.
+     */
+    private static boolean inlinable(Object expr, String self) {
+        if (!(expr instanceof List) || isQuote(expr)) {
+            return true;
+        }
+        List<?> list = (List<?>) expr;
+        if (list.isEmpty() || !(list.get(0) instanceof String)) {
+            return false;
+        }
+        String operation = ((String) list.get(0)).toLowerCase();
+        switch (operation) {
+            case "setq": case "setf": case "defun": case "defun-memo": case "dotimes": case "dolist":
+            case "do": case "do*": case "loop": case "return":
+                return false;
+            case "%inline":
+                return list.size() == 4 && inlinable(list.get(2), self) && inlinable(list.get(3), self);
+            default:
+                if (operation.equalsIgnoreCase(self)) {
+                    return false;
+                }
+                for (int i = 1; i < list.size(); i++) {
+                    if (!inlinable(list.get(i), self)) {
+                        return false;
+                    }
+                }
+                return true;
+        }
+    }
+
+    /**
+     * Reemplaza los parámetros por los argumentos en las posiciones de valor;
+     * los operadores y los datos citados no se tocan.
+     */
+    private static Object substitute(Object expr, Map<String, Object> arguments) {
+        if (expr instanceof String) {
+            return arguments.containsKey(expr) ? arguments.get(expr) : expr;
+        }
+        if (!(expr instanceof List) || isQuote(expr)) {
+            return expr;
+        }
+        List<?> list = (List<?>) expr;
+        List<Object> result = new ArrayList<>(list.size());
+        result.add(list.get(0));
+        for (int i = 1; i < list.size(); i++) {
+            result.add(substitute(list.get(i), arguments));
+        }
+        return result;
+    }
+
+    /**
+     * Reúne los símbolos en posición de valor que no son parámetros.
+     */
+    private static void freeVariables(Object expr, Set<String> params, Set<String> free) {
+        if (expr instanceof String) {
+            if (!params.contains(expr) && !FormCompiler.isNil(expr)) {
+                free.add((String) expr);
+            }
+            return;
+        }
+        if (!(expr instanceof List) || isQuote(expr)) {
+            return;
+        }
+        List<?> list = (List<?>) expr;
+        for (int i = 1; i < list.size(); i++) {
+            freeVariables(list.get(i), params, free);
+        }
+    }
+
+    private static int uses(Object expr, String param) {
+        if (expr instanceof String) {
+            return expr.equals(param) ? 1 : 0;
+        }
+        if (!(expr instanceof List) || isQuote(expr)) {
+            return 0;
+        }
+        List<?> list = (List<?>) expr;
+        int count = 0;
+        for (int i = 1; i < list.size(); i++) {
+            count += uses(list.get(i), param);
+        }
+        return count;
+    }
+
+    private static int size(Object expr) {
+        if (!(expr instanceof List) || isQuote(expr)) {
+            return 1;
+        }
+        int size = 1;
+        for (Object element : (List<?>) expr) {
+            size += size(element);
+        }
+        return size;
+    }
+
+    /**
+     * Reúne los nombres de las variables de los ciclos de una forma, fuera de
+     * los defun anidados, que tienen su propio marco.
+     */
+    private static Set<String> loopVariables(Object expr, Set<String> names) {
+        if (!(expr instanceof List) || ((List<?>) expr).isEmpty() || isQuote(expr)) {
+            return names;
+        }
+        List<?> list = (List<?>) expr;
+        String operation = String.valueOf(list.get(0)).toLowerCase();
+        if (operation.equals("defun") || operation.equals("defun-memo")) {
+            return names;
+        }
+        if ((operation.equals("dotimes") || operation.equals("dolist")) && list.size() > 1
+                && list.get(1) instanceof List && !((List<?>) list.get(1)).isEmpty()) {
+            names.add(String.valueOf(((List<?>) list.get(1)).get(0)));
+        } else if ((operation.equals("do") || operation.equals("do*")) && list.size() > 1 && list.get(1) instanceof List) {
+            for (Object binding : (List<?>) list.get(1)) {
+                names.add(String.valueOf(binding instanceof List && !((List<?>) binding).isEmpty()
+                        ? ((List<?>) binding).get(0) : binding));
+            }
+        } else if (operation.equals("loop")) {
+            for (int i = 1; i + 1 < list.size(); i++) {
+                Object word = list.get(i);
+                if (word instanceof String && (((String) word).equalsIgnoreCase("for") || ((String) word).equalsIgnoreCase("as"))) {
+                    names.add(String.valueOf(list.get(i + 1)));
+                }
+            }
+        }
+        for (Object element : list) {
+            loopVariables(element, names);
+        }
+        return names;
+    }
+
+    private static int arithmetic(String operation) {
+        switch (operation) {
+            case "+": return Nodes.ArithmeticNode.ADD;
+            case "-": return Nodes.ArithmeticNode.SUB;
+            case "*": return Nodes.ArithmeticNode.MUL;
+            case "/": return Nodes.ArithmeticNode.DIV;
+            default: return -1;
+        }
+    }
+
+    private static int comparison(String operation) {
+        switch (operation) {
+            case "<": return Nodes.ComparisonNode.LT;
+            case "<=": return Nodes.ComparisonNode.LE;
+            case ">": return Nodes.ComparisonNode.GT;
+            case ">=": return Nodes.ComparisonNode.GE;
+            case "=": return Nodes.ComparisonNode.EQ;
+            case "/=": return Nodes.ComparisonNode.NE;
+            default: return -1;
+        }
+    }
+
+    /**
+     * Escribe una forma con la sintaxis de LISP, para mostrarla en el REPL.
+     *
+     * @param form La forma.
+     * @return El texto de la forma; una función integrada se muestra por su nombre.
+     */
+    public static String print(Object form) {
+        if (form instanceof Function) {
+            return ((Function) form).getName();
+        }
+        if (!(form instanceof List)) {
+            return String.valueOf(form);
+        }
+        StringBuilder text = new StringBuilder("(");
+        for (Object element : (List<?>) form) {
+            if (text.length() > 1) {
+                text.append(' ');
+            }
+            text.append(print(element));
+        }
+        return text.append(')').toString();
+    }
+}
@@ -0,0 +1,79 @@
+package com.interpeter;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Función predefinida implementada en Java, como car o cons.
+ * Los tres motores la llaman con los argumentos ya evaluados en un arreglo;
+ * el número de argumentos se valida aquí antes de ejecutar el cuerpo.
+ */
+public final class Primitive {
+
+    /**
+     * Cuerpo de una primitiva.
+     */
+    @FunctionalInterface
+    interface Body {
+        Object apply(Object[] args, Context context);
+    }
+
+    /** Valor de maxArgs para las primitivas que aceptan cualquier número de argumentos. */
+    static final int VARIADIC = -1;
+
+    private final String name;
+    private final int minArgs;
+    private final int maxArgs;
+    private final Body body;
+    private final LongAdder calls = new LongAdder();
+
+    Primitive(String name, int minArgs, int maxArgs, Body body) {
+        this.name = name;
+        this.minArgs = minArgs;
+        this.maxArgs = maxArgs;
+        this.body = body;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Ejecuta la primitiva.
+     *
+     * @param args Los argumentos evaluados.
+     * @param context El contexto de la llamada.
+     * @return El resultado de la primitiva.
+     * @throws IllegalArgumentException Si el número de argumentos no es válido.
+     */
+    public Object call(Object[] args, Context context) {
+        if (args.length < minArgs || (maxArgs != VARIADIC && args.length > maxArgs)) {
+            String expected = minArgs == maxArgs ? String.valueOf(minArgs)
+                    : maxArgs == VARIADIC ? "al menos " + minArgs
+                    : "entre " + minArgs + " y " + maxArgs;
+            throw new IllegalArgumentException("La primitiva " + name + " espera " + expected
+                    + " argumentos y recibió " + args.length);
+        }
+        if (Profiler.enabled) {
+            calls.increment();
+        }
+        return body.apply(args, context);
+    }
+
+    /**
+     * Obtiene las llamadas contadas mientras el {@link Profiler} estaba encendido.
+     *
+     * @return El número de llamadas.
+     */
+    long getCalls() {
+        return calls.sum();
+    }
+
+    void resetCalls() {
+        calls.reset();
+    }
+
+    @Override
+    public String toString() {
+        return "#<primitiva " + name + ">";
+    }
+}
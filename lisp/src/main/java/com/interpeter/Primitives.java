@@ -0,0 +1,558 @@
+package com.interpeter;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Tabla de las primitivas del lenguaje.
+ * Los compiladores resuelven los nombres contra esta tabla al compilar, así que
+ * una llamada a una primitiva no busca nada por nombre al ejecutarse. Las
+ * primitivas no pueden redefinirse con defun.
+ */
+final class Primitives {
+
+    private static final Map<String, Primitive> TABLE = new HashMap<>();
+
+    static {
+        // Listas
+        define("car", 1, 1, (args, context) -> Cons.car(args[0]));
+        define("cdr", 1, 1, (args, context) -> Cons.cdr(args[0]));
+        define("cons", 2, 2, (args, context) -> new Cons(args[0], args[1]));
+        define("list", 0, Primitive.VARIADIC, (args, context) -> Cons.list(args));
+        define("append", 0, Primitive.VARIADIC, (args, context) -> Cons.append(args));
+        define("reverse", 1, 1, (args, context) -> Cons.reverse(args[0]));
+        define("nth", 2, 2, (args, context) -> Cons.nth(args[0], args[1]));
+        define("length", 1, 1, (args, context) -> args[0] instanceof LispVector
+                ? (long) ((LispVector) args[0]).length() : Cons.length(args[0]));
+        define("null", 1, 1, (args, context) -> args[0] == Cons.NIL);
+        define("mapcar", 2, Primitive.VARIADIC, Primitives::mapcar);
+
+        // Aritmética como funciones, para pasarla a mapcar, map o reduce
+        define("+", 0, Primitive.VARIADIC, (args, context) -> fold(Nodes.ArithmeticNode.ADD, args, 0L));
+        define("-", 1, Primitive.VARIADIC, (args, context) -> fold(Nodes.ArithmeticNode.SUB, args, null));
+        define("*", 0, Primitive.VARIADIC, (args, context) -> fold(Nodes.ArithmeticNode.MUL, args, 1L));
+        define("/", 1, Primitive.VARIADIC, (args, context) -> fold(Nodes.ArithmeticNode.DIV, args, null));
+        define("max", 1, Primitive.VARIADIC, (args, context) -> extreme(Nodes.ComparisonNode.GT, args));
+        define("min", 1, Primitive.VARIADIC, (args, context) -> extreme(Nodes.ComparisonNode.LT, args));
+
+        // Igualdad
+        define("eq", 2, 2, (args, context) -> HashTable.Test.EQ.test(args[0], args[1]));
+        define("eql", 2, 2, (args, context) -> HashTable.Test.EQL.test(args[0], args[1]));
+        define("equal", 2, 2, (args, context) -> HashTable.Test.EQUAL.test(args[0], args[1]));
+
+        // Tablas hash
+        define("make-hash-table", 0, Primitive.VARIADIC, (args, context) -> makeHashTable(args));
+        define("gethash", 2, 3, (args, context) -> {
+            Object value = hashTable(args[1], "GETHASH").get(args[0]);
+            return value != null ? value : args.length == 3 ? args[2] : Cons.NIL;
+        });
+        define("(setf gethash)", 3, 3, (args, context) -> {
+            hashTable(args[1], "SETF GETHASH").put(args[0], args[2]);
+            return args[2];
+        });
+        define("remhash", 2, 2, (args, context) -> hashTable(args[1], "REMHASH").remove(args[0]));
+        define("clrhash", 1, 1, (args, context) -> {
+            hashTable(args[0], "CLRHASH").clear();
+            return args[0];
+        });
+        define("hash-table-count", 1, 1, (args, context) -> (long) hashTable(args[0], "HASH-TABLE-COUNT").size());
+        define("maphash", 2, 2, (args, context) -> {
+            Object function = resolve(args[0], context);
+            hashTable(args[1], "MAPHASH").forEach((key, value) -> apply(function, new Object[] { key, value }, context));
+            return Cons.NIL;
+        });
+
+        // Vectores
+        define("make-array", 1, Primitive.VARIADIC, (args, context) -> makeArray(args));
+        define("vector", 0, Primitive.VARIADIC, (args, context) -> new LispVector.General(args.clone()));
+        define("aref", 2, 2, (args, context) -> {
+            LispVector vector = vector(args[0], "AREF");
+            return vector.get(vector.index(args[1]));
+        });
+        define("(setf aref)", 3, 3, (args, context) -> {
+            LispVector vector = vector(args[0], "SETF AREF");
+            vector.set(vector.index(args[1]), args[2]);
+            return args[2];
+        });
+        define("vector-sum", 1, 1, (args, context) -> vector(args[0], "VECTOR-SUM").sum());
+        define("dot-product", 2, 2, (args, context) ->
+                vector(args[0], "DOT-PRODUCT").dot(vector(args[1], "DOT-PRODUCT")));
+        define("map", 3, Primitive.VARIADIC, Primitives::map);
+        define("reduce", 2, 4, Primitives::reduce);
+
+        // Archivos y salida
+        define("load", 1, 1, Primitives::load);
+        define("save-image", 1, 1, (args, context) -> {
+            Path path = path(args[0]);
+            try {
+                Image.save(context, path);
+            } catch (IOException e) {
+                throw new UncheckedIOException("SAVE-IMAGE no pudo escribir " + path + ": " + e.getMessage(), e);
+            }
+            return true;
+        });
+        define("load-image", 1, 1, (args, context) -> {
+            Path path = path(args[0]);
+            try {
+                Image.load(context, path);
+            } catch (IOException e) {
+                throw new UncheckedIOException("LOAD-IMAGE no pudo leer " + path + ": " + e.getMessage(), e);
+            }
+            return true;
+        });
+        define("print", 1, 1, (args, context) -> {
+            context.getOutput().println(args[0]);
+            return args[0];
+        });
+
+        // Memoización
+        define("memoize", 1, 3, Primitives::memoize);
+        define("unmemoize", 1, 1, (args, context) -> {
+            Function func = function(args[0], "UNMEMOIZE", context);
+            if (func.getMemo() != null) {
+                context.setFunction(func.getName(), func.withMemo(null));
+            }
+            return args[0];
+        });
+        define("memo-stats", 1, 1, (args, context) -> memo(args[0], "MEMO-STATS", context).stats());
+        define("memo-clear", 1, 1, (args, context) -> {
+            memo(args[0], "MEMO-CLEAR", context).clear();
+            return args[0];
+        });
+
+        // Macros
+        define("macroexpand", 1, 1, (args, context) ->
+                Cons.fromForm(new MacroExpander(context).expandHead(Cons.toForm(args[0]))));
+
+        // Perfilador
+        define("profile-report", 0, 0, (args, context) -> Profiler.toList());
+    }
+
+    private Primitives() {
+    }
+
+    private static void define(String name, int minArgs, int maxArgs, Primitive.Body body) {
+        TABLE.put(name, new Primitive(name.toUpperCase(), minArgs, maxArgs, body));
+    }
+
+    /**
+     * Obtiene todas las primitivas.
+     *
+     * @return Las primitivas, en cualquier orden.
+     */
+    static Collection<Primitive> all() {
+        return TABLE.values();
+    }
+
+    /**
+     * Busca una primitiva por nombre.
+     *
+     * @param name El nombre, en cualquier combinación de mayúsculas.
+     * @return La primitiva, o null si no existe.
+     */
+    static Primitive get(String name) {
+        return TABLE.get(name.toLowerCase());
+    }
+
+    /**
+     * Resuelve una función designada por un valor: un símbolo con el nombre de
+     * una primitiva o de una función definida con defun.
+     *
+     * @param designator El símbolo de la función.
+     * @param context El contexto donde se busca.
+     * @return La {@link Primitive} o la {@link Function}.
+     */
+    static Object resolve(Object designator, Context context) {
+        if (designator instanceof Primitive || designator instanceof Function) {
+            return designator;
+        }
+        if (designator instanceof String) {
+            String name = (String) designator;
+            Primitive primitive = get(name);
+            if (primitive != null) {
+                return primitive;
+            }
+            Function func = context.getFunction(name);
+            if (func == null) {
+                throw new IllegalArgumentException("Función no definida: " + name);
+            }
+            return func;
+        }
+        throw new IllegalArgumentException("No es una función: " + designator);
+    }
+
+    /**
+     * Llama a una función ya resuelta con {@link #resolve}.
+     *
+     * @param function La primitiva o función.
+     * @param args Los argumentos evaluados.
+     * @param context El contexto de la llamada.
+     * @return El resultado de la llamada.
+     */
+    static Object apply(Object function, Object[] args, Context context) {
+        if (function instanceof Primitive) {
+            return ((Primitive) function).call(args, context);
+        }
+        Function func = (Function) function;
+        Object[] slots = Evaluator.newFrame(func, args.length);
+        System.arraycopy(args, 0, slots, 0, args.length);
+        return Evaluator.executeFunction(func, slots, context);
+    }
+
+    /**
+     * Llama a una función designada por un valor.
+     *
+     * @param designator El símbolo de la función.
+     * @param args Los argumentos evaluados.
+     * @param context El contexto de la llamada.
+     * @return El resultado de la llamada.
+     */
+    static Object funcall(Object designator, Object[] args, Context context) {
+        return apply(resolve(designator, context), args, context);
+    }
+
+    /**
+     * Obtiene la primitiva que asigna un lugar con setf, como (setf gethash).
+     * Recibe los argumentos del lugar seguidos del valor nuevo.
+     *
+     * @param accessor El nombre de la función que lee el lugar.
+     * @return La primitiva, o null si el lugar no puede asignarse.
+     */
+    static Primitive setter(String accessor) {
+        return get("(setf " + accessor.toLowerCase() + ")");
+    }
+
+    /**
+     * (make-hash-table [:test prueba] [:size n]); la prueba por omisión es EQL.
+     */
+    private static HashTable makeHashTable(Object[] args) {
+        if (args.length % 2 != 0) {
+            throw new IllegalArgumentException("MAKE-HASH-TABLE espera pares de palabra clave y valor");
+        }
+        HashTable.Test test = HashTable.Test.EQL;
+        int size = 0;
+        for (int i = 0; i < args.length; i += 2) {
+            String keyword = String.valueOf(args[i]);
+            if (keyword.equalsIgnoreCase(":test")) {
+                try {
+                    test = HashTable.Test.valueOf(String.valueOf(args[i + 1]).toUpperCase());
+                } catch (IllegalArgumentException e) {
+                    throw new IllegalArgumentException("Prueba no soportada en MAKE-HASH-TABLE: " + args[i + 1]);
+                }
+            } else if (keyword.equalsIgnoreCase(":size") && args[i + 1] instanceof Long) {
+                size = (int) Math.min((Long) args[i + 1], 1 << 28);
+            } else {
+                throw new IllegalArgumentException("Argumento no válido para MAKE-HASH-TABLE: " + args[i]);
+            }
+        }
+        return new HashTable(test, size);
+    }
+
+    /**
+     * Ruta de un archivo designada por un símbolo, que puede escribirse entre comillas dobles.
+     */
+    private static Path path(Object designator) {
+        String path = String.valueOf(designator);
+        if (path.length() > 1 && path.startsWith("\"") && path.endsWith("\"")) {
+            path = path.substring(1, path.length() - 1);
+        }
+        return Path.of(path);
+    }
+
+    /**
+     * (load ruta); las formas del archivo se evalúan en el contexto de la llamada.
+     */
+    private static Object load(Object[] args, Context context) {
+        Path path = path(args[0]);
+        Evaluator evaluator = new Evaluator(context);
+        evaluator.setOptimizing(true);
+        try {
+            evaluator.load(path);
+        } catch (IOException e) {
+            throw new UncheckedIOException("LOAD no pudo leer " + path + ": " + e.getMessage(), e);
+        }
+        return true;
+    }
+
+    /**
+     * (memoize 'f [:size n]); reemplaza la función por una copia con caché de
+     * resultados. Si ya estaba memoizada, la caché se sustituye por una vacía.
+     */
+    private static Object memoize(Object[] args, Context context) {
+        Function func = function(args[0], "MEMOIZE", context);
+        int limit = MemoCache.DEFAULT_LIMIT;
+        if (args.length == 3 && String.valueOf(args[1]).equalsIgnoreCase(":size") && args[2] instanceof Long) {
+            limit = (int) Math.min((Long) args[2], Integer.MAX_VALUE);
+        } else if (args.length != 1) {
+            throw new IllegalArgumentException("MEMOIZE espera (memoize 'funcion [:size n])");
+        }
+        context.setFunction(func.getName(), func.withMemo(new MemoCache(limit)));
+        return args[0];
+    }
+
+    private static Function function(Object designator, String operation, Context context) {
+        Object function = resolve(designator, context);
+        if (function instanceof Function) {
+            return (Function) function;
+        }
+        throw new RuntimeException(operation + " requiere una función definida con defun: " + designator);
+    }
+
+    private static MemoCache memo(Object designator, String operation, Context context) {
+        Function func = function(designator, operation, context);
+        if (func.getMemo() == null) {
+            throw new RuntimeException(operation + " requiere una función memoizada: " + designator);
+        }
+        return func.getMemo();
+    }
+
+    private static HashTable hashTable(Object value, String operation) {
+        if (value instanceof HashTable) {
+            return (HashTable) value;
+        }
+        throw new RuntimeException(operation + " requiere una tabla hash: " + value);
+    }
+
+    private static Object fold(int op, Object[] args, Object identity) {
+        if (args.length == 0) {
+            return identity;
+        }
+        if (args.length == 1) {
+            return Nodes.ArithmeticNode.single(args[0]);
+        }
+        Object result = args[0];
+        for (int i = 1; i < args.length; i++) {
+            result = Nodes.ArithmeticNode.apply(op, result, args[i]);
+        }
+        return result;
+    }
+
+    private static Object extreme(int op, Object[] args) {
+        Object result = args[0];
+        for (int i = 1; i < args.length; i++) {
+            if (Nodes.ComparisonNode.compare(op, args[i], result)) {
+                result = args[i];
+            }
+        }
+        return result;
+    }
+
+    /**
+     * (make-array n [:element-type tipo] [:initial-element x] [:initial-contents secuencia]).
+     * El tipo elige el arreglo de respaldo: FIXNUM usa long[], DOUBLE-FLOAT double[] y T Object[].
+     */
+    private static LispVector makeArray(Object[] args) {
+        if (!(args[0] instanceof Long) || (Long) args[0] < 0 || (Long) args[0] > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("Tamaño de arreglo inválido: " + args[0]);
+        }
+        if (args.length % 2 != 1) {
+            throw new IllegalArgumentException("MAKE-ARRAY espera pares de palabra clave y valor");
+        }
+        int length = (int) (long) (Long) args[0];
+        LispVector.ElementType type = LispVector.ElementType.T;
+        Object initial = null;
+        Object contents = null;
+        for (int i = 1; i < args.length; i += 2) {
+            String keyword = String.valueOf(args[i]).toLowerCase();
+            switch (keyword) {
+                case ":element-type": type = LispVector.ElementType.of(args[i + 1]); break;
+                case ":initial-element": initial = args[i + 1]; break;
+                case ":initial-contents": contents = args[i + 1]; break;
+                default: throw new IllegalArgumentException("Argumento no válido para MAKE-ARRAY: " + args[i]);
+            }
+        }
+        LispVector vector = LispVector.create(type, length, initial);
+        if (contents != null) {
+            Object[] elements = elements(contents, "MAKE-ARRAY");
+            if (elements.length != length) {
+                throw new IllegalArgumentException("El contenido inicial tiene " + elements.length
+                        + " elementos y el arreglo " + length);
+            }
+            for (int i = 0; i < length; i++) {
+                vector.set(i, elements[i]);
+            }
+        }
+        return vector;
+    }
+
+    private static LispVector vector(Object value, String operation) {
+        if (value instanceof LispVector) {
+            return (LispVector) value;
+        }
+        throw new RuntimeException(operation + " requiere un vector: " + value);
+    }
+
+    /**
+     * Copia los elementos de una lista o un vector a un arreglo.
+     */
+    private static Object[] elements(Object sequence, String operation) {
+        if (sequence instanceof LispVector) {
+            LispVector vector = (LispVector) sequence;
+            Object[] elements = new Object[vector.length()];
+            for (int i = 0; i < elements.length; i++) {
+                elements[i] = vector.get(i);
+            }
+            return elements;
+        }
+        if (sequence instanceof Cons) {
+            Object[] elements = new Object[(int) Cons.length(sequence)];
+            int i = 0;
+            for (Object element : (Cons) sequence) {
+                elements[i++] = element;
+            }
+            return elements;
+        }
+        throw new RuntimeException(operation + " requiere una secuencia: " + sequence);
+    }
+
+    /**
+     * Operador aritmético designado por un símbolo, para las versiones en bloque de map y reduce.
+     *
+     * @return El operador de {@link Nodes.ArithmeticNode}, o -1 si no es aritmético.
+     */
+    private static int arithmetic(Object designator) {
+        switch (String.valueOf(designator)) {
+            case "+": return Nodes.ArithmeticNode.ADD;
+            case "-": return Nodes.ArithmeticNode.SUB;
+            case "*": return Nodes.ArithmeticNode.MUL;
+            case "/": return Nodes.ArithmeticNode.DIV;
+            default: return -1;
+        }
+    }
+
+    /**
+     * (map 'tipo f secuencia...): aplica f a los elementos de listas o vectores en
+     * paralelo y devuelve una lista o un vector. Con dos vectores y un operador
+     * aritmético la operación es un bucle sobre los arreglos primitivos; un
+     * resultado vector de solo enteros o solo flotantes usa un arreglo primitivo.
+     */
+    private static Object map(Object[] args, Context context) {
+        String type = String.valueOf(args[0]).toLowerCase();
+        if (!type.equals("vector") && !type.equals("list")) {
+            throw new IllegalArgumentException("Tipo de resultado no soportado en MAP: " + args[0]);
+        }
+        int op = arithmetic(args[1]);
+        if (type.equals("vector") && op >= 0 && args.length == 4
+                && args[2] instanceof LispVector && args[3] instanceof LispVector) {
+            return ((LispVector) args[2]).map2(op, (LispVector) args[3]);
+        }
+
+        Object function = resolve(args[1], context);
+        int count = args.length - 2;
+        Object[] cursors = new Object[count];
+        int length = Integer.MAX_VALUE;
+        for (int i = 0; i < count; i++) {
+            Object sequence = args[i + 2];
+            if (sequence instanceof LispVector) {
+                length = Math.min(length, ((LispVector) sequence).length());
+            } else if (!(sequence instanceof Cons)) {
+                throw new RuntimeException("MAP requiere una secuencia: " + sequence);
+            }
+            cursors[i] = sequence;
+        }
+        Cons.Builder list = type.equals("list") ? new Cons.Builder() : null;
+        Object[] results = list == null ? new Object[Math.min(length, 1 << 16)] : null;
+        int n = 0;
+        for (; n < length; n++) {
+            Object[] elements = new Object[count];
+            for (int i = 0; i < count; i++) {
+                Object cursor = cursors[i];
+                if (cursor instanceof LispVector) {
+                    elements[i] = ((LispVector) cursor).get(n);
+                } else if (cursor == Cons.NIL || !(cursor instanceof Cons)) {
+                    length = n;
+                    break;
+                } else {
+                    elements[i] = ((Cons) cursor).car();
+                    cursors[i] = ((Cons) cursor).cdr();
+                }
+            }
+            if (n == length) {
+                break;
+            }
+            Object result = apply(function, elements, context);
+            if (list != null) {
+                list.add(result);
+            } else {
+                if (n == results.length) {
+                    results = java.util.Arrays.copyOf(results, (int) Math.min((long) n * 2, length));
+                }
+                results[n] = result;
+            }
+        }
+        if (list != null) {
+            return list.build();
+        }
+        return LispVector.pack(results.length == n ? results : java.util.Arrays.copyOf(results, n));
+    }
+
+    /**
+     * (reduce f secuencia [:initial-value x]): combina los elementos de izquierda a
+     * derecha. Sobre un vector numérico, +, *, max y min son bucles sobre el arreglo.
+     */
+    private static Object reduce(Object[] args, Context context) {
+        Object initial = null;
+        if (args.length == 4) {
+            if (!String.valueOf(args[2]).equalsIgnoreCase(":initial-value")) {
+                throw new IllegalArgumentException("Argumento no válido para REDUCE: " + args[2]);
+            }
+            initial = args[3];
+        } else if (args.length == 3) {
+            throw new IllegalArgumentException("REDUCE espera pares de palabra clave y valor");
+        }
+        if (initial == null && args[1] instanceof LispVector) {
+            Object result = ((LispVector) args[1]).reduce(String.valueOf(args[0]).toLowerCase());
+            if (result != null) {
+                return result;
+            }
+        }
+        Object function = resolve(args[0], context);
+        Object result = initial;
+        if (args[1] instanceof LispVector) {
+            LispVector vector = (LispVector) args[1];
+            for (int i = 0; i < vector.length(); i++) {
+                result = result == null ? vector.get(i) : apply(function, new Object[] { result, vector.get(i) }, context);
+            }
+        } else if (args[1] instanceof Cons) {
+            for (Object element : (Cons) args[1]) {
+                result = result == null ? element : apply(function, new Object[] { result, element }, context);
+            }
+        } else {
+            throw new RuntimeException("REDUCE requiere una secuencia: " + args[1]);
+        }
+        return result != null ? result : apply(function, new Object[0], context);
+    }
+
+    /**
+     * (mapcar 'f lista...): aplica f a los elementos de las listas en paralelo
+     * hasta agotar la más corta.
+     */
+    private static Object mapcar(Object[] args, Context context) {
+        int count = args.length - 1;
+        Object[] lists = new Object[count];
+        for (int i = 0; i < count; i++) {
+            if (!(args[i + 1] instanceof Cons)) {
+                throw new RuntimeException("MAPCAR requiere una lista: " + args[i + 1]);
+            }
+            lists[i] = args[i + 1];
+        }
+        Object function = resolve(args[0], context);
+        Cons.Builder result = new Cons.Builder();
+        while (true) {
+            Object[] elements = new Object[count];
+            for (int i = 0; i < count; i++) {
+                Object list = lists[i];
+                if (list == Cons.NIL || !(list instanceof Cons)) {
+                    return result.build();
+                }
+                elements[i] = ((Cons) list).car();
+                lists[i] = ((Cons) list).cdr();
+            }
+            result.add(apply(function, elements, context));
+        }
+    }
+}
@@ -0,0 +1,372 @@
+package com.interpeter;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Perfilador de las funciones del usuario y de las primitivas, para todo el
+ * proceso. Por función (por nombre, así que se suman sus redefiniciones) cuenta
+ * las llamadas, el tiempo inclusivo (con las funciones que llama), el tiempo
+ * exclusivo (solo su cuerpo) y los bytes asignados por su cuerpo; por primitiva
+ * cuenta las llamadas. El tiempo inclusivo de una función recursiva se cuenta
+ * una sola vez, en la llamada más externa. Las llamadas que el {@link Optimizer}
+ * integró en el llamador no se cuentan, porque ya no son llamadas.
+ * Apagado, el costo es leer {@link #enabled} en cada llamada. Encendido, todas
+ * las llamadas pasan por {@link Evaluator#executeFunction}, como las de las
+ * funciones memoizadas, así que las llamadas de cola consumen pila mientras
+ * se perfila.
+ * Está encendido mientras lo esté el interruptor ({@link #setEnabled}, que
+ * usan :profile on, --profile y el MXBean) o mientras alguna sesión evalúe un
+ * (profile ...); así una sesión no apaga el perfilador que usa otra.
+ * Los datos se consultan con profile-report, el comando :profile del REPL o el
+ * MXBean com.interpeter:type=Profiler (ver {@link #registerMBean}), y solo
+ * estos dos últimos los borran.
+ */
+public final class Profiler {
+
+    /** Indica si el perfilador está encendido; los motores lo leen en cada llamada. */
+    static volatile boolean enabled;
+
+    private static boolean on;
+    private static int forms;
+
+    private static final Map<String, Entry> FUNCTIONS = new ConcurrentHashMap<>();
+    private static final ThreadLocal<Stack> STACKS = ThreadLocal.withInitial(Stack::new);
+
+    private Profiler() {
+    }
+
+    /**
+     * Datos acumulados de una función.
+     */
+    public static final class Entry {
+        private final String name;
+        private final LongAdder calls = new LongAdder();
+        private final LongAdder inclusive = new LongAdder();
+        private final LongAdder exclusive = new LongAdder();
+        private final LongAdder allocated = new LongAdder();
+
+        private Entry(String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getCalls() {
+            return calls.sum();
+        }
+
+        public long getInclusiveNanos() {
+            return inclusive.sum();
+        }
+
+        public long getExclusiveNanos() {
+            return exclusive.sum();
+        }
+
+        /**
+         * Obtiene los bytes asignados por el cuerpo de la función, sin contar
+         * los de las funciones que llama; 0 si la JVM no los mide.
+         *
+         * @return Los bytes asignados.
+         */
+        public long getAllocatedBytes() {
+            return allocated.sum();
+        }
+
+        private void reset() {
+            calls.reset();
+            inclusive.reset();
+            exclusive.reset();
+            allocated.reset();
+        }
+    }
+
+    /** Llamadas en curso de un hilo, para separar el tiempo exclusivo del inclusivo. */
+    private static final class Stack {
+        private Entry[] entries = new Entry[32];
+        private long[] start = new long[32];
+        private long[] children = new long[32];
+        private long[] allocatedStart = new long[32];
+        private long[] childrenAllocated = new long[32];
+        private final IdentityHashMap<Entry, int[]> active = new IdentityHashMap<>();
+        private int depth;
+
+        void push(Entry entry) {
+            if (depth == entries.length) {
+                int size = depth * 2;
+                entries = Arrays.copyOf(entries, size);
+                start = Arrays.copyOf(start, size);
+                children = Arrays.copyOf(children, size);
+                allocatedStart = Arrays.copyOf(allocatedStart, size);
+                childrenAllocated = Arrays.copyOf(childrenAllocated, size);
+            }
+            active.computeIfAbsent(entry, e -> new int[1])[0]++;
+            entries[depth] = entry;
+            children[depth] = 0;
+            childrenAllocated[depth] = 0;
+            allocatedStart[depth] = allocatedBytes();
+            start[depth++] = System.nanoTime();
+        }
+
+        void pop() {
+            long now = System.nanoTime();
+            long bytes = allocatedBytes();
+            int i = --depth;
+            Entry entry = entries[i];
+            entries[i] = null;
+            long elapsed = now - start[i];
+            long allocated = bytes - allocatedStart[i];
+            entry.calls.increment();
+            entry.exclusive.add(elapsed - children[i]);
+            entry.allocated.add(allocated - childrenAllocated[i]);
+            int[] count = active.get(entry);
+            if (--count[0] == 0) {
+                active.remove(entry);
+                entry.inclusive.add(elapsed);
+            }
+            if (i > 0) {
+                children[i - 1] += elapsed;
+                childrenAllocated[i - 1] += allocated;
+            }
+        }
+    }
+
+    /**
+     * Ejecuta una función midiéndola; {@link Evaluator#executeFunction} la
+     * llama en lugar de ejecutarla directamente mientras el perfilador está encendido.
+     */
+    static Object call(Function func, Object[] slots, Context context) {
+        Entry entry = FUNCTIONS.computeIfAbsent(func.getName().toLowerCase(), Entry::new);
+        Stack stack = STACKS.get();
+        stack.push(entry);
+        try {
+            return Evaluator.dispatch(func, slots, context);
+        } finally {
+            stack.pop();
+        }
+    }
+
+    private static long allocatedBytes() {
+        com.sun.management.ThreadMXBean threads = Allocation.THREADS;
+        return threads != null ? threads.getCurrentThreadAllocatedBytes() : 0;
+    }
+
+    /**
+     * Medición de la memoria asignada por hilo. Está aparte para que iniciar la
+     * gestión de la JVM no retrase el arranque cuando el perfilador no se usa.
+     */
+    private static final class Allocation {
+        static final com.sun.management.ThreadMXBean THREADS = threads();
+    }
+
+    private static com.sun.management.ThreadMXBean threads() {
+        try {
+            java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+            if (bean instanceof com.sun.management.ThreadMXBean
+                    && ((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemorySupported()) {
+                ((com.sun.management.ThreadMXBean) bean).setThreadAllocatedMemoryEnabled(true);
+                return (com.sun.management.ThreadMXBean) bean;
+            }
+        } catch (UnsupportedOperationException | LinkageError e) {
+            // Sin la medición de memoria de HotSpot los bytes asignados quedan en 0
+        }
+        return null;
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Enciende o apaga el interruptor del perfilador. Los datos se conservan al
+     * apagarlo, y sigue midiendo mientras se evalúe algún (profile ...).
+     *
+     * @param on true para medir las llamadas.
+     */
+    public static synchronized void setEnabled(boolean on) {
+        Profiler.on = on;
+        enabled = on || forms > 0;
+    }
+
+    /**
+     * Enciende el perfilador al empezar a evaluar un (profile ...).
+     */
+    static synchronized void begin() {
+        forms++;
+        enabled = true;
+    }
+
+    /**
+     * Termina un (profile ...); el perfilador se apaga si era el último y el
+     * interruptor está apagado.
+     */
+    static synchronized void end() {
+        forms--;
+        enabled = on || forms > 0;
+    }
+
+    /**
+     * Borra los datos acumulados.
+     */
+    public static void reset() {
+        FUNCTIONS.values().forEach(Entry::reset);
+        for (Primitive primitive : Primitives.all()) {
+            primitive.resetCalls();
+        }
+    }
+
+    /**
+     * Obtiene los datos de las funciones llamadas, de mayor a menor tiempo exclusivo.
+     *
+     * @return Las funciones con al menos una llamada.
+     */
+    public static List<Entry> functions() {
+        List<Entry> result = new ArrayList<>();
+        for (Entry entry : FUNCTIONS.values()) {
+            if (entry.getCalls() > 0) {
+                result.add(entry);
+            }
+        }
+        result.sort(Comparator.comparingLong(Entry::getExclusiveNanos).reversed()
+                .thenComparing(Entry::getName));
+        return result;
+    }
+
+    /**
+     * Obtiene las llamadas a cada primitiva, de mayor a menor.
+     *
+     * @return Las primitivas llamadas al menos una vez, por nombre.
+     */
+    public static Map<String, Long> primitives() {
+        List<Primitive> called = new ArrayList<>();
+        for (Primitive primitive : Primitives.all()) {
+            if (primitive.getCalls() > 0) {
+                called.add(primitive);
+            }
+        }
+        called.sort(Comparator.comparingLong(Primitive::getCalls).reversed().thenComparing(Primitive::getName));
+        Map<String, Long> result = new LinkedHashMap<>();
+        for (Primitive primitive : called) {
+            result.put(primitive.getName(), primitive.getCalls());
+        }
+        return result;
+    }
+
+    /**
+     * Construye el informe que muestra el comando :profile del REPL.
+     *
+     * @return Una tabla de las funciones y otra de las primitivas.
+     */
+    public static String report() {
+        StringBuilder report = new StringBuilder();
+        report.append(String.format("%-24s %10s %14s %14s %16s%n",
+                "Función", "Llamadas", "Inclusivo ms", "Exclusivo ms", "Bytes asignados"));
+        for (Entry entry : functions()) {
+            report.append(String.format("%-24s %10d %14.3f %14.3f %16d%n", entry.getName(), entry.getCalls(),
+                    entry.getInclusiveNanos() / 1e6, entry.getExclusiveNanos() / 1e6, entry.getAllocatedBytes()));
+        }
+        report.append(String.format("%-24s %10s%n", "Primitiva", "Llamadas"));
+        for (Map.Entry<String, Long> primitive : primitives().entrySet()) {
+            report.append(String.format("%-24s %10d%n", primitive.getKey().toLowerCase(), primitive.getValue()));
+        }
+        return report.toString();
+    }
+
+    /**
+     * Convierte los datos de las funciones en una lista de listas de
+     * propiedades, (NOMBRE :CALLS n :INCLUSIVE-NS n :EXCLUSIVE-NS n :BYTES n),
+     * para la primitiva profile-report.
+     *
+     * @return La lista, en el orden de {@link #functions}.
+     */
+    static Cons toList() {
+        Cons.Builder result = new Cons.Builder();
+        for (Entry entry : functions()) {
+            result.add(Cons.list(entry.getName(), ":CALLS", entry.getCalls(), ":INCLUSIVE-NS",
+                    entry.getInclusiveNanos(), ":EXCLUSIVE-NS", entry.getExclusiveNanos(),
+                    ":BYTES", entry.getAllocatedBytes()));
+        }
+        return result.build();
+    }
+
+    /**
+     * Registra el MXBean com.interpeter:type=Profiler en el servidor de la
+     * plataforma, para encender el perfilador y leer sus datos desde JConsole
+     * u otra herramienta de monitoreo. Registrarlo de nuevo no hace nada.
+     *
+     * @return true si el MXBean quedó registrado.
+     */
+    public static synchronized boolean registerMBean() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(ProfilerMXBean.OBJECT_NAME);
+            if (!server.isRegistered(name)) {
+                server.registerMBean(new MXBean(), name);
+            }
+            return true;
+        } catch (JMException | SecurityException e) {
+            return false;
+        }
+    }
+
+    /** Implementación del MXBean sobre los datos estáticos del perfilador. */
+    private static final class MXBean implements ProfilerMXBean {
+
+        @Override
+        public boolean isEnabled() {
+            return Profiler.isEnabled();
+        }
+
+        @Override
+        public void setEnabled(boolean enabled) {
+            Profiler.setEnabled(enabled);
+        }
+
+        @Override
+        public void reset() {
+            Profiler.reset();
+        }
+
+        @Override
+        public Map<String, Long> getFunctionCalls() {
+            Map<String, Long> result = new LinkedHashMap<>();
+            for (Entry entry : functions()) {
+                result.put(entry.getName(), entry.getCalls());
+            }
+            return result;
+        }
+
+        @Override
+        public Map<String, Long> getFunctionExclusiveNanos() {
+            Map<String, Long> result = new LinkedHashMap<>();
+            for (Entry entry : functions()) {
+                result.put(entry.getName(), entry.getExclusiveNanos());
+            }
+            return result;
+        }
+
+        @Override
+        public Map<String, Long> getPrimitiveCalls() {
+            return primitives();
+        }
+
+        @Override
+        public String getReport() {
+            return report();
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package com.interpeter;
+
+import java.util.Map;
+
+/**
+ * Interfaz de administración del {@link Profiler}, registrada con
+ * {@link Profiler#registerMBean} bajo el nombre {@link #OBJECT_NAME}.
+ */
+public interface ProfilerMXBean {
+
+    String OBJECT_NAME = "com.interpeter:type=Profiler";
+
+    boolean isEnabled();
+
+    void setEnabled(boolean enabled);
+
+    /**
+     * Borra los datos acumulados.
+     */
+    void reset();
+
+    /**
+     * Obtiene las llamadas de cada función, en el orden de {@link Profiler#functions}.
+     *
+     * @return Las llamadas por nombre de función.
+     */
+    Map<String, Long> getFunctionCalls();
+
+    /**
+     * Obtiene el tiempo exclusivo de cada función.
+     *
+     * @return Los nanosegundos por nombre de función.
+     */
+    Map<String, Long> getFunctionExclusiveNanos();
+
+    /**
+     * Obtiene las llamadas de cada primitiva.
+     *
+     * @return Las llamadas por nombre de primitiva.
+     */
+    Map<String, Long> getPrimitiveCalls();
+
+    /**
+     * Obtiene el informe en texto, el mismo que muestra el REPL.
+     *
+     * @return El informe.
+     */
+    String getReport();
+}
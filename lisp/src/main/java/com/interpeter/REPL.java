@@ -1,48 +1,178 @@
 package com.interpeter;
 
-import java.util.ArrayList;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
 import java.util.Scanner;
 
 /**
  * Clase que ejecuta el bucle de lectura-evaluación-impresión (REPL) para el intérprete LISP.
  * Permite a los usuarios ingresar expresiones LISP, que son tokenizadas, analizadas y evaluadas.
+ * Cada instancia es una sesión; el {@link Server} crea una por conexión sobre
+ * la entrada y la salida del socket.
  */
 public class REPL {
     
     /**
      * Inicia el bucle de entrada del usuario para el intérprete LISP.
      */
-    private Lexer lexer = new Lexer();
-    private Context context = new Context();
-    private Evaluator evaluator = new Evaluator(context);
+    private static final String STACK_OVERFLOW = "desbordamiento de pila, la recursión es demasiado profunda";
 
-    public void iniciar() { 
+    private Context context;
+    private Evaluator evaluator;
+    private final FormCache forms;
+    private boolean printOptimized;
+
+    public REPL() {
+        this(new Context());
+    }
+
+    /**
+     * Crea una sesión sobre un contexto existente.
+     *
+     * @param context El contexto de la sesión, por ejemplo de {@link Context#newSession}.
+     */
+    public REPL(Context context) {
+        this(context, new FormCache());
+    }
+
+    /**
+     * Crea una sesión que guarda las entradas leídas en una caché, que puede
+     * compartir con otras sesiones.
+     *
+     * @param context El contexto de la sesión.
+     * @param forms La caché de formas.
+     */
+    public REPL(Context context, FormCache forms) {
+        this.context = context;
+        this.evaluator = new Evaluator(context);
+        this.forms = forms;
+    }
+
+    public void iniciar() {
+        iniciar(System.in, System.out);
+    }
+
+    /**
+     * Ejecuta el bucle hasta leer "exit" o llegar al final de la entrada.
+     *
+     * @param in La entrada de donde se leen las líneas.
+     * @param out La salida donde se escriben el indicador y los resultados.
+     */
+    public void iniciar(InputStream in, PrintStream out) {
+        context.setOutput(out);
+        evaluator.setOptimizing(true);
         // Crea un escáner para leer la entrada del usuario
-        Scanner scanner = new Scanner(System.in);
+        Scanner scanner = new Scanner(in, StandardCharsets.UTF_8);
         while (true) {
-            System.out.print("LISP> ");
+            out.print("LISP> ");
+            out.flush();
+            if (!scanner.hasNextLine()) {
+                break;
+            }
             String input = scanner.nextLine();
+            // Una forma con paréntesis abiertos continúa en las líneas siguientes
+            while (incomplete(input) && scanner.hasNextLine()) {
+                out.print("  ... ");
+                out.flush();
+                input = input + "\n" + scanner.nextLine();
+            }
 
             if (input.equalsIgnoreCase("exit")) {
                 break;
             }
 
+            // Comando ":engine tree|vm|jit" para cambiar el motor de ejecución
+            if (input.startsWith(":engine")) {
+                try {
+                    context.setEngine(Engine.fromName(input.substring(":engine".length()).trim()));
+                    out.println("Motor: " + context.getEngine());
+                } catch (IllegalArgumentException e) {
+                    out.println("Error: " + e.getMessage());
+                }
+                continue;
+            }
+
+            // ":optimize on|off" activa el optimizador y ":optimize print" muestra además la forma optimizada
+            if (input.startsWith(":optimize")) {
+                String option = input.substring(":optimize".length()).trim().toLowerCase();
+                if (option.equals("on") || option.equals("off") || option.equals("print")) {
+                    evaluator.setOptimizing(!option.equals("off"));
+                    printOptimized = option.equals("print");
+                    out.println("Optimizador: " + option);
+                } else {
+                    out.println("Error: se esperaba :optimize on, off o print");
+                }
+                continue;
+            }
+
+            // ":cache" muestra las estadísticas de la caché de formas y ":cache clear" la vacía
+            if (input.startsWith(":cache")) {
+                if (input.substring(":cache".length()).trim().equalsIgnoreCase("clear")) {
+                    forms.clear();
+                }
+                out.println(forms);
+                continue;
+            }
+
+            // ":profile" muestra el informe del perfilador; ":profile on|off|reset" lo controla
+            if (input.startsWith(":profile")) {
+                String option = input.substring(":profile".length()).trim().toLowerCase();
+                switch (option) {
+                    case "":
+                        out.print(Profiler.report());
+                        break;
+                    case "on": case "off":
+                        Profiler.setEnabled(option.equals("on"));
+                        out.println("Perfilador: " + option);
+                        break;
+                    case "reset":
+                        Profiler.reset();
+                        out.println("Perfilador: datos borrados");
+                        break;
+                    default:
+                        out.println("Error: se esperaba :profile, :profile on, off o reset");
+                }
+                continue;
+            }
+
             try {
-                // Tokeniza la expresión LISP ingresada 
-                ArrayList<String> tokens = lexer.tokenize(input);
-                
-                // Parsea los tokens 
-                Object ast = LispParser.parseTokens(new java.util.LinkedList<>(tokens));
-                
-                // Evalúa la expresión 
-                Object result = evaluator.evaluate(ast);
-                
-                // Muestra el resultado 
-                System.out.println("=> " + result);
+                FormCache.Entry entry = forms.read(input);
+                // Cada forma se compila al llegar a ella, después de evaluar las anteriores
+                for (int i = 0; i < entry.size(); i++) {
+                    Node node = forms.compile(entry, i, evaluator);
+                    if (printOptimized) {
+                        // La forma optimizada se guarda con el nodo, así que no se optimiza de nuevo
+                        out.println("   " + Optimizer.print(forms.optimized(entry, i)));
+                    }
+                    out.println("=> " + evaluator.execute(node));
+                }
+            } catch (LispReader.SyntaxException e) {
+                out.println("Error: " + e.getMessage() + " (línea " + e.getLine()
+                        + ", columna " + e.getColumn() + ")");
             } catch (Exception e) {
-                System.out.println("Error: " + e.getMessage());
+                out.println("Error: " + e.getMessage());
+            } catch (StackOverflowError e) {
+                // Una recursión sin cola demasiado profunda falla solo esa forma; la sesión sigue
+                out.println("Error: " + STACK_OVERFLOW);
             }
         }
         scanner.close();
     }
+
+    /**
+     * Indica si una entrada deja paréntesis abiertos.
+     *
+     * @param input Las líneas leídas hasta ahora.
+     * @return true si falta cerrar alguna forma.
+     */
+    static boolean incomplete(String input) {
+        Lexer lexer = new Lexer(input);
+        while (lexer.next() != null) {
+            if (lexer.getDepth() < 0) {
+                return false;
+            }
+        }
+        return lexer.getDepth() > 0;
+    }
 }
@@ -0,0 +1,243 @@
+package com.interpeter;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.MathContext;
+
+/**
+ * Número racional exacto, siempre normalizado: numerador y denominador sin
+ * factores comunes y denominador positivo mayor que 1 (los enteros nunca se
+ * representan como Ratio). Mientras numerador y denominador caben en un long
+ * se guardan en dos campos primitivos y las operaciones usan aritmética exacta
+ * de long; al desbordarse continúan con BigInteger.
+ */
+public final class Ratio extends Number {
+
+    private static final long serialVersionUID = 1L;
+
+    // Representación con long; válida cuando bigNumerator es null
+    private final long numerator;
+    private final long denominator;
+
+    // Representación con BigInteger, solo cuando algún término no cabe en un long
+    private final BigInteger bigNumerator;
+    private final BigInteger bigDenominator;
+
+    private Ratio(long numerator, long denominator) {
+        this.numerator = numerator;
+        this.denominator = denominator;
+        this.bigNumerator = null;
+        this.bigDenominator = null;
+    }
+
+    private Ratio(BigInteger numerator, BigInteger denominator) {
+        this.numerator = 0;
+        this.denominator = 1;
+        this.bigNumerator = numerator;
+        this.bigDenominator = denominator;
+    }
+
+    /**
+     * Crea el número n/d normalizado.
+     *
+     * @param n El numerador.
+     * @param d El denominador.
+     * @return Un Long si la fracción es entera, o un Ratio.
+     * @throws ArithmeticException Si el denominador es cero.
+     */
+    public static Object valueOf(long n, long d) {
+        if (d == 0) throw new ArithmeticException("División por cero");
+        if (n == Long.MIN_VALUE || d == Long.MIN_VALUE) {
+            return valueOf(BigInteger.valueOf(n), BigInteger.valueOf(d));
+        }
+        if (d < 0) {
+            n = -n;
+            d = -d;
+        }
+        long g = gcd(Math.abs(n), d);
+        if (g != 1) {
+            n /= g;
+            d /= g;
+        }
+        return d == 1 ? (Object) n : new Ratio(n, d);
+    }
+
+    /**
+     * Crea el número n/d normalizado a partir de enteros grandes.
+     *
+     * @param n El numerador.
+     * @param d El denominador.
+     * @return Un Long o BigInteger si la fracción es entera, o un Ratio.
+     * @throws ArithmeticException Si el denominador es cero.
+     */
+    public static Object valueOf(BigInteger n, BigInteger d) {
+        if (d.signum() == 0) throw new ArithmeticException("División por cero");
+        if (d.signum() < 0) {
+            n = n.negate();
+            d = d.negate();
+        }
+        BigInteger g = n.gcd(d);
+        if (!g.equals(BigInteger.ONE)) {
+            n = n.divide(g);
+            d = d.divide(g);
+        }
+        if (d.equals(BigInteger.ONE)) {
+            return Numbers.normalize(n);
+        }
+        if (n.bitLength() < 64 && d.bitLength() < 64) {
+            return new Ratio(n.longValue(), d.longValue());
+        }
+        return new Ratio(n, d);
+    }
+
+    public BigInteger getNumerator() {
+        return bigNumerator != null ? bigNumerator : BigInteger.valueOf(numerator);
+    }
+
+    public BigInteger getDenominator() {
+        return bigDenominator != null ? bigDenominator : BigInteger.valueOf(denominator);
+    }
+
+    // Operaciones entre racionales; los operandos pueden ser Long, BigInteger o Ratio
+
+    static Object add(Object a, Object b) {
+        if (isSmall(a) && isSmall(b)) {
+            try {
+                return valueOf(Math.addExact(Math.multiplyExact(num(a), den(b)), Math.multiplyExact(num(b), den(a))),
+                        Math.multiplyExact(den(a), den(b)));
+            } catch (ArithmeticException overflow) {
+                // Continúa con BigInteger
+            }
+        }
+        return valueOf(bigNum(a).multiply(bigDen(b)).add(bigNum(b).multiply(bigDen(a))), bigDen(a).multiply(bigDen(b)));
+    }
+
+    static Object subtract(Object a, Object b) {
+        if (isSmall(a) && isSmall(b)) {
+            try {
+                return valueOf(Math.subtractExact(Math.multiplyExact(num(a), den(b)), Math.multiplyExact(num(b), den(a))),
+                        Math.multiplyExact(den(a), den(b)));
+            } catch (ArithmeticException overflow) {
+                // Continúa con BigInteger
+            }
+        }
+        return valueOf(bigNum(a).multiply(bigDen(b)).subtract(bigNum(b).multiply(bigDen(a))),
+                bigDen(a).multiply(bigDen(b)));
+    }
+
+    static Object multiply(Object a, Object b) {
+        if (isSmall(a) && isSmall(b)) {
+            try {
+                return valueOf(Math.multiplyExact(num(a), num(b)), Math.multiplyExact(den(a), den(b)));
+            } catch (ArithmeticException overflow) {
+                // Continúa con BigInteger
+            }
+        }
+        return valueOf(bigNum(a).multiply(bigNum(b)), bigDen(a).multiply(bigDen(b)));
+    }
+
+    static Object divide(Object a, Object b) {
+        if (isSmall(a) && isSmall(b)) {
+            if (num(b) == 0) throw new ArithmeticException("División por cero");
+            try {
+                return valueOf(Math.multiplyExact(num(a), den(b)), Math.multiplyExact(den(a), num(b)));
+            } catch (ArithmeticException overflow) {
+                // Continúa con BigInteger
+            }
+        }
+        return valueOf(bigNum(a).multiply(bigDen(b)), bigDen(a).multiply(bigNum(b)));
+    }
+
+    static int compare(Object a, Object b) {
+        if (isSmall(a) && isSmall(b)) {
+            try {
+                return Long.compare(Math.multiplyExact(num(a), den(b)), Math.multiplyExact(num(b), den(a)));
+            } catch (ArithmeticException overflow) {
+                // Continúa con BigInteger
+            }
+        }
+        return bigNum(a).multiply(bigDen(b)).compareTo(bigNum(b).multiply(bigDen(a)));
+    }
+
+    private static boolean isSmall(Object value) {
+        return value instanceof Long || (value instanceof Ratio && ((Ratio) value).bigNumerator == null);
+    }
+
+    private static long num(Object value) {
+        return value instanceof Ratio ? ((Ratio) value).numerator : (Long) value;
+    }
+
+    private static long den(Object value) {
+        return value instanceof Ratio ? ((Ratio) value).denominator : 1;
+    }
+
+    private static BigInteger bigNum(Object value) {
+        return value instanceof Ratio ? ((Ratio) value).getNumerator() : Numbers.toBigInteger(value);
+    }
+
+    private static BigInteger bigDen(Object value) {
+        return value instanceof Ratio ? ((Ratio) value).getDenominator() : BigInteger.ONE;
+    }
+
+    private static long gcd(long a, long b) {
+        while (b != 0) {
+            long t = a % b;
+            a = b;
+            b = t;
+        }
+        return a;
+    }
+
+    @Override
+    public int intValue() {
+        return (int) longValue();
+    }
+
+    @Override
+    public long longValue() {
+        return bigNumerator != null ? bigNumerator.divide(bigDenominator).longValue() : numerator / denominator;
+    }
+
+    @Override
+    public float floatValue() {
+        return (float) doubleValue();
+    }
+
+    @Override
+    public double doubleValue() {
+        if (bigNumerator == null && Math.abs(numerator) < (1L << 53) && denominator < (1L << 53)) {
+            // Ambos términos son exactos en double, así que la división está bien redondeada
+            return (double) numerator / denominator;
+        }
+        return new BigDecimal(getNumerator()).divide(new BigDecimal(getDenominator()), MathContext.DECIMAL64)
+                .doubleValue();
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (!(other instanceof Ratio)) {
+            return false;
+        }
+        Ratio ratio = (Ratio) other;
+        if (bigNumerator == null && ratio.bigNumerator == null) {
+            return numerator == ratio.numerator && denominator == ratio.denominator;
+        }
+        return getNumerator().equals(ratio.getNumerator()) && getDenominator().equals(ratio.getDenominator());
+    }
+
+    @Override
+    public int hashCode() {
+        if (bigNumerator == null) {
+            return 31 * Long.hashCode(numerator) + Long.hashCode(denominator);
+        }
+        return 31 * bigNumerator.hashCode() + bigDenominator.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        if (bigNumerator == null) {
+            return numerator + "/" + denominator;
+        }
+        return bigNumerator + "/" + bigDenominator;
+    }
+}
@@ -0,0 +1,101 @@
+package com.interpeter;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Ámbito léxico usado al procesar un defun.
+ * Conoce los nombres de las variables de un marco y el ámbito que lo encierra,
+ * y permite traducir un símbolo a su posición (profundidad, índice).
+ * Las variables de los ciclos (dotimes, dolist, do, loop) se agregan al mismo
+ * marco con {@link #push} y dejan de ser visibles con {@link #pop}; sus ranuras
+ * se reutilizan en ciclos posteriores, y {@link #size} recuerda el máximo.
+ */
+public class Scope {
+
+    private final List<String> names;
+    private final Scope parent;
+    private int size;
+    private int loops;
+
+    /**
+     * Crea un nuevo ámbito.
+     *
+     * @param names Los nombres de las variables del marco, en orden de ranura.
+     * @param parent El ámbito que encierra a este, o null si es el global.
+     */
+    public Scope(List<String> names, Scope parent) {
+        this.names = new ArrayList<>(names);
+        this.parent = parent;
+        this.size = names.size();
+    }
+
+    /**
+     * Resuelve un símbolo en la cadena de ámbitos. Una variable de ciclo oculta
+     * a un parámetro o variable anterior con el mismo nombre.
+     *
+     * @param name El nombre del símbolo.
+     * @return La referencia local, o null si el símbolo es global.
+     */
+    public LocalRef resolve(String name) {
+        int depth = 0;
+        for (Scope scope = this; scope != null; scope = scope.parent) {
+            int index = scope.names.lastIndexOf(name);
+            if (index != -1) {
+                return new LocalRef(name, depth, index);
+            }
+            depth++;
+        }
+        return null;
+    }
+
+    /**
+     * Declara una variable nueva en el marco actual.
+     *
+     * @param name El nombre de la variable.
+     * @return La ranura asignada.
+     */
+    public int push(String name) {
+        names.add(name);
+        size = Math.max(size, names.size());
+        return names.size() - 1;
+    }
+
+    /**
+     * Quita de la vista las últimas variables declaradas con {@link #push}.
+     *
+     * @param count El número de variables.
+     */
+    public void pop(int count) {
+        for (int i = 0; i < count; i++) {
+            names.remove(names.size() - 1);
+        }
+    }
+
+    /**
+     * Marca la entrada o la salida del cuerpo de un ciclo, donde RETURN es válido.
+     *
+     * @param entering true al entrar, false al salir.
+     */
+    public void loop(boolean entering) {
+        loops += entering ? 1 : -1;
+    }
+
+    /**
+     * Indica si el código que se compila está dentro de un ciclo.
+     *
+     * @return true si RETURN puede usarse en este punto.
+     */
+    public boolean inLoop() {
+        return loops > 0;
+    }
+
+    /**
+     * Obtiene el número de ranuras que necesita un marco de este ámbito.
+     *
+     * @return El número máximo de variables visibles a la vez.
+     */
+    public int size() {
+        return size;
+    }
+}
@@ -0,0 +1,254 @@
+package com.interpeter;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Servidor de sesiones REPL sobre un puerto TCP local o un socket de dominio Unix.
+ * Cada conexión ejecuta un {@link REPL} con su propia sesión ({@link Context#newSession}),
+ * así que las conexiones comparten las funciones definidas pero no las variables.
+ * También comparten una {@link FormCache}, porque los clientes suelen enviar las mismas entradas.
+ * Las sesiones corren en hilos virtuales cuando la JVM los ofrece (Java 21 o
+ * posterior) y en un hilo de plataforma por conexión en otro caso; en ambos
+ * casos el número de conexiones abiertas a la vez está limitado.
+ */
+public final class Server implements AutoCloseable {
+
+    private final Context context;
+    private final SocketAddress address;
+    private final Semaphore slots;
+    private final ExecutorService sessions = sessionExecutor();
+    private final Set<SocketChannel> clients = ConcurrentHashMap.newKeySet();
+    private final FormCache forms;
+    private ServerSocketChannel channel;
+    private Thread acceptor;
+
+    /**
+     * Crea un servidor sin abrirlo todavía.
+     *
+     * @param context El contexto cuyas funciones comparten todas las sesiones.
+     * @param address La dirección donde escuchar: {@link InetSocketAddress} o {@link UnixDomainSocketAddress}.
+     * @param maxConnections El número máximo de sesiones abiertas a la vez.
+     */
+    public Server(Context context, SocketAddress address, int maxConnections) {
+        this(context, address, maxConnections, new FormCache());
+    }
+
+    /**
+     * Crea un servidor cuyas sesiones comparten una caché de formas.
+     *
+     * @param context El contexto cuyas funciones comparten todas las sesiones.
+     * @param address La dirección donde escuchar.
+     * @param maxConnections El número máximo de sesiones abiertas a la vez.
+     * @param forms La caché de las entradas de todas las sesiones.
+     */
+    public Server(Context context, SocketAddress address, int maxConnections, FormCache forms) {
+        if (maxConnections < 1) {
+            throw new IllegalArgumentException("El límite de conexiones debe ser positivo: " + maxConnections);
+        }
+        this.context = context;
+        this.address = address;
+        this.slots = new Semaphore(maxConnections);
+        this.forms = forms;
+    }
+
+    /**
+     * Interpreta la dirección de la línea de comandos: un número de puerto, que
+     * se abre solo en la interfaz local, o "unix:ruta" para un socket de dominio Unix.
+     *
+     * @param spec La dirección.
+     * @return La dirección de red correspondiente.
+     */
+    public static SocketAddress address(String spec) {
+        if (spec.startsWith("unix:")) {
+            return UnixDomainSocketAddress.of(spec.substring("unix:".length()));
+        }
+        try {
+            return new InetSocketAddress(InetAddress.getLoopbackAddress(), Integer.parseInt(spec));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Dirección no válida para el servidor: " + spec);
+        }
+    }
+
+    /**
+     * Abre el socket y empieza a aceptar conexiones en un hilo propio.
+     *
+     * @throws IOException Si no se puede abrir la dirección.
+     */
+    public synchronized void start() throws IOException {
+        if (address instanceof UnixDomainSocketAddress) {
+            // Un archivo de socket que quedó de una ejecución anterior impide abrirlo
+            Files.deleteIfExists(((UnixDomainSocketAddress) address).getPath());
+            channel = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        } else {
+            channel = ServerSocketChannel.open();
+        }
+        channel.bind(address);
+        acceptor = new Thread(this::accept, "lisp-server");
+        acceptor.start();
+    }
+
+    /**
+     * Obtiene la dirección en la que escucha el servidor, con el puerto real si se pidió el 0.
+     *
+     * @return La dirección local del socket.
+     * @throws IOException Si el servidor no está abierto.
+     */
+    public SocketAddress getAddress() throws IOException {
+        return channel.getLocalAddress();
+    }
+
+    /**
+     * Obtiene el número de sesiones abiertas.
+     *
+     * @return Las conexiones que están ejecutando un REPL.
+     */
+    public int getActiveSessions() {
+        return clients.size();
+    }
+
+    /**
+     * Obtiene la caché de formas que comparten las sesiones.
+     *
+     * @return La caché de formas.
+     */
+    public FormCache getFormCache() {
+        return forms;
+    }
+
+    private void accept() {
+        while (channel.isOpen()) {
+            SocketChannel client;
+            try {
+                client = channel.accept();
+            } catch (ClosedChannelException e) {
+                return;
+            } catch (IOException e) {
+                continue;
+            }
+            if (!slots.tryAcquire()) {
+                reject(client);
+                continue;
+            }
+            clients.add(client);
+            sessions.execute(() -> serve(client));
+        }
+    }
+
+    private void serve(SocketChannel client) {
+        try (client) {
+            PrintStream out = new PrintStream(Channels.newOutputStream(client), true, StandardCharsets.UTF_8);
+            Context session = context.newSession();
+            session.setOutput(out);
+            new REPL(session, forms).iniciar(Channels.newInputStream(client), out);
+        } catch (IOException | RuntimeException e) {
+            // El cliente se desconectó o la sesión terminó con un error; las demás siguen
+        } finally {
+            clients.remove(client);
+            slots.release();
+        }
+    }
+
+    private static void reject(SocketChannel client) {
+        try (client) {
+            PrintStream out = new PrintStream(Channels.newOutputStream(client), true, StandardCharsets.UTF_8);
+            out.println("Error: el servidor alcanzó el límite de conexiones");
+        } catch (IOException e) {
+            // El cliente ya cerró la conexión
+        }
+    }
+
+    /**
+     * Deja de aceptar conexiones y espera a que terminen las sesiones abiertas;
+     * las que sigan abiertas al vencer el plazo se desconectan.
+     *
+     * @param timeout El tiempo máximo de espera.
+     * @param unit La unidad del tiempo de espera.
+     * @return true si todas las sesiones terminaron por sí solas.
+     * @throws InterruptedException Si el hilo se interrumpe mientras espera.
+     */
+    public boolean shutdown(long timeout, TimeUnit unit) throws InterruptedException {
+        Thread accepting;
+        synchronized (this) {
+            accepting = acceptor;
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException e) {
+                    // El socket ya estaba cerrado
+                }
+                if (address instanceof UnixDomainSocketAddress) {
+                    try {
+                        Files.deleteIfExists(((UnixDomainSocketAddress) address).getPath());
+                    } catch (IOException e) {
+                        // El archivo del socket no es necesario para terminar
+                    }
+                }
+            }
+        }
+        if (accepting != null) {
+            accepting.join();
+        }
+        sessions.shutdown();
+        boolean finished = sessions.awaitTermination(timeout, unit);
+        if (!finished) {
+            // Cerrar el canal desbloquea la lectura de la sesión, que termina sola
+            for (SocketChannel client : clients) {
+                try {
+                    client.close();
+                } catch (IOException e) {
+                    // La sesión ya se estaba cerrando
+                }
+            }
+            sessions.awaitTermination(timeout, unit);
+        }
+        return finished;
+    }
+
+    /**
+     * Cierra el servidor dando cinco segundos a las sesiones abiertas. Si el
+     * hilo se interrumpe mientras espera, deja de esperar y conserva la
+     * interrupción; para manejarla, usar {@link #shutdown}.
+     */
+    @Override
+    public void close() {
+        try {
+            shutdown(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Crea el ejecutor de las sesiones: un hilo virtual por sesión si la JVM
+     * lo permite, o un hilo de plataforma por sesión.
+     */
+    private static ExecutorService sessionExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool(task -> {
+                Thread thread = new Thread(task, "lisp-session");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+}
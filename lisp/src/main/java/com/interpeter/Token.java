@@ -0,0 +1,79 @@
+package com.interpeter;
+
+/**
+ * Token producido por el {@link Lexer}.
+ * Guarda su tipo, el texto tal como aparece en la entrada y la posición donde
+ * empieza (desplazamiento en caracteres, línea y columna, ambas desde 1).
+ */
+public final class Token {
+
+    /**
+     * Tipos de token que reconoce el lexer.
+     */
+    public enum Type {
+        OPEN,
+        CLOSE,
+        QUOTE,
+        INTEGER,
+        DECIMAL,
+        RATIO,
+        SYMBOL
+    }
+
+    private final Type type;
+    private final String text;
+    private final int offset;
+    private final int line;
+    private final int column;
+
+    /**
+     * Crea un nuevo token.
+     *
+     * @param type El tipo del token.
+     * @param text El texto del token.
+     * @param offset El desplazamiento del primer carácter desde el inicio de la entrada.
+     * @param line La línea donde empieza el token.
+     * @param column La columna donde empieza el token.
+     */
+    public Token(Type type, String text, int offset, int line, int column) {
+        this.type = type;
+        this.text = text;
+        this.offset = offset;
+        this.line = line;
+        this.column = column;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    public int getOffset() {
+        return offset;
+    }
+
+    /**
+     * Obtiene el desplazamiento justo después del último carácter del token.
+     *
+     * @return El final del token en la entrada.
+     */
+    public int getEnd() {
+        return offset + text.length();
+    }
+
+    public int getLine() {
+        return line;
+    }
+
+    public int getColumn() {
+        return column;
+    }
+
+    @Override
+    public String toString() {
+        return text;
+    }
+}
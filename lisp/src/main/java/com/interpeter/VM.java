@@ -0,0 +1,327 @@
+package com.interpeter;
+
+import java.util.Arrays;
+
+/**
+ * Máquina virtual de pila que ejecuta el bytecode de las funciones.
+ * La pila de operandos se reserva una sola vez por hilo y las llamadas entre
+ * funciones se manejan con una pila de marcos propia, así que ni las
+ * subexpresiones ni las llamadas recursivas recorren listas ni recursan en Java.
+ * TAILCALL reemplaza el marco actual, por lo que la recursión de cola no
+ * consume marcos.
+ */
+public final class VM {
+
+    private static final int STACK_SIZE = 1 << 16;
+    private static final int MAX_FRAMES = 1 << 20;
+    private static final ThreadLocal<VM> CURRENT = ThreadLocal.withInitial(VM::new);
+    private static final BytecodeCompiler COMPILER = new BytecodeCompiler();
+
+    private final Object[] stack = new Object[STACK_SIZE];
+    private Chunk[] frameChunks = new Chunk[256];
+    private Object[][] frameLocals = new Object[256][];
+    private int[] framePcs = new int[256];
+    private int[] frameBases = new int[256];
+
+    // Cima de la pila y número de marcos ocupados por ejecuciones en curso
+    private int top;
+    private int frames;
+
+    private VM() {
+    }
+
+    /**
+     * Obtiene la máquina del hilo actual.
+     *
+     * @return La máquina virtual reservada para este hilo.
+     */
+    public static VM current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Obtiene el bytecode de una función, compilándolo la primera vez.
+     *
+     * @param func La función.
+     * @return El bloque de bytecode de su cuerpo.
+     */
+    static Chunk chunkOf(Function func) {
+        Chunk chunk = func.getChunk();
+        if (chunk == null) {
+            synchronized (COMPILER) {
+                chunk = COMPILER.compile(func);
+            }
+            func.setChunk(chunk);
+        }
+        return chunk;
+    }
+
+    /**
+     * Ejecuta una función con los argumentos ya evaluados.
+     *
+     * @param func La función a ejecutar.
+     * @param args Los argumentos, creados con {@link Evaluator#newFrame}.
+     * @param context El contexto global.
+     * @return El resultado de la función.
+     */
+    public Object run(Function func, Object[] args, Context context) {
+        final int savedTop = top;
+        final int savedFrames = frames;
+        try {
+            return loop(func, args, context, savedFrames);
+        } finally {
+            top = savedTop;
+            frames = savedFrames;
+        }
+    }
+
+    /**
+     * Llama a una función memoizada con los argumentos que están en la cima de
+     * la pila. Los argumentos se copian al marco antes de ejecutar, porque la
+     * ejecución anidada usa la pila a partir de {@link #top}.
+     */
+    private Object memoized(Function callee, int argc, int sp, Context context) {
+        Object[] calleeLocals = Evaluator.newFrame(callee, argc);
+        System.arraycopy(stack, sp - argc, calleeLocals, 0, argc);
+        Arrays.fill(stack, sp - argc, sp, null);
+        return Evaluator.executeFunction(callee, calleeLocals, context);
+    }
+
+    private Object loop(Function func, Object[] args, Context context, int baseFrame) {
+        Object[] stack = this.stack;
+        Chunk chunk = chunkOf(func);
+        byte[] code = chunk.getCode();
+        Object[] constants = chunk.getConstants();
+        Object[] locals = frame(args, chunk);
+        int pc = 0;
+        int sp = top;
+        checkStack(sp, chunk);
+        pushFrame();
+
+        while (true) {
+            switch (code[pc++]) {
+                case Chunk.CONST:
+                    stack[sp++] = constants[readShort(code, pc)];
+                    pc += 2;
+                    break;
+                case Chunk.LOAD_LOCAL:
+                    stack[sp++] = locals[readShort(code, pc)];
+                    pc += 2;
+                    break;
+                case Chunk.STORE_LOCAL:
+                    locals[readShort(code, pc)] = stack[sp - 1];
+                    pc += 2;
+                    break;
+                case Chunk.LOAD_GLOBAL: {
+                    String name = (String) constants[readShort(code, pc)];
+                    Object value = context.getVariable(name);
+                    stack[sp++] = value != null ? value : name;
+                    pc += 2;
+                    break;
+                }
+                case Chunk.STORE_GLOBAL:
+                    context.setVariable((String) constants[readShort(code, pc)], stack[sp - 1]);
+                    pc += 2;
+                    break;
+                case Chunk.ADD:
+                    sp--;
+                    stack[sp - 1] = Nodes.ArithmeticNode.apply(Nodes.ArithmeticNode.ADD, stack[sp - 1], stack[sp]);
+                    break;
+                case Chunk.SUB:
+                    sp--;
+                    stack[sp - 1] = Nodes.ArithmeticNode.apply(Nodes.ArithmeticNode.SUB, stack[sp - 1], stack[sp]);
+                    break;
+                case Chunk.MUL:
+                    sp--;
+                    stack[sp - 1] = Nodes.ArithmeticNode.apply(Nodes.ArithmeticNode.MUL, stack[sp - 1], stack[sp]);
+                    break;
+                case Chunk.DIV:
+                    sp--;
+                    stack[sp - 1] = Nodes.ArithmeticNode.apply(Nodes.ArithmeticNode.DIV, stack[sp - 1], stack[sp]);
+                    break;
+                case Chunk.NUMBER:
+                    stack[sp - 1] = Nodes.ArithmeticNode.single(stack[sp - 1]);
+                    break;
+                case Chunk.LT: case Chunk.LE: case Chunk.GT:
+                case Chunk.GE: case Chunk.EQ: case Chunk.NE:
+                    sp--;
+                    stack[sp - 1] = Nodes.ComparisonNode.compare(code[pc - 1] - Chunk.LT, stack[sp - 1], stack[sp]);
+                    break;
+                case Chunk.JUMP:
+                    pc = readShort(code, pc);
+                    break;
+                case Chunk.JUMP_IF_FALSE:
+                    if (Nodes.isTrue(stack[--sp])) {
+                        pc += 2;
+                    } else {
+                        pc = readShort(code, pc);
+                    }
+                    break;
+                case Chunk.CALL: {
+                    Function callee = chunk.resolveCall(readShort(code, pc), context);
+                    int argc = readShort(code, pc + 2);
+                    pc += 4;
+                    if (callee.getMemo() != null || Profiler.enabled) {
+                        // La caché o el perfilador ejecutan la función en una ejecución anidada
+                        top = sp - argc;
+                        stack[top] = memoized(callee, argc, sp, context);
+                        sp = top + 1;
+                        break;
+                    }
+                    Chunk calleeChunk = chunkOf(callee);
+                    Object[] calleeLocals = Evaluator.newFrame(callee, argc);
+                    sp -= argc;
+                    System.arraycopy(stack, sp, calleeLocals, 0, argc);
+                    Arrays.fill(stack, sp, sp + argc, null);
+
+                    // Guarda el estado del llamador y entra a la función llamada
+                    saveFrame(chunk, locals, pc, sp);
+                    chunk = calleeChunk;
+                    code = chunk.getCode();
+                    constants = chunk.getConstants();
+                    locals = calleeLocals;
+                    pc = 0;
+                    checkStack(sp, chunk);
+                    pushFrame();
+                    break;
+                }
+                case Chunk.TAILCALL: {
+                    Function callee = chunk.resolveCall(readShort(code, pc), context);
+                    int argc = readShort(code, pc + 2);
+                    if (callee.getMemo() != null || Profiler.enabled) {
+                        // Como CALL, seguido del RETURN con el que termina todo chunk
+                        top = sp - argc;
+                        stack[top] = memoized(callee, argc, sp, context);
+                        sp = top + 1;
+                        pc = code.length - 1;
+                        break;
+                    }
+                    Chunk calleeChunk = chunkOf(callee);
+                    // Una llamada de cola a la misma función reutiliza su arreglo de locales
+                    Object[] calleeLocals = calleeChunk == chunk && argc == callee.getParams().size()
+                            ? locals : Evaluator.newFrame(callee, argc);
+                    sp -= argc;
+                    System.arraycopy(stack, sp, calleeLocals, 0, argc);
+                    Arrays.fill(stack, sp, sp + argc, null);
+
+                    // El marco actual ya no se necesita: la función llamada ocupa su lugar
+                    chunk = calleeChunk;
+                    code = chunk.getCode();
+                    constants = chunk.getConstants();
+                    locals = calleeLocals;
+                    pc = 0;
+                    checkStack(sp, chunk);
+                    break;
+                }
+                case Chunk.PRIMITIVE: {
+                    Primitive primitive = (Primitive) constants[readShort(code, pc)];
+                    int argc = readShort(code, pc + 2);
+                    pc += 4;
+                    Object[] primitiveArgs = new Object[argc];
+                    sp -= argc;
+                    System.arraycopy(stack, sp, primitiveArgs, 0, argc);
+                    Arrays.fill(stack, sp, sp + argc, null);
+                    // mapcar puede volver a entrar a la máquina por encima de este marco
+                    top = sp;
+                    stack[sp++] = primitive.call(primitiveArgs, context);
+                    break;
+                }
+                case Chunk.NEXT: {
+                    int cursorSlot = readShort(code, pc);
+                    Object cursor = locals[cursorSlot];
+                    if (cursor == Cons.NIL) {
+                        pc = readShort(code, pc + 4);
+                        break;
+                    }
+                    if (!(cursor instanceof Cons)) {
+                        throw new RuntimeException("DOLIST requiere una lista: " + cursor);
+                    }
+                    locals[readShort(code, pc + 2)] = ((Cons) cursor).car();
+                    locals[cursorSlot] = ((Cons) cursor).cdr();
+                    pc += 6;
+                    break;
+                }
+                case Chunk.INLINED:
+                    if (((Function) constants[readShort(code, pc)]).isValid()) {
+                        pc += 4;
+                    } else {
+                        pc = readShort(code, pc + 2);
+                    }
+                    break;
+                case Chunk.POP:
+                    stack[--sp] = null;
+                    break;
+                case Chunk.RETURN: {
+                    Object result = stack[--sp];
+                    stack[sp] = null;
+                    frames--;
+                    if (frames == baseFrame) {
+                        return result;
+                    }
+                    // Restaura el estado del llamador
+                    int caller = frames - 1;
+                    chunk = frameChunks[caller];
+                    locals = frameLocals[caller];
+                    pc = framePcs[caller];
+                    sp = frameBases[caller];
+                    frameChunks[caller] = null;
+                    frameLocals[caller] = null;
+                    code = chunk.getCode();
+                    constants = chunk.getConstants();
+                    stack[sp++] = result;
+                    break;
+                }
+                case Chunk.EVAL_NODE: {
+                    Node node = (Node) constants[readShort(code, pc)];
+                    pc += 2;
+                    // Una ejecución anidada de la máquina empieza por encima de este marco
+                    top = sp;
+                    stack[sp++] = node.eval(new Environment(locals, null, context));
+                    break;
+                }
+                default:
+                    throw new IllegalStateException("Instrucción desconocida: " + code[pc - 1]);
+            }
+        }
+    }
+
+    /**
+     * Amplía el marco recibido si el bytecode usa más ranuras que las que tiene,
+     * por ejemplo si la función se llamó antes de compilarse.
+     */
+    private static Object[] frame(Object[] args, Chunk chunk) {
+        return args.length < chunk.getFrameSize() ? Arrays.copyOf(args, chunk.getFrameSize()) : args;
+    }
+
+    private static int readShort(byte[] code, int pc) {
+        return ((code[pc] & 0xFF) << 8) | (code[pc + 1] & 0xFF);
+    }
+
+    private void checkStack(int sp, Chunk chunk) {
+        if (sp + chunk.getMaxStack() > stack.length) {
+            throw new RuntimeException("Desbordamiento de la pila de la máquina virtual");
+        }
+    }
+
+    private void pushFrame() {
+        if (frames == frameChunks.length) {
+            if (frames == MAX_FRAMES) {
+                throw new RuntimeException("Desbordamiento de la pila de llamadas");
+            }
+            int size = frames * 2;
+            frameChunks = Arrays.copyOf(frameChunks, size);
+            frameLocals = Arrays.copyOf(frameLocals, size);
+            framePcs = Arrays.copyOf(framePcs, size);
+            frameBases = Arrays.copyOf(frameBases, size);
+        }
+        frames++;
+    }
+
+    private void saveFrame(Chunk chunk, Object[] locals, int pc, int sp) {
+        int index = frames - 1;
+        frameChunks[index] = chunk;
+        frameLocals[index] = locals;
+        framePcs[index] = pc;
+        frameBases[index] = sp;
+    }
+}
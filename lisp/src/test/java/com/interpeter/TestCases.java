@@ -5,6 +5,26 @@
  import java.util.ArrayList;
  import java.util.List;
  import java.util.LinkedList;
+ import java.io.BufferedReader;
+ import java.io.ByteArrayInputStream;
+ import java.io.ByteArrayOutputStream;
+ import java.io.PrintStream;
+ import java.io.InputStreamReader;
+ import java.io.PrintWriter;
+ import java.net.InetSocketAddress;
+ import java.net.Socket;
+ import java.nio.charset.StandardCharsets;
+ import java.util.concurrent.TimeUnit;
+ import java.io.Reader;
+ import java.nio.file.Files;
+ import java.nio.file.Path;
+ import org.junit.jupiter.api.io.TempDir;
+ import java.util.concurrent.ExecutorService;
+ import java.util.concurrent.Executors;
+ import java.util.concurrent.Future;
+ import java.util.concurrent.atomic.AtomicBoolean;
+ import java.lang.management.ManagementFactory;
+ import javax.management.ObjectName;
  
  public class TestCases {
  
@@ -37,12 +57,34 @@
          assertEquals(List.of("(", "+", "1", "2", ")"), tokens);
      }
  
+     @Test
+     public void testLexerStreamsTokensWithPositions() {
+         Lexer lexer = new Lexer();
+         assertEquals(List.of("(", "+", "1", "2", ")"), lexer.tokenize("(+ 1 2)"));
+         assertNull(lexer.tokenize(") ("));
+ 
+         Lexer stream = new Lexer(new java.io.StringReader("(defun f (x)\n  ; comentario\n  (* x -2.5 1/3))"));
+         List<Token> tokens = new ArrayList<>();
+         for (Token token = stream.next(); token != null; token = stream.next()) {
+             tokens.add(token);
+         }
+         assertTrue(stream.isBalanced());
+         assertEquals(13, tokens.size());
+         Token star = tokens.get(7);
+         assertEquals("*", star.getText());
+         assertEquals(3, star.getLine());
+         assertEquals(4, star.getColumn());
+         assertEquals(Token.Type.SYMBOL, tokens.get(8).getType());
+         assertEquals(Token.Type.DECIMAL, tokens.get(9).getType());
+         assertEquals(Token.Type.RATIO, tokens.get(10).getType());
+     }
+ 
      @Test
      public void testParseValidExpression() {
          Object parsed = LispParser.parse("( + 1 2 )");
          assertTrue(parsed instanceof List);
          List<?> parsedList = (List<?>) parsed;
-         assertEquals(List.of("+", 1.0, 2.0), parsedList);
+         assertEquals(List.of("+", 1L, 2L), parsedList);
      }
  
      @Test
@@ -56,16 +98,915 @@
          LinkedList<String> tokens = new LinkedList<>(List.of("(", "+", "1", "2", ")"));
          Object result = LispParser.parseTokens(tokens);
          assertTrue(result instanceof List);
-         assertEquals(List.of("+", 1.0, 2.0), result);
+         assertEquals(List.of("+", 1L, 2L), result);
      }
  
      @Test
      public void testParserWithContext() {
-         Lexer lexer = new Lexer();
          Context context = new Context();
-         Parser parser = new Parser(lexer, context);
+         Object parsed = new LispReader("( SETQ x 5 )").read();
+         // Leer no asigna variables; la asignación ocurre al evaluar
+         assertNull(context.getVariable("x"));
+         new Evaluator(context).evaluate(parsed);
+         assertEquals(5L, context.getVariable("x"));
+     }
+ 
+     @Test
+     public void testReaderKeepsSpansAndHandlesDeepNesting() {
+         LispReader reader = new LispReader("(setq x 1)\n  (+ x\n 2.5)");
+         Form first = (Form) reader.read();
+         Form second = (Form) reader.read();
+         assertNull(reader.read());
+         assertEquals(List.of("SETQ", "x", 1L), first);
+         assertEquals(0, first.getStart());
+         assertEquals(10, first.getEnd());
+         assertEquals(2, second.getLine());
+         assertEquals(3, second.getColumn());
+         assertThrows(UnsupportedOperationException.class, () -> second.add("y"));
+ 
+         int depth = 200000;
+         StringBuilder deep = new StringBuilder();
+         for (int i = 0; i < depth; i++) {
+             deep.append('(');
+         }
+         deep.append("1");
+         for (int i = 0; i < depth; i++) {
+             deep.append(')');
+         }
+         Object form = new LispReader(deep).read();
+         for (int i = 0; i < depth; i++) {
+             form = ((Form) form).get(0);
+         }
+         assertEquals(1L, form);
+ 
+         LispReader.SyntaxException error = assertThrows(LispReader.SyntaxException.class,
+                 () -> new LispReader("(+ 1\n 2))").readAll());
+         assertEquals(2, error.getLine());
+         assertEquals(4, error.getColumn());
+     }
+ 
+     @Test
+     public void testRecursiveFunctionWithFrames() {
+         Context context = new Context();
+         Evaluator evaluator = new Evaluator(context);
+         context.setVariable("n", 100L);
+         evaluator.evaluate(LispParser.parse(
+                 "( defun fib ( n ) ( if ( <= n 1 ) n ( + ( fib ( - n 1 ) ) ( fib ( - n 2 ) ) ) ) )"));
+         assertEquals(55L, evaluator.evaluate(LispParser.parse("( fib 10 )")));
+         // El parámetro n no debe alterar ni leer la global del mismo nombre
+         assertEquals(100L, context.getVariable("n"));
+     }
+ 
+     @Test
+     public void testFunctionReadsSharedGlobal() {
+         Context context = new Context();
+         Evaluator evaluator = new Evaluator(context);
+         evaluator.evaluate(LispParser.parse("( defun addbase ( x ) ( + x base ) )"));
+         context.setVariable("base", 10L);
+         assertEquals(15L, evaluator.evaluate(LispParser.parse("( addbase 5 )")));
+         context.setVariable("base", 20L);
+         assertEquals(25L, evaluator.evaluate(LispParser.parse("( addbase 5 )")));
+     }
+ 
+     @Test
+     public void testSetqKeepsNativeValues() {
+         Context context = new Context();
+         Evaluator evaluator = new Evaluator(context);
+         evaluator.evaluate(LispParser.parse("( setq x ( + 1 2 ) )"));
+         evaluator.evaluate(LispParser.parse("( setq y 2.5 )"));
+         assertEquals(3L, context.getVariable("x"));
+         assertEquals(2.5, context.getVariable("y"));
+         assertEquals(5.5, evaluator.evaluate(LispParser.parse("( + x y )")));
+         assertEquals(2L, evaluator.evaluate(LispParser.parse("( / 6 3 )")));
+         assertEquals(Ratio.valueOf(3, 2), evaluator.evaluate(LispParser.parse("( / 3 2 )")));
+         assertEquals(9007199254740993L, evaluator.evaluate(LispParser.parse("( + 9007199254740992 1 )")));
+     }
+ 
+     @Test
+     public void testCompiledNodeRunsManyTimes() {
+         Context context = new Context();
+         Evaluator evaluator = new Evaluator(context);
+         Node node = evaluator.compile(LispParser.parse("( if ( < x 10 ) ( * x 2 ) ( - x 1 ) )"));
+         context.setVariable("x", 3L);
+         assertEquals(6L, evaluator.execute(node));
+         context.setVariable("x", 20L);
+         assertEquals(19L, evaluator.execute(node));
+     }
+ 
+     private static List<Object> runProgram(Engine engine, String... lines) {
+         Context context = new Context();
+         context.setEngine(engine);
+         Evaluator evaluator = new Evaluator(context);
+         List<Object> results = new ArrayList<>();
+         for (String line : lines) {
+             results.add(evaluator.evaluate(LispParser.parse(line)));
+         }
+         return results;
+     }
+ 
+     @Test
+     public void testEnginesGiveSameResults() {
+         String[] program = {
+             "( defun fib ( n ) ( if ( <= n 1 ) n ( + ( fib ( - n 1 ) ) ( fib ( - n 2 ) ) ) ) )",
+             "( fib 15 )",
+             "( defun half ( x ) ( / x 2 ) )",
+             "( half 7 )",
+             "( half 8 )",
+             "( defun scale ( x y ) ( setq x ( * x 2 ) ) ( setq total ( + x y 0.5 ) ) ( - total 1 ) )",
+             "( scale 3 4 )",
+             "total",
+             "( defun sign ( x ) ( if ( < x 0 ) -1 ( if ( = x 0 ) 0 1 ) ) )",
+             "( + ( sign -5 ) ( sign 0 ) ( sign 9 ) )",
+             "( defun outer ( a ) ( defun inner ( b ) ( * b 10 ) ) ( inner ( + a 1 ) ) )",
+             "( outer 4 )",
+             "( defun single ( a ) ( - a ) )",
+             "( single 2.5 )"
+         };
+         List<Object> tree = runProgram(Engine.TREE, program);
+         List<Object> vm = runProgram(Engine.VM, program);
+         List<Object> jit = runProgram(Engine.JIT, program);
+         assertEquals(tree, vm);
+         assertEquals(tree, jit);
+         assertEquals(610L, vm.get(1));
+         assertEquals(Ratio.valueOf(7, 2), vm.get(3));
+         assertEquals(4L, vm.get(4));
+         assertEquals(9.5, vm.get(6));
+         assertEquals(50L, vm.get(11));
+     }
+ 
+     @Test
+     public void testJitCompilesHotFunctionsAndHonorsRedefinition() {
+         JIT.setThreshold(3);
+         try {
+             Context context = new Context();
+             context.setEngine(Engine.JIT);
+             Evaluator evaluator = new Evaluator(context);
+             evaluator.evaluate(LispParser.parse("( defun sq ( x ) ( * x x ) )"));
+             evaluator.evaluate(LispParser.parse("( defun f ( x ) ( + ( sq x ) 1 ) )"));
+             for (int i = 0; i < 10; i++) {
+                 assertEquals(10L, evaluator.evaluate(LispParser.parse("( f 3 )")));
+             }
+             assertTrue(context.getFunction("f").getJitState().isCompiled());
+             assertTrue(context.getFunction("sq").getJitState().isCompiled());
+ 
+             evaluator.evaluate(LispParser.parse("( defun sq ( x ) ( + x x ) )"));
+             assertEquals(7L, evaluator.evaluate(LispParser.parse("( f 3 )")));
+         } finally {
+             JIT.setThreshold(1000);
+         }
+     }
+  
+     @Test
+     public void testTailCallsRunInConstantStack() {
+         String[] program = {
+             "( defun countdown ( n acc ) ( if ( = n 0 ) acc ( countdown ( - n 1 ) ( + acc 2 ) ) ) )",
+             "( countdown 1000000 0 )",
+             "( defun iseven ( n ) ( if ( = n 0 ) 1 ( isodd ( - n 1 ) ) ) )",
+             "( defun isodd ( n ) ( if ( = n 0 ) 0 ( iseven ( - n 1 ) ) ) )",
+             "( iseven 300001 )"
+         };
+         for (Engine engine : Engine.values()) {
+             List<Object> results = runProgram(engine, program);
+             assertEquals(2000000L, results.get(1), engine.name());
+             assertEquals(0L, results.get(4), engine.name());
+         }
+     }
+  
+     @Test
+     public void testCallSitesFollowRedefinitionsAndIgnoreCase() {
+         String[] program = {
+             "(defun Twice (x) (* x 2))",
+             "(defun useTwice (x) (+ (TWICE x) 1))",
+             "(usetwice 5)",
+             "(defun twice (x) (* x 3))",
+             "(UseTwice 5)"
+         };
+         for (Engine engine : Engine.values()) {
+             List<Object> results = runProgram(engine, program);
+             assertEquals(11L, results.get(2), engine.name());
+             assertEquals(16L, results.get(4), engine.name());
+         }
+ 
+         Context context = new Context();
+         long version = context.getFunctionVersion();
+         new Evaluator(context).evaluate(LispParser.parse("(defun f (x) (+ x 1))"));
+         assertNotEquals(version, context.getFunctionVersion());
+         assertNotNull(context.getFunction("F"));
+     }
+  
+     @Test
+     public void testIntegerArithmeticIsExact() {
+         String[] program = {
+             "(* 9223372036854775807 2)",
+             "(defun fact (n acc) (if (= n 0) acc (fact (- n 1) (* acc n))))",
+             "(fact 25 1)",
+             "(/ (fact 25 1) (fact 24 1))",
+             "(= 12345678901234567891 12345678901234567890)",
+             "(- (+ 9223372036854775807 1) 1)",
+             "(+ 1 2)",
+             "(= 0.1 0.1000001)"
+         };
+         for (Engine engine : Engine.values()) {
+             List<Object> results = runProgram(engine, program);
+             assertEquals(new java.math.BigInteger("18446744073709551614"), results.get(0), engine.name());
+             assertEquals(new java.math.BigInteger("15511210043330985984000000"), results.get(2), engine.name());
+             assertEquals(25L, results.get(3), engine.name());
+             assertEquals(false, results.get(4), engine.name());
+             assertEquals(9223372036854775807L, results.get(5), engine.name());
+             assertEquals(3L, results.get(6), engine.name());
+             assertEquals(false, results.get(7), engine.name());
+         }
+     }
+  
+     @Test
+     public void testRationalsAreExactAndNormalized() {
+         String[] program = {
+             "(+ 1/3 1/6)",
+             "(/ 6 4)",
+             "(* 2/3 3/2)",
+             "(- 1/2 0.25)",
+             "(< 1/3 0.34)",
+             "(= 2/4 1/2)",
+             "(/ 1 9223372036854775807 3)",
+             "(defun total (n acc) (if (= n 0) acc (total (- n 1) (+ acc 1/10))))",
+             "(total 30 0)"
+         };
+         for (Engine engine : Engine.values()) {
+             List<Object> results = runProgram(engine, program);
+             assertEquals(Ratio.valueOf(1, 2), results.get(0), engine.name());
+             assertEquals("3/2", results.get(1).toString(), engine.name());
+             assertEquals(1L, results.get(2), engine.name());
+             assertEquals(0.25, results.get(3), engine.name());
+             assertEquals(true, results.get(4), engine.name());
+             assertEquals(true, results.get(5), engine.name());
+             assertEquals("1/27670116110564327421", results.get(6).toString(), engine.name());
+             assertEquals(3L, results.get(8), engine.name());
+         }
+     }
+  
+     @Test
+     public void testConsListsShareTailsAcrossEngines() {
+         String[] program = {
+             "(defun range (n acc) (if (= n 0) acc (range (- n 1) (cons n acc))))",
+             "(defun sum (l acc) (if (null l) acc (sum (cdr l) (+ acc (car l)))))",
+             "(sum (range 5000 nil) 0)",
+             "(defun sq (x) (* x x))",
+             "(mapcar 'sq '(1 2 3))",
+             "(append '(1 2) (list 3 4) nil)",
+             "(reverse '(a (b c) d))",
+             "(nth 2 '(10 20 30))",
+             "(cdr '(1))",
+             "(cons 1 2)",
+             "(setq tail '(2 3))",
+             "(cons 1 tail)"
+         };
+         for (Engine engine : Engine.values()) {
+             List<Object> results = runProgram(engine, program);
+             assertEquals(12502500L, results.get(2), engine.name());
+             assertEquals(Cons.list(1L, 4L, 9L), results.get(4), engine.name());
+             assertEquals("(1 2 3 4)", results.get(5).toString(), engine.name());
+             assertEquals("(d (b c) a)", results.get(6).toString(), engine.name());
+             assertEquals(30L, results.get(7), engine.name());
+             assertSame(Cons.NIL, results.get(8), engine.name());
+             assertEquals("(1 . 2)", results.get(9).toString(), engine.name());
+             assertSame(results.get(10), ((Cons) results.get(11)).cdr(), engine.name());
+         }
+     }
+  
+     @Test
+     public void testHashTablesHonorTestAndSurviveRemovals() {
+         String[] program = {
+             "(setq h (make-hash-table :test 'equal))",
+             "(setf (gethash '(1 2) h) 'pair)",
+             "(gethash (list 1 2) h)",
+             "(setq e (make-hash-table))",
+             "(setf (gethash (list 1 2) e) 'pair)",
+             "(gethash (list 1 2) e 'none)",
+             "(defun fill (table n) (if (= n 0) table (if (setf (gethash n table) n) (fill table (- n 1)) table)))",
+             "(hash-table-count (fill (make-hash-table :size 10) 3000))",
+             "(remhash 2 h)",
+             "(remhash '(1 2) h)",
+             "(hash-table-count h)"
+         };
+         for (Engine engine : Engine.values()) {
+             List<Object> results = runProgram(engine, program);
+             assertEquals("PAIR", results.get(2).toString().toUpperCase(), engine.name());
+             assertEquals("none", results.get(5), engine.name());
+             assertEquals(3000L, results.get(7), engine.name());
+             assertEquals(false, results.get(8), engine.name());
+             assertEquals(true, results.get(9), engine.name());
+             assertEquals(0L, results.get(10), engine.name());
+         }
+ 
+         HashTable table = new HashTable(HashTable.Test.EQL);
+         java.util.Map<Object, Object> expected = new java.util.HashMap<>();
+         java.util.Random random = new java.util.Random(42);
+         for (int i = 0; i < 20000; i++) {
+             Object key = i < 10000 ? (Object) (long) random.nextInt(500) : "k" + random.nextInt(500);
+             if (random.nextBoolean()) {
+                 table.put(key, i);
+                 expected.put(key, i);
+             } else {
+                 assertEquals(expected.remove(key) != null, table.remove(key));
+             }
+             if (i == 9999) {
+                 assertTrue(table.hasFixnumKeys());
+             }
+         }
+         assertFalse(table.hasFixnumKeys());
+         assertEquals(expected.size(), table.size());
+         for (java.util.Map.Entry<Object, Object> entry : expected.entrySet()) {
+             assertEquals(entry.getValue(), table.get(entry.getKey()));
+         }
+     }
+  
+     @Test
+     public void testVectorsUsePrimitiveStorageAndBulkOperations() {
+         String[] program = {
+             "(setq v (make-array 3000 :element-type 'fixnum))",
+             "(defun fill (v i) (if (= i (length v)) v (if (= (setf (aref v i) i) i) (fill v (+ i 1)) v)))",
+             "(vector-sum (fill v 0))",
+             "(reduce 'max v)",
+             "(setq w (make-array 3 :element-type 'double-float :initial-contents '(1 2 3)))",
+             "(dot-product w w)",
+             "(map 'vector '* (make-array 3 :initial-element 2 :element-type 'fixnum) (vector 1 2 3))",
+             "(map 'list 'max '(1 5 2) (vector 4 3 6))",
+             "(reduce '+ '(1 2 3) :initial-value 10)",
+             "(aref w 1)"
+         };
+         for (Engine engine : Engine.values()) {
+             List<Object> results = runProgram(engine, program);
+             assertTrue(results.get(0) instanceof LispVector.Fixnums, engine.name());
+             assertEquals(4498500L, results.get(2), engine.name());
+             assertEquals(2999L, results.get(3), engine.name());
+             assertEquals(14.0, results.get(5), engine.name());
+             assertEquals("#(2 4 6)", results.get(6).toString(), engine.name());
+             assertEquals("(4 5 6)", results.get(7).toString(), engine.name());
+             assertEquals(16L, results.get(8), engine.name());
+             assertEquals(2.0, results.get(9), engine.name());
+         }
+         LispVector big = LispVector.create(LispVector.ElementType.FIXNUM, 3, Long.MAX_VALUE);
+         assertEquals(new java.math.BigInteger("27670116110564327421"), big.sum());
+     }
+  
+     @Test
+     public void testMapOverVectorsStopsAtTheShortestSequence() {
+         String[] program = {
+             "(defun add2 (a b) (+ a b))",
+             "(map 'vector '+ (vector 1 2 3) (vector 1 2))",
+             "(map 'vector '+ (vector 1 2 3) '(1 2))",
+             "(map 'vector 'add2 (vector 1 2 3) (vector 1 2))",
+             "(map 'vector '* (vector 1.5 2.5) (vector 2.0 2.0 2.0))",
+             "(map 'vector '- (vector 1/2 2 3) (vector 1 1))",
+             "(map 'vector '+ (vector 1 2) (vector))"
+         };
+         for (Engine engine : Engine.values()) {
+             List<Object> results = runProgram(engine, program);
+             assertEquals("#(2 4)", results.get(1).toString(), engine.name());
+             assertEquals("#(2 4)", results.get(2).toString(), engine.name());
+             assertEquals("#(2 4)", results.get(3).toString(), engine.name());
+             assertEquals("#(3.0 5.0)", results.get(4).toString(), engine.name());
+             assertEquals("#(-1/2 1)", results.get(5).toString(), engine.name());
+             assertEquals(0, ((LispVector) results.get(6)).length(), engine.name());
+         }
+         Evaluator evaluator = new Evaluator(new Context());
+         assertEquals("#(0.5 2.0)", evaluator.evaluate(LispParser.parse("(map 'vector '/ (vector 1.0 4.0) (vector 2.0 2.0))")).toString());
+         ArithmeticException error = assertThrows(ArithmeticException.class,
+                 () -> evaluator.evaluate(LispParser.parse("(map 'vector '/ (vector 1.0 2.0) (vector 2.0 0.0))")));
+         assertEquals("División por cero", error.getMessage());
+     }
+ 
+     @Test
+     public void testLoopsRunInPlaceInEveryEngine() {
+         String[] program = {
+             "(defun sum-to (n acc) (dotimes (i n acc) (setq acc (+ acc i))))",
+             "(sum-to 100000 0)",
+             "(defun total (l s) (dolist (x l s) (setq s (+ s x))))",
+             "(total '(1 2 3 4) 0)",
+             "(defun fact (n) (do ((i 1 (+ i 1)) (p 1 (* p i))) ((> i n) p)))",
+             "(fact 25)",
+             "(defun first-over (l k) (dolist (x l) (if (> x k) (return x))))",
+             "(first-over '(1 5 9 12) 6)",
+             "(defun countdown (n) (loop (if (= n 0) (return n)) (setq n (- n 1))))",
+             "(countdown 50)",
+             "(defun pairs (n c) (dotimes (i n c) (dotimes (j i) (setq c (+ c 1)))))",
+             "(pairs 10 0)",
+             "(defun find-sq (n r) (dotimes (i n) (setq r (* i (if (> (* i i) 50) (return i) 1)))))",
+             "(find-sq 100 0)",
+             "(loop for x in '(1 2 3 4) for i from 10 collect (+ x i))",
+             "(loop for i from 1 to 10 by 3 sum i)",
+             "(loop for x across (vector 3 9 2) maximize x)",
+             "(do ((i 0 (+ i 1)) (j 0 i)) ((= i 3) j))",
+             "(do* ((i 0 (+ i 1)) (j i i)) ((= i 3) j))",
+             "(dotimes (i 3) i)"
+         };
+         JIT.setThreshold(1);
+         try {
+             for (Engine engine : Engine.values()) {
+                 Context context = new Context();
+                 context.setEngine(engine);
+                 Evaluator evaluator = new Evaluator(context);
+                 List<Object> results = new ArrayList<>();
+                 for (String line : program) {
+                     results.add(evaluator.evaluate(LispParser.parse(line)));
+                 }
+                 assertEquals(4999950000L, evaluator.evaluate(LispParser.parse("(sum-to 100000 0)")), engine.name());
+                 assertEquals(4999950000L, results.get(1), engine.name());
+                 assertEquals(10L, results.get(3), engine.name());
+                 assertEquals(new java.math.BigInteger("15511210043330985984000000"), results.get(5), engine.name());
+                 assertEquals(9L, results.get(7), engine.name());
+                 assertEquals(0L, results.get(9), engine.name());
+                 assertEquals(45L, results.get(11), engine.name());
+                 assertEquals(8L, results.get(13), engine.name());
+                 assertEquals("(11 13 15 17)", results.get(14).toString(), engine.name());
+                 assertEquals(22L, results.get(15), engine.name());
+                 assertEquals(9L, results.get(16), engine.name());
+                 assertEquals(2L, results.get(17), engine.name());
+                 assertEquals(3L, results.get(18), engine.name());
+                 assertSame(Cons.NIL, results.get(19), engine.name());
+                 if (engine == Engine.JIT) {
+                     assertTrue(context.getFunction("sum-to").getJitState().isCompiled());
+                     assertTrue(context.getFunction("first-over").getJitState().isCompiled());
+                 }
+                 assertThrows(IllegalArgumentException.class, () -> evaluator.evaluate(LispParser.parse("(return 1)")));
+             }
+         } finally {
+             JIT.setThreshold(1000);
+         }
+     }
+  
+     @Test
+     public void testOptimizerFoldsConstantsAndInlinesSmallFunctions() {
+         Optimizer optimizer = new Optimizer(new Context());
+         assertEquals(15L, optimizer.optimize(LispParser.parse("(+ 1 2 (* 3 4))")));
+         assertEquals(true, optimizer.optimize(LispParser.parse("(< 3 5)")));
+         assertEquals("(bar 1)", Optimizer.print(optimizer.optimize(LispParser.parse("(if (> 1 2) (foo) (bar (- 3 2)))"))));
+         assertEquals("(+ 3 x y)", Optimizer.print(optimizer.optimize(LispParser.parse("(+ (+ 1 2 x) y)"))));
+         assertEquals("(+ x (+ 1 y) 2)", Optimizer.print(optimizer.optimize(LispParser.parse("(+ x (+ 1 y) 2)"))));
+         assertEquals("(/ 1 0)", Optimizer.print(optimizer.optimize(LispParser.parse("(/ 1 0)"))));
+         assertEquals("(DEFUN k () 6)", Optimizer.print(optimizer.optimize(LispParser.parse("(defun k () (* 2 3))"))));
+ 
+         String[] program = {
+             "(defun sq (x) (* x x))",
+             "(defun f (y) (+ (sq 3) (sq y)))",
+             "(f 2)",
+             "(defun fact (n) (if (= n 0) 1 (* n (fact (- n 1)))))",
+             "(defun g (x) (+ x total))",
+             "(defun h (total) (g total))",
+             "(defun sq (x) (+ x x))",
+             "(f 2)"
+         };
+         for (Engine engine : Engine.values()) {
+             Context context = new Context();
+             context.setEngine(engine);
+             Evaluator evaluator = new Evaluator(context);
+             evaluator.setOptimizing(true);
+             List<Object> results = new ArrayList<>();
+             for (String line : program) {
+                 results.add(evaluator.evaluate(LispParser.parse(line)));
+             }
+             assertEquals(13L, results.get(2), engine.name());
+             assertEquals(10L, results.get(7), engine.name());
+             assertEquals("(DEFUN f2 (y) (%INLINE sq (sq y) (+ y y)))",
+                     Optimizer.print(evaluator.optimize(LispParser.parse("(defun f2 (y) (sq y))"))), engine.name());
+             assertEquals("(DEFUN fact2 (n) (* n (fact (- n 1))))",
+                     Optimizer.print(evaluator.optimize(LispParser.parse("(defun fact2 (n) (* n (fact (- n 1))))"))), engine.name());
+             assertEquals("(DEFUN h2 (total) (g 1))",
+                     Optimizer.print(evaluator.optimize(LispParser.parse("(defun h2 (total) (g 1))"))), engine.name());
+         }
+     }
+ 
+     @Test
+     public void testOptimizerKeepsFloatingPointGrouping() {
+         String[] setup = {
+             "(setq x 1.0)",
+             "(setq y 10000000000000000.0)",
+             "(setq z -10000000000000000.0)",
+             "(setq w 0.1)"
+         };
+         String[] expressions = {
+             "(+ x (+ y z))",
+             "(+ (+ x 10000000000000000.0) -10000000000000000.0 1.0)",
+             "(+ x 1 (+ z 1) 10000000000000000)",
+             "(+ 0.0 9007199254740993 -9007199254740992)",
+             "(+ (- x 1.0) 9007199254740993 -9007199254740992)",
+             "(* 3 w 1/3)",
+             "(* w (* 3 1/3 w) 10)"
+         };
+         for (Engine engine : Engine.values()) {
+             Evaluator[] evaluators = new Evaluator[2];
+             for (int i = 0; i < 2; i++) {
+                 Context context = new Context();
+                 context.setEngine(engine);
+                 evaluators[i] = new Evaluator(context);
+                 evaluators[i].setOptimizing(i == 1);
+                 for (String line : setup) {
+                     evaluators[i].evaluate(LispParser.parse(line));
+                 }
+                 for (int j = 0; j < expressions.length; j++) {
+                     evaluators[i].evaluate(LispParser.parse("(defun e" + j + " (x y z w) " + expressions[j] + ")"));
+                 }
+             }
+             for (int j = 0; j < expressions.length; j++) {
+                 Object expected = evaluators[0].evaluate(LispParser.parse(expressions[j]));
+                 assertEquals(expected, evaluators[1].evaluate(LispParser.parse(expressions[j])), engine + " " + expressions[j]);
+                 String call = "(e" + j + " x y z w)";
+                 assertEquals(expected, evaluators[0].evaluate(LispParser.parse(call)), engine + " " + call);
+                 assertEquals(expected, evaluators[1].evaluate(LispParser.parse(call)), engine + " " + call);
+             }
+         }
+     }
+ 
+     @Test
+     public void testMemoizedFunctionsShareResultsAndEvictLeastRecentlyUsed() {
+         String[] program = {
+             "(defun-memo fib (n) (if (< n 2) n (+ (fib (- n 1)) (fib (- n 2)))))",
+             "(fib 80)",
+             "(memo-stats 'fib)",
+             "(defun-memo count-down (n acc) (if (= n 0) acc (count-down (- n 1) (+ acc 1))))",
+             "(count-down 50 0)",
+             "(defun sq (x) (* x x))",
+             "(memoize 'sq :size 2)",
+             "(+ (sq 1) (sq 2) (sq 1) (sq 3) (sq 2))",
+             "(memo-stats 'sq)",
+             "(unmemoize 'sq)",
+             "(sq 5)"
+         };
+         JIT.setThreshold(2);
+         try {
+             for (Engine engine : Engine.values()) {
+                 Context context = new Context();
+                 context.setEngine(engine);
+                 Evaluator evaluator = new Evaluator(context);
+                 List<Object> results = new ArrayList<>();
+                 for (String line : program) {
+                     results.add(evaluator.evaluate(LispParser.parse(line)));
+                 }
+                 assertEquals(23416728348467685L, results.get(1), engine.name());
+                 assertEquals(Cons.list(":HITS", 78L, ":MISSES", 81L, ":EVICTIONS", 0L, ":SIZE", 81L,
+                         ":LIMIT", (long) MemoCache.DEFAULT_LIMIT), results.get(2), engine.name());
+                 assertEquals(50L, results.get(4), engine.name());
+                 assertEquals(51L, context.getFunction("count-down").getMemo().getMisses(), engine.name());
+                 assertEquals(19L, results.get(7), engine.name());
+                 assertEquals(Cons.list(":HITS", 1L, ":MISSES", 4L, ":EVICTIONS", 2L, ":SIZE", 2L, ":LIMIT", 2L),
+                         results.get(8), engine.name());
+                 assertNull(context.getFunction("sq").getMemo(), engine.name());
+                 assertEquals(25L, results.get(10), engine.name());
+                 assertThrows(RuntimeException.class,
+                         () -> evaluator.evaluate(LispParser.parse("(memo-stats 'sq)")), engine.name());
+             }
+         } finally {
+             JIT.setThreshold(1000);
+         }
+     }
+ 
+     @Test
+     public void testSessionsShareFunctionsAcrossThreads() throws Exception {
+         int threads = 8;
+         JIT.setThreshold(5);
+         ExecutorService pool = Executors.newFixedThreadPool(threads + 1);
+         try {
+             for (Engine engine : Engine.values()) {
+                 Context shared = new Context();
+                 shared.setEngine(engine);
+                 Evaluator setup = new Evaluator(shared);
+                 setup.evaluate(LispParser.parse("(defun inc (n) (+ n 1))"));
+                 setup.evaluate(LispParser.parse("(defun fib (n) (if (< n 2) n (+ (fib (- n 1)) (fib (- n 2)))))"));
+                 setup.evaluate(LispParser.parse("(defun score (n) (+ (inc (fib n)) base))"));
+
+                 // Un hilo redefine inc con el mismo significado mientras los demás la llaman
+                 AtomicBoolean running = new AtomicBoolean(true);
+                 Future<?> writer = pool.submit(() -> {
+                     Evaluator evaluator = new Evaluator(shared.newSession());
+                     for (int i = 0; running.get(); i++) {
+                         evaluator.evaluate(LispParser.parse(i % 2 == 0 ? "(defun inc (n) (+ 1 n))" : "(defun inc (n) (+ n 1))"));
+                     }
+                     return null;
+                 });
+                 List<Future<?>> readers = new ArrayList<>();
+                 for (int t = 0; t < threads; t++) {
+                     long id = t;
+                     readers.add(pool.submit(() -> {
+                         Context session = shared.newSession();
+                         Evaluator evaluator = new Evaluator(session);
+                         evaluator.evaluate(LispParser.parse("(setq base " + id * 1000 + ")"));
+                         evaluator.evaluate(LispParser.parse("(defun own" + id + " (x) (* x " + id + "))"));
+                         for (int i = 0; i < 200; i++) {
+                             assertEquals(611L + id * 1000, evaluator.evaluate(LispParser.parse("(score 15)")), engine.name());
+                             assertEquals(2 * id, evaluator.evaluate(LispParser.parse("(own" + id + " 2)")), engine.name());
+                         }
+                         return null;
+                     }));
+                 }
+                 for (Future<?> reader : readers) {
+                     reader.get();
+                 }
+                 running.set(false);
+                 writer.get();
+                 assertNull(shared.getVariable("base"), engine.name());
+                 for (int t = 0; t < threads; t++) {
+                     assertNotNull(shared.getFunction("own" + t), engine.name());
+                 }
+             }
+         } finally {
+             pool.shutdownNow();
+             JIT.setThreshold(1000);
+         }
+     }
+ 
+     private static String ask(BufferedReader in, PrintWriter out, String line) throws Exception {
+         out.println(line);
+         return in.readLine().replace("LISP> ", "");
+     }
+
+     @Test
+     public void testServerRunsOneSessionPerConnection() throws Exception {
+         Server server = new Server(new Context(), new InetSocketAddress("127.0.0.1", 0), 2);
+         server.start();
+         int port = ((InetSocketAddress) server.getAddress()).getPort();
+         try (Socket a = new Socket("127.0.0.1", port); Socket b = new Socket("127.0.0.1", port);
+              Socket c = new Socket("127.0.0.1", port)) {
+             BufferedReader inA = new BufferedReader(new InputStreamReader(a.getInputStream(), StandardCharsets.UTF_8));
+             PrintWriter outA = new PrintWriter(a.getOutputStream(), true, StandardCharsets.UTF_8);
+             BufferedReader inB = new BufferedReader(new InputStreamReader(b.getInputStream(), StandardCharsets.UTF_8));
+             PrintWriter outB = new PrintWriter(b.getOutputStream(), true, StandardCharsets.UTF_8);
+
+             assertEquals("=> Función sq definida.", ask(inA, outA, "(defun sq (x) (* x x))"));
+             assertEquals("=> 5", ask(inA, outA, "(setq y 5)"));
+             // Las funciones se comparten entre conexiones; las variables no
+             assertEquals("=> 16", ask(inB, outB, "(sq 4)"));
+             // print escribe en el socket de la sesión, antes del resultado
+             assertEquals("hola", ask(inB, outB, "(print 'hola)"));
+             assertEquals("=> hola", inB.readLine());
+             assertEquals("=> 7", ask(inB, outB, "(setq y 7)"));
+             assertEquals("=> 25", ask(inA, outA, "(sq y)"));
+             // Un desbordamiento de pila es un error de la forma, no de la conexión
+             ask(inA, outA, "(defun deep (n) (if (= n 0) 0 (+ 1 (deep (- n 1)))))");
+             assertTrue(ask(inA, outA, "(deep 10000000)").startsWith("Error: desbordamiento de pila"));
+             assertEquals("=> 25", ask(inA, outA, "(sq y)"));
+             assertEquals(2, server.getActiveSessions());
+
+             BufferedReader inC = new BufferedReader(new InputStreamReader(c.getInputStream(), StandardCharsets.UTF_8));
+             assertTrue(inC.readLine().startsWith("Error"));
+             assertNull(inC.readLine());
+
+             outB.println("exit");
+             assertEquals("LISP> ", inB.readLine());
+             assertNull(inB.readLine());
+             // La sesión de A sigue abierta: el cierre la desconecta al vencer el plazo
+             assertFalse(server.shutdown(200, TimeUnit.MILLISECONDS));
+             assertEquals("LISP> ", inA.readLine());
+             assertNull(inA.readLine());
+             assertEquals(0, server.getActiveSessions());
+         } finally {
+             server.shutdown(0, TimeUnit.MILLISECONDS);
+         }
+     }
+ 
+     @Test
+     public void testLoadStreamsFormsFromMappedFiles(@TempDir Path dir) throws Exception {
+         Path program = dir.resolve("programa.lisp");
+         Files.writeString(program, String.join("\n",
+                 "; Cálculo de la suma de cuadrados, en varias líneas",
+                 "(defun sq (x)",
+                 "  (* x x))",
+                 "(setq total 0)",
+                 "(dotimes (i 10)",
+                 "  (setq total (+ total (sq i))))"), StandardCharsets.UTF_8);
+         for (Engine engine : Engine.values()) {
+             Context context = new Context();
+             context.setEngine(engine);
+             assertEquals(3L, new Evaluator(context).load(program), engine.name());
+             assertEquals(285L, context.getVariable("total"), engine.name());
+         }
+
+         Path main = dir.resolve("main.lisp");
+         Files.writeString(main, "(load \"" + program + "\")\n(setq doble (* 2 total))\n");
+         Context context = new Context();
+         context.setEngine(Engine.VM);
+         Evaluator evaluator = new Evaluator(context);
+         assertEquals(true, evaluator.evaluate(LispParser.parse("(load \"" + main + "\")")));
+         assertEquals(570L, context.getVariable("doble"));
+
+         Path broken = dir.resolve("roto.lisp");
+         Files.writeString(broken, "(setq a 1)\n\n(car 1 2)\n(setq b 2)\n");
+         RuntimeException error = assertThrows(RuntimeException.class, () -> evaluator.load(broken));
+         assertTrue(error.getMessage().startsWith(broken + ":3:"), error.getMessage());
+         assertNull(context.getVariable("b"));
+
+         // Las ventanas de 5 bytes parten los caracteres de dos bytes
+         try (Reader reader = new MappedReader(program, 5)) {
+             StringBuilder text = new StringBuilder();
+             char[] buffer = new char[3];
+             for (int n = reader.read(buffer, 0, 3); n != -1; n = reader.read(buffer, 0, 3)) {
+                 text.append(buffer, 0, n);
+             }
+             assertEquals(Files.readString(program), text.toString());
+         }
+         assertTrue(REPL.incomplete("(defun f (x)"));
+         assertFalse(REPL.incomplete("(defun f (x) x)"));
+     }
+ 
+     @Test
+     public void testImagesRestoreFunctionsAndGlobalsLazily(@TempDir Path dir) throws Exception {
+         Path image = dir.resolve("prelude.img");
+         Context source = new Context();
+         Evaluator evaluator = new Evaluator(source);
+         evaluator.setOptimizing(true);
+         for (String line : new String[] {
+             "(defun sq (x) (* x x))",
+             "(defun sum-sq (n) (loop for i from 1 to n sum (sq i)))",
+             "(defun-memo fib (n) (if (< n 2) n (+ (fib (- n 1)) (fib (- n 2)))))",
+             "(setq big 100000000000000000000)",
+             "(setq half (/ 1 2))",
+             "(setq items (list 1 'a 2.5 (list -7)))",
+             "(setq v (make-array 3 :element-type 'fixnum :initial-element 7))",
+             "(setq h (make-hash-table :test 'equal))",
+             "(setf (gethash (list 1 2) h) 'pair)",
+             "(save-image \"" + image + "\")"
+         }) {
+             evaluator.evaluate(LispParser.parse(line));
+         }
+
+         for (Engine engine : Engine.values()) {
+             Context context = new Context();
+             context.setEngine(engine);
+             assertEquals(3, Image.load(context, image), engine.name());
+             assertFalse(context.getFunction("fib").isDecoded(), engine.name());
+             Evaluator loaded = new Evaluator(context);
+             assertEquals(1548008755920L, loaded.evaluate(LispParser.parse("(fib 60)")), engine.name());
+             assertTrue(context.getFunction("fib").isDecoded(), engine.name());
+             assertEquals(61L, context.getFunction("fib").getMemo().getMisses(), engine.name());
+             assertEquals(385L, loaded.evaluate(LispParser.parse("(sum-sq 10)")), engine.name());
+             assertEquals(new java.math.BigInteger("100000000000000000000"), context.getVariable("big"), engine.name());
+             assertEquals(Ratio.valueOf(1, 2), context.getVariable("half"), engine.name());
+             assertEquals(source.getVariable("items"), context.getVariable("items"), engine.name());
+             assertEquals(14L, loaded.evaluate(LispParser.parse("(+ (aref v 0) (aref v 2))")), engine.name());
+             assertEquals("pair", loaded.evaluate(LispParser.parse("(gethash (list 1 2) h)")), engine.name());
+         }
+
+         evaluator.evaluate(LispParser.parse("(setq w (vector 1))"));
+         evaluator.evaluate(LispParser.parse("(setf (aref w 0) w)"));
+         assertThrows(IllegalArgumentException.class, () -> Image.save(source, dir.resolve("circular.img")));
+         Path garbage = dir.resolve("garbage.img");
+         Files.writeString(garbage, "(defun f () 1)");
+         assertThrows(IllegalArgumentException.class, () -> Image.load(new Context(), garbage));
+     }
  
-         parser.parse("( SETQ x 5 )");
-         assertEquals("5", context.getVariable("x"));
+     @Test
+     public void testFormCacheReusesFormsUntilFunctionsChange() {
+         for (Engine engine : Engine.values()) {
+             FormCache cache = new FormCache();
+             Context context = new Context();
+             context.setEngine(engine);
+             Evaluator evaluator = new Evaluator(context);
+             evaluator.setOptimizing(true);
+             FormCache.Entry define = cache.read("(defun sq (x) (* x x))");
+             evaluator.execute(cache.compile(define, 0, evaluator));
+
+             FormCache.Entry call = cache.read("(sq 5) (sq 6)");
+             assertSame(call, cache.read("(sq 5) (sq 6)"), engine.name());
+             Node node = cache.compile(call, 0, evaluator);
+             assertSame(node, cache.compile(call, 0, evaluator), engine.name());
+             Object optimized = cache.optimized(call, 0);
+             assertEquals("(%INLINE sq (sq 5) 25)", Optimizer.print(optimized), engine.name());
+             assertSame(optimized, cache.optimized(call, 0), engine.name());
+             assertEquals(25L, evaluator.execute(node), engine.name());
+             assertEquals(1, cache.getHits(), engine.name());
+             assertEquals(2, cache.getMisses(), engine.name());
+
+             // La llamada integrada por el optimizador debe compilarse de nuevo tras la redefinición
+             evaluator.execute(cache.compile(cache.read("(defun sq (x) (+ x x))"), 0, evaluator));
+             assertEquals(10L, evaluator.execute(cache.compile(call, 0, evaluator)), engine.name());
+             assertEquals(12L, evaluator.execute(cache.compile(call, 1, evaluator)), engine.name());
+             assertEquals(1, cache.getRecompilations(), engine.name());
+
+             Evaluator session = new Evaluator(context.newSession());
+             assertEquals(10L, session.execute(cache.compile(cache.read("(sq 5) (sq 6)"), 0, session)), engine.name());
+         }
+
+         // Con :optimize print el REPL muestra la forma guardada en la caché en lugar de optimizarla otra vez
+         FormCache shared = new FormCache();
+         ByteArrayOutputStream output = new ByteArrayOutputStream();
+         String input = ":optimize print\n(+ 1 2 (* 3 4))\n(+ 1 2 (* 3 4))\n(+ 1\n";
+         new REPL(new Context(), shared).iniciar(new ByteArrayInputStream(input.getBytes(StandardCharsets.UTF_8)),
+                 new PrintStream(output, true, StandardCharsets.UTF_8));
+         String transcript = output.toString(StandardCharsets.UTF_8);
+         assertEquals(2, transcript.split("   15\n", -1).length - 1, transcript);
+         assertEquals(2, transcript.split("=> 15\n", -1).length - 1, transcript);
+         assertTrue(transcript.contains("Error: "), transcript);
+         assertEquals(1, shared.getHits());
+
+         FormCache small = new FormCache(4096);
+         for (int i = 0; i < 200; i++) {
+             small.read("(+ " + i + " 1)");
+             assertTrue(small.getBytes() <= small.getLimit());
+         }
+         assertTrue(small.getEvictions() > 0);
+         assertTrue(small.size() < 200);
+         assertEquals(0.0, small.getHitRate());
+         small.read("(+ 199 1)");
+         assertEquals(1, small.getHits());
+
+         int entries = small.size();
+         assertThrows(LispReader.SyntaxException.class, () -> small.read("(+ 1 2))"));
+         assertEquals(entries, small.size());
+         small.clear();
+         assertEquals(0, small.getBytes());
+     }
+ 
+     @Test
+     public void testMacrosExpandOnceAndFollowRedefinitions() {
+         for (Engine engine : Engine.values()) {
+             Context context = new Context();
+             context.setEngine(engine);
+             Evaluator evaluator = new Evaluator(context);
+             evaluator.setOptimizing(true);
+             evaluator.evaluate(LispParser.parse("(defmacro square (x) `(* ,x ,x))"));
+             evaluator.evaluate(LispParser.parse("(defmacro sum-all (&rest xs) `(+ ,@xs))"));
+             evaluator.evaluate(LispParser.parse("(defun f (n) (sum-all 1 (square (+ n 1))))"));
+             for (int i = 0; i < 100; i++) {
+                 assertEquals(26L, evaluator.evaluate(LispParser.parse("(f 4)")), engine.name());
+             }
+             Macro square = context.getFunctionTable().getMacro("square");
+             assertEquals(1, square.getExpansions(), engine.name());
+
+             Object call = LispParser.parse("(square 7)");
+             assertEquals(49L, evaluator.execute(evaluator.compile(call)), engine.name());
+             assertEquals(49L, evaluator.execute(evaluator.compile(call)), engine.name());
+             assertEquals(2, square.getExpansions(), engine.name());
+
+             evaluator.evaluate(LispParser.parse("(setq y 3)"));
+             assertEquals(Cons.list("a", 3L, 1L, 2L, "b"),
+                     evaluator.evaluate(LispParser.parse("`(a ,y ,@(list 1 2) b)")), engine.name());
+             assertEquals(Cons.list("+", 3L, 3L),
+                     evaluator.evaluate(LispParser.parse("(macroexpand '(sum-all 3 3))")), engine.name());
+
+             // Redefinir la macro vuelve a definir f y a expandir la llamada guardada
+             evaluator.evaluate(LispParser.parse("(defmacro square (x) `(+ ,x ,x))"));
+             assertEquals(11L, evaluator.evaluate(LispParser.parse("(f 4)")), engine.name());
+             assertEquals(14L, evaluator.execute(evaluator.compile(call)), engine.name());
+         }
+
+         Evaluator evaluator = new Evaluator(new Context());
+         assertThrows(IllegalArgumentException.class, () -> evaluator.evaluate(LispParser.parse("(defmacro if (x) x)")));
+         assertThrows(IllegalArgumentException.class, () -> evaluator.evaluate(LispParser.parse("(list ,x)")));
+         evaluator.evaluate(LispParser.parse("(defmacro two (a b) a)"));
+         assertThrows(IllegalArgumentException.class, () -> evaluator.evaluate(LispParser.parse("(two 1)")));
+     }
+ 
+     @Test
+     public void testProfilerCountsCallsOnlyInsideProfile() throws Exception {
+         for (Engine engine : Engine.values()) {
+             Context context = new Context();
+             context.setEngine(engine);
+             Evaluator evaluator = new Evaluator(context);
+             evaluator.evaluate(LispParser.parse("(defun fib (n) (if (< n 2) n (+ (fib (- n 1)) (fib (- n 2)))))"));
+             evaluator.evaluate(LispParser.parse("(defun run (n) (list (fib n)))"));
+             evaluator.evaluate(LispParser.parse("(defun count-down (n) (if (= n 0) 0 (count-down (- n 1))))"));
+
+             Profiler.reset();
+             assertEquals(Cons.list(610L), evaluator.evaluate(LispParser.parse("(profile (count-down 100) (run 15))")),
+                     engine.name());
+             assertFalse(Profiler.isEnabled(), engine.name());
+             Profiler.Entry fib = null;
+             Profiler.Entry run = null;
+             Profiler.Entry countDown = null;
+             for (Profiler.Entry entry : Profiler.functions()) {
+                 switch (entry.getName()) {
+                     case "fib": fib = entry; break;
+                     case "run": run = entry; break;
+                     case "count-down": countDown = entry; break;
+                 }
+             }
+             assertEquals(1973, fib.getCalls(), engine.name());
+             assertEquals(1, run.getCalls(), engine.name());
+             assertEquals(101, countDown.getCalls(), engine.name());
+             assertTrue(run.getInclusiveNanos() >= fib.getInclusiveNanos(), engine.name());
+             assertTrue(fib.getExclusiveNanos() <= fib.getInclusiveNanos(), engine.name());
+             assertEquals(1L, Profiler.primitives().get("LIST"), engine.name());
+             assertTrue(Profiler.report().contains("count-down"), engine.name());
+
+             evaluator.evaluate(LispParser.parse("(run 10)"));
+             assertEquals(1973, fib.getCalls(), engine.name());
+             Cons report = (Cons) evaluator.evaluate(LispParser.parse("(profile-report)"));
+             assertEquals(3, Cons.length(report), engine.name());
+
+             // (profile ...) no borra los datos ni apaga el perfilador que encendió otra sesión
+             Profiler.setEnabled(true);
+             evaluator.evaluate(LispParser.parse("(profile (run 15))"));
+             assertTrue(Profiler.isEnabled(), engine.name());
+             evaluator.evaluate(LispParser.parse("(run 15)"));
+             assertEquals(3 * 1973, fib.getCalls(), engine.name());
+             Profiler.setEnabled(false);
+         }
+
+         assertThrows(IllegalArgumentException.class,
+                 () -> new Evaluator(new Context()).evaluate(LispParser.parse("(defun g () (profile 1))")));
+         assertTrue(Profiler.registerMBean());
+         ObjectName name = new ObjectName(ProfilerMXBean.OBJECT_NAME);
+         assertEquals(Boolean.FALSE, ManagementFactory.getPlatformMBeanServer().getAttribute(name, "Enabled"));
+         assertTrue(((String) ManagementFactory.getPlatformMBeanServer().getAttribute(name, "Report")).contains("fib"));
+         assertNotNull(ManagementFactory.getPlatformMBeanServer().getAttribute(name, "FunctionCalls"));
      }
- }
\ No newline at end of file
+ }